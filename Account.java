@@ -0,0 +1,88 @@
+// One simulated trading account: cash plus primitive-keyed holdings
+// (market symbol id -> shares). Every operation locks only this account, so
+// trades on different accounts never contend.
+public class Account {
+    private final int id;
+    private long cashCents;
+    private final IntLongMap holdings = new IntLongMap();
+
+    public Account(int id, long startingCashCents) {
+        this.id = id;
+        this.cashCents = startingCashCents;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // Validates cash and applies the purchase as one step; returns false if it
+    // cannot be afforded or the quantity or price is not positive
+    public synchronized boolean buy(int symbolId, long shares, long priceCents) {
+        // Compared by division first, so a cost too large for a long is simply unaffordable
+        if (shares <= 0 || priceCents <= 0 || shares > cashCents / priceCents) {
+            return false;
+        }
+        cashCents -= Money.times(priceCents, shares);
+        holdings.add(symbolId, shares);
+        return true;
+    }
+
+    // Validates the position and applies the sale as one step; returns false if
+    // short or the quantity or price is not positive. Proceeds too large for a
+    // long throw before anything changes.
+    public synchronized boolean sell(int symbolId, long shares, long priceCents) {
+        if (shares <= 0 || priceCents <= 0 || holdings.get(symbolId) < shares) {
+            return false;
+        }
+        long cash = Math.addExact(cashCents, Money.times(priceCents, shares));
+        holdings.add(symbolId, -shares);
+        cashCents = cash;
+        return true;
+    }
+
+    public synchronized long getCashCents() {
+        return cashCents;
+    }
+
+    public synchronized long getShares(int symbolId) {
+        return holdings.get(symbolId);
+    }
+
+    public synchronized int getPositionCount() {
+        return holdings.size();
+    }
+
+    // Cash and positions read under one lock, for checkpoints; returns the cash
+    synchronized long capture(IntLongMap.EntryVisitor positions) {
+        holdings.forEach(positions);
+        return cashCents;
+    }
+
+    // Replaces cash and positions with symbolIds[from..from+count) / shares[from..from+count)
+    synchronized void restore(long cashCents, int[] symbolIds, long[] shares, int from, int count) {
+        this.cashCents = cashCents;
+        holdings.clear();
+        for (int i = from; i < from + count; i++) {
+            holdings.put(symbolIds[i], shares[i]);
+        }
+    }
+
+    // Adds this account's shares into netShares (indexed by symbol id)
+    synchronized void addExposure(long[] netShares) {
+        holdings.forEach((symbolId, shares) -> {
+            if (symbolId < netShares.length) {
+                netShares[symbolId] += shares;
+            }
+        });
+    }
+
+    synchronized long marketValueCents(MarketSnapshot snapshot) {
+        long[] value = {0L};
+        holdings.forEach((symbolId, shares) -> {
+            if (symbolId < snapshot.size()) {
+                value[0] += Money.times(snapshot.getPriceCents(symbolId), shares);
+            }
+        });
+        return value[0];
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Holds many simulated accounts trading against one StockMarket. Accounts are
+// spread across shards (account id modulo shard count). Trades lock a single
+// account, and aggregate queries run one task per shard in parallel, so both
+// scale with the number of cores instead of serialising on a global lock.
+public class AccountEngine {
+    private final StockMarket market;
+    private final Account[][] shards;
+    private final int accountCount;
+    private final ForkJoinPool pool;
+    private final LongAdder rejectedFills = new LongAdder();
+
+    public AccountEngine(StockMarket market, int accounts, double startingCash) {
+        this(market, accounts, startingCash, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AccountEngine(StockMarket market, int accounts, double startingCash, int shardCount) {
+        if (accounts < 0 || shardCount < 1) {
+            throw new IllegalArgumentException("Invalid account engine size: " + accounts + " accounts, " + shardCount + " shards");
+        }
+        this.market = market;
+        this.accountCount = accounts;
+        this.shards = new Account[shardCount][];
+        long startingCashCents = Money.ofDollars(startingCash);
+        for (int shard = 0; shard < shardCount; shard++) {
+            int size = accounts / shardCount + (shard < accounts % shardCount ? 1 : 0);
+            shards[shard] = new Account[size];
+            for (int slot = 0; slot < size; slot++) {
+                int id = slot * shardCount + shard;
+                shards[shard][slot] = new Account(id, startingCashCents);
+            }
+        }
+        this.pool = new ForkJoinPool(shardCount);
+    }
+
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public Account getAccount(int accountId) {
+        return shards[accountId % shards.length][accountId / shards.length];
+    }
+
+    public boolean buy(int accountId, String symbol, long shares, double price) {
+        int symbolId = symbolId(symbol);
+        return getAccount(accountId).buy(symbolId, shares, Money.ofDollars(price));
+    }
+
+    public boolean sell(int accountId, String symbol, long shares, double price) {
+        int symbolId = symbolId(symbol);
+        return getAccount(accountId).sell(symbolId, shares, Money.ofDollars(price));
+    }
+
+    private int symbolId(String symbol) {
+        int symbolId = market.getPriceStore().idOf(symbol);
+        if (symbolId < 0) {
+            throw new IllegalArgumentException("Unknown symbol: " + symbol);
+        }
+        return symbolId;
+    }
+
+    // Settles matching-engine fills into an account. Orders should be checked
+    // with the account before they are submitted; a fill that can no longer be
+    // settled (e.g. the cash was spent meanwhile) is dropped and counted.
+    public MatchingEngine.OrderListener settlementListener(int accountId) {
+        Account account = getAccount(accountId);
+        return (order, shares, priceCents) -> {
+            boolean settled = order.getSide() == Order.Side.BUY
+                ? account.buy(order.getSymbolId(), shares, priceCents)
+                : account.sell(order.getSymbolId(), shares, priceCents);
+            if (!settled) {
+                rejectedFills.increment();
+            }
+        };
+    }
+
+    public long getRejectedFills() {
+        return rejectedFills.sum();
+    }
+
+    // Net shares held across all accounts, indexed by market symbol id
+    public long[] netExposure() {
+        int symbols = market.getPriceStore().size();
+        List<Callable<long[]>> tasks = new ArrayList<>(shards.length);
+        for (Account[] shard : shards) {
+            tasks.add(() -> {
+                long[] net = new long[symbols];
+                for (Account account : shard) {
+                    account.addExposure(net);
+                }
+                return net;
+            });
+        }
+        long[] total = new long[symbols];
+        for (long[] partial : invokeAll(tasks)) {
+            for (int i = 0; i < symbols; i++) {
+                total[i] += partial[i];
+            }
+        }
+        return total;
+    }
+
+    public double totalCash() {
+        return Money.toDollars(totalCashCents());
+    }
+
+    public long totalCashCents() {
+        List<Callable<Long>> tasks = new ArrayList<>(shards.length);
+        for (Account[] shard : shards) {
+            tasks.add(() -> {
+                long cents = 0;
+                for (Account account : shard) {
+                    cents += account.getCashCents();
+                }
+                return cents;
+            });
+        }
+        long total = 0L;
+        for (long partial : invokeAll(tasks)) {
+            total += partial;
+        }
+        return total;
+    }
+
+    // Market value of every position in every account, priced from one snapshot
+    public double totalMarketValue(MarketSnapshot snapshot) {
+        return Money.toDollars(totalMarketValueCents(snapshot));
+    }
+
+    public long totalMarketValueCents(MarketSnapshot snapshot) {
+        List<Callable<Long>> tasks = new ArrayList<>(shards.length);
+        for (Account[] shard : shards) {
+            tasks.add(() -> {
+                long value = 0L;
+                for (Account account : shard) {
+                    value += account.marketValueCents(snapshot);
+                }
+                return value;
+            });
+        }
+        long total = 0L;
+        for (long partial : invokeAll(tasks)) {
+            total += partial;
+        }
+        return total;
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while aggregating accounts", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Account aggregation failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
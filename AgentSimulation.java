@@ -0,0 +1,543 @@
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+// Headless load test: runs thousands to millions of TraderAgents against a live
+// StockMarket, MatchingEngine and AccountEngine and reports throughput,
+// per-agent fairness and the contention found on the way.
+//
+// Agents are written as plain blocking code: wait for a newer snapshot, act,
+// wait for the matching engine to acknowledge the order. How they are run:
+//   virtual   one virtual thread per agent (Java 21+, looked up reflectively)
+//   platform  one platform thread per agent; only sensible for small runs
+//   pooled    a worker per core steps its share of the agents and never blocks
+//             on an order; the default where virtual threads are unavailable
+// All waiting uses LockSupport rather than synchronized/wait, which would pin
+// a virtual thread to its carrier. A new snapshot does not wake every agent
+// from the market thread: it unparks one batch of waiting threads, and each
+// thread it wakes unparks the next batch before acting, so the wakeups fan out
+// across the agents' own threads and no lock is handed from one to the next.
+// JFR records carrier pinning and contended monitors during the run.
+//
+//   java -cp bin AgentSimulation [--agents n] [--seconds s] [--symbols n] [--tick-rate r]
+//                                [--threads virtual|platform|pooled] [--seed n]
+public class AgentSimulation implements StockMarket.MarketObserver {
+    public enum ThreadMode { VIRTUAL, PLATFORM, POOLED }
+
+    private static final String[] KINDS = {"random", "momentum", "meanrev", "maker"};
+    private static final double STARTING_CASH = 100_000.0;
+    // Reaction latency is recorded for one agent in 16 to keep the histogram off the hot path
+    private static final int LATENCY_SAMPLE_MASK = 15;
+    // Threads one waker unparks; the wake-up of n threads takes about log_16(n) hops
+    private static final int WAKE_BATCH = 16;
+    // Agents that saw fewer than this share of the ticks count as starved
+    private static final double STARVED_FRACTION = 0.5;
+    private static final Duration MONITOR_THRESHOLD = Duration.ofMillis(1);
+    private static final int REPORTED_SITES = 5;
+
+    private final StockMarket market;
+    private final MatchingEngine engine;
+    private final AccountEngine accounts;
+    private final TraderAgent[] agents;
+    private final MatchingEngine.OrderListener[] settlement;
+    private final Submission[] inFlight; // Latest submission per agent, written by the agent's thread
+    private final ThreadMode mode;
+    private final int workers;
+    private Thread[] threads = new Thread[0];
+    private volatile boolean running;
+
+    // Latest snapshot. A thread waiting for a newer epoch parks with itself in
+    // its slot of waiting (slots match threads); wakers claim slots in batches
+    // through wakeCursor, which every publish resets
+    private volatile Published latest;
+    private AtomicReferenceArray<Thread> waiting = new AtomicReferenceArray<>(0);
+    private final AtomicInteger wakeCursor = new AtomicInteger();
+    private long firstEpoch;
+    private long lastEpoch;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder fills = new LongAdder();
+    private final LongAdder wakeups = new LongAdder();
+    private final LatencyHistogram reaction = new LatencyHistogram("agent.reaction.nanos");
+    private final LatencyHistogram roundTrip = new LatencyHistogram("agent.order.nanos");
+
+    private Recording recording;
+    private final Map<String, long[]> pinnedSites = new HashMap<>();
+    private final Map<String, long[]> monitorSites = new HashMap<>();
+    private String recordingError;
+
+    private static final class Published {
+        final MarketSnapshot snapshot;
+        final long nanos;
+
+        Published(MarketSnapshot snapshot, long nanos) {
+            this.snapshot = snapshot;
+            this.nanos = nanos;
+        }
+    }
+
+    // One submitted order. It completes on the first onProcessed, which is for
+    // its own order: a later callback for the same order (a cancelled quote) is ignored.
+    private final class Submission implements MatchingEngine.OrderListener {
+        private final MatchingEngine.OrderListener settlement;
+        private final Thread waiter;
+        private final long submitNanos = System.nanoTime();
+        private volatile boolean processed;
+
+        Submission(MatchingEngine.OrderListener settlement, Thread waiter) {
+            this.settlement = settlement;
+            this.waiter = waiter;
+        }
+
+        @Override
+        public void onFill(Order order, long shares, long priceCents) {
+            fills.increment();
+            settlement.onFill(order, shares, priceCents);
+        }
+
+        @Override
+        public void onProcessed(Order order) {
+            if (!processed) {
+                roundTrip.recordSince(submitNanos);
+                processed = true;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+    }
+
+    public AgentSimulation(StockMarket market, int agentCount, ThreadMode mode, long seed) {
+        if (agentCount < 1) {
+            throw new IllegalArgumentException("Need at least one agent: " + agentCount);
+        }
+        if (mode == ThreadMode.VIRTUAL && virtualThreadFactory() == null) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later; use pooled or platform threads");
+        }
+        this.market = market;
+        this.mode = mode;
+        this.workers = Runtime.getRuntime().availableProcessors();
+        this.engine = new MatchingEngine(market);
+        this.accounts = new AccountEngine(market, agentCount, STARTING_CASH);
+        this.agents = new TraderAgent[agentCount];
+        this.settlement = new MatchingEngine.OrderListener[agentCount];
+        this.inFlight = new Submission[agentCount];
+        SplitMix64 random = new SplitMix64(seed);
+        for (int id = 0; id < agentCount; id++) {
+            agents[id] = TraderAgent.create(KINDS[id % KINDS.length], id, accounts.getAccount(id), random.split());
+            agents[id].attach(this);
+            settlement[id] = accounts.settlementListener(id);
+        }
+    }
+
+    // Virtual threads where the runtime has them, otherwise the pooled runner
+    public static ThreadMode defaultMode() {
+        return virtualThreadFactory() != null ? ThreadMode.VIRTUAL : ThreadMode.POOLED;
+    }
+
+    // Thread.ofVirtual().name("agent-", 0).factory(), or null before Java 21
+    // (or on 19/20 without --enable-preview)
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, "agent-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        startRecording();
+        engine.start();
+        threads = mode == ThreadMode.POOLED ? new Thread[workers] : new Thread[agents.length];
+        waiting = new AtomicReferenceArray<>(threads.length);
+        market.addObserver(this);
+        onMarketUpdate(market.getSnapshot());
+        firstEpoch = latest.snapshot.getEpoch();
+        ThreadFactory factory = mode == ThreadMode.VIRTUAL ? virtualThreadFactory() : null;
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            Thread thread;
+            if (mode == ThreadMode.POOLED) {
+                thread = new Thread(() -> runWorker(index), "agent-worker-" + i);
+            } else if (factory != null) {
+                thread = factory.newThread(() -> runAgent(agents[index]));
+            } else {
+                thread = new Thread(null, () -> runAgent(agents[index]), "agent-" + i, 256 * 1024);
+            }
+            thread.setDaemon(true);
+            threads[i] = thread;
+            thread.start();
+        }
+        market.startMarketSimulation();
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        market.stopMarketSimulation();
+        market.removeObserver(this);
+        lastEpoch = latest.snapshot.getEpoch();
+        running = false;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        engine.stop();
+        accounts.shutdown();
+        stopRecording();
+    }
+
+    @Override
+    public void onMarketUpdate(MarketSnapshot snapshot) {
+        latest = new Published(snapshot, System.nanoTime());
+        wakeCursor.set(0);
+        wakeNext();
+    }
+
+    // Claims batches of slots until one of them held a waiting thread (or none
+    // are left) and unparks the waiters in it. A thread that is busy when its
+    // slot is claimed re-reads latest before it parks, so it cannot miss the epoch
+    private void wakeNext() {
+        int slots = waiting.length();
+        int from;
+        while ((from = wakeCursor.getAndAdd(WAKE_BATCH)) < slots) {
+            int woken = 0;
+            for (int slot = from; slot < Math.min(slots, from + WAKE_BATCH); slot++) {
+                Thread thread = waiting.getAndSet(slot, null);
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                    woken++;
+                }
+            }
+            if (woken > 0) {
+                wakeups.add(woken);
+                return;
+            }
+        }
+    }
+
+    // Blocks until a snapshot newer than seenEpoch is published, then passes
+    // the wake-up on; null once stopped
+    private Published awaitSnapshot(int slot, long seenEpoch) {
+        Published current = latest;
+        if (current.snapshot.getEpoch() <= seenEpoch) {
+            Thread self = Thread.currentThread();
+            while (running && (current = latest).snapshot.getEpoch() <= seenEpoch) {
+                waiting.set(slot, self);
+                if (running && latest.snapshot.getEpoch() <= seenEpoch) {
+                    LockSupport.park(this);
+                }
+                waiting.set(slot, null);
+            }
+            wakeNext();
+        }
+        return running ? current : null;
+    }
+
+    // Thread per agent: act, then block until the matching engine has processed the order
+    private void runAgent(TraderAgent agent) {
+        Published published;
+        while ((published = awaitSnapshot(agent.id, agent.lastEpoch)) != null) {
+            turn(agent, published);
+            Submission submission = inFlight[agent.id];
+            while (submission != null && !submission.processed && running) {
+                LockSupport.park(submission);
+            }
+        }
+    }
+
+    // Pooled: each worker steps every workers-th agent once per snapshot,
+    // skipping agents whose previous order is still being processed
+    private void runWorker(int worker) {
+        long seenEpoch = 0;
+        Published published;
+        while ((published = awaitSnapshot(worker, seenEpoch)) != null) {
+            seenEpoch = published.snapshot.getEpoch();
+            for (int id = worker; id < agents.length && running; id += workers) {
+                Submission submission = inFlight[id];
+                if (submission == null || submission.processed) {
+                    turn(agents[id], published);
+                }
+            }
+        }
+    }
+
+    private void turn(TraderAgent agent, Published published) {
+        if ((agent.id & LATENCY_SAMPLE_MASK) == 0) {
+            reaction.recordSince(published.nanos);
+        }
+        agent.lastEpoch = published.snapshot.getEpoch();
+        agent.turns++;
+        inFlight[agent.id] = null;
+        agent.act(published.snapshot);
+    }
+
+    private Submission begin(TraderAgent agent) {
+        Submission submission = new Submission(settlement[agent.id],
+            mode == ThreadMode.POOLED ? null : Thread.currentThread());
+        inFlight[agent.id] = submission;
+        agent.orders++;
+        submitted.increment();
+        return submission;
+    }
+
+    Order submitMarket(TraderAgent agent, String symbol, Order.Side side, long shares) {
+        return engine.submitMarket(symbol, side, shares, begin(agent));
+    }
+
+    Order submitLimit(TraderAgent agent, String symbol, Order.Side side, double limitPrice, long shares) {
+        return engine.submitLimit(symbol, side, limitPrice, shares, begin(agent));
+    }
+
+    Order submitCancel(TraderAgent agent, String symbol, long orderId) {
+        return engine.submitCancel(symbol, orderId, begin(agent));
+    }
+
+    // Carrier pinning only exists on runtimes with virtual threads; the event
+    // name is simply ignored elsewhere
+    private void startRecording() {
+        try {
+            recording = new Recording();
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.enable("jdk.JavaMonitorEnter").withThreshold(MONITOR_THRESHOLD).withStackTrace();
+            recording.start();
+        } catch (RuntimeException e) {
+            recording = null;
+            recordingError = e.toString();
+        }
+    }
+
+    private void stopRecording() {
+        if (recording == null) {
+            return;
+        }
+        try {
+            recording.stop();
+            Path file = Files.createTempFile("agents", ".jfr");
+            try {
+                recording.dump(file);
+                for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                    String type = event.getEventType().getName();
+                    if (type.equals("jdk.VirtualThreadPinned")) {
+                        count(pinnedSites, site(event), event.getDuration());
+                    } else if (type.equals("jdk.JavaMonitorEnter")) {
+                        String monitor = event.getClass("monitorClass") != null
+                            ? event.getClass("monitorClass").getName() : "?";
+                        count(monitorSites, monitor + " at " + site(event), event.getDuration());
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            recordingError = e.toString();
+        } finally {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    // The innermost frame outside the JDK, i.e. the simulator code that blocked,
+    // or the top frame when the whole stack is JDK code
+    private static String site(RecordedEvent event) {
+        if (event.getStackTrace() == null || event.getStackTrace().getFrames().isEmpty()) {
+            return "?";
+        }
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+        for (RecordedFrame frame : frames) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return describe(frame);
+            }
+        }
+        return describe(frames.get(0));
+    }
+
+    private static String describe(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+
+    private static void count(Map<String, long[]> sites, String site, Duration duration) {
+        long[] stats = sites.computeIfAbsent(site, s -> new long[2]);
+        stats[0]++;
+        stats[1] += duration.toNanos();
+    }
+
+    public String getReport(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long ticks = lastEpoch - firstEpoch;
+        long[] turns = new long[agents.length];
+        long totalTurns = 0;
+        int starved = 0;
+        for (TraderAgent agent : agents) {
+            turns[agent.id] = agent.turns;
+            totalTurns += agent.turns;
+            if (agent.turns < ticks * STARVED_FRACTION) {
+                starved++;
+            }
+        }
+        long[] sortedTurns = turns.clone();
+        Arrays.sort(sortedTurns);
+        LatencyHistogram.Snapshot orderLatency = roundTrip.snapshot();
+        LatencyHistogram.Snapshot reactionLatency = reaction.snapshot();
+
+        StringBuilder report = new StringBuilder();
+        report.append("Agent Simulation Report:\n");
+        report.append("------------------------\n");
+        report.append(String.format("Agents: %,d  Symbols: %,d  Threads: %s%n",
+            agents.length, market.getSnapshot().size(), describeThreads()));
+        report.append(String.format("Elapsed: %.3f s  Market ticks: %,d%n", seconds, ticks));
+        report.append(String.format("Throughput: %,.0f turns/sec  %,.0f orders/sec  fills %,d (rejected at settlement %,d)%n",
+            totalTurns / seconds, submitted.sum() / seconds, fills.sum(), accounts.getRejectedFills()));
+        report.append(String.format("Order round trip: p50 %s  p99 %s  max %s%n",
+            formatNanos(orderLatency.getPercentile(50)), formatNanos(orderLatency.getPercentile(99)),
+            formatNanos(orderLatency.getMax())));
+        report.append(String.format("Snapshot to agent: p50 %s  p99 %s  max %s (1 agent in %d sampled)%n",
+            formatNanos(reactionLatency.getPercentile(50)), formatNanos(reactionLatency.getPercentile(99)),
+            formatNanos(reactionLatency.getMax()), LATENCY_SAMPLE_MASK + 1));
+        report.append("\nFairness (Jain index, 1 = perfectly even):\n");
+        report.append(String.format("  turns: %.4f  min %,d  median %,d  max %,d of %,d ticks; starved (<%.0f%%): %,d%n",
+            jainIndex(turns), sortedTurns[0], sortedTurns[sortedTurns.length / 2],
+            sortedTurns[sortedTurns.length - 1], ticks, STARVED_FRACTION * 100, starved));
+        for (int k = 0; k < KINDS.length; k++) {
+            // Orders are only comparable between agents running the same strategy
+            long[] orders = new long[(agents.length - k + KINDS.length - 1) / KINDS.length];
+            long total = 0;
+            for (int id = k, i = 0; id < agents.length; id += KINDS.length, i++) {
+                orders[i] = agents[id].orders;
+                total += orders[i];
+            }
+            if (orders.length > 0) {
+                report.append(String.format("  %-8s orders: %.4f  (%,d agents, %.1f orders each)%n",
+                    KINDS[k], jainIndex(orders), orders.length, (double) total / orders.length));
+            }
+        }
+        report.append("\nContention:\n");
+        report.append(String.format("  feed wakeups: %,d threads unparked (%,.0f per tick)%n",
+            wakeups.sum(), wakeups.sum() / (double) Math.max(1, ticks)));
+        if (recordingError != null) {
+            report.append("  JFR unavailable: ").append(recordingError).append('\n');
+        } else {
+            appendSites(report, "carrier pinning events", pinnedSites);
+            appendSites(report, "contended monitor enters over " + MONITOR_THRESHOLD.toMillis() + " ms", monitorSites);
+        }
+        return report.toString();
+    }
+
+    private String describeThreads() {
+        switch (mode) {
+            case VIRTUAL:
+                return String.format("virtual (%d carriers)",
+                    Integer.getInteger("jdk.virtualThreadScheduler.parallelism", workers));
+            case PLATFORM:
+                return "platform, one per agent";
+            default:
+                return String.format("pooled (%d workers)%s", workers,
+                    virtualThreadFactory() == null ? "; virtual threads need Java 21+" : "");
+        }
+    }
+
+    private static void appendSites(StringBuilder report, String label, Map<String, long[]> sites) {
+        long events = 0;
+        for (long[] stats : sites.values()) {
+            events += stats[0];
+        }
+        report.append(String.format("  %s: %,d%n", label, events));
+        List<Map.Entry<String, long[]>> top = new ArrayList<>(sites.entrySet());
+        top.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+        for (Map.Entry<String, long[]> site : top.subList(0, Math.min(REPORTED_SITES, top.size()))) {
+            report.append(String.format("    %,8d  %10s  %s%n", site.getValue()[0],
+                formatNanos(site.getValue()[1]), site.getKey()));
+        }
+    }
+
+    // (sum x)^2 / (n * sum x^2): 1 when every agent got the same, 1/n when one got everything
+    static double jainIndex(long[] values) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (long value : values) {
+            sum += value;
+            sumOfSquares += (double) value * value;
+        }
+        return sumOfSquares == 0 ? 1.0 : sum * sum / (values.length * sumOfSquares);
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10_000L) {
+            return nanos + " ns";
+        }
+        if (nanos < 10_000_000L) {
+            return String.format("%.1f us", nanos / 1e3);
+        }
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int agentCount = 10_000;
+        int seconds = 10;
+        int symbols = 500;
+        double tickRate = 10.0;
+        ThreadMode mode = defaultMode();
+        long seed = 42L;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--agents":
+                    agentCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--symbols":
+                    symbols = Integer.parseInt(args[++i]);
+                    break;
+                case "--tick-rate":
+                    tickRate = Double.parseDouble(args[++i]);
+                    break;
+                case "--threads":
+                    mode = ThreadMode.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        StockMarket market = new StockMarket(seed, false);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock(String.format("S%05d", i), 50.0 + i % 200);
+        }
+        market.setTickRate(tickRate);
+        AgentSimulation simulation = new AgentSimulation(market, agentCount, mode, seed);
+        // Rates cover the run itself, not JFR start-up or the analysis of its recording in stop()
+        simulation.start();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.nanoTime() - start;
+        simulation.stop();
+        System.out.print(simulation.getReport(elapsed));
+    }
+}
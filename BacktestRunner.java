@@ -0,0 +1,252 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Headless backtest: streams a recorded tick file through StockMarket as fast
+// as it can be read, drives a Strategy and any other MarketObservers from the
+// resulting snapshots, and prints a report. No Swing, no wall clock and no
+// shared randomness are involved, so the same file and seed always produce a
+// bit-identical result (see the checksum in the report).
+//
+//   java -cp bin BacktestRunner <ticks.csv|ticks.bin> [--strategy hold|momentum|macd|random] [--seed n] [--cash amount]
+//                               [--window nanos]
+//   java -cp bin BacktestRunner --generate <out.csv> <symbols> <ticks> [seed]
+//   java -cp bin BacktestRunner --convert <in.csv> <out.bin>
+public class BacktestRunner {
+    private final StockMarket market;
+    private final Portfolio portfolio;
+    private final Strategy strategy;
+    private final double startingCash;
+    // Records whose timestamps fall in the same window are applied as one tick;
+    // 0 keeps one tick per distinct timestamp
+    private final long windowNanos;
+
+    // File symbol id -> market symbol id; symbols are listed at their first recorded price
+    private int[] marketIds = new int[64];
+    private String[] fileSymbols = new String[64];
+
+    // Records sharing a timestamp (or window) are applied as one market tick,
+    // stamped with the time of the last record in it
+    private long batchKey = Long.MIN_VALUE;
+    private long batchTime;
+    private int batchCount;
+    private int[] batchIds = new int[1024];
+    private double[] batchPrices = new double[1024];
+    private long[] batchVolumes = new long[1024];
+
+    private long records;
+    private long ticks;
+
+    public BacktestRunner(Strategy strategy, long seed, double startingCash) {
+        this(strategy, seed, startingCash, 0);
+    }
+
+    public BacktestRunner(Strategy strategy, long seed, double startingCash, long windowNanos) {
+        if (windowNanos < 0) {
+            throw new IllegalArgumentException("Window must not be negative: " + windowNanos);
+        }
+        this.windowNanos = windowNanos;
+        this.market = new StockMarket(seed, false);
+        this.portfolio = new Portfolio(startingCash);
+        this.strategy = strategy;
+        this.startingCash = startingCash;
+        market.addObserver(snapshot -> {
+            portfolio.markToMarket(snapshot);
+            strategy.onTick(snapshot, portfolio);
+        });
+    }
+
+    public StockMarket getMarket() {
+        return market;
+    }
+
+    public Portfolio getPortfolio() {
+        return portfolio;
+    }
+
+    public void run(Path file) throws IOException {
+        new TickFileReader(file).read(new TickFileReader.TickVisitor() {
+            @Override
+            public void onSymbol(int symbolId, String symbol) {
+                if (symbolId >= fileSymbols.length) {
+                    fileSymbols = Arrays.copyOf(fileSymbols, symbolId * 2);
+                    marketIds = Arrays.copyOf(marketIds, symbolId * 2);
+                }
+                fileSymbols[symbolId] = symbol;
+                marketIds[symbolId] = -1;
+            }
+
+            @Override
+            public void onTick(long timeNanos, int symbolId, double price, long volume) {
+                long key = windowNanos == 0 ? timeNanos : Math.floorDiv(timeNanos, windowNanos);
+                if (key != batchKey && batchCount > 0) {
+                    flush();
+                }
+                batchKey = key;
+                batchTime = timeNanos;
+                if (marketIds[symbolId] < 0) {
+                    market.addStock(fileSymbols[symbolId], price);
+                    marketIds[symbolId] = market.getPriceStore().idOf(fileSymbols[symbolId]);
+                }
+                if (batchCount == batchIds.length) {
+                    batchIds = Arrays.copyOf(batchIds, batchCount * 2);
+                    batchPrices = Arrays.copyOf(batchPrices, batchCount * 2);
+                    batchVolumes = Arrays.copyOf(batchVolumes, batchCount * 2);
+                }
+                batchIds[batchCount] = marketIds[symbolId];
+                batchPrices[batchCount] = price;
+                batchVolumes[batchCount] = volume;
+                batchCount++;
+                records++;
+            }
+        });
+        if (batchCount > 0) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        market.publishRecordedTick(batchTime, batchCount, batchIds, batchPrices, batchVolumes);
+        batchCount = 0;
+        ticks++;
+    }
+
+    public String getReport(long elapsedNanos) {
+        MarketSnapshot snapshot = market.getSnapshot();
+        portfolio.calculateTotalValue(snapshot.asMap());
+        long marketValue = portfolio.getMarketValueCents();
+        long equity = portfolio.getCashCents() + marketValue;
+        long start = Money.ofDollars(startingCash);
+        int trades = portfolio.getTransactionHistory().size();
+
+        StringBuilder report = new StringBuilder();
+        report.append("Backtest Report:\n");
+        report.append("----------------\n");
+        report.append(String.format("Strategy: %s%n", strategy.getName()));
+        report.append(String.format("Records: %,d  Ticks: %,d  Symbols: %,d%n", records, ticks, snapshot.size()));
+        report.append(String.format("Elapsed: %.3f s (%,.0f records/sec)%n",
+            elapsedNanos / 1e9, records * 1e9 / Math.max(1, elapsedNanos)));
+        report.append(String.format("Trades: %,d%n", trades));
+        report.append(String.format("Cash: %s  Positions: %s  Equity: %s%n",
+            Money.format(portfolio.getCashCents()), Money.format(marketValue), Money.format(equity)));
+        report.append(String.format("Return: %+.4f%%%n", Money.percentChange(start, equity)));
+        report.append(String.format("Checksum: %016x%n", checksum(snapshot, trades)));
+        return report.toString();
+    }
+
+    // FNV-1a over the exact bits of the final state; equal checksums mean identical runs
+    private long checksum(MarketSnapshot snapshot, int trades) {
+        long hash = 0xcbf29ce484222325L;
+        for (int id = 0; id < snapshot.size(); id++) {
+            hash = (hash ^ Double.doubleToLongBits(snapshot.getPrice(id))) * 0x100000001b3L;
+            hash = (hash ^ snapshot.getVolume(id)) * 0x100000001b3L;
+        }
+        hash = (hash ^ portfolio.getCashCents()) * 0x100000001b3L;
+        for (Map.Entry<String, Integer> holding : new TreeMap<>(portfolio.getHoldings()).entrySet()) {
+            hash = (hash ^ holding.getKey().hashCode()) * 0x100000001b3L;
+            hash = (hash ^ holding.getValue()) * 0x100000001b3L;
+        }
+        return (hash ^ trades) * 0x100000001b3L;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: BacktestRunner <ticks file> [--strategy hold|momentum|macd|random] [--seed n] [--cash amount] [--window nanos]");
+            System.err.println("       BacktestRunner --generate <out.csv> <symbols> <ticks> [seed]");
+            System.err.println("       BacktestRunner --convert <in.csv> <out.bin>");
+            System.exit(1);
+        }
+        if (args[0].equals("--generate")) {
+            generate(Paths.get(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                args.length > 4 ? Long.parseLong(args[4]) : 42L);
+            return;
+        }
+        if (args[0].equals("--convert")) {
+            convert(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+
+        String strategyName = "momentum";
+        long seed = 42L;
+        double cash = 100_000.0;
+        long window = 0;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--strategy":
+                    strategyName = args[++i];
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--cash":
+                    cash = Double.parseDouble(args[++i]);
+                    break;
+                case "--window":
+                    window = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        BacktestRunner runner = new BacktestRunner(Strategy.create(strategyName, seed), seed, cash, window);
+        long start = System.nanoTime();
+        runner.run(Paths.get(args[0]));
+        System.out.print(runner.getReport(System.nanoTime() - start));
+    }
+
+    // Writes a synthetic CSV using the simulator's own tick engine, one tick per second
+    private static void generate(Path target, int symbols, int ticks, long seed) throws IOException {
+        PriceStore store = new PriceStore(symbols);
+        for (int i = 0; i < symbols; i++) {
+            store.add(String.format("S%05d", i), 50.0 + (i % 200));
+        }
+        TickEngine engine = new TickEngine(store, seed);
+        try (Writer out = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            out.write("timestampNanos,symbol,price,volume\n");
+            StringBuilder line = new StringBuilder(64);
+            for (int t = 0; t < ticks; t++) {
+                engine.tick();
+                long time = (t + 1) * 1_000_000_000L;
+                for (int id = 0; id < symbols; id++) {
+                    line.setLength(0);
+                    line.append(time).append(',').append(store.getSymbol(id)).append(',')
+                        .append(String.format("%.2f", store.getPrice(id))).append(',')
+                        .append(100 * (1 + (id + t) % 10)).append('\n');
+                    out.append(line);
+                }
+            }
+        }
+    }
+
+    // Re-encodes a CSV tick file in the binary format (two passes: symbols, then records)
+    private static void convert(Path source, Path target) throws IOException {
+        List<String> symbols = new ArrayList<>();
+        new TickFileReader(source).read(new TickFileReader.TickVisitor() {
+            @Override
+            public void onSymbol(int symbolId, String symbol) {
+                symbols.add(symbol);
+            }
+
+            @Override
+            public void onTick(long timeNanos, int symbolId, double price, long volume) {
+            }
+        });
+        TickFileReader.writeBinary(target, symbols, sink ->
+            new TickFileReader(source).read(new TickFileReader.TickVisitor() {
+                @Override
+                public void onSymbol(int symbolId, String symbol) {
+                }
+
+                @Override
+                public void onTick(long timeNanos, int symbolId, double price, long volume) {
+                    try {
+                        sink.accept(timeNanos, symbolId, price, volume);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }));
+    }
+}
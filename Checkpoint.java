@@ -0,0 +1,571 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32C;
+
+// A point-in-time copy of the simulator: every symbol's prices, the clock, the
+// random streams and price model state (so the market continues tick for tick
+// as if it had never stopped), plus optionally the GUI portfolio and the
+// accounts of an AccountEngine.
+//
+// The market part is taken under the market lock without publishing
+// anything: the latest snapshot's columns when nothing changed since it was
+// published, otherwise a frozen copy of the live columns, together with the
+// epoch, clock, generator and price model state of that same moment. The
+// symbol list and column arrays are built from that copy after the lock is
+// released, so observers see no extra snapshot and the tick after a capture
+// still reports its changes. Each account is copied under its own lock;
+// the accounts are therefore each consistent, but trades settled while the
+// engine is being walked may be in some accounts and not yet in others.
+//
+// The file is little-endian binary: a header, then each section as primitive
+// arrays with 8-byte aligned lengths, and a CRC32C of everything before it
+// as the last 8 bytes. Files are written to a temporary name and moved into
+// place, so a crash mid-write leaves the previous checkpoint intact, and read
+// back by memory-mapping them and bulk-copying each column straight into the
+// arrays the PriceStore adopts.
+public final class Checkpoint {
+    private static final int MAGIC = 0x504b4353; // "SCKP" read as a little-endian int
+    private static final int VERSION = 1;
+    private static final int HAS_PORTFOLIO = 1;
+    private static final int HAS_ACCOUNTS = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    final MarketState market;
+    final PortfolioState portfolio; // null when not captured
+    final AccountsState accounts; // null when not captured
+    final long createdMillis;
+
+    // Market columns are exactly count long; symbols may be longer
+    static final class MarketState {
+        final long epoch;
+        final long timeNanos;
+        final int count;
+        final String[] symbols;
+        final long[] price;
+        final long[] previousClose;
+        final long[] high;
+        final long[] low;
+        final long[] volume;
+        final long[] randomState;
+        final String modelName;
+        final double[] modelState;
+
+        MarketState(long epoch, long timeNanos, PriceStore columns, long[] randomState,
+                    String modelName, double[] modelState) {
+            this(epoch, timeNanos, columns.size(), columns.symbolTable(), columns.columns(), randomState,
+                modelName, modelState);
+        }
+
+        private MarketState(long epoch, long timeNanos, int count, String[] symbols, long[][] columns,
+                            long[] randomState, String modelName, double[] modelState) {
+            this.epoch = epoch;
+            this.timeNanos = timeNanos;
+            this.count = count;
+            this.symbols = symbols;
+            this.price = columns[0];
+            this.previousClose = columns[1];
+            this.high = columns[2];
+            this.low = columns[3];
+            this.volume = columns[4];
+            this.randomState = randomState;
+            this.modelName = modelName;
+            this.modelState = modelState;
+        }
+    }
+
+    static final class PortfolioState {
+        final long cashCents;
+        final long journalPosition; // Journal records covered, or -1 without a journal
+        final String[] symbols;
+        final int[] shares;
+        final long[] lastPriceCents;
+        final long[] costCents;
+        final List<Portfolio.Transaction> transactions; // Only kept without a journal
+
+        PortfolioState(long cashCents, long journalPosition, String[] symbols, int[] shares,
+                       long[] lastPriceCents, long[] costCents, List<Portfolio.Transaction> transactions) {
+            this.cashCents = cashCents;
+            this.journalPosition = journalPosition;
+            this.symbols = symbols;
+            this.shares = shares;
+            this.lastPriceCents = lastPriceCents;
+            this.costCents = costCents;
+            this.transactions = transactions;
+        }
+    }
+
+    // Account i holds positionCounts[i] entries of symbolIds/shares, following
+    // the entries of accounts 0..i-1
+    static final class AccountsState {
+        final long[] cashCents;
+        final int[] positionCounts;
+        final int[] symbolIds;
+        final long[] shares;
+
+        AccountsState(long[] cashCents, int[] positionCounts, int[] symbolIds, long[] shares) {
+            this.cashCents = cashCents;
+            this.positionCounts = positionCounts;
+            this.symbolIds = symbolIds;
+            this.shares = shares;
+        }
+    }
+
+    private Checkpoint(MarketState market, PortfolioState portfolio, AccountsState accounts, long createdMillis) {
+        this.market = market;
+        this.portfolio = portfolio;
+        this.accounts = accounts;
+        this.createdMillis = createdMillis;
+    }
+
+    // portfolio and accounts may be null. The portfolio is not thread safe, so it
+    // is read by a task on portfolioThread (e.g. SwingUtilities::invokeLater for
+    // the GUI's) and this waits for that task.
+    static Checkpoint capture(StockMarket market, Portfolio portfolio, Executor portfolioThread,
+                              AccountEngine accounts) {
+        CompletableFuture<PortfolioState> portfolioState = portfolio == null ? null
+            : CompletableFuture.supplyAsync(portfolio::captureState, portfolioThread);
+        MarketState marketState = market.captureState();
+        AccountsState accountsState = accounts == null ? null : captureAccounts(accounts);
+        return new Checkpoint(marketState, portfolioState == null ? null : portfolioState.join(), accountsState,
+            System.currentTimeMillis());
+    }
+
+    private static AccountsState captureAccounts(AccountEngine engine) {
+        int count = engine.getAccountCount();
+        long[] cash = new long[count];
+        int[] positionCounts = new int[count];
+        PositionCollector positions = new PositionCollector(Math.max(16, count));
+        for (int id = 0; id < count; id++) {
+            int before = positions.count;
+            cash[id] = engine.getAccount(id).capture(positions);
+            positionCounts[id] = positions.count - before;
+        }
+        return new AccountsState(cash, positionCounts, Arrays.copyOf(positions.symbolIds, positions.count),
+            Arrays.copyOf(positions.shares, positions.count));
+    }
+
+    // Appends every account's positions to the same pair of arrays
+    private static final class PositionCollector implements IntLongMap.EntryVisitor {
+        int[] symbolIds;
+        long[] shares;
+        int count;
+
+        PositionCollector(int capacity) {
+            this.symbolIds = new int[capacity];
+            this.shares = new long[capacity];
+        }
+
+        @Override
+        public void visit(int symbolId, long held) {
+            if (count == symbolIds.length) {
+                symbolIds = Arrays.copyOf(symbolIds, count * 2);
+                shares = Arrays.copyOf(shares, count * 2);
+            }
+            symbolIds[count] = symbolId;
+            shares[count++] = held;
+        }
+    }
+
+    public long getEpoch() {
+        return market.epoch;
+    }
+
+    public int getSymbolCount() {
+        return market.count;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    // Puts the market back exactly as it was captured and publishes it
+    public void restore(StockMarket stockMarket) {
+        stockMarket.restore(market);
+    }
+
+    // The portfolio as captured. With a journal, trades journaled after the
+    // checkpoint are applied on top; a journal with fewer records than the
+    // checkpoint covered (e.g. replaced or rolled back) is trusted over the
+    // checkpoint and replayed in full, as is a checkpoint taken without one.
+    public Portfolio restorePortfolio(double startingCash, TransactionJournal journal) {
+        if (journal == null) {
+            return portfolio != null ? new Portfolio(portfolio, null) : new Portfolio(startingCash);
+        }
+        if (portfolio == null || portfolio.journalPosition < 0
+                || portfolio.journalPosition > journal.getRecordCount()) {
+            return new Portfolio(startingCash, journal);
+        }
+        return new Portfolio(portfolio, journal);
+    }
+
+    // Replaces the cash and positions of every account; the engine must have
+    // been built with the same number of accounts
+    public void restore(AccountEngine engine) {
+        if (accounts == null) {
+            throw new IllegalStateException("Checkpoint has no accounts");
+        }
+        int count = accounts.cashCents.length;
+        if (engine.getAccountCount() != count) {
+            throw new IllegalArgumentException("Checkpoint has " + count + " accounts, engine has "
+                + engine.getAccountCount());
+        }
+        int from = 0;
+        for (int id = 0; id < count; id++) {
+            int positions = accounts.positionCounts[id];
+            engine.getAccount(id).restore(accounts.cashCents[id], accounts.symbolIds, accounts.shares, from, positions);
+            from += positions;
+        }
+    }
+
+    // Replaces file atomically (where the file system supports it). The new
+    // contents are forced before the rename and the directory after it, so
+    // once this returns the checkpoint survives a crash or power loss.
+    public void write(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (Output out = new Output(FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            writeTo(out);
+            out.finish();
+        }
+        try {
+            Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(absolute.getParent());
+    }
+
+    // The rename lives in the directory, which is not forced with the file
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory as a channel, so there is nothing to sync from Java
+        }
+    }
+
+    private void writeTo(Output out) throws IOException {
+        int flags = (portfolio != null ? HAS_PORTFOLIO : 0) | (accounts != null ? HAS_ACCOUNTS : 0);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(flags);
+        out.putInt(market.count);
+        out.putLong(market.epoch);
+        out.putLong(market.timeNanos);
+        out.putLong(createdMillis);
+
+        out.putStrings(market.symbols, market.count);
+        out.putLongs(market.price, market.count);
+        out.putLongs(market.previousClose, market.count);
+        out.putLongs(market.high, market.count);
+        out.putLongs(market.low, market.count);
+        out.putLongs(market.volume, market.count);
+        out.putLongs(market.randomState, market.randomState.length);
+        out.putStrings(new String[] {market.modelName}, 1);
+        out.putDoubles(market.modelState);
+
+        if (portfolio != null) {
+            out.putLong(portfolio.cashCents);
+            out.putLong(portfolio.journalPosition);
+            out.putStrings(portfolio.symbols, portfolio.symbols.length);
+            out.putInts(portfolio.shares, portfolio.shares.length);
+            out.putLongs(portfolio.lastPriceCents, portfolio.lastPriceCents.length);
+            out.putLongs(portfolio.costCents, portfolio.costCents.length);
+            int trades = portfolio.transactions.size();
+            String[] symbols = new String[trades];
+            int[] shares = new int[trades];
+            long[] prices = new long[trades];
+            int[] sides = new int[trades];
+            long[] times = new long[trades];
+            for (int i = 0; i < trades; i++) {
+                Portfolio.Transaction transaction = portfolio.transactions.get(i);
+                symbols[i] = transaction.getSymbol();
+                shares[i] = transaction.getShares();
+                prices[i] = transaction.getPriceCents();
+                sides[i] = transaction.getType().equals("BUY") ? TransactionJournal.SIDE_BUY : TransactionJournal.SIDE_SELL;
+                times[i] = transaction.getTimestamp().getTime();
+            }
+            out.putStrings(symbols, trades);
+            out.putInts(shares, trades);
+            out.putLongs(prices, trades);
+            out.putInts(sides, trades);
+            out.putLongs(times, trades);
+        }
+
+        if (accounts != null) {
+            out.putLongs(accounts.cashCents, accounts.cashCents.length);
+            out.putInts(accounts.positionCounts, accounts.positionCounts.length);
+            out.putInts(accounts.symbolIds, accounts.symbolIds.length);
+            out.putLongs(accounts.shares, accounts.shares.length);
+        }
+    }
+
+    public static Checkpoint read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 48 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a checkpoint (size " + size + "): " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().limit((int) size - 8));
+            if (crc.getValue() != buffer.getLong((int) size - 8)) {
+                throw new IOException("Checkpoint is corrupt (checksum mismatch): " + file);
+            }
+            try {
+                return readFrom(new Input(buffer.limit((int) size - 8)), file);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new IOException("Checkpoint is truncated: " + file, e);
+            }
+        }
+    }
+
+    private static Checkpoint readFrom(Input in, Path file) throws IOException {
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a checkpoint: " + file);
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+        }
+        int flags = in.getInt();
+        int count = in.getInt();
+        long epoch = in.getLong();
+        long timeNanos = in.getLong();
+        long createdMillis = in.getLong();
+
+        String[] symbols = in.getStrings();
+        long[][] columns = new long[5][];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = in.getLongs();
+        }
+        long[] randomState = in.getLongs();
+        String modelName = in.getStrings()[0];
+        double[] modelState = in.getDoubles();
+        if (symbols.length != count || columns[0].length != count) {
+            throw new IOException("Checkpoint symbol count does not match its columns: " + file);
+        }
+        MarketState market = new MarketState(epoch, timeNanos, count, symbols, columns, randomState,
+            modelName, modelState);
+
+        PortfolioState portfolio = null;
+        if ((flags & HAS_PORTFOLIO) != 0) {
+            long cashCents = in.getLong();
+            long journalPosition = in.getLong();
+            String[] held = in.getStrings();
+            int[] shares = in.getInts();
+            long[] lastPriceCents = in.getLongs();
+            long[] costCents = in.getLongs();
+            String[] tradeSymbols = in.getStrings();
+            int[] tradeShares = in.getInts();
+            long[] tradePrices = in.getLongs();
+            int[] tradeSides = in.getInts();
+            long[] tradeTimes = in.getLongs();
+            List<Portfolio.Transaction> transactions = new ArrayList<>(tradeSymbols.length);
+            for (int i = 0; i < tradeSymbols.length; i++) {
+                transactions.add(new Portfolio.Transaction(tradeSymbols[i], tradeShares[i], tradePrices[i],
+                    tradeSides[i] == TransactionJournal.SIDE_BUY ? "BUY" : "SELL", new Date(tradeTimes[i])));
+            }
+            portfolio = new PortfolioState(cashCents, journalPosition, held, shares, lastPriceCents, costCents,
+                transactions);
+        }
+
+        AccountsState accounts = null;
+        if ((flags & HAS_ACCOUNTS) != 0) {
+            accounts = new AccountsState(in.getLongs(), in.getInts(), in.getInts(), in.getLongs());
+        }
+        return new Checkpoint(market, portfolio, accounts, createdMillis);
+    }
+
+    // Buffered little-endian writer that checksums everything it flushes. Array
+    // sections are a length followed by the elements, padded to 8 bytes.
+    private static final class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private long flushed;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putLongs(long[] values, int count) throws IOException {
+            putLong(count);
+            for (int from = 0; from < count; ) {
+                ensure(8);
+                int n = Math.min(count - from, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(values, from, n);
+                buffer.position(buffer.position() + n * 8);
+                from += n;
+            }
+        }
+
+        void putDoubles(double[] values) throws IOException {
+            putLong(values.length);
+            for (int from = 0; from < values.length; ) {
+                ensure(8);
+                int n = Math.min(values.length - from, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(values, from, n);
+                buffer.position(buffer.position() + n * 8);
+                from += n;
+            }
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            putLong(count);
+            for (int from = 0; from < count; ) {
+                ensure(4);
+                int n = Math.min(count - from, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, from, n);
+                buffer.position(buffer.position() + n * 4);
+                from += n;
+            }
+            pad();
+        }
+
+        // Lengths as ints, then the UTF-8 bytes of all the strings back to back
+        void putStrings(String[] values, int count) throws IOException {
+            byte[][] encoded = new byte[count][];
+            int[] lengths = new int[count];
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                lengths[i] = encoded[i].length;
+                total += lengths[i];
+            }
+            putInts(lengths, count);
+            putLong(total);
+            for (byte[] bytes : encoded) {
+                for (int from = 0; from < bytes.length; ) {
+                    ensure(1);
+                    int n = Math.min(bytes.length - from, buffer.remaining());
+                    buffer.put(bytes, from, n);
+                    from += n;
+                }
+            }
+            pad();
+        }
+
+        private void pad() throws IOException {
+            ensure(8);
+            while (((flushed + buffer.position()) & 7) != 0) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            flushed += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Appends the checksum and forces the file to disk before it is renamed
+        void finish() throws IOException {
+            flush();
+            buffer.putLong(crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            channel.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Reads the sections written by Output from the mapped file
+    private static final class Input {
+        private final ByteBuffer buffer;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        long getLong() {
+            return buffer.getLong();
+        }
+
+        long[] getLongs() {
+            long[] values = new long[length()];
+            buffer.asLongBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 8);
+            return values;
+        }
+
+        double[] getDoubles() {
+            double[] values = new double[length()];
+            buffer.asDoubleBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 8);
+            return values;
+        }
+
+        int[] getInts() {
+            int[] values = new int[length()];
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 4);
+            skipPadding();
+            return values;
+        }
+
+        String[] getStrings() {
+            int[] lengths = getInts();
+            byte[] bytes = new byte[length()];
+            buffer.get(bytes);
+            skipPadding();
+            String[] values = new String[lengths.length];
+            int offset = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new String(bytes, offset, lengths[i], StandardCharsets.UTF_8);
+                offset += lengths[i];
+            }
+            return values;
+        }
+
+        private int length() {
+            long length = buffer.getLong();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            return (int) length;
+        }
+
+        private void skipPadding() {
+            buffer.position((buffer.position() + 7) & ~7);
+        }
+    }
+}
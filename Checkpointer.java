@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Writes a checkpoint every interval on its own daemon thread. Capturing only
+// briefly holds the market lock (see Checkpoint); serializing and writing the
+// file happen on this thread while the market keeps ticking. A failed write is
+// reported on stderr, counted and retried at the next interval, and the
+// previous file is kept.
+public class Checkpointer {
+    private static final LatencyHistogram WRITE = Metrics.histogram("checkpoint.write.nanos");
+    private static final LongAdder FAILURES = Metrics.counter("checkpoint.failures");
+
+    private final Path file;
+    private final Supplier<Checkpoint> capture;
+    private final ScheduledExecutorService scheduler;
+    private volatile long lastEpoch = -1L;
+    private final LongAdder failures = new LongAdder();
+
+    public Checkpointer(Path file, Supplier<Checkpoint> capture) {
+        this.file = file;
+        this.capture = capture;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(long intervalMillis) {
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Writes one checkpoint now, on the calling thread
+    public Checkpoint checkpoint() throws IOException {
+        long start = System.nanoTime();
+        Checkpoint checkpoint = capture.get();
+        checkpoint.write(file);
+        lastEpoch = checkpoint.getEpoch();
+        if (Metrics.ENABLED) {
+            WRITE.recordSince(start);
+        }
+        return checkpoint;
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            // Keep the schedule alive; the next attempt may succeed
+            failures.increment();
+            FAILURES.increment();
+            System.err.println("Checkpoint to " + file + " failed: " + e);
+        }
+    }
+
+    // Epoch of the last checkpoint written, or -1 if none has been
+    public long getLastEpoch() {
+        return lastEpoch;
+    }
+
+    // Scheduled checkpoints that failed since start
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public void stop() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.*;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Follows a SharedMemoryFeed from any process on the same host. Records are
+// read straight out of the mapped file into the handler's primitive
+// arguments: polling allocates nothing and never blocks the producer.
+//
+// A reader starts at the live end of the feed (or at the oldest record still
+// in the ring, after seekToOldest) and keeps its own position. If it falls
+// more than a ring behind, the records it missed are gone: poll reports them
+// to Handler.onGap and continues from the oldest record still intact.
+//
+//   FeedReader reader = FeedReader.open(Paths.get("market.feed"));
+//   while (running) {
+//       if (reader.poll(handler, 1024) == 0) Thread.onSpinWait();
+//   }
+public class FeedReader implements Closeable {
+    private static final int OPEN_ATTEMPTS = 100;
+
+    public interface Handler {
+        // Starts a tick; priceCount price records follow unless records are missed
+        void onTick(long epoch, long timeNanos, int priceCount);
+
+        void onPrice(int symbolId, long priceCents, long volume);
+
+        // count records starting at sequence were overwritten before they were read
+        default void onGap(long sequence, long count) {
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long mask;
+    private final int recordsOffset;
+    private final long session;
+    private long next; // Sequence of the next record to read
+    private long missed;
+    private String[] symbols = new String[0];
+    private int symbolsRead;
+
+    private FeedReader(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.capacity = buffer.getInt(SharedMemoryFeed.CAPACITY_OFFSET);
+        this.mask = capacity - 1;
+        this.recordsOffset = SharedMemoryFeed.recordsOffset(buffer.getInt(SharedMemoryFeed.SYMBOL_CAPACITY_OFFSET));
+        this.session = buffer.getLong(SharedMemoryFeed.SESSION_OFFSET);
+        this.next = cursor() + 1;
+    }
+
+    // Maps a feed file, waiting briefly if the producer is still creating it
+    public static FeedReader open(Path file) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size >= SharedMemoryFeed.HEADER_SIZE) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                    int magic = (int) SharedMemoryFeed.INTS.getAcquire(buffer, SharedMemoryFeed.MAGIC_OFFSET);
+                    if (magic == SharedMemoryFeed.MAGIC) {
+                        checkLayout(buffer, size);
+                        return new FeedReader(buffer);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                if (attempt == OPEN_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            if (attempt == OPEN_ATTEMPTS) {
+                throw new IOException("Not a market data feed: " + file);
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted opening " + file);
+            }
+        }
+    }
+
+    private static void checkLayout(MappedByteBuffer buffer, long size) throws IOException {
+        int version = buffer.getInt(SharedMemoryFeed.VERSION_OFFSET);
+        int recordSize = buffer.getInt(SharedMemoryFeed.RECORD_SIZE_OFFSET);
+        if (version != SharedMemoryFeed.VERSION || recordSize != SharedMemoryFeed.RECORD_SIZE) {
+            throw new IOException("Unsupported feed version " + version + " with " + recordSize + "-byte records");
+        }
+        int capacity = buffer.getInt(SharedMemoryFeed.CAPACITY_OFFSET);
+        int symbolCapacity = buffer.getInt(SharedMemoryFeed.SYMBOL_CAPACITY_OFFSET);
+        if (SharedMemoryFeed.recordsOffset(symbolCapacity) + (long) capacity * SharedMemoryFeed.RECORD_SIZE != size) {
+            throw new IOException("Feed file size does not match its header");
+        }
+    }
+
+    private long cursor() {
+        return (long) SharedMemoryFeed.LONGS.getAcquire(buffer, SharedMemoryFeed.CURSOR_OFFSET);
+    }
+
+    // Moves back to the oldest record still in the ring
+    public void seekToOldest() {
+        next = Math.max(1L, cursor() - capacity + 2);
+    }
+
+    // Delivers up to limit records and returns how many were delivered; 0 means
+    // the reader is caught up
+    public int poll(Handler handler, int limit) {
+        int delivered = 0;
+        while (delivered < limit) {
+            int offset = recordsOffset + (int) ((next - 1) & mask) * SharedMemoryFeed.RECORD_SIZE;
+            long sequence = (long) SharedMemoryFeed.LONGS.getAcquire(buffer, offset);
+            if (sequence != next) {
+                // Older (or being written as next): not published yet.
+                // Newer: the slot has been reused since, so the reader was lapped.
+                if (Math.abs(sequence) <= next) {
+                    break;
+                }
+                skipOverwritten(handler, sequence);
+                continue;
+            }
+            long a = buffer.getLong(offset + 8);
+            long b = buffer.getLong(offset + 16);
+            int symbolId = buffer.getInt(offset + 24);
+            int c = buffer.getInt(offset + 28);
+            VarHandle.loadLoadFence();
+            sequence = (long) SharedMemoryFeed.LONGS.getOpaque(buffer, offset);
+            if (sequence != next) {
+                skipOverwritten(handler, sequence); // Overwritten while it was being read
+                continue;
+            }
+            next++;
+            delivered++;
+            if (symbolId == SharedMemoryFeed.TICK) {
+                handler.onTick(a, b, c);
+            } else {
+                handler.onPrice(symbolId, a, b);
+            }
+        }
+        return delivered;
+    }
+
+    // Jumps to the oldest record that cannot be overwritten before it is read
+    // (leaving one slot for a write in progress). The cursor only moves once per
+    // tick, so the sequence found in the reused slot may be further ahead.
+    private void skipOverwritten(Handler handler, long found) {
+        long newest = Math.max(cursor(), Math.abs(found));
+        long oldest = Math.max(next + 1, newest - capacity + 2);
+        handler.onGap(next, oldest - next);
+        missed += oldest - next;
+        next = oldest;
+    }
+
+    // Name of a symbol id, or null if the producer has not published one
+    public String getSymbol(int symbolId) {
+        if (symbolId >= symbolsRead) {
+            readSymbols();
+        }
+        return symbolId >= 0 && symbolId < symbolsRead ? symbols[symbolId] : null;
+    }
+
+    private void readSymbols() {
+        int count = (int) SharedMemoryFeed.INTS.getAcquire(buffer, SharedMemoryFeed.SYMBOL_COUNT_OFFSET);
+        if (count <= symbolsRead) {
+            return;
+        }
+        if (count > symbols.length) {
+            symbols = Arrays.copyOf(symbols, Math.max(count, symbols.length * 2));
+        }
+        byte[] name = new byte[SharedMemoryFeed.SYMBOL_SIZE - 1];
+        for (int id = symbolsRead; id < count; id++) {
+            int offset = SharedMemoryFeed.HEADER_SIZE + id * SharedMemoryFeed.SYMBOL_SIZE;
+            int length = buffer.get(offset) & 0xff;
+            buffer.get(offset + 1, name, 0, length);
+            symbols[id] = new String(name, 0, length, StandardCharsets.UTF_8);
+        }
+        symbolsRead = count;
+    }
+
+    // Sequence of the next record poll will deliver
+    public long getPosition() {
+        return next;
+    }
+
+    // Records published but not yet read
+    public long getLag() {
+        return Math.max(0L, cursor() - (next - 1));
+    }
+
+    // Records lost to being lapped since this reader opened
+    public long getMissed() {
+        return missed;
+    }
+
+    // Random id of the producer's file; a restarted producer writes a new file with a new session
+    public long getSession() {
+        return session;
+    }
+
+    // True once the producer has closed the feed; records already published can still be polled
+    public boolean isClosed() {
+        return (int) SharedMemoryFeed.INTS.getAcquire(buffer, SharedMemoryFeed.CLOSED_OFFSET) != 0;
+    }
+
+    // The mapping itself is released when the reader is garbage collected
+    @Override
+    public void close() {
+        next = Long.MAX_VALUE;
+    }
+}
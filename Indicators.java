@@ -0,0 +1,538 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Streaming technical indicators (SMA, EMA, RSI, MACD, Bollinger bands, VWAP
+// and rolling volatility), updated from PriceStore.setPriceCents and
+// incrementVolume as each price and trade arrives. Every update is O(1) and
+// allocation-free: windowed indicators keep running sums over a ring of their
+// last n inputs, re-summed from the ring once per lap so rounding cannot
+// accumulate, and the smoothed ones keep only their previous value.
+//
+// An indicator is registered per symbol with a Spec and addressed by the int
+// handle it returns. All state lives in flat primitive arrays: eight ints of
+// bookkeeping per handle plus Spec.stateSize() doubles in one shared slab, so
+// memory is fixed by what is registered (see bytesPerRegistration). Symbols
+// nobody asked about cost one array read per price.
+//
+// Like MarketHistory, each symbol's indicators are only written by the thread
+// that moves its price, and handles are only added by the tick thread: from
+// an observer, through StockMarket.addIndicator, or queued with request() and
+// added at the start of the next tick. Any thread may find handles and read
+// values; a reader off the tick thread may see a tick's values for some
+// symbols before others, which is fine for display.
+public class Indicators {
+    public enum Type { SMA, EMA, RSI, MACD, BOLLINGER, VWAP, VOLATILITY }
+
+    // Outputs of value(handle, output); single-valued indicators only have output 0
+    public static final int MACD_LINE = 0;
+    public static final int MACD_SIGNAL = 1;
+    public static final int MACD_HISTOGRAM = 2;
+    public static final int BAND_MIDDLE = 0;
+    public static final int BAND_UPPER = 1;
+    public static final int BAND_LOWER = 2;
+
+    private static final Type[] TYPES = Type.values();
+    // Bookkeeping per handle: its record, symbol and Spec reference
+    private static final int HANDLE_BYTES = 8 * 4 + 4 + 4;
+
+    // What to compute. Equal specs registered on one symbol share a handle.
+    public static final class Spec {
+        private final Type type;
+        private final int period;
+        private final int slowPeriod;
+        private final int signalPeriod;
+        private final double width;
+
+        private Spec(Type type, int period, int slowPeriod, int signalPeriod, double width) {
+            if (period < 1 || (type == Type.MACD && (slowPeriod <= period || signalPeriod < 1))) {
+                throw new IllegalArgumentException("Invalid periods for " + type);
+            }
+            if (type == Type.BOLLINGER && !(width > 0)) {
+                throw new IllegalArgumentException("Band width must be positive: " + width);
+            }
+            this.type = type;
+            this.period = period;
+            this.slowPeriod = slowPeriod;
+            this.signalPeriod = signalPeriod;
+            this.width = width;
+        }
+
+        // Simple moving average of the last period prices, in dollars
+        public static Spec sma(int period) {
+            return new Spec(Type.SMA, period, 0, 0, 0.0);
+        }
+
+        // Exponential moving average (smoothing 2 / (period + 1)), seeded with the
+        // average of the first period prices
+        public static Spec ema(int period) {
+            return new Spec(Type.EMA, period, 0, 0, 0.0);
+        }
+
+        // Wilder's relative strength index, 0 to 100
+        public static Spec rsi(int period) {
+            return new Spec(Type.RSI, period, 0, 0, 0.0);
+        }
+
+        // MACD line (fast EMA - slow EMA), its signal EMA and their difference, in dollars
+        public static Spec macd(int fast, int slow, int signal) {
+            return new Spec(Type.MACD, fast, slow, signal, 0.0);
+        }
+
+        // SMA with bands width standard deviations above and below, in dollars
+        public static Spec bollinger(int period, double width) {
+            return new Spec(Type.BOLLINGER, period, 0, 0, width);
+        }
+
+        // Volume-weighted average trade price of the session, in dollars
+        public static Spec vwap() {
+            return new Spec(Type.VWAP, 1, 0, 0, 0.0);
+        }
+
+        // Standard deviation of the last period log returns (per price update, not annualized)
+        public static Spec volatility(int period) {
+            return new Spec(Type.VOLATILITY, period, 0, 0, 0.0);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getPeriod() {
+            return period;
+        }
+
+        public int outputs() {
+            return type == Type.MACD || type == Type.BOLLINGER ? 3 : 1;
+        }
+
+        // Doubles of slab state per registration: the outputs, then running
+        // state, then for windowed indicators a ring of period inputs
+        int stateSize() {
+            switch (type) {
+                case SMA:
+                    return 2 + period;
+                case EMA:
+                    return 2;
+                case RSI:
+                    return 4;
+                case MACD:
+                    return 5;
+                case BOLLINGER:
+                    return 6 + period; // Width kept after the sums
+                case VWAP:
+                    return 3;
+                default:
+                    return 4 + period;
+            }
+        }
+
+        // Inputs needed before the first value: prices, or trades for VWAP
+        int warmup() {
+            switch (type) {
+                case RSI:
+                case VOLATILITY:
+                    return period + 1;
+                case MACD:
+                    return slowPeriod + signalPeriod - 1;
+                case VWAP:
+                    return 1;
+                default:
+                    return period;
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Spec)) {
+                return false;
+            }
+            Spec spec = (Spec) other;
+            return type == spec.type && period == spec.period && slowPeriod == spec.slowPeriod
+                && signalPeriod == spec.signalPeriod && width == spec.width;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, period, slowPeriod, signalPeriod, width);
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case MACD:
+                    return "MACD(" + period + "," + slowPeriod + "," + signalPeriod + ")";
+                case BOLLINGER:
+                    return "BB(" + period + "," + width + ")";
+                case VWAP:
+                    return "VWAP";
+                case VOLATILITY:
+                    return "VOL(" + period + ")";
+                default:
+                    return type + "(" + period + ")";
+            }
+        }
+    }
+
+    private static final class Request {
+        final int symbolId;
+        final Spec spec;
+
+        Request(int symbolId, Spec spec) {
+            this.symbolId = symbolId;
+            this.spec = spec;
+        }
+    }
+
+    // Per handle, one record of HANDLE_INTS ints so an update touches one
+    // cache line of bookkeeping; a symbol's handles are usually adjacent
+    private static final int HANDLE_INTS = 8;
+    private static final int TYPE = 0;
+    private static final int BASE = 1;    // Offset of the handle's state in slab
+    private static final int NEXT = 2;    // Next handle on the same symbol + 1, or 0
+    private static final int SAMPLES = 3; // Inputs seen, saturating
+    private static final int CURSOR = 4;  // Ring position of windowed indicators
+    private static final int PERIOD = 5;
+    private static final int SLOW = 6;
+    private static final int SIGNAL = 7;
+
+    private int[] records = new int[16 * HANDLE_INTS];
+    private Spec[] specs = new Spec[16];
+    private int[] symbolIds = new int[16];
+    private int count;
+    // Handles below this are fully written; readers on other threads stop here
+    private volatile int published;
+    // Bumped by clear(), which invalidates every handle handed out before it
+    private volatile int generation;
+
+    private double[] slab = new double[256];
+    private int slabSize;
+    // First handle of each symbol + 1, or 0
+    private int[] first = new int[0];
+
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+
+    // Registers spec on a symbol, or returns the handle it already has there.
+    // Only on the tick thread (see the class comment).
+    public int add(int symbolId, Spec spec) {
+        int existing = find(symbolId, spec);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (symbolId >= first.length) {
+            first = Arrays.copyOf(first, Math.max(symbolId + 1, first.length * 2));
+        }
+        int handle = count;
+        if (handle == specs.length) {
+            records = Arrays.copyOf(records, handle * 2 * HANDLE_INTS);
+            specs = Arrays.copyOf(specs, handle * 2);
+            symbolIds = Arrays.copyOf(symbolIds, handle * 2);
+        }
+        int size = spec.stateSize();
+        if (slabSize + size > slab.length) {
+            slab = Arrays.copyOf(slab, Math.max(slabSize + size, slab.length * 2));
+        }
+        int r = handle * HANDLE_INTS;
+        records[r + TYPE] = spec.type.ordinal();
+        records[r + BASE] = slabSize;
+        records[r + SAMPLES] = 0;
+        records[r + CURSOR] = 0;
+        records[r + PERIOD] = spec.period;
+        records[r + SLOW] = spec.slowPeriod;
+        records[r + SIGNAL] = spec.signalPeriod;
+        specs[handle] = spec;
+        symbolIds[handle] = symbolId;
+        clearState(handle);
+        slabSize += size;
+        records[r + NEXT] = first[symbolId];
+        first[symbolId] = handle + 1;
+        count = handle + 1;
+        published = count;
+        return handle;
+    }
+
+    // Asks for spec on a symbol from any thread; it is added when the market
+    // next ticks, after which find() returns its handle
+    public void request(int symbolId, Spec spec) {
+        requests.offer(new Request(symbolId, spec));
+    }
+
+    // Adds the requested indicators; called by the market on the tick thread
+    void applyRequests() {
+        Request request;
+        while ((request = requests.poll()) != null) {
+            add(request.symbolId, request.spec);
+        }
+    }
+
+    // The handle of spec on a symbol, or -1 if it is not registered (yet)
+    public int find(int symbolId, Spec spec) {
+        int limit = published;
+        int[] heads = first;
+        if (symbolId >= heads.length) {
+            return -1;
+        }
+        int[] rec = records;
+        for (int h = heads[symbolId] - 1; h >= 0; h = rec[h * HANDLE_INTS + NEXT] - 1) {
+            if (h < limit && spec.equals(specs[h])) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    // Current value of a handle (output 0), or NaN until it has seen enough prices
+    public double value(int handle) {
+        return value(handle, 0);
+    }
+
+    // A handle dropped by clear() reads as NaN until it is looked up again
+    public double value(int handle, int output) {
+        Spec spec = specs[handle];
+        if (spec == null) {
+            return Double.NaN;
+        }
+        if (output < 0 || output >= spec.outputs()) {
+            throw new IndexOutOfBoundsException(spec + " has no output " + output);
+        }
+        int r = handle * HANDLE_INTS;
+        return records[r + SAMPLES] < spec.warmup() ? Double.NaN : slab[records[r + BASE] + output];
+    }
+
+    public Spec getSpec(int handle) {
+        return specs[handle];
+    }
+
+    public int getSymbolId(int handle) {
+        return symbolIds[handle];
+    }
+
+    // Changes whenever clear() drops the registrations. Callers that keep
+    // handles compare it with the one they were found under and find them again.
+    public int getGeneration() {
+        return generation;
+    }
+
+    // Number of handles registered
+    public int size() {
+        return published;
+    }
+
+    // Bytes held by each registration of spec, not counting spare array capacity
+    public static long bytesPerRegistration(Spec spec) {
+        return spec.stateSize() * 8L + HANDLE_BYTES;
+    }
+
+    // Bytes currently allocated for all registrations, including spare capacity
+    public long memoryBytes() {
+        return slab.length * 8L + (long) specs.length * HANDLE_BYTES + first.length * 4L;
+    }
+
+    void onPrice(int id, long priceCents) {
+        int[] heads = first;
+        if (id >= heads.length) {
+            return;
+        }
+        int[] rec = records;
+        for (int h = heads[id] - 1; h >= 0; h = rec[h * HANDLE_INTS + NEXT] - 1) {
+            update(rec, h * HANDLE_INTS, priceCents);
+        }
+    }
+
+    // Trades feed VWAP only; prices reach the other indicators through onPrice
+    void onVolume(int id, long shares, long priceCents) {
+        int[] heads = first;
+        if (id >= heads.length) {
+            return;
+        }
+        int[] rec = records;
+        for (int h = heads[id] - 1; h >= 0; h = rec[h * HANDLE_INTS + NEXT] - 1) {
+            int r = h * HANDLE_INTS;
+            if (rec[r + TYPE] == Type.VWAP.ordinal()) {
+                double[] s = slab;
+                int base = rec[r + BASE];
+                s[base + 1] += (double) shares * priceCents;
+                s[base + 2] += shares;
+                s[base] = s[base + 1] / s[base + 2] / 100.0;
+                countSample(rec, r);
+            }
+        }
+    }
+
+    private void update(int[] rec, int r, long priceCents) {
+        double[] s = slab;
+        int base = rec[r + BASE];
+        double x = priceCents;
+        int n = countSample(rec, r); // Inputs including this one
+        switch (TYPES[rec[r + TYPE]]) {
+            case SMA: {
+                int period = rec[r + PERIOD];
+                double sum = pushWindow(rec, r, base + 2, period, base + 1, x);
+                s[base] = sum / Math.min(n, period) / 100.0;
+                break;
+            }
+            case EMA: {
+                double ema = smooth(s[base + 1], x, n, rec[r + PERIOD]);
+                s[base + 1] = ema;
+                s[base] = ema / 100.0;
+                break;
+            }
+            case RSI: {
+                // Averages of the first period changes, then Wilder's smoothing
+                if (n > 1) {
+                    int period = rec[r + PERIOD];
+                    double change = x - s[base + 1];
+                    double gain = change > 0 ? change : 0.0;
+                    double loss = change < 0 ? -change : 0.0;
+                    int changes = n - 1;
+                    double weight = changes <= period ? 1.0 / changes : 1.0 / period;
+                    double averageGain = s[base + 2] + (gain - s[base + 2]) * weight;
+                    double averageLoss = s[base + 3] + (loss - s[base + 3]) * weight;
+                    s[base + 2] = averageGain;
+                    s[base + 3] = averageLoss;
+                    s[base] = averageLoss == 0.0 ? (averageGain == 0.0 ? 50.0 : 100.0)
+                        : 100.0 - 100.0 / (1.0 + averageGain / averageLoss);
+                }
+                s[base + 1] = x;
+                break;
+            }
+            case MACD: {
+                int slow = rec[r + SLOW];
+                double fast = smooth(s[base + 3], x, n, rec[r + PERIOD]);
+                double slowEma = smooth(s[base + 4], x, n, slow);
+                s[base + 3] = fast;
+                s[base + 4] = slowEma;
+                if (n >= slow) {
+                    double line = (fast - slowEma) / 100.0;
+                    double signal = smooth(s[base + MACD_SIGNAL], line, n - slow + 1, rec[r + SIGNAL]);
+                    s[base + MACD_LINE] = line;
+                    s[base + MACD_SIGNAL] = signal;
+                    s[base + MACD_HISTOGRAM] = line - signal;
+                }
+                break;
+            }
+            case BOLLINGER: {
+                int period = rec[r + PERIOD];
+                double sum = pushWindowSquares(rec, r, base + 6, period, base + 3, x);
+                int window = Math.min(n, period);
+                double mean = sum / window;
+                double deviation = Math.sqrt(Math.max(0.0, s[base + 4] / window - mean * mean));
+                double offset = s[base + 5] * deviation;
+                s[base + BAND_MIDDLE] = mean / 100.0;
+                s[base + BAND_UPPER] = (mean + offset) / 100.0;
+                s[base + BAND_LOWER] = (mean - offset) / 100.0;
+                break;
+            }
+            case VOLATILITY: {
+                if (n > 1) {
+                    int period = rec[r + PERIOD];
+                    double sum = pushWindowSquares(rec, r, base + 4, period, base + 2, Math.log(x / s[base + 1]));
+                    int window = Math.min(n - 1, period);
+                    double mean = sum / window;
+                    s[base] = Math.sqrt(Math.max(0.0, s[base + 3] / window - mean * mean));
+                }
+                s[base + 1] = x;
+                break;
+            }
+            default:
+                break; // VWAP moves with trades, not prices
+        }
+    }
+
+    private static int countSample(int[] rec, int r) {
+        int n = rec[r + SAMPLES];
+        if (n < Integer.MAX_VALUE) {
+            rec[r + SAMPLES] = ++n;
+        }
+        return n;
+    }
+
+    // Running mean for the first period inputs, exponential smoothing after
+    private static double smooth(double average, double x, int n, int period) {
+        return n <= period ? average + (x - average) / n : average + (x - average) * (2.0 / (period + 1));
+    }
+
+    // Replaces the oldest of the last period inputs (zero while the ring is
+    // filling) with x and returns the new sum, kept at sums and re-summed
+    // exactly once per lap
+    private double pushWindow(int[] rec, int r, int ring, int period, int sums, double x) {
+        double[] s = slab;
+        int cursor = rec[r + CURSOR];
+        double sum = s[sums] + x - s[ring + cursor];
+        s[ring + cursor] = x;
+        cursor = cursor + 1 == period ? 0 : cursor + 1;
+        rec[r + CURSOR] = cursor;
+        if (cursor == 0) {
+            sum = 0.0;
+            for (int i = 0; i < period; i++) {
+                sum += s[ring + i];
+            }
+        }
+        s[sums] = sum;
+        return sum;
+    }
+
+    // pushWindow, also keeping the sum of squares at sums + 1
+    private double pushWindowSquares(int[] rec, int r, int ring, int period, int sums, double x) {
+        double[] s = slab;
+        int cursor = rec[r + CURSOR];
+        double old = s[ring + cursor];
+        double sum = s[sums] + x - old;
+        double squares = s[sums + 1] + x * x - old * old;
+        s[ring + cursor] = x;
+        cursor = cursor + 1 == period ? 0 : cursor + 1;
+        rec[r + CURSOR] = cursor;
+        if (cursor == 0) {
+            sum = 0.0;
+            squares = 0.0;
+            for (int i = 0; i < period; i++) {
+                double v = s[ring + i];
+                sum += v;
+                squares += v * v;
+            }
+        }
+        s[sums] = sum;
+        s[sums + 1] = squares;
+        return sum;
+    }
+
+    // VWAP starts over with each session; the rolling indicators carry on
+    void startNewSession() {
+        for (int h = 0; h < count; h++) {
+            if (records[h * HANDLE_INTS + TYPE] == Type.VWAP.ordinal()) {
+                clearState(h);
+            }
+        }
+    }
+
+    // Forgets the inputs of one symbol's indicators (used when it is re-listed)
+    void reset(int id) {
+        if (id >= first.length) {
+            return;
+        }
+        for (int h = first[id] - 1; h >= 0; h = records[h * HANDLE_INTS + NEXT] - 1) {
+            clearState(h);
+        }
+    }
+
+    private void clearState(int h) {
+        int r = h * HANDLE_INTS;
+        Spec spec = specs[h];
+        int base = records[r + BASE];
+        records[r + SAMPLES] = 0;
+        records[r + CURSOR] = 0;
+        Arrays.fill(slab, base, base + spec.stateSize(), 0.0);
+        if (spec.type == Type.BOLLINGER) {
+            slab[base + 5] = spec.width;
+        }
+    }
+
+    // Drops every registration, e.g. when the market's symbols are replaced
+    void clear() {
+        Arrays.fill(first, 0);
+        count = 0;
+        slabSize = 0;
+        published = 0;
+        Arrays.fill(specs, null);
+        generation++;
+    }
+}
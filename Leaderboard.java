@@ -0,0 +1,591 @@
+import java.util.Arrays;
+
+// Live rankings of the whole market: every symbol ordered by change percent,
+// session volume and size of move, plus advance/decline breadth and total
+// value. Each ranking is an order-statistic treap over symbol ids, so keeping
+// a symbol in place costs O(log n) when it changes, and the top or bottom N,
+// or any symbol's rank, are read without looking at the rest of the market.
+//
+// Rankings are brought up to date lazily. The market hands over every
+// snapshot it publishes and the leaderboard only notes which symbols changed;
+// the first query after that re-ranks those symbols (once each, however many
+// ticks they changed in) from the latest snapshot. So a fast market pays
+// nothing per tick beyond setting a few bits, and queries, which can come from
+// any thread, neither wait for the market lock nor hold up the next tick.
+// When much of the market changed, as after a simulated tick that moves every
+// symbol, each ranking is rebuilt from a sort instead, which is O(n) per
+// ranking rather than O(log n) per changed symbol with a cache miss at every
+// step. That rebuild is not left to a query: the market calls settle() at the
+// end of each tick, which does it on the tick thread once more than
+// 1/REBUILD_SHARE of the symbols are waiting. A query therefore re-ranks at
+// most that many symbols in place and then reads its N ids off the trees; it
+// never passes over the whole market.
+public class Leaderboard {
+    public enum Metric {
+        CHANGE_PERCENT,
+        VOLUME,
+        MOVE; // size of the change either way, in percent
+
+        double of(MarketSnapshot snapshot, int id) {
+            switch (this) {
+                case VOLUME:
+                    return snapshot.getVolume(id);
+                case MOVE:
+                    return Math.abs(changeOf(snapshot, id));
+                default:
+                    return changeOf(snapshot, id);
+            }
+        }
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+    private static final long SEED = 0x4c454144L;
+    private static final byte ABSENT = 0;
+    private static final byte ADVANCING = 1;
+    private static final byte DECLINING = 2;
+    private static final byte UNCHANGED = 3;
+    // Rankings are rebuilt when more than 1/REBUILD_SHARE of the symbols changed
+    private static final int REBUILD_SHARE = 32;
+    private static final int RADIX_BITS = 8;
+
+    private final Ranking[] rankings = new Ranking[METRICS.length];
+    private final SplitMix64 priorities = new SplitMix64(SEED);
+    private int[] priority = new int[0];
+    // Latest snapshot and the symbols changed since the rankings were last
+    // brought up to date, swapped out by the query that re-ranks them
+    private final Object pendingLock = new Object();
+    private long[] pending = new long[0];
+    private long[] spare = new long[0];
+    // Changes reported since the last catch-up, up to the symbol count; symbols
+    // that changed in several ticks are counted once per tick, so this can
+    // overstate them
+    private int pendingCount;
+    private MarketSnapshot latest;
+    // Snapshot the rankings are up to date with
+    private MarketSnapshot rankedSnapshot;
+    // Breadth, and the price each ranked symbol counts towards the total value
+    private byte[] state = new byte[0];
+    private long[] valueCents = new long[0];
+    private int ranked;
+    // Ids and sort keys for rebuilding, with room for the radix sort's passes
+    private int[] order = new int[0];
+    private int[] orderScratch = new int[0];
+    private long[] keys = new long[0];
+    private long[] keysScratch = new long[0];
+    private final int[] buckets = new int[1 << RADIX_BITS];
+    private int advancing;
+    private int declining;
+    private int unchanged;
+    private long totalValueCents;
+
+    public Leaderboard() {
+        for (int m = 0; m < rankings.length; m++) {
+            rankings[m] = new Ranking();
+        }
+    }
+
+    // A new symbol with no previous close has no change yet
+    private static double changeOf(MarketSnapshot snapshot, int id) {
+        double change = snapshot.getChangePercent(id);
+        return Double.isNaN(change) ? 0.0 : change;
+    }
+
+    // Called by the market with every snapshot it publishes
+    public void onSnapshot(MarketSnapshot snapshot) {
+        synchronized (pendingLock) {
+            latest = snapshot;
+            int words = (snapshot.size() + 63) >>> 6;
+            if (words > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(words, pending.length * 2));
+            }
+            for (int i = 0; i < snapshot.getChangedCount(); i++) {
+                int id = snapshot.getChangedId(i);
+                pending[id >>> 6] |= 1L << id;
+            }
+            pendingCount = Math.min(pendingCount + snapshot.getChangedCount(), snapshot.size());
+        }
+    }
+
+    // Called by the market at the end of a tick, on the tick thread. Re-ranks
+    // the waiting symbols now if there are enough of them to need a rebuild,
+    // so that work is never left to a query.
+    public void settle() {
+        boolean behind;
+        synchronized (pendingLock) {
+            behind = latest != null && pendingCount > latest.size() / REBUILD_SHARE;
+        }
+        if (behind) {
+            synchronized (this) {
+                catchUp();
+            }
+        }
+    }
+
+    // Re-ranks the symbols changed since the last query
+    private void catchUp() {
+        MarketSnapshot snapshot;
+        long[] changed;
+        synchronized (pendingLock) {
+            snapshot = latest;
+            changed = pending;
+            pending = spare;
+            pendingCount = 0;
+        }
+        spare = changed;
+        if (snapshot == null) {
+            return;
+        }
+        rankedSnapshot = snapshot;
+        int size = snapshot.size();
+        // A restored checkpoint may have fewer symbols
+        for (int id = size; id < ranked; id++) {
+            if (state[id] != ABSENT) {
+                remove(id);
+            }
+        }
+        if (size > priority.length) {
+            grow(Math.max(size, priority.length * 2));
+        }
+        int words = Math.min(changed.length, (size + 63) >>> 6);
+        int changedCount = 0;
+        for (int w = 0; w < words; w++) {
+            changedCount += Long.bitCount(changed[w]);
+        }
+        boolean rebuild = changedCount > size / REBUILD_SHARE;
+        for (int w = 0; w < words; w++) {
+            long bits = changed[w];
+            while (bits != 0) {
+                update((w << 6) + Long.numberOfTrailingZeros(bits), snapshot, !rebuild);
+                bits &= bits - 1;
+            }
+        }
+        Arrays.fill(changed, 0L);
+        ranked = size;
+        if (rebuild) {
+            int[] present = new int[size];
+            int n = 0;
+            for (int id = 0; id < size; id++) {
+                if (state[id] != ABSENT) {
+                    present[n++] = id;
+                }
+            }
+            for (Ranking ranking : rankings) {
+                ranking.rebuild(present, n);
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        int from = priority.length;
+        priority = Arrays.copyOf(priority, capacity);
+        for (int id = from; id < capacity; id++) {
+            priority[id] = (int) priorities.nextLong();
+        }
+        state = Arrays.copyOf(state, capacity);
+        valueCents = Arrays.copyOf(valueCents, capacity);
+        order = new int[capacity];
+        orderScratch = new int[capacity];
+        keys = new long[capacity];
+        keysScratch = new long[capacity];
+        for (Ranking ranking : rankings) {
+            ranking.grow(capacity);
+        }
+    }
+
+    // Moves the symbol in every ranking, or only records its values when the rankings will be rebuilt
+    private void update(int id, MarketSnapshot snapshot, boolean move) {
+        if (state[id] != ABSENT) {
+            uncount(id);
+        }
+        double change = changeOf(snapshot, id);
+        state[id] = change > 0 ? ADVANCING : change < 0 ? DECLINING : UNCHANGED;
+        valueCents[id] = snapshot.getPriceCents(id);
+        count(id);
+        for (int m = 0; m < METRICS.length; m++) {
+            if (move) {
+                rankings[m].set(id, METRICS[m].of(snapshot, id));
+            } else {
+                rankings[m].value[id] = METRICS[m].of(snapshot, id);
+            }
+        }
+    }
+
+    // Maps a double to a long whose unsigned order is Double.compare's order
+    private static long sortKey(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+
+    private void remove(int id) {
+        uncount(id);
+        state[id] = ABSENT;
+        for (Ranking ranking : rankings) {
+            ranking.remove(id);
+        }
+    }
+
+    private void count(int id) {
+        if (state[id] == ADVANCING) {
+            advancing++;
+        } else if (state[id] == DECLINING) {
+            declining++;
+        } else {
+            unchanged++;
+        }
+        totalValueCents += valueCents[id];
+    }
+
+    private void uncount(int id) {
+        if (state[id] == ADVANCING) {
+            advancing--;
+        } else if (state[id] == DECLINING) {
+            declining--;
+        } else {
+            unchanged--;
+        }
+        totalValueCents -= valueCents[id];
+    }
+
+    // The n highest and lowest symbols of every ranking, and breadth, as of the latest snapshot
+    public synchronized Standings getStandings(int n) {
+        catchUp();
+        int[][] top = new int[METRICS.length][];
+        int[][] bottom = new int[METRICS.length][];
+        for (int m = 0; m < METRICS.length; m++) {
+            top[m] = rankings[m].highest(n);
+            bottom[m] = rankings[m].lowest(n);
+        }
+        return new Standings(rankedSnapshot, top, bottom, advancing, declining, unchanged, totalValueCents);
+    }
+
+    // 0 for the symbol ranked highest, or -1 if the symbol is not ranked
+    public synchronized int rankOf(Metric metric, int id) {
+        catchUp();
+        return id >= 0 && id < ranked && state[id] != ABSENT ? rankings[metric.ordinal()].rank(id) : -1;
+    }
+
+    // Point-in-time leaders and breadth; symbols are ids of getSnapshot()
+    public static final class Standings {
+        private final MarketSnapshot snapshot;
+        private final int[][] top;
+        private final int[][] bottom;
+        private final int advancing;
+        private final int declining;
+        private final int unchanged;
+        private final long totalValueCents;
+
+        Standings(MarketSnapshot snapshot, int[][] top, int[][] bottom, int advancing, int declining,
+                  int unchanged, long totalValueCents) {
+            this.snapshot = snapshot;
+            this.top = top;
+            this.bottom = bottom;
+            this.advancing = advancing;
+            this.declining = declining;
+            this.unchanged = unchanged;
+            this.totalValueCents = totalValueCents;
+        }
+
+        // Null before the market has published a snapshot
+        public MarketSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        // Highest first
+        public int[] getTop(Metric metric) {
+            return top[metric.ordinal()].clone();
+        }
+
+        // Lowest first
+        public int[] getBottom(Metric metric) {
+            return bottom[metric.ordinal()].clone();
+        }
+
+        public double getValue(Metric metric, int id) {
+            return metric.of(snapshot, id);
+        }
+
+        public int getAdvancing() {
+            return advancing;
+        }
+
+        public int getDeclining() {
+            return declining;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public long getTotalValueCents() {
+            return totalValueCents;
+        }
+    }
+
+    // Symbol ids ordered by (value, id) in a treap: a binary search tree kept
+    // balanced by random priorities, each node also counting its subtree so
+    // ranks can be found on the way down. Nodes are symbol ids; a node's
+    // children and count sit side by side in links, so visiting it touches one
+    // cache line there and one in value.
+    private final class Ranking {
+        private static final int NIL = -1;
+        private static final int LEFT = 0;
+        private static final int RIGHT = 1;
+        private static final int COUNT = 2;
+        private static final int SHIFT = 2; // four ints per node, the last unused
+
+        private double[] value = new double[0];
+        private int[] links = new int[0];
+        private int root = NIL;
+        // Traversal stack, as deep as the tree has been
+        private int[] stack = new int[64];
+        // Results of split
+        private int splitLeft;
+        private int splitRight;
+
+        void grow(int capacity) {
+            value = Arrays.copyOf(value, capacity);
+            links = Arrays.copyOf(links, capacity << SHIFT);
+        }
+
+        private int left(int node) {
+            return links[(node << SHIFT) + LEFT];
+        }
+
+        private int right(int node) {
+            return links[(node << SHIFT) + RIGHT];
+        }
+
+        private void setLeft(int node, int child) {
+            links[(node << SHIFT) + LEFT] = child;
+        }
+
+        private void setRight(int node, int child) {
+            links[(node << SHIFT) + RIGHT] = child;
+        }
+
+        private int countOf(int node) {
+            return node == NIL ? 0 : links[(node << SHIFT) + COUNT];
+        }
+
+        private void setCount(int node, int count) {
+            links[(node << SHIFT) + COUNT] = count;
+        }
+
+        private void recount(int node) {
+            setCount(node, 1 + countOf(left(node)) + countOf(right(node)));
+        }
+
+        private boolean before(int a, double aValue, int b) {
+            int c = Double.compare(aValue, value[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        // Inserts the id, or moves it if its value changed
+        void set(int id, double newValue) {
+            // Ids in the tree count at least themselves
+            if (countOf(id) != 0) {
+                if (Double.compare(value[id], newValue) == 0) {
+                    return;
+                }
+                root = remove(root, id);
+            }
+            value[id] = newValue;
+            setLeft(id, NIL);
+            setRight(id, NIL);
+            setCount(id, 1);
+            root = insert(root, id);
+        }
+
+        void remove(int id) {
+            if (countOf(id) != 0) {
+                root = remove(root, id);
+            }
+        }
+
+        private int insert(int node, int id) {
+            if (node == NIL) {
+                return id;
+            }
+            if (priority[id] > priority[node]) {
+                split(node, id);
+                setLeft(id, splitLeft);
+                setRight(id, splitRight);
+                recount(id);
+                return id;
+            }
+            if (before(id, value[id], node)) {
+                setLeft(node, insert(left(node), id));
+            } else {
+                setRight(node, insert(right(node), id));
+            }
+            setCount(node, countOf(node) + 1);
+            return node;
+        }
+
+        // Splits the subtree into the nodes before id and the nodes after it
+        private void split(int node, int id) {
+            if (node == NIL) {
+                splitLeft = NIL;
+                splitRight = NIL;
+            } else if (before(node, value[node], id)) {
+                split(right(node), id);
+                setRight(node, splitLeft);
+                recount(node);
+                splitLeft = node;
+            } else {
+                split(left(node), id);
+                setLeft(node, splitRight);
+                recount(node);
+                splitRight = node;
+            }
+        }
+
+        private int remove(int node, int id) {
+            if (node == id) {
+                int merged = merge(left(id), right(id));
+                setCount(id, 0);
+                return merged;
+            }
+            if (before(id, value[id], node)) {
+                setLeft(node, remove(left(node), id));
+            } else {
+                setRight(node, remove(right(node), id));
+            }
+            setCount(node, countOf(node) - 1);
+            return node;
+        }
+
+        // Joins two subtrees where every node of a comes before every node of b
+        private int merge(int a, int b) {
+            if (a == NIL) {
+                return b;
+            }
+            if (b == NIL) {
+                return a;
+            }
+            if (priority[a] > priority[b]) {
+                setRight(a, merge(right(a), b));
+                recount(a);
+                return a;
+            }
+            setLeft(b, merge(a, left(b)));
+            recount(b);
+            return b;
+        }
+
+        // Number of ids after this one
+        int rank(int id) {
+            int rank = countOf(right(id));
+            int node = root;
+            while (node != id) {
+                if (before(id, value[id], node)) {
+                    rank += 1 + countOf(right(node));
+                    node = left(node);
+                } else {
+                    node = right(node);
+                }
+            }
+            return rank;
+        }
+
+        // Rebuilds the tree over the first n of ids, which are in ascending
+        // order: a stable radix sort puts them in (value, id) order, then the
+        // nodes are linked in one pass with a stack holding the right spine
+        void rebuild(int[] ids, int n) {
+            int[] sorted = sort(ids, n);
+            int depth = 0;
+            for (int i = 0; i < n; i++) {
+                int id = sorted[i];
+                // Nodes of lower priority leave the spine and become id's left subtree
+                int last = NIL;
+                while (depth > 0 && priority[stack[depth - 1]] < priority[id]) {
+                    last = stack[--depth];
+                    recount(last);
+                }
+                setLeft(id, last);
+                setRight(id, NIL);
+                if (depth > 0) {
+                    setRight(stack[depth - 1], id);
+                }
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = id;
+            }
+            while (depth > 0) {
+                recount(stack[--depth]);
+            }
+            root = n == 0 ? NIL : stack[0];
+        }
+
+        // Least significant digit first; each pass is stable, so equal values keep id order
+        private int[] sort(int[] ids, int n) {
+            int[] from = order;
+            int[] to = orderScratch;
+            long[] fromKeys = keys;
+            long[] toKeys = keysScratch;
+            for (int i = 0; i < n; i++) {
+                from[i] = ids[i];
+                fromKeys[i] = sortKey(value[ids[i]]);
+            }
+            int mask = buckets.length - 1;
+            for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+                Arrays.fill(buckets, 0);
+                for (int i = 0; i < n; i++) {
+                    buckets[(int) (fromKeys[i] >>> shift) & mask]++;
+                }
+                // Digits every key shares, like the high bits of nearby values, need no pass
+                if (n == 0 || buckets[(int) (fromKeys[0] >>> shift) & mask] == n) {
+                    continue;
+                }
+                for (int b = 0, start = 0; b < buckets.length; b++) {
+                    int bucket = buckets[b];
+                    buckets[b] = start;
+                    start += bucket;
+                }
+                for (int i = 0; i < n; i++) {
+                    int position = buckets[(int) (fromKeys[i] >>> shift) & mask]++;
+                    to[position] = from[i];
+                    toKeys[position] = fromKeys[i];
+                }
+                int[] swapIds = from;
+                from = to;
+                to = swapIds;
+                long[] swapKeys = fromKeys;
+                fromKeys = toKeys;
+                toKeys = swapKeys;
+            }
+            return from;
+        }
+
+        // Up to n ids from the highest value down
+        int[] highest(int n) {
+            return walk(n, true);
+        }
+
+        // Up to n ids from the lowest value up
+        int[] lowest(int n) {
+            return walk(n, false);
+        }
+
+        private int[] walk(int n, boolean descending) {
+            int[] ids = new int[Math.min(n, countOf(root))];
+            int found = 0;
+            int depth = 0;
+            int node = root;
+            while (found < ids.length) {
+                while (node != NIL) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = node;
+                    node = descending ? right(node) : left(node);
+                }
+                node = stack[--depth];
+                ids[found++] = node;
+                node = descending ? left(node) : right(node);
+            }
+            return ids;
+        }
+    }
+}
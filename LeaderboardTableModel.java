@@ -0,0 +1,76 @@
+import javax.swing.table.AbstractTableModel;
+
+// One row per rank with the leaders of each leaderboard ranking side by side.
+// Refreshed from a Leaderboard.Standings a few times a second; only cells whose
+// text changed are repainted.
+public class LeaderboardTableModel extends AbstractTableModel {
+    public static final int RANK = 0;
+    public static final int GAINERS = 1;
+    public static final int LOSERS = 2;
+    public static final int ACTIVE = 3;
+    public static final int MOVES = 4;
+
+    private static final String[] COLUMNS = {"#", "Top Gainers", "Top Losers", "Most Active", "Biggest Moves"};
+
+    private final String[][] cells;
+
+    public LeaderboardTableModel(int rows) {
+        cells = new String[rows][COLUMNS.length];
+        for (int row = 0; row < rows; row++) {
+            cells[row][RANK] = Integer.toString(row + 1);
+        }
+    }
+
+    public void update(Leaderboard.Standings standings) {
+        MarketSnapshot snapshot = standings.getSnapshot();
+        if (snapshot == null) {
+            return;
+        }
+        int[] gainers = standings.getTop(Leaderboard.Metric.CHANGE_PERCENT);
+        int[] losers = standings.getBottom(Leaderboard.Metric.CHANGE_PERCENT);
+        int[] active = standings.getTop(Leaderboard.Metric.VOLUME);
+        int[] moves = standings.getTop(Leaderboard.Metric.MOVE);
+        for (int row = 0; row < cells.length; row++) {
+            // Gainers that are not up, or losers that are not down, are left out
+            set(row, GAINERS, row < gainers.length && snapshot.getChangePercent(gainers[row]) > 0
+                ? change(snapshot, gainers[row]) : "");
+            set(row, LOSERS, row < losers.length && snapshot.getChangePercent(losers[row]) < 0
+                ? change(snapshot, losers[row]) : "");
+            set(row, ACTIVE, row < active.length && snapshot.getVolume(active[row]) > 0
+                ? String.format("%s  %,d", snapshot.getSymbol(active[row]), snapshot.getVolume(active[row])) : "");
+            set(row, MOVES, row < moves.length && snapshot.getChangePercent(moves[row]) != 0
+                ? change(snapshot, moves[row]) : "");
+        }
+    }
+
+    private static String change(MarketSnapshot snapshot, int id) {
+        return String.format("%s  %+.2f%%", snapshot.getSymbol(id), snapshot.getChangePercent(id));
+    }
+
+    private void set(int row, int column, String text) {
+        if (!text.equals(cells[row][column])) {
+            cells[row][column] = text;
+            fireTableCellUpdated(row, column);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return cells.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return cells[row][column];
+    }
+}
@@ -1,8 +1,20 @@
 import javax.swing.*;
 import java.awt.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.*;
+import java.util.Random;
 
 public class Main {
+    private static final double STARTING_CASH = 10000.00;
+    private static final String JOURNAL_FILE = "portfolio.journal";
+    private static final String CHECKPOINT_FILE = "simulator.checkpoint";
+
     public static void main(String[] args) {
+        if (Metrics.ENABLED) {
+            startMetrics();
+        }
+
         try {
             // Set system look and feel
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -22,16 +34,162 @@ public class Main {
 
         SwingUtilities.invokeLater(() -> {
             // Create and start the stock market simulation
-            StockMarket stockMarket = new StockMarket();
+            // Instruments come from -Dstocksim.universe (a CSV, see SymbolUniverse) or the built-in stocks
+            StockMarket stockMarket = openMarket();
+
+            // Continue from the last checkpoint, if there is one
+            Checkpoint checkpoint = readCheckpoint();
+            if (checkpoint != null) {
+                checkpoint.restore(stockMarket);
+            }
             
+            // Orders from the GUI are matched against per-symbol order books
+            MatchingEngine matchingEngine = new MatchingEngine(stockMarket);
+            matchingEngine.start();
+
+            // Holdings and cash are rebuilt from the checkpoint and the journal left by previous sessions
+            Portfolio portfolio = openPortfolio(checkpoint);
+
+            // Price alerts and stop orders are checked against every tick
+            TriggerEngine triggerEngine = new TriggerEngine(stockMarket, matchingEngine);
+            stockMarket.addObserver(triggerEngine);
+
             // Create the main trading GUI
-            StockTradingGUI tradingGUI = new StockTradingGUI();
+            StockTradingGUI tradingGUI = new StockTradingGUI(matchingEngine, portfolio, stockMarket.getUniverse(),
+                triggerEngine, stockMarket.getLeaderboard());
             
             // Add the trading GUI as an observer to the stock market
             stockMarket.addObserver(tradingGUI);
+
+            // Stream the same prices to the web client (index.html)
+            startMarketDataServer(stockMarket);
+
+            // Publish ticks to other processes on this host (see FeedReader)
+            startSharedMemoryFeed(stockMarket);
+
+            startCheckpoints(stockMarket, portfolio);
             
             // Start updating stock prices
             stockMarket.startMarketSimulation();
         });
     }
+
+    // Serves /metrics and /metrics.json on localhost (port from -Dstocksim.metrics.port)
+    private static void startMetrics() {
+        Metrics.startSampler();
+        int port = Integer.getInteger("stocksim.metrics.port", MetricsServer.DEFAULT_PORT);
+        try {
+            MetricsServer server = new MetricsServer(port);
+            server.start();
+            System.out.println("Metrics at http://localhost:" + server.getPort() + "/metrics");
+        } catch (IOException e) {
+            // The simulator still runs; only the endpoint is missing
+            e.printStackTrace();
+        }
+    }
+
+    // Port from -Dstocksim.web.port (default 8000); a negative port disables the server.
+    // Listens on loopback only unless -Dstocksim.web.host names another address (e.g. 0.0.0.0)
+    private static void startMarketDataServer(StockMarket stockMarket) {
+        int port = Integer.getInteger("stocksim.web.port", MarketDataServer.DEFAULT_PORT);
+        if (port < 0) {
+            return;
+        }
+        try {
+            String host = System.getProperty("stocksim.web.host");
+            InetAddress address = host != null ? InetAddress.getByName(host) : InetAddress.getLoopbackAddress();
+            MarketDataServer server = new MarketDataServer(address, port, Paths.get("."));
+            stockMarket.addObserver(server);
+            server.onMarketUpdate(stockMarket.getSnapshot());
+            server.start();
+            System.out.println("Web client at http://" + address.getHostAddress() + ":" + server.getPort());
+        } catch (IOException e) {
+            // The desktop GUI works without it
+            e.printStackTrace();
+        }
+    }
+
+    // File from -Dstocksim.feed; no feed is published without it
+    private static void startSharedMemoryFeed(StockMarket stockMarket) {
+        String file = System.getProperty("stocksim.feed");
+        if (file == null) {
+            return;
+        }
+        try {
+            // Room to name symbols added after startup as well
+            int symbolCapacity = Math.max(1024, stockMarket.getSnapshot().size() * 2);
+            SharedMemoryFeed feed = new SharedMemoryFeed(Paths.get(file), symbolCapacity);
+            stockMarket.addObserver(feed);
+            Runtime.getRuntime().addShutdownHook(new Thread(feed::close));
+            System.out.println("Market data feed at " + feed.getFile().toAbsolutePath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static StockMarket openMarket() {
+        String file = System.getProperty("stocksim.universe");
+        if (file == null) {
+            return new StockMarket();
+        }
+        StockMarket stockMarket = new StockMarket(new Random().nextLong(), false);
+        try {
+            long start = System.nanoTime();
+            SymbolUniverse universe = SymbolUniverse.load(Paths.get(file));
+            stockMarket.loadUniverse(universe);
+            System.out.printf("Loaded %,d symbols from %s in %d ms%n", universe.size(), file,
+                (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            // Fall back to the built-in stocks rather than an empty market
+            e.printStackTrace();
+            stockMarket.loadUniverse(SymbolUniverse.defaults());
+        }
+        return stockMarket;
+    }
+
+    private static Checkpoint readCheckpoint() {
+        Path file = Paths.get(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return Checkpoint.read(file);
+        } catch (IOException e) {
+            // Start from scratch rather than refusing to start
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Interval in seconds from -Dstocksim.checkpoint.interval (default 60); 0 disables checkpoints.
+    // The portfolio belongs to the EDT, so it is read there.
+    private static void startCheckpoints(StockMarket stockMarket, Portfolio portfolio) {
+        int seconds = Integer.getInteger("stocksim.checkpoint.interval", 60);
+        if (seconds <= 0) {
+            return;
+        }
+        Checkpointer checkpointer = new Checkpointer(Paths.get(CHECKPOINT_FILE),
+            () -> Checkpoint.capture(stockMarket, portfolio, SwingUtilities::invokeLater, null));
+        checkpointer.start(seconds * 1000L);
+    }
+
+    private static Portfolio openPortfolio(Checkpoint checkpoint) {
+        try {
+            TransactionJournal journal = new TransactionJournal(Paths.get(JOURNAL_FILE));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+            return checkpoint != null ? checkpoint.restorePortfolio(STARTING_CASH, journal)
+                : new Portfolio(STARTING_CASH, journal);
+        } catch (IOException e) {
+            // Fall back to an in-memory session rather than refusing to start
+            e.printStackTrace();
+            return checkpoint != null ? checkpoint.restorePortfolio(STARTING_CASH, null)
+                : new Portfolio(STARTING_CASH);
+        }
+    }
 }
@@ -0,0 +1,516 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// Streams live market data to browsers over WebSocket and serves the static
+// web client, all from one non-blocking NIO selector thread.
+//
+// The market thread only records which symbols changed and wakes the
+// selector. At most once per FRAME_INTERVAL the selector folds those changes
+// into every client's own dirty set and sends each client whose previous
+// frame has been fully written one binary frame with the latest price of
+// every symbol that changed since. A client that reads slowly therefore keeps
+// a bounded backlog (one pending frame plus its dirty bits) and gets only the
+// newest price per symbol when it catches up.
+//
+// Frames are binary WebSocket messages, little-endian:
+//   symbols: u8 1, u32 count, count x (u32 id, u8 length, UTF-8 symbol)
+//   prices:  u8 2, u32 epoch, u32 count, count x (u32 id, i32 price in cents,
+//            i32 change in hundredths of a percent)
+//
+// The server listens on the loopback interface unless it is given another
+// address. Static assets (known web file types directly under the web root)
+// are read once at startup, so serving them never touches the disk on the
+// selector thread; edits to them need a restart.
+//
+//   java -cp bin MarketDataServer [port] [web root] [bind address]   runs a headless market
+public class MarketDataServer implements StockMarket.MarketObserver {
+    public static final int DEFAULT_PORT = 8000;
+    public static final long FRAME_INTERVAL_NANOS = 50_000_000L; // at most 20 frames per second
+
+    static final byte MESSAGE_SYMBOLS = 1;
+    static final byte MESSAGE_PRICES = 2;
+
+    private static final int MAX_REQUEST_BYTES = 8192;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=utf-8");
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+    }
+
+    // File name under the web root -> contents
+    private final Map<String, byte[]> assets;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final List<Client> clients = new ArrayList<>();
+    private Thread thread;
+    private volatile boolean running;
+
+    // Handed over from the market thread under pendingLock
+    private final Object pendingLock = new Object();
+    private MarketSnapshot pendingSnapshot;
+    private BitSet pendingChanges = new BitSet();
+    private BitSet frameChanges = new BitSet();
+
+    // Selector-thread state
+    private MarketSnapshot snapshot;
+    private int knownSymbols;
+    private byte[] symbolTable = new byte[0];
+    private long nextFrameNanos;
+
+    public MarketDataServer(int port, Path webRoot) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, webRoot);
+    }
+
+    // Binding a non-loopback address (or the wildcard) exposes the feed and the web client to the network
+    public MarketDataServer(InetAddress address, int port, Path webRoot) throws IOException {
+        this.assets = loadAssets(webRoot.toAbsolutePath().normalize());
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(address, port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // Only known web assets directly under the web root; never journals or sources
+    private static Map<String, byte[]> loadAssets(Path webRoot) throws IOException {
+        Map<String, byte[]> assets = new HashMap<>();
+        if (!Files.isDirectory(webRoot)) {
+            return assets;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(webRoot)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (CONTENT_TYPES.containsKey(extensionOf(name)) && Files.isRegularFile(file)) {
+                    assets.put(name, Files.readAllBytes(file));
+                }
+            }
+        }
+        return assets;
+    }
+
+    private static String extensionOf(String path) {
+        return path.substring(path.lastIndexOf('.') + 1);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public synchronized int getClientCount() {
+        return clients.size();
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "market-data-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            if (thread != null) {
+                thread.join(1000);
+            }
+            selector.close();
+            serverChannel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Already closing
+        }
+    }
+
+    @Override
+    public void onMarketUpdate(MarketSnapshot snapshot) {
+        // Called on the market thread: record the change and let the selector do the rest
+        synchronized (pendingLock) {
+            pendingSnapshot = snapshot;
+            for (int i = 0; i < snapshot.getChangedCount(); i++) {
+                pendingChanges.set(snapshot.getChangedId(i));
+            }
+        }
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long wait = Math.max(1, (nextFrameNanos - System.nanoTime()) / 1_000_000L);
+                selector.select(wait);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                if (System.nanoTime() >= nextFrameNanos) {
+                    broadcast();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        Client client = (Client) key.attachment();
+        try {
+            if (key.isReadable()) {
+                client.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                client.flush();
+            }
+        } catch (IOException e) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Client client = new Client(channel);
+                client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Picks up the market's changes and sends every idle client its next frame
+    private void broadcast() {
+        nextFrameNanos = System.nanoTime() + FRAME_INTERVAL_NANOS;
+        MarketSnapshot latest;
+        synchronized (pendingLock) {
+            latest = pendingSnapshot;
+            pendingSnapshot = null;
+            BitSet swap = pendingChanges;
+            pendingChanges = frameChanges;
+            frameChanges = swap;
+        }
+        if (latest != null) {
+            snapshot = latest;
+            if (snapshot.size() > knownSymbols) {
+                symbolTable = encodeSymbols(snapshot);
+                knownSymbols = snapshot.size();
+            }
+        }
+        List<Client> streaming;
+        synchronized (this) {
+            streaming = new ArrayList<>(clients);
+        }
+        for (Client client : streaming) {
+            if (latest != null) {
+                client.dirty.or(frameChanges);
+            }
+            try {
+                client.sendFrame();
+            } catch (IOException e) {
+                client.close();
+            }
+        }
+        frameChanges.clear();
+    }
+
+    private static byte[] encodeSymbols(MarketSnapshot snapshot) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(snapshot.size() * 12);
+        ByteBuffer header = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MESSAGE_SYMBOLS).putInt(snapshot.size());
+        out.write(header.array(), 0, 5);
+        ByteBuffer entry = ByteBuffer.allocate(5 + 255).order(ByteOrder.LITTLE_ENDIAN);
+        for (int id = 0; id < snapshot.size(); id++) {
+            byte[] symbol = snapshot.getSymbol(id).getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(255, symbol.length);
+            entry.clear();
+            entry.putInt(id).put((byte) length).put(symbol, 0, length);
+            out.write(entry.array(), 0, entry.position());
+        }
+        return out.toByteArray();
+    }
+
+    private final class Client {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        ByteBuffer out = ByteBuffer.allocate(0);
+        boolean websocket;
+        boolean closeAfterWrite;
+        // Symbols changed since the last frame this client was sent
+        final BitSet dirty = new BitSet();
+        int sentSymbols;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (!in.hasRemaining()) {
+                if (websocket) {
+                    in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+                } else {
+                    respond(431, "Request Header Fields Too Large", "text/plain", new byte[0]);
+                    return;
+                }
+            }
+            int read = channel.read(in);
+            if (read < 0) {
+                close();
+                return;
+            }
+            if (websocket) {
+                readFrames();
+            } else {
+                readRequest();
+            }
+        }
+
+        private void readRequest() throws IOException {
+            String request = new String(in.array(), 0, in.position(), StandardCharsets.ISO_8859_1);
+            int end = request.indexOf("\r\n\r\n");
+            if (end < 0) {
+                if (in.position() >= MAX_REQUEST_BYTES) {
+                    respond(431, "Request Header Fields Too Large", "text/plain", new byte[0]);
+                }
+                return;
+            }
+            String[] lines = request.substring(0, end).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+                }
+            }
+            in.clear();
+            if (requestLine.length < 2 || !requestLine[0].equals("GET")) {
+                respond(405, "Method Not Allowed", "text/plain", new byte[0]);
+                return;
+            }
+            String path = requestLine[1];
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            if (path.equals("/feed") && "websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                upgrade(headers.get("sec-websocket-key"));
+            } else {
+                serveFile(path);
+            }
+        }
+
+        private void upgrade(String webSocketKey) throws IOException {
+            if (webSocketKey == null) {
+                respond(400, "Bad Request", "text/plain", new byte[0]);
+                return;
+            }
+            String accept;
+            try {
+                MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+                accept = Base64.getEncoder().encodeToString(
+                    sha1.digest((webSocketKey + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is always available", e);
+            }
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n";
+            queue(response.getBytes(StandardCharsets.ISO_8859_1));
+            websocket = true;
+            // A new viewer starts with every symbol dirty so its first frame is a full image
+            if (snapshot != null) {
+                dirty.set(0, snapshot.size());
+            }
+            synchronized (MarketDataServer.this) {
+                clients.add(this);
+            }
+            sendFrame();
+        }
+
+        private void serveFile(String path) throws IOException {
+            if (path.equals("/")) {
+                path = "/index.html";
+            }
+            byte[] body = assets.get(path.substring(1));
+            if (body == null) {
+                respond(404, "Not Found", "text/plain", "Not Found".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            respond(200, "OK", CONTENT_TYPES.get(extensionOf(path)), body);
+        }
+
+        private void respond(int status, String reason, String contentType, byte[] body) throws IOException {
+            String header = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: close\r\n\r\n";
+            byte[] head = header.getBytes(StandardCharsets.ISO_8859_1);
+            byte[] response = Arrays.copyOf(head, head.length + body.length);
+            System.arraycopy(body, 0, response, head.length, body.length);
+            closeAfterWrite = true;
+            queue(response);
+        }
+
+        // Client frames are masked; only close and ping need an answer
+        private void readFrames() throws IOException {
+            in.flip();
+            while (in.remaining() >= 2) {
+                int start = in.position();
+                int opcode = in.get(start) & 0x0f;
+                int lengthCode = in.get(start + 1) & 0x7f;
+                int headerLength = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + 4;
+                if (in.remaining() < headerLength) {
+                    break;
+                }
+                // Frame headers are big-endian, the buffer's default order
+                long length = lengthCode == 126 ? in.getShort(start + 2) & 0xffff
+                    : lengthCode == 127 ? in.getLong(start + 2) : lengthCode;
+                if (length > MAX_REQUEST_BYTES) {
+                    close();
+                    return;
+                }
+                if (in.remaining() < headerLength + length) {
+                    break;
+                }
+                byte[] payload = new byte[(int) length];
+                int maskAt = start + headerLength - 4;
+                for (int i = 0; i < length; i++) {
+                    payload[i] = (byte) (in.get(start + headerLength + i) ^ in.get(maskAt + (i & 3)));
+                }
+                in.position(start + headerLength + (int) length);
+                if (opcode == 0x8) {
+                    queue(encodeFrame(0x8, payload));
+                    closeAfterWrite = true;
+                } else if (opcode == 0x9) {
+                    queue(encodeFrame(0xA, payload));
+                }
+            }
+            in.compact();
+        }
+
+        // Sends the next frame if the previous one has been written out
+        void sendFrame() throws IOException {
+            if (!websocket || closeAfterWrite || out.hasRemaining() || snapshot == null) {
+                return;
+            }
+            if (sentSymbols < knownSymbols) {
+                sentSymbols = knownSymbols;
+                queue(encodeFrame(0x2, symbolTable));
+                return;
+            }
+            int count = dirty.cardinality();
+            if (count == 0) {
+                return;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(9 + count * 12).order(ByteOrder.LITTLE_ENDIAN);
+            payload.put(MESSAGE_PRICES).putInt((int) snapshot.getEpoch()).putInt(count);
+            for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+                payload.putInt(id)
+                    .putInt((int) snapshot.getPriceCents(id))
+                    .putInt((int) Math.round(snapshot.getChangePercent(id) * 100.0));
+            }
+            dirty.clear();
+            queue(encodeFrame(0x2, payload.array()));
+        }
+
+        private void queue(byte[] bytes) throws IOException {
+            if (out.hasRemaining()) {
+                ByteBuffer merged = ByteBuffer.allocate(out.remaining() + bytes.length);
+                merged.put(out).put(bytes).flip();
+                out = merged;
+            } else {
+                out = ByteBuffer.wrap(bytes);
+            }
+            flush();
+        }
+
+        void flush() throws IOException {
+            channel.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (closeAfterWrite) {
+                close();
+            } else if (websocket) {
+                // Caught up: send whatever changed while the last frame was in flight
+                sendFrame();
+            }
+        }
+
+        void close() {
+            synchronized (MarketDataServer.this) {
+                clients.remove(this);
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    // Server-to-client frames are unmasked
+    static byte[] encodeFrame(int opcode, byte[] payload) {
+        int length = payload.length;
+        int headerLength = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(headerLength + length).order(ByteOrder.BIG_ENDIAN);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length < 65536) {
+            frame.put((byte) 126).putShort((short) length);
+        } else {
+            frame.put((byte) 127).putLong(length);
+        }
+        return frame.put(payload).array();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Path webRoot = Paths.get(args.length > 1 ? args[1] : ".");
+        InetAddress address = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        StockMarket market = new StockMarket();
+        MarketDataServer server = new MarketDataServer(address, port, webRoot);
+        market.addObserver(server);
+        server.onMarketUpdate(market.getSnapshot());
+        server.start();
+        market.startMarketSimulation();
+        System.out.println("Serving " + webRoot.toAbsolutePath().normalize() + " at http://"
+            + address.getHostAddress() + ":" + server.getPort());
+    }
+}
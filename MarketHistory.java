@@ -0,0 +1,226 @@
+import java.util.*;
+
+// Recent tick history and streaming OHLCV bars for every symbol in a PriceStore.
+// Everything is preallocated in flat primitive columns (symbol id * capacity +
+// slot), so recording a tick is a handful of array stores and memory is fixed by
+// the configured capacities. Each symbol is only written by the thread that
+// moves its price, exactly like the PriceStore columns.
+public class MarketHistory {
+    public enum BarInterval {
+        ONE_SECOND(1_000_000_000L),
+        ONE_MINUTE(60_000_000_000L),
+        FIVE_MINUTES(300_000_000_000L),
+        ONE_HOUR(3_600_000_000_000L);
+
+        private final long nanos;
+
+        BarInterval(long nanos) {
+            this.nanos = nanos;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    private static final BarInterval[] INTERVALS = BarInterval.values();
+    // Largest array the VM reliably allocates
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final int tickCapacity;
+    private final int barCapacity;
+    // Symbols whose tick and bar slots still fit one array, so slot indexes never overflow
+    private final int maxSymbols;
+    private int symbolCapacity;
+
+    // Tick ring: time and price per slot, plus write position and fill count per symbol
+    private long[] tickTime;
+    private double[] tickPrice;
+    private int[] tickHead;
+    private int[] tickCount;
+
+    // One set of bar columns per interval
+    private final Bars[] bars = new Bars[INTERVALS.length];
+
+    private final class Bars {
+        final long intervalNanos;
+        long[] start;
+        double[] open;
+        double[] high;
+        double[] low;
+        double[] close;
+        long[] volume;
+        int[] head;  // slot of the bar currently being built
+        int[] count;
+
+        Bars(long intervalNanos) {
+            this.intervalNanos = intervalNanos;
+            allocate(symbolCapacity);
+        }
+
+        void allocate(int symbols) {
+            int slots = symbols * barCapacity;
+            start = start == null ? new long[slots] : Arrays.copyOf(start, slots);
+            open = open == null ? new double[slots] : Arrays.copyOf(open, slots);
+            high = high == null ? new double[slots] : Arrays.copyOf(high, slots);
+            low = low == null ? new double[slots] : Arrays.copyOf(low, slots);
+            close = close == null ? new double[slots] : Arrays.copyOf(close, slots);
+            volume = volume == null ? new long[slots] : Arrays.copyOf(volume, slots);
+            head = head == null ? new int[symbols] : Arrays.copyOf(head, symbols);
+            count = count == null ? new int[symbols] : Arrays.copyOf(count, symbols);
+        }
+
+        void onPrice(int id, double price, long timeNanos) {
+            long bucket = timeNanos - Math.floorMod(timeNanos, intervalNanos);
+            int base = id * barCapacity;
+            int slot = base + head[id];
+            if (count[id] == 0 || start[slot] != bucket) {
+                if (count[id] != 0) {
+                    head[id] = (head[id] + 1) % barCapacity;
+                    slot = base + head[id];
+                }
+                if (count[id] < barCapacity) {
+                    count[id]++;
+                }
+                start[slot] = bucket;
+                open[slot] = price;
+                high[slot] = price;
+                low[slot] = price;
+                close[slot] = price;
+                volume[slot] = 0;
+                return;
+            }
+            if (price > high[slot]) {
+                high[slot] = price;
+            }
+            if (price < low[slot]) {
+                low[slot] = price;
+            }
+            close[slot] = price;
+        }
+
+        void onVolume(int id, long shares) {
+            if (count[id] != 0) {
+                volume[id * barCapacity + head[id]] += shares;
+            }
+        }
+    }
+
+    public MarketHistory(int tickCapacity, int barCapacity, int initialSymbols) {
+        if (tickCapacity < 1 || barCapacity < 1) {
+            throw new IllegalArgumentException("History capacities must be positive");
+        }
+        this.tickCapacity = tickCapacity;
+        this.barCapacity = barCapacity;
+        this.maxSymbols = MAX_ARRAY_LENGTH / Math.max(tickCapacity, barCapacity);
+        this.symbolCapacity = Math.max(1, initialSymbols);
+        checkSymbols(symbolCapacity);
+        this.tickTime = new long[symbolCapacity * tickCapacity];
+        this.tickPrice = new double[symbolCapacity * tickCapacity];
+        this.tickHead = new int[symbolCapacity];
+        this.tickCount = new int[symbolCapacity];
+        for (int i = 0; i < INTERVALS.length; i++) {
+            bars[i] = new Bars(INTERVALS[i].getNanos());
+        }
+    }
+
+    // Bytes held per symbol with this configuration
+    public long bytesPerSymbol() {
+        return tickCapacity * 16L + 8L + INTERVALS.length * (barCapacity * 48L + 8L);
+    }
+
+    void ensureSymbols(int symbols) {
+        if (symbols <= symbolCapacity) {
+            return;
+        }
+        checkSymbols(symbols);
+        int capacity = (int) Math.min(Math.max(symbols, symbolCapacity * 2L), maxSymbols);
+        tickTime = Arrays.copyOf(tickTime, capacity * tickCapacity);
+        tickPrice = Arrays.copyOf(tickPrice, capacity * tickCapacity);
+        tickHead = Arrays.copyOf(tickHead, capacity);
+        tickCount = Arrays.copyOf(tickCount, capacity);
+        symbolCapacity = capacity;
+        for (Bars series : bars) {
+            series.allocate(capacity);
+        }
+    }
+
+    private void checkSymbols(int symbols) {
+        if (symbols > maxSymbols) {
+            throw new IllegalArgumentException(String.format(
+                "History of %,d ticks and %,d bars per symbol holds at most %,d symbols, not %,d",
+                tickCapacity, barCapacity, maxSymbols, symbols));
+        }
+    }
+
+    // Forget everything recorded for a symbol (used when it is re-listed)
+    void reset(int id) {
+        tickHead[id] = 0;
+        tickCount[id] = 0;
+        for (Bars series : bars) {
+            series.head[id] = 0;
+            series.count[id] = 0;
+        }
+    }
+
+    void onPrice(int id, double price, long timeNanos) {
+        int slot = id * tickCapacity + tickHead[id];
+        tickTime[slot] = timeNanos;
+        tickPrice[slot] = price;
+        tickHead[id] = (tickHead[id] + 1) % tickCapacity;
+        if (tickCount[id] < tickCapacity) {
+            tickCount[id]++;
+        }
+        for (Bars series : bars) {
+            series.onPrice(id, price, timeNanos);
+        }
+    }
+
+    void onVolume(int id, long shares) {
+        for (Bars series : bars) {
+            series.onVolume(id, shares);
+        }
+    }
+
+    // Copies up to n of the most recent ticks, oldest first; returns how many were copied
+    public int copyTicks(int id, int n, long[] times, double[] prices) {
+        int copied = Math.min(n, tickCount[id]);
+        int base = id * tickCapacity;
+        int slot = Math.floorMod(tickHead[id] - copied, tickCapacity);
+        for (int i = 0; i < copied; i++) {
+            times[i] = tickTime[base + slot];
+            prices[i] = tickPrice[base + slot];
+            slot = slot + 1 == tickCapacity ? 0 : slot + 1;
+        }
+        return copied;
+    }
+
+    // Copies up to n of the most recent bars (the last one may still be forming),
+    // oldest first; returns how many were copied
+    public int copyBars(int id, BarInterval interval, int n, long[] start,
+                        double[] open, double[] high, double[] low, double[] close, long[] volume) {
+        Bars series = bars[interval.ordinal()];
+        int copied = Math.min(n, series.count[id]);
+        int base = id * barCapacity;
+        int slot = Math.floorMod(series.head[id] - copied + 1, barCapacity);
+        for (int i = 0; i < copied; i++) {
+            int at = base + slot;
+            start[i] = series.start[at];
+            open[i] = series.open[at];
+            high[i] = series.high[at];
+            low[i] = series.low[at];
+            close[i] = series.close[at];
+            volume[i] = series.volume[at];
+            slot = slot + 1 == barCapacity ? 0 : slot + 1;
+        }
+        return copied;
+    }
+
+    public int getTickCapacity() {
+        return tickCapacity;
+    }
+
+    public int getBarCapacity() {
+        return barCapacity;
+    }
+}
@@ -0,0 +1,173 @@
+import java.util.*;
+
+// Immutable state of the whole market after one tick. A single snapshot is
+// built per tick and shared by every observer, and every value read from it
+// belongs to the same epoch no matter how far the live market has moved on.
+public final class MarketSnapshot {
+    private final long epoch;
+    private final PriceStore columns;
+    private volatile Map<String, Stock> stockMap;
+
+    // Takes a frozen copy of the columns (see PriceStore.freeze)
+    MarketSnapshot(long epoch, PriceStore columns) {
+        if (!columns.isFrozen()) {
+            throw new IllegalArgumentException("Snapshot columns must be frozen");
+        }
+        this.epoch = epoch;
+        this.columns = columns;
+    }
+
+    // The frozen columns behind this snapshot (see Checkpoint)
+    PriceStore getColumns() {
+        return columns;
+    }
+
+    // Version number; increases with every snapshot the market publishes
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    // Market time of the tick this snapshot was taken after
+    public long getTimeNanos() {
+        return columns.getTime();
+    }
+
+    public int idOf(String symbol) {
+        return columns.idOf(symbol);
+    }
+
+    public String getSymbol(int id) {
+        return columns.getSymbol(id);
+    }
+
+    public double getPrice(int id) {
+        return columns.getPrice(id);
+    }
+
+    public long getPriceCents(int id) {
+        return columns.getPriceCents(id);
+    }
+
+    public double getPreviousClose(int id) {
+        return columns.getPreviousClose(id);
+    }
+
+    public long getPreviousCloseCents(int id) {
+        return columns.getPreviousCloseCents(id);
+    }
+
+    public double getHigh(int id) {
+        return columns.getHigh(id);
+    }
+
+    public double getLow(int id) {
+        return columns.getLow(id);
+    }
+
+    public double getChangePercent(int id) {
+        return columns.getChangePercent(id);
+    }
+
+    public long getVolume(int id) {
+        return columns.getVolume(id);
+    }
+
+    // The market's live indicators. They are updated by the next tick, so from
+    // an observer they belong to this snapshot's tick; null if the store has none.
+    public Indicators getIndicators() {
+        return columns.getIndicators();
+    }
+
+    // Ids whose values changed since the previous snapshot handed to observers,
+    // in ascending order. A snapshot read between ticks lists the same ids again
+    // in the next tick's snapshot, so observers never miss a change.
+    public int getChangedCount() {
+        return columns.getChangedCount();
+    }
+
+    public int getChangedId(int index) {
+        return columns.getChangedId(index);
+    }
+
+    public double getPrice(String symbol) {
+        int id = columns.idOf(symbol);
+        return id >= 0 ? columns.getPrice(id) : 0.0;
+    }
+
+    public long getPriceCents(String symbol) {
+        int id = columns.idOf(symbol);
+        return id >= 0 ? columns.getPriceCents(id) : 0L;
+    }
+
+    // Read-only Stock view; setters throw UnsupportedOperationException
+    public Stock getStock(String symbol) {
+        int id = columns.idOf(symbol);
+        return id >= 0 ? columns.view(id) : null;
+    }
+
+    public Stock getStock(int id) {
+        return columns.view(id);
+    }
+
+    // Unmodifiable symbol -> Stock map backed by this snapshot (no copying)
+    public Map<String, Stock> asMap() {
+        Map<String, Stock> map = stockMap;
+        if (map == null) {
+            map = Collections.unmodifiableMap(new StockMap());
+            stockMap = map;
+        }
+        return map;
+    }
+
+    private class StockMap extends AbstractMap<String, Stock> {
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && columns.idOf((String) key) >= 0;
+        }
+
+        @Override
+        public Stock get(Object key) {
+            return key instanceof String ? getStock((String) key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Stock>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return columns.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, Stock>> iterator() {
+                    return new Iterator<>() {
+                        private int id = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return id < columns.size();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Stock> next() {
+                            if (id >= columns.size()) {
+                                throw new NoSuchElementException();
+                            }
+                            Stock stock = columns.view(id++);
+                            return new AbstractMap.SimpleImmutableEntry<>(stock.getSymbol(), stock);
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
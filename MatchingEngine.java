@@ -0,0 +1,205 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Routes orders to per-symbol OrderBooks. Symbols are partitioned across a
+// fixed set of matching threads; each thread is the only writer of its books
+// and is fed by a lock-free queue, so any number of traders can submit
+// concurrently without taking a lock.
+public class MatchingEngine {
+    private static final int IDLE_SPINS = 1_000;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    // Callbacks run on the matching thread that owns the order's symbol
+    public interface OrderListener {
+        void onFill(Order order, long shares, long priceCents);
+
+        // The engine has finished with this submission: filled, resting, cancelled or rejected
+        default void onProcessed(Order order) {}
+    }
+
+    private final StockMarket market;
+    private final Shard[] shards;
+    private final AtomicLong nextOrderId = new AtomicLong(1);
+    private volatile boolean houseLiquidity = true;
+    private volatile boolean running;
+
+    public MatchingEngine(StockMarket market) {
+        this(market, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public MatchingEngine(StockMarket market, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Matching engine needs at least one thread: " + threads);
+        }
+        this.market = market;
+        this.shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    // When enabled, market orders that exhaust the book fill against the
+    // simulated market at its current price instead of being cancelled
+    public void setHouseLiquidity(boolean enabled) {
+        this.houseLiquidity = enabled;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Shard shard : shards) {
+            shard.start();
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (Shard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    public Order submitMarket(String symbol, Order.Side side, long quantity, OrderListener listener) {
+        return submit(symbol, side, Order.Type.MARKET, 0L, quantity, 0L, listener);
+    }
+
+    public Order submitLimit(String symbol, Order.Side side, double limitPrice, long quantity, OrderListener listener) {
+        return submit(symbol, side, Order.Type.LIMIT, Money.ofDollars(limitPrice), quantity, 0L, listener);
+    }
+
+    public Order submitCancel(String symbol, long orderId, OrderListener listener) {
+        return submit(symbol, Order.Side.BUY, Order.Type.CANCEL, 0L, 0L, orderId, listener);
+    }
+
+    private Order submit(String symbol, Order.Side side, Order.Type type, long limitPriceCents,
+                         long quantity, long cancelTargetId, OrderListener listener) {
+        int symbolId = market.getPriceStore().idOf(symbol);
+        if (symbolId < 0) {
+            throw new IllegalArgumentException("Unknown symbol: " + symbol);
+        }
+        if (type != Order.Type.CANCEL && quantity <= 0) {
+            throw new IllegalArgumentException("Order quantity must be positive: " + quantity);
+        }
+        if (type == Order.Type.LIMIT && limitPriceCents <= 0) {
+            throw new IllegalArgumentException("Limit price must be positive");
+        }
+        Order order = new Order(nextOrderId.getAndIncrement(), symbol, symbolId, side, type,
+            limitPriceCents, quantity, cancelTargetId, listener);
+        order.setSubmitNanos(System.nanoTime());
+        shards[symbolId % shards.length].enqueue(order);
+        return order;
+    }
+
+    private final class Shard implements OrderBook.TradeSink {
+        private final int index;
+        private final ConcurrentLinkedQueue<Order> inbox = new ConcurrentLinkedQueue<>();
+        private final Map<Integer, OrderBook> books = new HashMap<>();
+        private volatile boolean parked;
+        private volatile Thread thread;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        void start() {
+            Thread t = new Thread(this::run, "matching-" + index);
+            t.setDaemon(true);
+            thread = t;
+            t.start();
+        }
+
+        void stop() {
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                thread = null;
+            }
+        }
+
+        void enqueue(Order order) {
+            inbox.offer(order);
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void run() {
+            int idle = 0;
+            while (running) {
+                Order order = inbox.poll();
+                if (order == null) {
+                    if (++idle < IDLE_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        parked = true;
+                        if (inbox.isEmpty() && running) {
+                            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                        }
+                        parked = false;
+                    }
+                    continue;
+                }
+                idle = 0;
+                process(order);
+            }
+        }
+
+        private void process(Order order) {
+            OrderBook book = books.computeIfAbsent(order.getSymbolId(), OrderBook::new);
+            if (order.getType() == Order.Type.CANCEL) {
+                Order cancelled = book.cancel(order.getCancelTargetId());
+                if (cancelled != null && cancelled.getListener() != null) {
+                    cancelled.getListener().onProcessed(cancelled);
+                }
+            } else {
+                long unfilled = book.match(order, this);
+                if (unfilled > 0 && order.getType() == Order.Type.MARKET) {
+                    if (houseLiquidity) {
+                        fillAgainstMarket(order, unfilled);
+                    } else {
+                        order.cancelRemaining();
+                    }
+                }
+            }
+            if (order.getListener() != null) {
+                order.getListener().onProcessed(order);
+            }
+        }
+
+        // Priced from the latest published snapshot: the live price column is
+        // being written by the tick thread
+        private void fillAgainstMarket(Order order, long shares) {
+            int symbolId = order.getSymbolId();
+            MarketSnapshot current = market.getPublishedSnapshot();
+            if (current == null || symbolId >= current.size()) {
+                current = market.getSnapshot();
+            }
+            long priceCents = current.getPriceCents(symbolId);
+            order.fill(shares);
+            market.recordTrade(order.getSymbolId(), shares, priceCents);
+            if (order.getListener() != null) {
+                order.getListener().onFill(order, shares, priceCents);
+            }
+        }
+
+        @Override
+        public void onTrade(Order incoming, Order resting, long shares, long priceCents) {
+            market.recordTrade(incoming.getSymbolId(), shares, priceCents);
+            if (incoming.getListener() != null) {
+                incoming.getListener().onFill(incoming, shares, priceCents);
+            }
+            if (resting.getListener() != null) {
+                resting.getListener().onFill(resting, shares, priceCents);
+            }
+        }
+    }
+}
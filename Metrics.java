@@ -0,0 +1,176 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Process-wide registry of latency histograms, counters and gauges.
+//
+// Instrumentation is off unless the JVM is started with -Dstocksim.metrics=true.
+// ENABLED is a static final constant, so every "if (Metrics.ENABLED)" block
+// on a hot path is folded away by the JIT when metrics are off and costs
+// nothing. Histograms and counters are still registered (cheaply) either way,
+// so the call sites can hold them in static final fields.
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("stocksim.metrics");
+    // Every Nth tick also measures the bytes the tick thread allocated
+    public static final int ALLOCATION_SAMPLE_INTERVAL = 64;
+
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static Thread sampler;
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // Gauges are read only when a report is rendered; a later registration replaces an earlier one
+    public static void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Per-thread allocation tracking is switched on the first time a count is
+    // asked for, not when the class loads; the simulator only asks when ENABLED,
+    // so with metrics off the JVM never pays for the accounting
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean threads = allocationBean();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) bean;
+            if (allocation.isThreadAllocatedMemorySupported()) {
+                allocation.setThreadAllocatedMemoryEnabled(true);
+                return allocation;
+            }
+        }
+        return null;
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell
+    public static long currentThreadAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = Allocation.threads;
+        return threads != null ? threads.getCurrentThreadAllocatedBytes() : -1L;
+    }
+
+    // Starts a daemon thread that samples the process-wide allocation rate,
+    // heap use and GC activity once a second
+    public static synchronized void startSampler() {
+        if (sampler != null) {
+            return;
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        double[] allocationRate = new double[1];
+        gauge("jvm.allocation.bytes_per_sec", () -> allocationRate[0]);
+        gauge("jvm.heap.used.bytes", () -> memory.getHeapMemoryUsage().getUsed());
+        gauge("jvm.gc.count", () -> collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum());
+        gauge("jvm.gc.time.ms", () -> collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum());
+
+        sampler = new Thread(() -> {
+            long lastBytes = totalAllocatedBytes();
+            long lastNanos = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long bytes = totalAllocatedBytes();
+                long now = System.nanoTime();
+                // Threads that exited take their counts with them; never report a negative rate
+                allocationRate[0] = Math.max(0, bytes - lastBytes) * 1e9 / (now - lastNanos);
+                lastBytes = bytes;
+                lastNanos = now;
+            }
+        }, "metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private static long totalAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = Allocation.threads;
+        if (threads == null) {
+            return 0L;
+        }
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    // Plain-text report, one "name value" line per metric
+    public static String toText() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            out.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            out.append(gauge.getKey()).append(' ').append(formatGauge(gauge.getValue())).append('\n');
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            LatencyHistogram.Snapshot s = histogram.snapshot();
+            String name = histogram.getName();
+            out.append(name).append(".count ").append(s.getCount()).append('\n');
+            out.append(name).append(".mean ").append(String.format(Locale.ROOT, "%.1f", s.getMean())).append('\n');
+            out.append(name).append(".p50 ").append(s.getPercentile(50)).append('\n');
+            out.append(name).append(".p90 ").append(s.getPercentile(90)).append('\n');
+            out.append(name).append(".p99 ").append(s.getPercentile(99)).append('\n');
+            out.append(name).append(".p999 ").append(s.getPercentile(99.9)).append('\n');
+            out.append(name).append(".max ").append(s.getMax()).append('\n');
+        }
+        return out.toString();
+    }
+
+    public static String toJson() {
+        StringBuilder out = new StringBuilder("{\"enabled\":").append(ENABLED).append(",\"counters\":{");
+        String separator = "";
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            out.append(separator).append('"').append(counter.getKey()).append("\":").append(counter.getValue().sum());
+            separator = ",";
+        }
+        out.append("},\"gauges\":{");
+        separator = "";
+        for (Map.Entry<String, DoubleSupplier> gauge : gauges.entrySet()) {
+            out.append(separator).append('"').append(gauge.getKey()).append("\":").append(formatGauge(gauge.getValue()));
+            separator = ",";
+        }
+        out.append("},\"histograms\":{");
+        separator = "";
+        for (LatencyHistogram histogram : histograms.values()) {
+            LatencyHistogram.Snapshot s = histogram.snapshot();
+            out.append(separator).append('"').append(histogram.getName()).append("\":{")
+                .append("\"count\":").append(s.getCount())
+                .append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", s.getMean()))
+                .append(",\"p50\":").append(s.getPercentile(50))
+                .append(",\"p90\":").append(s.getPercentile(90))
+                .append(",\"p99\":").append(s.getPercentile(99))
+                .append(",\"p999\":").append(s.getPercentile(99.9))
+                .append(",\"max\":").append(s.getMax()).append('}');
+            separator = ",";
+        }
+        return out.append("}}").toString();
+    }
+
+    private static String formatGauge(DoubleSupplier gauge) {
+        double value = gauge.getAsDouble();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+            ? Long.toString((long) value)
+            : String.format(Locale.ROOT, "%.3f", value);
+    }
+}
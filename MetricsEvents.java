@@ -0,0 +1,45 @@
+import jdk.jfr.*;
+
+// JDK Flight Recorder events for the simulator's hot paths. They are only
+// emitted when metrics are enabled, and then cost next to nothing unless a
+// recording is running, e.g.
+//   java -Dstocksim.metrics=true -XX:StartFlightRecording=filename=sim.jfr -cp bin Main
+// and show up under "Stock Simulator" in JDK Mission Control.
+public final class MetricsEvents {
+    private MetricsEvents() {
+    }
+
+    @Name("stocksim.Tick")
+    @Label("Market Tick")
+    @Category("Stock Simulator")
+    @Description("Generating one tick of prices")
+    public static class TickEvent extends Event {
+        @Label("Symbols")
+        public int symbols;
+    }
+
+    @Name("stocksim.ObserverUpdate")
+    @Label("Observer Update")
+    @Category("Stock Simulator")
+    @Description("One observer handling one market snapshot")
+    public static class ObserverEvent extends Event {
+        @Label("Observer")
+        public String observer;
+
+        @Label("Epoch")
+        public long epoch;
+    }
+
+    @Name("stocksim.TableRefresh")
+    @Label("Table Refresh")
+    @Category("Stock Simulator")
+    @Description("Applying one display frame of market changes to the Swing tables")
+    public static class TableRefreshEvent extends Event {
+        @Label("Changed Symbols")
+        public int changed;
+
+        @Label("Snapshot Lag")
+        @Timespan(Timespan.NANOSECONDS)
+        public long lagNanos;
+    }
+}
@@ -0,0 +1,51 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Serves the Metrics registry on the loopback interface:
+//   GET /metrics       plain text, one "name value" line per metric
+//   GET /metrics.json  the same as a JSON object
+// Reports are rendered on request by the server's own thread, so the
+// simulator threads never do any reporting work.
+public class MetricsServer {
+    public static final int DEFAULT_PORT = 9091;
+
+    private final HttpServer server;
+
+    public MetricsServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            boolean json = exchange.getRequestURI().getPath().endsWith(".json");
+            respond(exchange, json ? Metrics.toJson() : Metrics.toText(),
+                json ? "application/json" : "text/plain; charset=utf-8");
+        });
+    }
+
+    private static void respond(HttpExchange exchange, String body, String contentType) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,64 @@
+// Money and prices as a whole number of cents in a long. Prices, trade values,
+// cash, cost basis and position values are all kept this way, so sums and
+// differences are exact, nothing is boxed, and comparing two prices is one
+// integer compare. Doubles only remain where the maths is statistical: the
+// random price process, percentages and the risk engine.
+public final class Money {
+    public static final long CENTS_PER_DOLLAR = 100L;
+
+    private Money() {
+    }
+
+    // Nearest cent to a dollar amount
+    public static long ofDollars(double dollars) {
+        return Math.round(dollars * CENTS_PER_DOLLAR);
+    }
+
+    public static double toDollars(long cents) {
+        return cents / (double) CENTS_PER_DOLLAR;
+    }
+
+    // Value of quantity units at a price; throws rather than wrapping on overflow
+    public static long times(long priceCents, long quantity) {
+        return Math.multiplyExact(priceCents, quantity);
+    }
+
+    // amount * part / whole rounded to the nearest cent, computed exactly
+    // (e.g. the cost basis that leaves with part of a position's shares).
+    // part and whole are share counts, 0 <= part <= whole.
+    public static long share(long amount, long part, long whole) {
+        long quotient = Math.floorDiv(amount, whole);
+        long remainder = Math.floorMod(amount, whole);
+        return quotient * part + (Math.multiplyExact(remainder, part) + whole / 2) / whole;
+    }
+
+    // Percentage change from one price to another
+    public static double percentChange(long fromCents, long toCents) {
+        return (toCents - fromCents) * 100.0 / fromCents;
+    }
+
+    // "$1234.56" or "-$1234.56"
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(16), cents, false).toString();
+    }
+
+    // "+$1234.56" or "-$1234.56"
+    public static String formatSigned(long cents) {
+        return appendTo(new StringBuilder(16), cents, true).toString();
+    }
+
+    public static StringBuilder appendTo(StringBuilder out, long cents, boolean signed) {
+        if (cents < 0) {
+            out.append('-');
+        } else if (signed) {
+            out.append('+');
+        }
+        long dollars = Math.abs(cents / CENTS_PER_DOLLAR);
+        int fraction = (int) Math.abs(cents % CENTS_PER_DOLLAR);
+        out.append('$').append(dollars).append('.');
+        if (fraction < 10) {
+            out.append('0');
+        }
+        return out.append(fraction);
+    }
+}
@@ -0,0 +1,67 @@
+// An order submitted to the MatchingEngine. Orders are created by traders on
+// any thread and, once submitted, are only touched by the matching thread that
+// owns their symbol.
+public class Order {
+    public enum Side { BUY, SELL }
+    public enum Type { MARKET, LIMIT, CANCEL }
+
+    private final long id;
+    private final String symbol;
+    private final int symbolId;
+    private final Side side;
+    private final Type type;
+    private final long limitPriceCents;
+    private final long quantity;
+    private final long cancelTargetId;
+    private final MatchingEngine.OrderListener listener;
+    private long remaining;
+    private long submitNanos;
+
+    Order(long id, String symbol, int symbolId, Side side, Type type, long limitPriceCents, long quantity,
+          long cancelTargetId, MatchingEngine.OrderListener listener) {
+        this.id = id;
+        this.symbol = symbol;
+        this.symbolId = symbolId;
+        this.side = side;
+        this.type = type;
+        this.limitPriceCents = limitPriceCents;
+        this.quantity = quantity;
+        this.remaining = quantity;
+        this.cancelTargetId = cancelTargetId;
+        this.listener = listener;
+    }
+
+    public long getId() { return id; }
+    public String getSymbol() { return symbol; }
+    public int getSymbolId() { return symbolId; }
+    public Side getSide() { return side; }
+    public Type getType() { return type; }
+    public long getLimitPriceCents() { return limitPriceCents; }
+    public long getQuantity() { return quantity; }
+    public long getRemaining() { return remaining; }
+    public long getFilledQuantity() { return quantity - remaining; }
+    public long getCancelTargetId() { return cancelTargetId; }
+    public long getSubmitNanos() { return submitNanos; }
+    MatchingEngine.OrderListener getListener() { return listener; }
+
+    void setSubmitNanos(long submitNanos) {
+        this.submitNanos = submitNanos;
+    }
+
+    void fill(long shares) {
+        remaining -= shares;
+    }
+
+    void cancelRemaining() {
+        remaining = 0;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.CANCEL) {
+            return String.format("#%d CANCEL #%d %s", id, cancelTargetId, symbol);
+        }
+        return String.format("#%d %s %s %d %s @ %s", id, type, side, quantity, symbol,
+            type == Type.LIMIT ? Money.format(limitPriceCents) : "MKT");
+    }
+}
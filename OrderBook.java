@@ -0,0 +1,97 @@
+import java.util.*;
+
+// Limit order book for a single symbol with price-time priority.
+// Not thread-safe: each book is owned by exactly one matching thread.
+public class OrderBook {
+    private final int symbolId;
+    // Best bid is the highest price, best ask the lowest; each level is FIFO
+    private final TreeMap<Long, ArrayDeque<Order>> bids = new TreeMap<>(Comparator.reverseOrder());
+    private final TreeMap<Long, ArrayDeque<Order>> asks = new TreeMap<>();
+    private final Map<Long, Order> resting = new HashMap<>();
+
+    // Receives every execution produced by the book
+    interface TradeSink {
+        void onTrade(Order incoming, Order resting, long shares, long priceCents);
+    }
+
+    public OrderBook(int symbolId) {
+        this.symbolId = symbolId;
+    }
+
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    // Matches an incoming market or limit order against the opposite side.
+    // Whatever is left of a limit order rests in the book; a market order's
+    // remainder is returned to the caller.
+    long match(Order order, TradeSink sink) {
+        TreeMap<Long, ArrayDeque<Order>> opposite = order.getSide() == Order.Side.BUY ? asks : bids;
+        while (order.getRemaining() > 0 && !opposite.isEmpty()) {
+            Map.Entry<Long, ArrayDeque<Order>> best = opposite.firstEntry();
+            long levelPrice = best.getKey();
+            if (order.getType() == Order.Type.LIMIT && !crosses(order, levelPrice)) {
+                break;
+            }
+            ArrayDeque<Order> level = best.getValue();
+            while (order.getRemaining() > 0 && !level.isEmpty()) {
+                Order head = level.peekFirst();
+                long shares = Math.min(order.getRemaining(), head.getRemaining());
+                order.fill(shares);
+                head.fill(shares);
+                sink.onTrade(order, head, shares, levelPrice);
+                if (head.getRemaining() == 0) {
+                    level.pollFirst();
+                    resting.remove(head.getId());
+                }
+            }
+            if (level.isEmpty()) {
+                opposite.pollFirstEntry();
+            }
+        }
+        if (order.getRemaining() > 0 && order.getType() == Order.Type.LIMIT) {
+            TreeMap<Long, ArrayDeque<Order>> own = order.getSide() == Order.Side.BUY ? bids : asks;
+            own.computeIfAbsent(order.getLimitPriceCents(), p -> new ArrayDeque<>()).addLast(order);
+            resting.put(order.getId(), order);
+            return 0;
+        }
+        return order.getRemaining();
+    }
+
+    private static boolean crosses(Order order, long levelPrice) {
+        return order.getSide() == Order.Side.BUY
+            ? order.getLimitPriceCents() >= levelPrice
+            : order.getLimitPriceCents() <= levelPrice;
+    }
+
+    // Removes a resting order; returns it, or null if it already traded or never existed
+    Order cancel(long orderId) {
+        Order order = resting.remove(orderId);
+        if (order == null) {
+            return null;
+        }
+        TreeMap<Long, ArrayDeque<Order>> side = order.getSide() == Order.Side.BUY ? bids : asks;
+        ArrayDeque<Order> level = side.get(order.getLimitPriceCents());
+        if (level != null) {
+            level.remove(order);
+            if (level.isEmpty()) {
+                side.remove(order.getLimitPriceCents());
+            }
+        }
+        order.cancelRemaining();
+        return order;
+    }
+
+    // Best prices in cents, or -1 when that side is empty
+    public long getBestBidCents() {
+        return bids.isEmpty() ? -1 : bids.firstKey();
+    }
+
+    public long getBestAskCents() {
+        return asks.isEmpty() ? -1 : asks.firstKey();
+    }
+
+    public int getRestingCount() {
+        return resting.size();
+    }
+}
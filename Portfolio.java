@@ -1,127 +1,421 @@
+import java.io.*;
 import java.util.*;
 
+// Cash, cost basis and values are whole cents (see Money), so the running
+// market value stays exact however many trades and ticks are applied to it.
 public class Portfolio {
-    private Map<String, Integer> holdings; // Map of stock symbol to number of shares
-    private List<Transaction> transactions;
-    private double initialValue;
-    private double currentValue;
+    private Map<String, Position> holdings; // Map of stock symbol to position
+    private Position[] positionsById = new Position[0]; // Same positions indexed by market symbol id
+    private final List<String> unresolved = new ArrayList<>(); // Positions not yet linked to a symbol id
+    private List<Transaction> transactions; // Only used when there is no journal
+    private TransactionJournal journal;
+    private long cashCents;
+    private long costBasisCents; // Cost basis of the open positions
+    private long marketValueCents; // Running mark-to-market value of all positions
 
     public Portfolio() {
+        this(0.0);
+    }
+
+    public Portfolio(double startingCash) {
         this.holdings = new HashMap<>();
         this.transactions = new ArrayList<>();
-        this.initialValue = 0.0;
-        this.currentValue = 0.0;
+        this.cashCents = Money.ofDollars(startingCash);
+        this.costBasisCents = 0L;
+        this.marketValueCents = 0L;
+    }
+
+    // Rebuilds holdings and cash from the journal, then records every new trade to it.
+    // History stays on disk instead of growing the heap.
+    public Portfolio(double startingCash, TransactionJournal journal) {
+        this(startingCash);
+        this.journal = journal;
+        this.transactions = null;
+        replay(journal);
+    }
+
+    // Rebuilds a portfolio from a checkpoint. With a journal, only the trades
+    // journaled after the checkpoint was taken are read and applied on top of it.
+    Portfolio(Checkpoint.PortfolioState state, TransactionJournal journal) {
+        this(0.0);
+        this.cashCents = state.cashCents;
+        for (int i = 0; i < state.symbols.length; i++) {
+            Position position = new Position(state.shares[i], state.lastPriceCents[i]);
+            position.costCents = state.costCents[i];
+            holdings.put(state.symbols[i], position);
+            unresolved.add(state.symbols[i]);
+            costBasisCents += position.costCents;
+            marketValueCents += Money.times(position.lastPriceCents, position.shares);
+        }
+        if (journal == null) {
+            transactions.addAll(state.transactions);
+            return;
+        }
+        this.journal = journal;
+        this.transactions = null;
+        journal.replay(state.journalPosition, journal.getRecordCount(), (symbolId, side, epochNanos, quantity, priceCents) -> {
+            String symbol = journal.getSymbol(symbolId);
+            if (side == TransactionJournal.SIDE_BUY) {
+                applyBuy(symbol, (int) quantity, priceCents);
+            } else {
+                Position position = holdings.get(symbol);
+                if (position != null && position.shares >= quantity) {
+                    applySell(symbol, position, (int) quantity, priceCents);
+                }
+            }
+        });
+    }
+
+    // Cash, positions and, without a journal, the trade history for a checkpoint.
+    // Not thread safe: call it on the thread that trades this portfolio.
+    Checkpoint.PortfolioState captureState() {
+        int count = holdings.size();
+        String[] symbols = new String[count];
+        int[] shares = new int[count];
+        long[] lastPriceCents = new long[count];
+        long[] costCents = new long[count];
+        int i = 0;
+        for (Map.Entry<String, Position> holding : holdings.entrySet()) {
+            Position position = holding.getValue();
+            symbols[i] = holding.getKey();
+            shares[i] = position.shares;
+            lastPriceCents[i] = position.lastPriceCents;
+            costCents[i++] = position.costCents;
+        }
+        return new Checkpoint.PortfolioState(cashCents, journal != null ? journal.getRecordCount() : -1L,
+            symbols, shares, lastPriceCents, costCents,
+            journal == null ? new ArrayList<>(transactions) : Collections.emptyList());
+    }
+
+    private void replay(TransactionJournal journal) {
+        Replay replay = new Replay(cashCents);
+        journal.replay(replay);
+        for (int symbolId = 0; symbolId < replay.shares.length; symbolId++) {
+            if (replay.shares[symbolId] != 0) {
+                String symbol = journal.getSymbol(symbolId);
+                Position position = new Position((int) replay.shares[symbolId], replay.lastPriceCents[symbolId]);
+                position.costCents = replay.costCents[symbolId];
+                holdings.put(symbol, position);
+                unresolved.add(symbol);
+                costBasisCents += position.costCents;
+                marketValueCents += Money.times(position.lastPriceCents, position.shares);
+            }
+        }
+        cashCents = replay.cashCents;
+    }
+
+    // Accumulates positions by journal symbol id; nothing is allocated per record
+    private static class Replay implements TransactionJournal.RecordVisitor {
+        long[] shares = new long[64];
+        long[] lastPriceCents = new long[64];
+        long[] costCents = new long[64];
+        long cashCents;
+
+        Replay(long cashCents) {
+            this.cashCents = cashCents;
+        }
+
+        @Override
+        public void onRecord(int symbolId, byte side, long epochNanos, long quantity, long priceCents) {
+            if (symbolId >= shares.length) {
+                shares = Arrays.copyOf(shares, Math.max(symbolId + 1, shares.length * 2));
+                lastPriceCents = Arrays.copyOf(lastPriceCents, shares.length);
+                costCents = Arrays.copyOf(costCents, shares.length);
+            }
+            if (side == TransactionJournal.SIDE_BUY) {
+                shares[symbolId] += quantity;
+                costCents[symbolId] += Money.times(priceCents, quantity);
+                cashCents -= Money.times(priceCents, quantity);
+            } else {
+                // A sale of more than is held (a damaged or hand-edited journal)
+                // is skipped, as it is when replaying on top of a checkpoint
+                if (shares[symbolId] == 0 || quantity > shares[symbolId]) {
+                    return;
+                }
+                // Sold shares take their average cost with them
+                costCents[symbolId] -= Money.share(costCents[symbolId], quantity, shares[symbolId]);
+                shares[symbolId] -= quantity;
+                cashCents += Money.times(priceCents, quantity);
+            }
+            lastPriceCents[symbolId] = priceCents;
+        }
+    }
+
+    // Shares held in one symbol, marked at the last price seen for it
+    private static class Position {
+        int shares;
+        long lastPriceCents;
+        long costCents; // What the shares still held cost in total
+        int marketId = -1; // Symbol id in the market snapshots, resolved on first update
+
+        Position(int shares, long lastPriceCents) {
+            this.shares = shares;
+            this.lastPriceCents = lastPriceCents;
+        }
     }
 
     // Inner class to represent a transaction
     public static class Transaction {
         private String symbol;
         private int shares;
-        private double price;
+        private long priceCents;
         private String type; // "BUY" or "SELL"
         private Date timestamp;
 
-        public Transaction(String symbol, int shares, double price, String type) {
+        public Transaction(String symbol, int shares, long priceCents, String type) {
+            this(symbol, shares, priceCents, type, new Date());
+        }
+
+        public Transaction(String symbol, int shares, long priceCents, String type, Date timestamp) {
             this.symbol = symbol;
             this.shares = shares;
-            this.price = price;
+            this.priceCents = priceCents;
             this.type = type;
-            this.timestamp = new Date();
+            this.timestamp = timestamp;
         }
 
         public String getSymbol() { return symbol; }
         public int getShares() { return shares; }
-        public double getPrice() { return price; }
+        public long getPriceCents() { return priceCents; }
+        public double getPrice() { return Money.toDollars(priceCents); }
         public String getType() { return type; }
         public Date getTimestamp() { return timestamp; }
 
         @Override
         public String toString() {
-            return String.format("%s: %s %d shares of %s at $%.2f", 
-                timestamp, type, shares, symbol, price);
+            return String.format("%s: %s %d shares of %s at %s",
+                timestamp, type, shares, symbol, Money.format(priceCents));
         }
     }
 
     // Method to buy stocks
     public boolean buyStock(String symbol, int shares, double price) {
-        // Add to holdings
-        holdings.put(symbol, holdings.getOrDefault(symbol, 0) + shares);
-        
-        // Record transaction
-        transactions.add(new Transaction(symbol, shares, price, "BUY"));
-        
-        // Update portfolio value
-        double transactionValue = shares * price;
-        currentValue += transactionValue;
-        
+        return buy(symbol, shares, Money.ofDollars(price));
+    }
+
+    // Returns false, changing nothing, if the cash does not cover the purchase
+    public boolean buy(String symbol, int shares, long priceCents) {
+        if (shares <= 0 || Money.times(priceCents, shares) > cashCents) {
+            return false;
+        }
+        // Record the transaction first: if the journal write fails, nothing changes
+        record(symbol, shares, priceCents, "BUY");
+        applyBuy(symbol, shares, priceCents);
+
         return true;
     }
 
+    private void applyBuy(String symbol, int shares, long priceCents) {
+        // Add to holdings
+        Position position = holdings.get(symbol);
+        if (position == null) {
+            position = new Position(0, priceCents);
+            holdings.put(symbol, position);
+            unresolved.add(symbol);
+        }
+        long transactionValue = Money.times(priceCents, shares);
+        position.shares += shares;
+        position.costCents += transactionValue;
+        costBasisCents += transactionValue;
+
+        // Update portfolio value; new shares are marked with the rest of the position
+        marketValueCents += Money.times(position.lastPriceCents, shares);
+        cashCents -= transactionValue;
+    }
+
     // Method to sell stocks
     public boolean sellStock(String symbol, int shares, double price) {
+        return sell(symbol, shares, Money.ofDollars(price));
+    }
+
+    public boolean sell(String symbol, int shares, long priceCents) {
         // Check if we have enough shares to sell
-        int currentShares = holdings.getOrDefault(symbol, 0);
-        if (currentShares < shares) {
+        Position position = holdings.get(symbol);
+        if (position == null || position.shares < shares) {
             return false;
         }
+        // Record the transaction first: if the journal write fails, nothing changes
+        record(symbol, shares, priceCents, "SELL");
+        applySell(symbol, position, shares, priceCents);
+
+        return true;
+    }
 
-        // Update holdings
-        int remainingShares = currentShares - shares;
-        if (remainingShares == 0) {
+    private void applySell(String symbol, Position position, int shares, long priceCents) {
+        // Update holdings; sold shares leave at their average cost. Selling the
+        // last share takes exactly the remaining cost with it.
+        long soldCost = Money.share(position.costCents, shares, position.shares);
+        position.costCents -= soldCost;
+        costBasisCents -= soldCost;
+        position.shares -= shares;
+        if (position.shares == 0) {
             holdings.remove(symbol);
-        } else {
-            holdings.put(symbol, remainingShares);
+            if (position.marketId >= 0) {
+                positionsById[position.marketId] = null;
+            }
         }
 
-        // Record transaction
-        transactions.add(new Transaction(symbol, shares, price, "SELL"));
-
         // Update portfolio value
-        double transactionValue = shares * price;
-        currentValue -= transactionValue;
+        marketValueCents -= Money.times(position.lastPriceCents, shares);
+        cashCents += Money.times(priceCents, shares);
+    }
 
-        return true;
+    private void record(String symbol, int shares, long priceCents, String type) {
+        if (journal == null) {
+            transactions.add(new Transaction(symbol, shares, priceCents, type));
+            return;
+        }
+        byte side = type.equals("BUY") ? TransactionJournal.SIDE_BUY : TransactionJournal.SIDE_SELL;
+        try {
+            journal.append(symbol, side, shares, priceCents);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal " + type + " of " + symbol, e);
+        }
+    }
+
+    public double getCashBalance() {
+        return Money.toDollars(cashCents);
+    }
+
+    public long getCashCents() {
+        return cashCents;
     }
 
     // Get number of shares for a specific stock
     public int getShares(String symbol) {
-        return holdings.getOrDefault(symbol, 0);
+        Position position = holdings.get(symbol);
+        return position != null ? position.shares : 0;
     }
 
     // Get all holdings
     public Map<String, Integer> getHoldings() {
-        return new HashMap<>(holdings);
+        Map<String, Integer> copy = new HashMap<>();
+        for (Map.Entry<String, Position> holding : holdings.entrySet()) {
+            copy.put(holding.getKey(), holding.getValue().shares);
+        }
+        return copy;
+    }
+
+    // Marks positions to a new snapshot using only the symbols it changed
+    public void markToMarket(MarketSnapshot snapshot) {
+        resolvePositions(snapshot);
+        for (int i = 0; i < snapshot.getChangedCount(); i++) {
+            int id = snapshot.getChangedId(i);
+            if (id < positionsById.length) {
+                mark(positionsById[id], snapshot);
+            }
+        }
+    }
+
+    // Same as markToMarket(snapshot), for callers that merged the changed ids of
+    // several snapshots (e.g. one display frame)
+    public void markToMarket(MarketSnapshot snapshot, BitSet changed) {
+        resolvePositions(snapshot);
+        if (holdings.size() < changed.cardinality()) {
+            for (Position position : holdings.values()) {
+                if (position.marketId >= 0 && changed.get(position.marketId)) {
+                    mark(position, snapshot);
+                }
+            }
+        } else {
+            for (int id = changed.nextSetBit(0); id >= 0 && id < positionsById.length; id = changed.nextSetBit(id + 1)) {
+                mark(positionsById[id], snapshot);
+            }
+        }
+    }
+
+    // Each tick moves a position's value by shares * (new price - last price)
+    private void mark(Position position, MarketSnapshot snapshot) {
+        if (position == null) {
+            return;
+        }
+        long price = snapshot.getPriceCents(position.marketId);
+        marketValueCents += Money.times(price - position.lastPriceCents, position.shares);
+        position.lastPriceCents = price;
+    }
+
+    // Links positions opened since the last update to their market symbol id
+    private void resolvePositions(MarketSnapshot snapshot) {
+        Iterator<String> pending = unresolved.iterator();
+        while (pending.hasNext()) {
+            String symbol = pending.next();
+            Position position = holdings.get(symbol);
+            if (position == null || position.marketId >= 0) {
+                pending.remove();
+                continue;
+            }
+            int id = snapshot.idOf(symbol);
+            if (id >= 0) {
+                if (id >= positionsById.length) {
+                    positionsById = Arrays.copyOf(positionsById, Math.max(id + 1, snapshot.size()));
+                }
+                position.marketId = id;
+                positionsById[id] = position;
+                mark(position, snapshot);
+                pending.remove();
+            }
+        }
+    }
+
+    // Current market value of all positions, maintained incrementally
+    public double getMarketValue() {
+        return Money.toDollars(marketValueCents);
+    }
+
+    public long getMarketValueCents() {
+        return marketValueCents;
     }
 
     // Get transaction history
     public List<Transaction> getTransactionHistory() {
-        return new ArrayList<>(transactions);
+        if (journal == null) {
+            return new ArrayList<>(transactions);
+        }
+        List<Transaction> history = new ArrayList<>();
+        journal.replay((symbolId, side, epochNanos, quantity, priceCents) ->
+            history.add(new Transaction(journal.getSymbol(symbolId), (int) quantity, priceCents,
+                side == TransactionJournal.SIDE_BUY ? "BUY" : "SELL",
+                new Date(epochNanos / 1_000_000L))));
+        return history;
     }
 
     // Calculate total value of portfolio given current stock prices
     public double calculateTotalValue(Map<String, Stock> currentStocks) {
-        double totalValue = 0.0;
-        for (Map.Entry<String, Integer> holding : holdings.entrySet()) {
-            String symbol = holding.getKey();
-            int shares = holding.getValue();
-            Stock stock = currentStocks.get(symbol);
+        long totalValue = 0L;
+        for (Map.Entry<String, Position> holding : holdings.entrySet()) {
+            Position position = holding.getValue();
+            Stock stock = currentStocks.get(holding.getKey());
             if (stock != null) {
-                totalValue += shares * stock.getPrice();
+                position.lastPriceCents = stock.getPriceCents();
             }
+            totalValue += Money.times(position.lastPriceCents, position.shares);
         }
-        this.currentValue = totalValue;
-        return totalValue;
+        this.marketValueCents = totalValue;
+        return Money.toDollars(totalValue);
     }
 
-    // Calculate profit/loss
+    // Cost of the shares currently held
+    public double getCostBasis() {
+        return Money.toDollars(costBasisCents);
+    }
+
+    public long getCostBasisCents() {
+        return costBasisCents;
+    }
+
+    // Unrealized profit/loss: market value of the open positions less what they cost
     public double getProfitLoss() {
-        return currentValue - initialValue;
+        return Money.toDollars(getProfitLossCents());
+    }
+
+    public long getProfitLossCents() {
+        return marketValueCents - costBasisCents;
     }
 
     // Get profit/loss percentage
     public double getProfitLossPercentage() {
-        if (initialValue == 0) return 0.0;
-        return ((currentValue - initialValue) / initialValue) * 100;
+        if (costBasisCents == 0) return 0.0;
+        return Money.percentChange(costBasisCents, marketValueCents);
     }
 
     // Method to get portfolio summary
@@ -130,23 +424,23 @@ public class Portfolio {
         summary.append("Portfolio Summary:\n");
         summary.append("----------------\n");
         
-        double totalValue = 0.0;
-        for (Map.Entry<String, Integer> holding : holdings.entrySet()) {
+        long totalValue = 0L;
+        for (Map.Entry<String, Position> holding : holdings.entrySet()) {
             String symbol = holding.getKey();
-            int shares = holding.getValue();
+            int shares = holding.getValue().shares;
             Stock stock = currentStocks.get(symbol);
             if (stock != null) {
-                double value = shares * stock.getPrice();
+                long value = Money.times(stock.getPriceCents(), shares);
                 totalValue += value;
-                summary.append(String.format("%s: %d shares @ $%.2f = $%.2f\n",
-                    symbol, shares, stock.getPrice(), value));
+                summary.append(String.format("%s: %d shares @ %s = %s\n",
+                    symbol, shares, Money.format(stock.getPriceCents()), Money.format(value)));
             }
         }
         
         summary.append("----------------\n");
-        summary.append(String.format("Total Value: $%.2f\n", totalValue));
-        summary.append(String.format("Profit/Loss: $%.2f (%.2f%%)\n",
-            getProfitLoss(), getProfitLossPercentage()));
+        summary.append(String.format("Total Value: %s\n", Money.format(totalValue)));
+        summary.append(String.format("Profit/Loss: %s (%.2f%%)\n",
+            Money.format(getProfitLossCents()), getProfitLossPercentage()));
         
         return summary.toString();
     }
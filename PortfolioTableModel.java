@@ -0,0 +1,127 @@
+import java.util.*;
+import javax.swing.table.AbstractTableModel;
+
+// Portfolio table with a stable symbol-to-row index. Trades insert or delete
+// individual rows, and price updates only repaint the cells of positions whose
+// symbol moved, so selection and editors survive every tick.
+public class PortfolioTableModel extends AbstractTableModel {
+    public static final int SYMBOL = 0;
+    public static final int SHARES = 1;
+    public static final int PRICE = 2;
+    public static final int VALUE = 3;
+    public static final int ACTION = 4;
+
+    private static final String[] COLUMNS = {"Symbol", "Shares", "Avg Price", "Current Value", "Action"};
+
+    private static class Row {
+        final String symbol;
+        int shares;
+
+        Row(String symbol, int shares) {
+            this.symbol = symbol;
+            this.shares = shares;
+        }
+    }
+
+    private final String actionLabel;
+    private final List<Row> rows = new ArrayList<>();
+    private final Map<String, Integer> rowOf = new HashMap<>();
+    private MarketSnapshot snapshot;
+
+    public PortfolioTableModel(String actionLabel) {
+        this.actionLabel = actionLabel;
+    }
+
+    // Reconciles the rows with the current holdings after a trade
+    public void setHoldings(Map<String, Integer> holdings) {
+        boolean removed = false;
+        for (int row = rows.size() - 1; row >= 0; row--) {
+            if (!holdings.containsKey(rows.get(row).symbol)) {
+                rowOf.remove(rows.remove(row).symbol);
+                fireTableRowsDeleted(row, row);
+                removed = true;
+            }
+        }
+        if (removed) {
+            for (int row = 0; row < rows.size(); row++) {
+                rowOf.put(rows.get(row).symbol, row);
+            }
+        }
+
+        for (Map.Entry<String, Integer> holding : holdings.entrySet()) {
+            Integer row = rowOf.get(holding.getKey());
+            int shares = holding.getValue();
+            if (row == null) {
+                rows.add(new Row(holding.getKey(), shares));
+                rowOf.put(holding.getKey(), rows.size() - 1);
+                fireTableRowsInserted(rows.size() - 1, rows.size() - 1);
+            } else if (rows.get(row).shares != shares) {
+                rows.get(row).shares = shares;
+                fireTableCellUpdated(row, SHARES);
+                fireTableCellUpdated(row, VALUE);
+            }
+        }
+    }
+
+    // Repaints price and value cells only for held symbols in changed
+    public void updatePrices(MarketSnapshot next, BitSet changed) {
+        snapshot = next;
+        for (int row = 0; row < rows.size(); row++) {
+            int id = next.idOf(rows.get(row).symbol);
+            if (id >= 0 && changed.get(id)) {
+                fireTableCellUpdated(row, PRICE);
+                fireTableCellUpdated(row, VALUE);
+            }
+        }
+    }
+
+    public String getSymbolAt(int row) {
+        return rows.get(row).symbol;
+    }
+
+    public int getRowOf(String symbol) {
+        Integer row = rowOf.get(symbol);
+        return row != null ? row : -1;
+    }
+
+    private long priceCentsOf(String symbol) {
+        return snapshot != null ? snapshot.getPriceCents(symbol) : 0L;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == ACTION; // Only allow editing of Action column
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Row position = rows.get(row);
+        switch (column) {
+            case SYMBOL:
+                return position.symbol;
+            case SHARES:
+                return position.shares;
+            case PRICE:
+                return Money.format(priceCentsOf(position.symbol));
+            case VALUE:
+                return Money.format(Money.times(priceCentsOf(position.symbol), position.shares));
+            default:
+                return actionLabel;
+        }
+    }
+}
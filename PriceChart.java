@@ -0,0 +1,410 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Line chart of a PriceSeries that keeps up with the market however long the
+// series grows:
+//  - Each pixel column shows the lowest and highest price of the points it
+//    covers (min/max downsampling keeps every spike visible), found in the
+//    series' min/max pyramid rather than by visiting the points.
+//  - That preparation runs on a background thread. A frame timer asks for at
+//    most one frame at a time and only when the series or the view changed, so
+//    any number of ticks between frames costs one preparation and one repaint.
+//  - The plot is kept in a VolatileImage. While the scale and price range stay
+//    the same, a new frame only clears and draws the columns that changed (the
+//    last one drawn and any new ones), scrolling the image when following the
+//    newest prices; the image is only redrawn in full when the view changes.
+//
+// By default the whole series is shown, at a power-of-two number of points per
+// column so the scale (and a full redraw) only changes each time the series
+// doubles. The mouse wheel zooms in on the newest prices; double-click shows
+// the whole series again.
+public class PriceChart extends JComponent {
+    private static final int FRAME_INTERVAL = 1000 / 60;
+    private static final int AXIS_WIDTH = 72;
+    private static final int GRID_LINES = 4;
+    private static final Color BACKGROUND = Color.WHITE;
+    private static final Color GRID = new Color(225, 232, 240);
+    private static final Color LINE = new Color(70, 130, 180); // Steel Blue
+    private static final Color TEXT = new Color(60, 60, 60);
+    private static final LatencyHistogram PREPARE = Metrics.histogram("chart.prepare.nanos");
+    private static final LatencyHistogram PAINT = Metrics.histogram("chart.paint.nanos");
+
+    private static final ExecutorService PREPARER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chart");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // One prepared frame: what each pixel column of the plot shows. Immutable
+    // once published to the EDT.
+    static final class Frame {
+        final PriceSeries series;
+        final int size;     // points in the series when prepared
+        final int step;     // points per column
+        final int first;    // first point of column 0, a multiple of step
+        final int columns;  // columns with points, from the left
+        final int width;
+        final int height;
+        final float low;    // prices mapped to the bottom and top pixel rows
+        final float high;
+        final float[] min;  // per column
+        final float[] max;
+        final int[] top;    // pixel rows each column covers, joined to the previous column
+        final int[] bottom;
+
+        Frame(PriceSeries series, int size, int step, int first, int columns, int width, int height,
+              float low, float high, float[] min, float[] max) {
+            this.series = series;
+            this.size = size;
+            this.step = step;
+            this.first = first;
+            this.columns = columns;
+            this.width = width;
+            this.height = height;
+            this.low = low;
+            this.high = high;
+            this.min = min;
+            this.max = max;
+            this.top = new int[columns];
+            this.bottom = new int[columns];
+            for (int c = 0; c < columns; c++) {
+                int y0 = rowOf(max[c]);
+                int y1 = rowOf(min[c]);
+                // Connect to the previous column so the trace has no breaks
+                if (c > 0) {
+                    int previousTop = rowOf(max[c - 1]);
+                    int previousBottom = rowOf(min[c - 1]);
+                    if (y0 > previousBottom) {
+                        y0 = previousBottom;
+                    }
+                    if (y1 < previousTop) {
+                        y1 = previousTop;
+                    }
+                }
+                top[c] = y0;
+                bottom[c] = y1;
+            }
+        }
+
+        int rowOf(float price) {
+            return Math.round((high - price) * (height - 1) / (high - low));
+        }
+
+        float priceAt(int row) {
+            return high - row * (high - low) / (height - 1);
+        }
+
+        // Whether a plot drawn for the other frame can be extended to this one
+        boolean continues(Frame drawn) {
+            return drawn != null && drawn.series == series && drawn.step == step && drawn.width == width
+                && drawn.height == height && drawn.low == low && drawn.high == high && first >= drawn.first;
+        }
+    }
+
+    private volatile PriceSeries series;
+    private String title = "";
+    private int zoomStep; // points per column when zoomed in; 0 shows the whole series
+    private final javax.swing.Timer frameTimer;
+    private final AtomicBoolean preparing = new AtomicBoolean();
+    // Last requested view, to skip preparing a frame that would not change
+    private PriceSeries requestedSeries;
+    private int requestedSize = -1;
+    private int requestedStep;
+    private boolean requestedFollow;
+    private int requestedWidth;
+    private int requestedHeight;
+    // Latest prepared frame, handed from the preparer to the EDT
+    private volatile Frame ready;
+    // Owned by the preparer thread
+    private Frame prepared;
+    // Owned by the EDT
+    private VolatileImage plot;
+    private Frame drawn;
+
+    public PriceChart() {
+        setOpaque(true);
+        setPreferredSize(new Dimension(600, 220));
+        frameTimer = new javax.swing.Timer(FRAME_INTERVAL, e -> requestFrame());
+        addMouseWheelListener(e -> zoom(e.getWheelRotation()));
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    zoomStep = 0;
+                }
+            }
+        });
+    }
+
+    // Shows another series (or none); called on the EDT
+    public void setSeries(PriceSeries series, String title) {
+        this.series = series;
+        this.title = title != null ? title : "";
+        zoomStep = 0;
+        repaint();
+    }
+
+    public PriceSeries getSeries() {
+        return series;
+    }
+
+    // Frames are only prepared while the chart is on screen
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        frameTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        frameTimer.stop();
+        if (plot != null) {
+            plot.flush();
+            plot = null;
+        }
+        drawn = null;
+        super.removeNotify();
+    }
+
+    // Wheel up zooms in on the newest prices, wheel down zooms out until the whole series fits
+    private void zoom(int rotation) {
+        PriceSeries current = series;
+        int width = plotWidth();
+        if (current == null || width <= 0) {
+            return;
+        }
+        int step = zoomStep > 0 ? zoomStep : fitStep(current.size(), width);
+        for (int i = 0; i < Math.abs(rotation); i++) {
+            step = rotation < 0 ? Math.max(1, step / 2) : (int) Math.min(1 << 30, step * 2L);
+        }
+        zoomStep = (long) step * width >= current.size() ? 0 : step;
+    }
+
+    private int plotWidth() {
+        return getWidth() - AXIS_WIDTH;
+    }
+
+    // Smallest power of two that fits the series in the width
+    static int fitStep(int size, int width) {
+        int step = 1;
+        while ((long) step * width < size) {
+            step *= 2;
+        }
+        return step;
+    }
+
+    // Called by the frame timer on the EDT
+    private void requestFrame() {
+        PriceSeries current = series;
+        int width = plotWidth();
+        int height = getHeight();
+        if (current == null || width <= 0 || height <= 1) {
+            return;
+        }
+        int size = current.size();
+        int step = zoomStep > 0 ? zoomStep : fitStep(size, width);
+        boolean follow = zoomStep > 0;
+        if (current == requestedSeries && size == requestedSize && step == requestedStep
+                && follow == requestedFollow && width == requestedWidth && height == requestedHeight) {
+            return;
+        }
+        // One frame in flight at a time; the next timer tick picks up what changed meanwhile
+        if (!preparing.compareAndSet(false, true)) {
+            return;
+        }
+        requestedSeries = current;
+        requestedSize = size;
+        requestedStep = step;
+        requestedFollow = follow;
+        requestedWidth = width;
+        requestedHeight = height;
+        PREPARER.execute(() -> {
+            try {
+                long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+                prepared = prepare(current, size, step, follow, width, height, prepared);
+                ready = prepared;
+                if (Metrics.ENABLED) {
+                    PREPARE.recordSince(start);
+                }
+            } finally {
+                preparing.set(false);
+            }
+            repaint();
+        });
+    }
+
+    // Downsamples the series to one low/high pair per column. Columns already
+    // complete in the previous frame are reused rather than looked up again.
+    static Frame prepare(PriceSeries series, int size, int step, boolean follow, int width, int height,
+                         Frame previous) {
+        int first = 0;
+        if (follow && size > 0) {
+            // The newest point is in the last column
+            first = Math.max(0, ((size - 1) / step - (width - 1)) * step);
+        }
+        int columns = size > first ? (int) Math.min(width, ((long) size - first + step - 1) / step) : 0;
+        float[] min = new float[columns];
+        float[] max = new float[columns];
+        int reused = 0;
+        if (previous != null && previous.series == series && previous.step == step && first >= previous.first) {
+            int shift = (first - previous.first) / step;
+            int complete = (previous.size - previous.first) / step;
+            reused = Math.max(0, Math.min(columns, Math.min(complete, previous.columns) - shift));
+            if (reused > 0) {
+                System.arraycopy(previous.min, shift, min, 0, reused);
+                System.arraycopy(previous.max, shift, max, 0, reused);
+            }
+        }
+        float[] range = new float[2];
+        for (int c = reused; c < columns; c++) {
+            int from = first + c * step;
+            series.range(from, (int) Math.min(size, (long) from + step), range);
+            min[c] = range[0];
+            max[c] = range[1];
+        }
+
+        float dataLow = Float.POSITIVE_INFINITY;
+        float dataHigh = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < columns; c++) {
+            dataLow = Math.min(dataLow, min[c]);
+            dataHigh = Math.max(dataHigh, max[c]);
+        }
+        float low;
+        float high;
+        if (columns == 0) {
+            low = 0f;
+            high = 1f;
+        } else if (previous != null && previous.series == series && previous.height == height
+                && dataLow >= previous.low && dataHigh <= previous.high
+                && dataHigh - dataLow >= (previous.high - previous.low) / 3) {
+            // Keep the price range while the prices fit it comfortably, so
+            // frames can be drawn incrementally
+            low = previous.low;
+            high = previous.high;
+        } else {
+            float padding = Math.max(1f, Math.max((dataHigh - dataLow) * 0.15f, dataHigh * 0.0005f));
+            low = Math.max(0f, dataLow - padding);
+            high = dataHigh + padding;
+        }
+        return new Frame(series, size, step, first, columns, width, height, low, high, min, max);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+        Frame frame = ready;
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (frame == null || frame.series != series) {
+            g.setColor(TEXT);
+            g.drawString(series == null ? "Select a stock to chart its price" : title, 8, 16);
+            return;
+        }
+        if (frame.width == plotWidth() && frame.height == getHeight()) {
+            paintPlot(g, frame);
+        }
+        paintAxis(g, frame);
+        if (Metrics.ENABLED) {
+            PAINT.recordSince(start);
+        }
+    }
+
+    // Brings the cached plot up to date with the frame and copies it to the screen
+    private void paintPlot(Graphics g, Frame frame) {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (configuration == null) {
+            Graphics2D direct = (Graphics2D) g.create();
+            render(direct, frame, null);
+            direct.dispose();
+            return;
+        }
+        do {
+            int status = plot == null ? VolatileImage.IMAGE_INCOMPATIBLE : plot.validate(configuration);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE || plot.getWidth() != frame.width
+                    || plot.getHeight() != frame.height) {
+                if (plot != null) {
+                    plot.flush();
+                }
+                plot = createVolatileImage(frame.width, frame.height);
+                drawn = null;
+                if (plot == null) {
+                    return;
+                }
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                drawn = null; // The contents were lost, e.g. to a display change
+            }
+            Graphics2D graphics = plot.createGraphics();
+            try {
+                render(graphics, frame, drawn);
+            } finally {
+                graphics.dispose();
+            }
+            drawn = frame;
+            g.drawImage(plot, 0, 0, null);
+        } while (plot.contentsLost());
+    }
+
+    // Draws the frame's plot on a surface that shows drawn (or anything, if
+    // drawn is null); returns the number of columns drawn
+    static int render(Graphics2D g, Frame frame, Frame drawn) {
+        int from = 0;
+        int redrawn = 0;
+        if (frame.continues(drawn)) {
+            int shift = (frame.first - drawn.first) / frame.step;
+            if (shift < frame.width) {
+                if (shift > 0) {
+                    g.copyArea(shift, 0, frame.width - shift, frame.height, -shift, 0);
+                    // The new first column is no longer joined to one before it
+                    redrawn = drawColumns(g, frame, 0, 1);
+                }
+                // The last column drawn may have had more points since
+                from = Math.max(redrawn, Math.min(drawn.columns - 1 - shift, frame.columns));
+            }
+        }
+        return redrawn + drawColumns(g, frame, from, frame.width);
+    }
+
+    // Clears columns [from, to) and draws the ones with points
+    private static int drawColumns(Graphics2D g, Frame frame, int from, int to) {
+        g.setColor(BACKGROUND);
+        g.fillRect(from, 0, to - from, frame.height);
+        g.setColor(GRID);
+        for (int i = 1; i < GRID_LINES; i++) {
+            g.fillRect(from, i * (frame.height - 1) / GRID_LINES, to - from, 1);
+        }
+        g.setColor(LINE);
+        int end = Math.min(to, frame.columns);
+        for (int c = from; c < end; c++) {
+            g.fillRect(c, frame.top[c], 1, frame.bottom[c] - frame.top[c] + 1);
+        }
+        return Math.max(0, end - from);
+    }
+
+    // Price axis, last price and caption; cheap enough to draw on every repaint
+    private void paintAxis(Graphics g, Frame frame) {
+        g.setFont(getFont() != null ? getFont() : new Font("Arial", Font.PLAIN, 11));
+        FontMetrics metrics = g.getFontMetrics();
+        int x = frame.width + 6;
+        g.setColor(TEXT);
+        for (int i = 0; i <= GRID_LINES; i++) {
+            int row = i * (frame.height - 1) / GRID_LINES;
+            int baseline = Math.max(metrics.getAscent(), Math.min(frame.height - 2, row + metrics.getAscent() / 2));
+            g.drawString(Money.format((long) frame.priceAt(row)), x, baseline);
+        }
+        if (frame.columns > 0) {
+            float last = frame.series.get(frame.size - 1);
+            int row = frame.rowOf(last);
+            g.setColor(LINE);
+            g.fillRect(frame.width, row, 4, 1);
+        }
+        g.setColor(TEXT);
+        String caption = String.format("%s  %,d ticks%s", title, frame.size,
+            frame.step > 1 ? String.format(", %,d per pixel", frame.step) : "");
+        g.drawString(caption, 8, metrics.getAscent() + 2);
+    }
+}
@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+// A stochastic price process. A model advances a contiguous run of symbols by
+// one tick in a single call: prices[0..count) hold the current prices of ids
+// firstId..firstId+count-1 and are overwritten with the new, unrounded prices.
+// Random draws are made in a first pass into the noise buffer and the price
+// arithmetic runs as a separate straight loop over primitive arrays, which
+// keeps the hot loops simple enough for the JIT to unroll and vectorize.
+//
+// TickEngine calls step once per fixed-size chunk with that chunk's own
+// random stream, possibly from several threads at once; models may keep
+// per-symbol state indexed by id but must not share anything else between calls.
+public interface PriceModel {
+    String getName();
+
+    // Called before each tick with the current number of symbols so models
+    // with per-symbol state can grow it; never called concurrently with step
+    default void ensureCapacity(int symbols) {
+    }
+
+    void step(double[] prices, double[] noise, int firstId, int count, RandomGenerator random);
+
+    // Per-symbol state of ids 0..symbols-1 for checkpoints; stateless models have none
+    default double[] saveState(int symbols) {
+        return new double[0];
+    }
+
+    // Takes back an array from saveState; called after ensureCapacity
+    default void restoreState(double[] state) {
+    }
+
+    // Nearest whole cent of a stepped price, never below one cent
+    static long toCents(double price) {
+        // Truncating x + 0.5 rounds positive prices; anything below a cent is clamped anyway
+        return Math.max(1L, (long) (price * Money.CENTS_PER_DOLLAR + 0.5));
+    }
+
+    static PriceModel create(String name) {
+        switch (name) {
+            case "random-walk":
+                return new RandomWalk(0.02, 0.01);
+            case "gbm":
+                return new GeometricBrownianMotion(0.0, 0.02);
+            case "jump":
+                return new JumpDiffusion(0.0, 0.015, 0.01, -0.02, 0.05);
+            case "garch":
+                return new Garch(0.0, 0.000004, 0.08, 0.90);
+            case "correlated":
+                return Correlated.equicorrelated(4, 0.6, 0.0, 0.02);
+            default:
+                throw new IllegalArgumentException("Unknown price model: " + name
+                    + " (expected random-walk, gbm, jump, garch or correlated)");
+        }
+    }
+
+    // Fills noise[0..count) with standard normal draws
+    static void fillGaussian(double[] noise, int count, RandomGenerator random) {
+        for (int i = 0; i < count; i++) {
+            noise[i] = random.nextGaussian();
+        }
+    }
+
+    // The simulator's original process: a Gaussian move plus a uniform
+    // market-sentiment term, applied as a simple (not log) return
+    class RandomWalk implements PriceModel {
+        private final double volatility;
+        private final double sentimentRange;
+
+        public RandomWalk(double volatility, double sentimentRange) {
+            this.volatility = volatility;
+            this.sentimentRange = sentimentRange;
+        }
+
+        @Override
+        public String getName() {
+            return "random-walk";
+        }
+
+        @Override
+        public void step(double[] prices, double[] noise, int firstId, int count, RandomGenerator random) {
+            for (int i = 0; i < count; i++) {
+                double movement = random.nextGaussian() * volatility;
+                double sentiment = (random.nextDouble() - 0.5) * sentimentRange;
+                noise[i] = movement + sentiment;
+            }
+            for (int i = 0; i < count; i++) {
+                prices[i] *= 1.0 + noise[i];
+            }
+        }
+    }
+
+    // S' = S * exp((mu - sigma^2 / 2) + sigma * Z), with mu and sigma per tick
+    class GeometricBrownianMotion implements PriceModel {
+        private final double drift;
+        private final double volatility;
+
+        public GeometricBrownianMotion(double drift, double volatility) {
+            this.drift = drift - 0.5 * volatility * volatility;
+            this.volatility = volatility;
+        }
+
+        @Override
+        public String getName() {
+            return "gbm";
+        }
+
+        @Override
+        public void step(double[] prices, double[] noise, int firstId, int count, RandomGenerator random) {
+            fillGaussian(noise, count, random);
+            for (int i = 0; i < count; i++) {
+                prices[i] *= Math.exp(drift + volatility * noise[i]);
+            }
+        }
+    }
+
+    // Merton jump-diffusion: GBM plus, with probability jumpProbability per
+    // tick, a log-normal jump. The drift is compensated so the expected
+    // return is still mu.
+    class JumpDiffusion implements PriceModel {
+        private final double drift;
+        private final double volatility;
+        private final double jumpProbability;
+        private final double jumpMean;
+        private final double jumpVolatility;
+
+        public JumpDiffusion(double drift, double volatility, double jumpProbability,
+                             double jumpMean, double jumpVolatility) {
+            double expectedJump = Math.exp(jumpMean + 0.5 * jumpVolatility * jumpVolatility) - 1.0;
+            this.drift = drift - 0.5 * volatility * volatility - jumpProbability * expectedJump;
+            this.volatility = volatility;
+            this.jumpProbability = jumpProbability;
+            this.jumpMean = jumpMean;
+            this.jumpVolatility = jumpVolatility;
+        }
+
+        @Override
+        public String getName() {
+            return "jump";
+        }
+
+        @Override
+        public void step(double[] prices, double[] noise, int firstId, int count, RandomGenerator random) {
+            fillGaussian(noise, count, random);
+            for (int i = 0; i < count; i++) {
+                noise[i] = drift + volatility * noise[i];
+            }
+            // Jumps are rare, so they are drawn in their own pass rather than
+            // branching inside the arithmetic loop
+            for (int i = 0; i < count; i++) {
+                if (random.nextDouble() < jumpProbability) {
+                    noise[i] += jumpMean + jumpVolatility * random.nextGaussian();
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                prices[i] *= Math.exp(noise[i]);
+            }
+        }
+    }
+
+    // GARCH(1,1) volatility: each symbol's variance follows
+    // var' = omega + alpha * r^2 + beta * var and its log return is sqrt(var') * Z
+    class Garch implements PriceModel {
+        private final double drift;
+        private final double omega;
+        private final double alpha;
+        private final double beta;
+        private final double longRunVariance;
+        private double[] variance = new double[0];
+        private double[] lastReturn = new double[0];
+
+        public Garch(double drift, double omega, double alpha, double beta) {
+            if (omega <= 0 || alpha < 0 || beta < 0 || alpha + beta >= 1) {
+                throw new IllegalArgumentException("GARCH parameters are not stationary: omega="
+                    + omega + ", alpha=" + alpha + ", beta=" + beta);
+            }
+            this.drift = drift;
+            this.omega = omega;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.longRunVariance = omega / (1 - alpha - beta);
+        }
+
+        @Override
+        public String getName() {
+            return "garch";
+        }
+
+        @Override
+        public void ensureCapacity(int symbols) {
+            int old = variance.length;
+            if (symbols <= old) {
+                return;
+            }
+            int capacity = Math.max(symbols, old * 2);
+            variance = Arrays.copyOf(variance, capacity);
+            lastReturn = Arrays.copyOf(lastReturn, capacity);
+            Arrays.fill(variance, old, capacity, longRunVariance);
+        }
+
+        // Variances followed by last returns
+        @Override
+        public double[] saveState(int symbols) {
+            double[] state = new double[symbols * 2];
+            System.arraycopy(variance, 0, state, 0, symbols);
+            System.arraycopy(lastReturn, 0, state, symbols, symbols);
+            return state;
+        }
+
+        @Override
+        public void restoreState(double[] state) {
+            int symbols = state.length / 2;
+            System.arraycopy(state, 0, variance, 0, symbols);
+            System.arraycopy(state, symbols, lastReturn, 0, symbols);
+        }
+
+        @Override
+        public void step(double[] prices, double[] noise, int firstId, int count, RandomGenerator random) {
+            fillGaussian(noise, count, random);
+            double[] variance = this.variance;
+            double[] lastReturn = this.lastReturn;
+            for (int i = 0; i < count; i++) {
+                int id = firstId + i;
+                double r = lastReturn[id];
+                double v = omega + alpha * r * r + beta * variance[id];
+                variance[id] = v;
+                lastReturn[id] = Math.sqrt(v) * noise[i];
+            }
+            for (int i = 0; i < count; i++) {
+                double r = lastReturn[firstId + i];
+                prices[i] *= Math.exp(drift + r - 0.5 * variance[firstId + i]);
+            }
+        }
+    }
+
+    // Correlated GBM. Symbols are grouped into consecutive blocks of the
+    // matrix dimension (ids 0..d-1, d..2d-1, ...) and each block's shocks are
+    // correlated through the Cholesky factor of the correlation matrix.
+    // The dimension must divide TickEngine.CHUNK_SIZE so no block straddles
+    // two chunks (and therefore two random streams).
+    class Correlated implements PriceModel {
+        private final double drift;
+        private final double volatility;
+        private final int dimension;
+        // Lower-triangular Cholesky factor, row-major
+        private final double[] factor;
+
+        public Correlated(double[][] correlation, double drift, double volatility) {
+            this.dimension = correlation.length;
+            if (dimension == 0 || TickEngine.CHUNK_SIZE % dimension != 0) {
+                throw new IllegalArgumentException("Correlation matrix dimension must divide "
+                    + TickEngine.CHUNK_SIZE + ": " + dimension);
+            }
+            this.factor = cholesky(correlation);
+            this.drift = drift - 0.5 * volatility * volatility;
+            this.volatility = volatility;
+        }
+
+        // Every pair of symbols in a block has the same correlation rho
+        public static Correlated equicorrelated(int dimension, double rho, double drift, double volatility) {
+            double[][] correlation = new double[dimension][dimension];
+            for (int i = 0; i < dimension; i++) {
+                for (int j = 0; j < dimension; j++) {
+                    correlation[i][j] = i == j ? 1.0 : rho;
+                }
+            }
+            return new Correlated(correlation, drift, volatility);
+        }
+
+        private static double[] cholesky(double[][] matrix) {
+            int n = matrix.length;
+            double[] l = new double[n * n];
+            for (int i = 0; i < n; i++) {
+                if (matrix[i].length != n) {
+                    throw new IllegalArgumentException("Correlation matrix must be square");
+                }
+                for (int j = 0; j <= i; j++) {
+                    double sum = matrix[i][j];
+                    for (int k = 0; k < j; k++) {
+                        sum -= l[i * n + k] * l[j * n + k];
+                    }
+                    if (i == j) {
+                        if (sum <= 0) {
+                            throw new IllegalArgumentException("Correlation matrix is not positive definite");
+                        }
+                        l[i * n + i] = Math.sqrt(sum);
+                    } else {
+                        l[i * n + j] = sum / l[j * n + j];
+                    }
+                }
+            }
+            return l;
+        }
+
+        @Override
+        public String getName() {
+            return "correlated";
+        }
+
+        @Override
+        public void step(double[] prices, double[] noise, int firstId, int count, RandomGenerator random) {
+            fillGaussian(noise, count, random);
+            int d = dimension;
+            for (int block = 0; block < count; block += d) {
+                int size = Math.min(d, count - block);
+                // y = L z in place: row i only reads z[0..i], so go from the last row up
+                for (int i = size - 1; i >= 0; i--) {
+                    double sum = 0.0;
+                    for (int j = 0; j <= i; j++) {
+                        sum += factor[i * d + j] * noise[block + j];
+                    }
+                    noise[block + i] = sum;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                prices[i] *= Math.exp(drift + volatility * noise[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// An append-only series of prices (in cents) for charting, one point per tick.
+// Alongside the points it keeps a min/max pyramid: level k holds the lowest and
+// highest price of every complete block of FANOUT^(k+1) points. The range of any
+// span of points is then found from a few dozen blocks instead of every point,
+// so downsampling ten million points to a screen's width of columns costs the
+// same as downsampling ten thousand.
+//
+// Points are stored as floats (exact up to $167,772.16) in fixed-size chunks, so
+// the series never copies its points as it grows; with the pyramid a point costs
+// about 5.2 bytes. One thread appends and any thread can read: points and blocks
+// below size() are never written again, and size is published after them.
+public class PriceSeries {
+    static final int FANOUT = 8;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // Blocks of 8^10 points cover more points than a series can hold
+    private static final int LEVELS = 10;
+
+    private float[][] chunks = new float[16][];
+    // Level k as low,high pairs per block
+    private final float[][] levels = new float[LEVELS][];
+    private volatile int size;
+
+    public PriceSeries() {
+        for (int k = 0; k < LEVELS; k++) {
+            levels[k] = new float[2 * FANOUT];
+        }
+    }
+
+    // Called by the single writer
+    public void append(long priceCents) {
+        int n = size;
+        if (n == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Series is full");
+        }
+        int chunk = n >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunk * 2);
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new float[CHUNK_SIZE];
+        }
+        chunks[chunk][n & CHUNK_MASK] = priceCents;
+        n++;
+        if (n % FANOUT == 0) {
+            completeBlock(0, n / FANOUT - 1);
+        }
+        size = n;
+    }
+
+    // Summarises a block from its FANOUT children, then its parent if that is now complete too
+    private void completeBlock(int level, int block) {
+        float low = Float.POSITIVE_INFINITY;
+        float high = Float.NEGATIVE_INFINITY;
+        int first = block * FANOUT;
+        if (level == 0) {
+            float[] points = chunks[first >>> CHUNK_BITS];
+            for (int i = first & CHUNK_MASK, end = i + FANOUT; i < end; i++) {
+                low = Math.min(low, points[i]);
+                high = Math.max(high, points[i]);
+            }
+        } else {
+            float[] children = levels[level - 1];
+            for (int i = 2 * first, end = i + 2 * FANOUT; i < end; i += 2) {
+                low = Math.min(low, children[i]);
+                high = Math.max(high, children[i + 1]);
+            }
+        }
+        float[] blocks = levels[level];
+        if (2 * block + 1 >= blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            levels[level] = blocks;
+        }
+        blocks[2 * block] = low;
+        blocks[2 * block + 1] = high;
+        if ((block + 1) % FANOUT == 0 && level + 1 < LEVELS) {
+            completeBlock(level + 1, (block + 1) / FANOUT - 1);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    // Lowest and highest price of points [from, to) into out[0] and out[1];
+    // +/-infinity when the span is empty. to must not exceed size().
+    public void range(int from, int to, float[] out) {
+        float low = Float.POSITIVE_INFINITY;
+        float high = Float.NEGATIVE_INFINITY;
+        // Single points up to the first and from the last whole block ...
+        int a = from;
+        int b = to;
+        while (a < b && a % FANOUT != 0) {
+            float v = chunks[a >>> CHUNK_BITS][a & CHUNK_MASK];
+            a++;
+            low = Math.min(low, v);
+            high = Math.max(high, v);
+        }
+        while (b > a && b % FANOUT != 0) {
+            b--;
+            float v = chunks[b >>> CHUNK_BITS][b & CHUNK_MASK];
+            low = Math.min(low, v);
+            high = Math.max(high, v);
+        }
+        // ... then the same at each level, on blocks that are multiples of the level above
+        a /= FANOUT;
+        b /= FANOUT;
+        for (int k = 0; a < b; k++) {
+            float[] blocks = levels[k];
+            boolean top = k + 1 == LEVELS;
+            while (a < b && (top || a % FANOUT != 0)) {
+                low = Math.min(low, blocks[2 * a]);
+                high = Math.max(high, blocks[2 * a + 1]);
+                a++;
+            }
+            while (b > a && b % FANOUT != 0) {
+                b--;
+                low = Math.min(low, blocks[2 * b]);
+                high = Math.max(high, blocks[2 * b + 1]);
+            }
+            a /= FANOUT;
+            b /= FANOUT;
+        }
+        out[0] = low;
+        out[1] = high;
+    }
+
+    // Records the price of every tracked symbol on every tick, one series per
+    // symbol. Symbols can be tracked from any thread; the market thread picks
+    // them up on its next update.
+    public static class Recorder implements StockMarket.MarketObserver {
+        private final Map<Integer, PriceSeries> byId = new ConcurrentHashMap<>();
+        private final ConcurrentLinkedQueue<Integer> requests = new ConcurrentLinkedQueue<>();
+        // Every symbol is tracked while the market has no more than this many
+        private final int trackAllUpTo;
+        private int trackedAll;
+        // Owned by the market thread
+        private int[] ids = new int[0];
+        private PriceSeries[] series = new PriceSeries[0];
+
+        public Recorder(int trackAllUpTo) {
+            this.trackAllUpTo = trackAllUpTo;
+        }
+
+        // The series for a symbol id, starting from the next tick if it was not tracked yet
+        public PriceSeries track(int id) {
+            return byId.computeIfAbsent(id, key -> {
+                requests.add(key);
+                return new PriceSeries();
+            });
+        }
+
+        // Null if the symbol is not tracked
+        public PriceSeries getSeries(int id) {
+            return byId.get(id);
+        }
+
+        @Override
+        public void onMarketUpdate(MarketSnapshot snapshot) {
+            if (snapshot.size() <= trackAllUpTo) {
+                for (; trackedAll < snapshot.size(); trackedAll++) {
+                    track(trackedAll);
+                }
+            }
+            Integer request;
+            while ((request = requests.poll()) != null) {
+                int n = ids.length;
+                ids = Arrays.copyOf(ids, n + 1);
+                series = Arrays.copyOf(series, n + 1);
+                ids[n] = request;
+                series[n] = byId.get(request);
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] < snapshot.size()) {
+                    series[i].append(snapshot.getPriceCents(ids[i]));
+                }
+            }
+        }
+    }
+}
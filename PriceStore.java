@@ -0,0 +1,453 @@
+import java.util.*;
+
+// Columnar (struct-of-arrays) storage for every instrument in the market.
+// Symbols are interned to dense int ids and each field lives in its own
+// primitive column, so a tick is a linear pass over a few arrays instead of
+// a walk over one heap object per symbol. Prices are whole cents (see Money).
+//
+// The columns are cut into blocks of 64 ids, one per word of the dirty
+// bitmap; a block is one array holding each field's 64 values in turn. A
+// frozen copy copies only the blocks written since the previous frozen copy
+// and shares every other block with it, so freezing costs O(changed) plus a
+// pass over one word and one reference per 64 symbols, not a copy of the
+// whole market.
+public class PriceStore {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    // Offsets of each field's values within a block
+    private static final int PRICE = 0;
+    private static final int PREVIOUS_CLOSE = BLOCK_SIZE;
+    private static final int HIGH = 2 * BLOCK_SIZE;
+    private static final int LOW = 3 * BLOCK_SIZE;
+    private static final int VOLUME = 4 * BLOCK_SIZE;
+    private static final int CHANGE_PERCENT = 5 * BLOCK_SIZE; // raw double bits
+    private static final int BLOCK_LENGTH = 6 * BLOCK_SIZE;
+
+    private SymbolTable ids;
+    private String[] symbols;
+    private long[][] blocks;
+    // Created on first use in frozen copies; a race between readers only
+    // creates the same view twice
+    private Stock[] views;
+    private int size;
+    // One bit per id written since the last freeze, so block i is dirty when
+    // word i is non-zero. TickEngine chunks are a multiple of 64 symbols, so
+    // parallel workers never share a word or a block.
+    private long[] dirty;
+    // Ids changed since the last freeze that reported its changes; off-tick
+    // copies leave them for the next snapshot observers see
+    private long[] unreported;
+    // The copy whose clean blocks the next freeze can share
+    private PriceStore lastFrozen;
+    // Ids changed since the last reporting freeze, as of this one (frozen stores only)
+    private final int[] changedIds;
+    // Frozen stores are immutable point-in-time copies handed to observers
+    private final boolean frozen;
+    // Optional tick/bar history, fed from setPrice and incrementVolume
+    private MarketHistory history;
+    // Optional streaming indicators, fed the same way; frozen copies share the
+    // live instance so observers can read them
+    private Indicators indicators;
+    // Timestamp stamped on every price recorded into the history
+    private long timeNanos;
+
+    public PriceStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PriceStore(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.ids = new SymbolTable(capacity);
+        this.symbols = new String[capacity];
+        this.blocks = new long[0][];
+        this.views = new Stock[0];
+        this.size = 0;
+        this.dirty = new long[0];
+        this.unreported = new long[0];
+        this.changedIds = null;
+        this.frozen = false;
+        grow(capacity);
+    }
+
+    // Frozen copy of the first size rows. Symbols are append-only, so the copy
+    // shares the symbol table with the live store. Blocks written since the
+    // source's last freeze are copied, the rest are shared with that copy.
+    // Taking the copy clears the source's dirty bits, and also its unreported
+    // changes if report is set.
+    private PriceStore(PriceStore source, boolean report) {
+        int count = source.size;
+        int used = (count + BLOCK_MASK) >>> BLOCK_SHIFT;
+        PriceStore previous = source.lastFrozen;
+        long[][] sharable = previous == null ? new long[0][] : previous.blocks;
+        this.ids = source.ids;
+        this.symbols = source.symbols;
+        this.blocks = new long[used][];
+        for (int b = 0; b < used; b++) {
+            long written = source.dirty[b];
+            if (written == 0L && b < sharable.length) {
+                blocks[b] = sharable[b];
+            } else {
+                blocks[b] = source.blocks[b].clone();
+                source.unreported[b] |= written;
+                source.dirty[b] = 0L;
+            }
+        }
+        this.size = count;
+        this.dirty = null;
+        this.unreported = null;
+        this.changedIds = source.collectUnreported(used, report);
+        this.frozen = true;
+        this.timeNanos = source.timeNanos;
+        this.indicators = source.indicators;
+        source.lastFrozen = this;
+    }
+
+    private int[] collectUnreported(int words, boolean clear) {
+        int changed = 0;
+        for (int w = 0; w < words; w++) {
+            changed += Long.bitCount(unreported[w]);
+        }
+        int[] result = new int[changed];
+        int n = 0;
+        for (int w = 0; w < words && n < changed; w++) {
+            long bits = unreported[w];
+            while (bits != 0) {
+                result[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+            if (clear) {
+                unreported[w] = 0L;
+            }
+        }
+        return result;
+    }
+
+    // A frozen copy whose changed ids are the ids changed since the last copy
+    // taken with report set, which are then cleared. Copies taken without it,
+    // e.g. for a snapshot read between ticks or a checkpoint, leave those ids
+    // for the next snapshot handed to observers.
+    public PriceStore freeze(boolean report) {
+        return frozen ? this : new PriceStore(this, report);
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // Adds a symbol (or resets an existing one) and returns its id
+    public int add(String symbol, double initialPrice) {
+        return addCents(symbol, Money.ofDollars(initialPrice));
+    }
+
+    public int addCents(String symbol, long initialPriceCents) {
+        checkMutable();
+        int id = ids.add(symbol);
+        if (id == size) {
+            if (size == symbols.length) {
+                grow(symbols.length * 2);
+            }
+            symbols[id] = symbol;
+            size++;
+        }
+        if (history != null) {
+            history.ensureSymbols(size);
+            history.reset(id);
+        }
+        if (indicators != null) {
+            indicators.reset(id);
+        }
+        markDirty(id);
+        long[] block = blocks[id >>> BLOCK_SHIFT];
+        int i = id & BLOCK_MASK;
+        block[PRICE + i] = initialPriceCents;
+        block[PREVIOUS_CLOSE + i] = initialPriceCents;
+        block[HIGH + i] = initialPriceCents;
+        block[LOW + i] = initialPriceCents;
+        block[VOLUME + i] = 0;
+        block[CHANGE_PERCENT + i] = Double.doubleToRawLongBits(0.0);
+        return id;
+    }
+
+    // Replaces the whole universe with checkpointed columns, which must be at
+    // least count long.
+    // The symbol table is rebuilt rather than cleared, because earlier frozen
+    // copies still share the old one. Nothing is shared with them afterwards.
+    void restore(String[] symbols, long[] price, long[] previousClose, long[] high, long[] low,
+                 long[] volume, int count) {
+        checkMutable();
+        int capacity = Math.max(1, count);
+        SymbolTable restoredIds = new SymbolTable(capacity);
+        for (int id = 0; id < count; id++) {
+            restoredIds.add(symbols[id]);
+        }
+        this.ids = restoredIds;
+        this.symbols = new String[0];
+        this.blocks = new long[0][];
+        this.views = new Stock[0];
+        this.dirty = new long[0];
+        this.unreported = new long[0];
+        this.lastFrozen = null;
+        grow(capacity);
+        System.arraycopy(symbols, 0, this.symbols, 0, count);
+        for (int id = 0; id < count; id++) {
+            long[] block = blocks[id >>> BLOCK_SHIFT];
+            int i = id & BLOCK_MASK;
+            block[PRICE + i] = price[id];
+            block[PREVIOUS_CLOSE + i] = previousClose[id];
+            block[HIGH + i] = high[id];
+            block[LOW + i] = low[id];
+            block[VOLUME + i] = volume[id];
+            block[CHANGE_PERCENT + i] = Double.doubleToRawLongBits(Money.percentChange(previousClose[id], price[id]));
+        }
+        this.size = count;
+        for (int id = 0; id < count; id++) {
+            markDirty(id);
+        }
+        if (history != null) {
+            history.ensureSymbols(capacity);
+            for (int id = 0; id < count; id++) {
+                history.reset(id);
+            }
+        }
+        if (indicators != null) {
+            indicators.clear();
+        }
+    }
+
+    // Price, previous close, high, low and volume columns of a frozen copy,
+    // each copied out to one array exactly size long
+    long[][] columns() {
+        if (!frozen) {
+            throw new IllegalStateException("Only frozen stores expose their columns");
+        }
+        return new long[][] {flatten(PRICE), flatten(PREVIOUS_CLOSE), flatten(HIGH), flatten(LOW), flatten(VOLUME)};
+    }
+
+    private long[] flatten(int field) {
+        long[] flat = new long[size];
+        for (int b = 0, from = 0; from < size; b++, from += BLOCK_SIZE) {
+            System.arraycopy(blocks[b], field, flat, from, Math.min(BLOCK_SIZE, size - from));
+        }
+        return flat;
+    }
+
+    // Symbols by id; entries from size on are unused
+    String[] symbolTable() {
+        return symbols;
+    }
+
+    // Makes room for capacity symbols, e.g. before adding a whole universe
+    public void ensureCapacity(int capacity) {
+        checkMutable();
+        if (capacity > symbols.length) {
+            grow(capacity);
+            ids.ensureCapacity(capacity);
+        }
+    }
+
+    // Existing blocks are kept, so growing copies references, not values
+    private void grow(int capacity) {
+        int from = blocks.length;
+        int needed = (capacity + BLOCK_MASK) >>> BLOCK_SHIFT;
+        symbols = Arrays.copyOf(symbols, capacity);
+        views = Arrays.copyOf(views, capacity);
+        if (needed > from) {
+            blocks = Arrays.copyOf(blocks, needed);
+            dirty = Arrays.copyOf(dirty, needed);
+            unreported = Arrays.copyOf(unreported, needed);
+            for (int b = from; b < needed; b++) {
+                blocks[b] = new long[BLOCK_LENGTH];
+            }
+        }
+        if (history != null) {
+            history.ensureSymbols(capacity);
+        }
+    }
+
+    // Returns the id for a symbol, or -1 if it is unknown
+    public int idOf(String symbol) {
+        int id = ids.get(symbol);
+        return id < size ? id : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getSymbol(int id) {
+        return symbols[id];
+    }
+
+    private long get(int field, int id) {
+        return blocks[id >>> BLOCK_SHIFT][field + (id & BLOCK_MASK)];
+    }
+
+    public long getPriceCents(int id) {
+        return get(PRICE, id);
+    }
+
+    public double getPrice(int id) {
+        return Money.toDollars(getPriceCents(id));
+    }
+
+    public long getPreviousCloseCents(int id) {
+        return get(PREVIOUS_CLOSE, id);
+    }
+
+    public double getPreviousClose(int id) {
+        return Money.toDollars(getPreviousCloseCents(id));
+    }
+
+    public double getHigh(int id) {
+        return Money.toDollars(get(HIGH, id));
+    }
+
+    public double getLow(int id) {
+        return Money.toDollars(get(LOW, id));
+    }
+
+    public double getChangePercent(int id) {
+        return Double.longBitsToDouble(get(CHANGE_PERCENT, id));
+    }
+
+    public long getVolume(int id) {
+        return get(VOLUME, id);
+    }
+
+    // Copies the prices of ids from..from+count-1, in dollars, into target[0..count)
+    public void copyPrices(int from, int count, double[] target) {
+        for (int i = 0; i < count; i++) {
+            target[i] = Money.toDollars(getPriceCents(from + i));
+        }
+    }
+
+    public void setPrice(int id, double newPrice) {
+        setPriceCents(id, Money.ofDollars(newPrice));
+    }
+
+    public void setPriceCents(int id, long newPrice) {
+        checkMutable();
+        long[] block = blocks[id >>> BLOCK_SHIFT];
+        int i = id & BLOCK_MASK;
+        if (newPrice > block[HIGH + i]) {
+            block[HIGH + i] = newPrice;
+        }
+        if (newPrice < block[LOW + i]) {
+            block[LOW + i] = newPrice;
+        }
+        if (newPrice != block[PRICE + i]) {
+            markDirty(id);
+        }
+        block[CHANGE_PERCENT + i] = Double.doubleToRawLongBits(Money.percentChange(block[PREVIOUS_CLOSE + i], newPrice));
+        block[PRICE + i] = newPrice;
+        if (history != null) {
+            history.onPrice(id, Money.toDollars(newPrice), timeNanos);
+        }
+        if (indicators != null) {
+            indicators.onPrice(id, newPrice);
+        }
+    }
+
+    public void setPreviousClose(int id, double value) {
+        checkMutable();
+        markDirty(id);
+        blocks[id >>> BLOCK_SHIFT][PREVIOUS_CLOSE + (id & BLOCK_MASK)] = Money.ofDollars(value);
+    }
+
+    public void incrementVolume(int id, long shares) {
+        checkMutable();
+        markDirty(id);
+        blocks[id >>> BLOCK_SHIFT][VOLUME + (id & BLOCK_MASK)] += shares;
+        if (history != null) {
+            history.onVolume(id, shares);
+        }
+        if (indicators != null) {
+            indicators.onVolume(id, shares, getPriceCents(id));
+        }
+    }
+
+    // Starts a new trading session: the current price becomes the previous
+    // close and the session high, low and volume start over
+    public void startNewSession() {
+        checkMutable();
+        for (int id = 0; id < size; id++) {
+            long[] block = blocks[id >>> BLOCK_SHIFT];
+            int i = id & BLOCK_MASK;
+            block[PREVIOUS_CLOSE + i] = block[PRICE + i];
+            block[HIGH + i] = block[PRICE + i];
+            block[LOW + i] = block[PRICE + i];
+            block[VOLUME + i] = 0;
+            block[CHANGE_PERCENT + i] = Double.doubleToRawLongBits(0.0);
+            markDirty(id);
+        }
+        if (indicators != null) {
+            indicators.startNewSession();
+        }
+    }
+
+    public void setHistory(MarketHistory history) {
+        checkMutable();
+        if (history != null) {
+            history.ensureSymbols(Math.max(size, symbols.length));
+        }
+        this.history = history;
+    }
+
+    public MarketHistory getHistory() {
+        return history;
+    }
+
+    public void setIndicators(Indicators indicators) {
+        checkMutable();
+        this.indicators = indicators;
+    }
+
+    public Indicators getIndicators() {
+        return indicators;
+    }
+
+    // Sets the timestamp used for prices recorded from now on
+    public void setTime(long timeNanos) {
+        this.timeNanos = timeNanos;
+    }
+
+    public long getTime() {
+        return timeNanos;
+    }
+
+    private void markDirty(int id) {
+        dirty[id >>> 6] |= 1L << id;
+    }
+
+    // Number of ids that changed between the previous frozen copy and this one
+    public int getChangedCount() {
+        return changedIds != null ? changedIds.length : 0;
+    }
+
+    public int getChangedId(int index) {
+        return changedIds[index];
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Market snapshots are read-only");
+        }
+    }
+
+    // Cached Stock view for an id; views are created once and reused
+    public Stock view(int id) {
+        Stock[] cache = views;
+        if (cache == null) {
+            cache = new Stock[size];
+            views = cache;
+        }
+        Stock stock = cache[id];
+        if (stock == null) {
+            stock = new Stock(this, id);
+            cache[id] = stock;
+        }
+        return stock;
+    }
+}
@@ -0,0 +1,311 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Monte Carlo value-at-risk and expected shortfall for a set of holdings.
+//
+// Each position's daily log return is sigma * (sqrt(rho) * M + sqrt(1 - rho) * E),
+// a one-factor model with a common market shock M and an idiosyncratic shock E.
+// Every path draws day one and, for the 10-day horizon, the sum of days two to
+// ten as one more normal (exact for Gaussian returns), so both horizons come
+// from the same paths.
+//
+// The paths are split across one worker per pool thread. Each worker has its
+// own random stream and buffers and writes losses into a fixed-range histogram
+// that also keeps the exact sum of the losses in each bin. Workers merge into
+// the shared result every batch, and listeners get a RiskReport whose
+// estimate converges while the run continues. Nothing is allocated per path.
+public class RiskEngine {
+    public static final int HORIZONS = 2;
+    public static final int[] HORIZON_DAYS = {1, 10};
+
+    // Histograms span +/- RANGE_SIGMAS parametric standard deviations of the
+    // portfolio loss; anything outside lands in the first or last bin
+    static final int BINS = 8192;
+    static final double RANGE_SIGMAS = 10.0;
+    // Per-position tail sums for risk contributions are kept for losses above
+    // one sigma, in buckets of 2^TAIL_SHIFT bins
+    static final int TAIL_SHIFT = 5;
+    static final int TAIL_START = BINS / 2 + (int) (BINS / (2 * RANGE_SIGMAS));
+    static final int TAIL_BUCKETS = ((BINS - TAIL_START) >> TAIL_SHIFT) + 1;
+
+    private static final int BATCH_PATHS = 8192;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+
+    public interface ProgressListener {
+        void onProgress(RiskReport report);
+    }
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private double dailyVolatility = 0.02;
+    private double correlation = 0.3;
+
+    public RiskEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public RiskEngine(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public void setDailyVolatility(double dailyVolatility) {
+        this.dailyVolatility = dailyVolatility;
+    }
+
+    // Pairwise correlation between any two positions' returns
+    public void setCorrelation(double correlation) {
+        if (correlation < 0 || correlation > 1) {
+            throw new IllegalArgumentException("Correlation must be within [0, 1]: " + correlation);
+        }
+        this.correlation = correlation;
+    }
+
+    // Starts a run over the given holdings priced from snapshot. The listener
+    // (may be null) is called from pool threads with progressively better
+    // estimates and last with the final report. Cancelling the future stops
+    // the workers after their current batch.
+    public CompletableFuture<RiskReport> run(Map<String, Integer> holdings, MarketSnapshot snapshot,
+                                             long paths, long seed, ProgressListener listener) {
+        List<String> symbols = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        for (Map.Entry<String, Integer> holding : new TreeMap<>(holdings).entrySet()) {
+            int id = snapshot.idOf(holding.getKey());
+            if (id >= 0 && holding.getValue() != 0) {
+                symbols.add(holding.getKey());
+                values.add(holding.getValue() * snapshot.getPrice(id));
+            }
+        }
+        Run run = new Run(symbols.toArray(new String[0]), toArray(values), dailyVolatility, correlation,
+            paths, listener);
+
+        SplitMix64 root = new SplitMix64(seed);
+        int workers = (int) Math.max(1, Math.min(parallelism, (paths + BATCH_PATHS - 1) / BATCH_PATHS));
+        AtomicInteger remaining = new AtomicInteger(workers);
+        for (int w = 0; w < workers; w++) {
+            long share = paths / workers + (w < paths % workers ? 1 : 0);
+            Worker worker = new Worker(run, root.split(), share);
+            pool.execute(() -> {
+                try {
+                    worker.simulate();
+                } catch (RuntimeException | Error e) {
+                    run.result.completeExceptionally(e);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    run.finish();
+                }
+            });
+        }
+        return run.result;
+    }
+
+    private static double[] toArray(List<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // Shared state of one run; workers merge into it under its lock
+    private static final class Run {
+        final String[] symbols;
+        final double[] values;
+        final double[] sigmas; // Daily volatility per position
+        final double marketLoading;
+        final double idiosyncraticLoading;
+        final long totalPaths;
+        final double[] binWidth = new double[HORIZONS];
+        final double[] rangeStart = new double[HORIZONS];
+        final ProgressListener listener;
+        final CompletableFuture<RiskReport> result = new CompletableFuture<>();
+
+        final long[][] counts = new long[HORIZONS][BINS];
+        final double[][] sums = new double[HORIZONS][BINS];
+        final double[][] tailSums;
+        long completedPaths;
+        long lastProgressNanos = System.nanoTime();
+
+        Run(String[] symbols, double[] values, double volatility, double correlation, long totalPaths,
+            ProgressListener listener) {
+            this.symbols = symbols;
+            this.values = values;
+            this.sigmas = new double[values.length];
+            Arrays.fill(sigmas, volatility);
+            this.marketLoading = Math.sqrt(correlation);
+            this.idiosyncraticLoading = Math.sqrt(1 - correlation);
+            this.totalPaths = totalPaths;
+            this.listener = listener;
+            this.tailSums = new double[HORIZONS][TAIL_BUCKETS * values.length];
+
+            // One-factor parametric sigma of the daily P/L sets the histogram scale:
+            // var = rho * (sum v_i s_i)^2 + (1 - rho) * sum (v_i s_i)^2
+            double sum = 0.0;
+            double sumSquares = 0.0;
+            for (int i = 0; i < values.length; i++) {
+                double exposure = Math.abs(values[i]) * sigmas[i];
+                sum += exposure;
+                sumSquares += exposure * exposure;
+            }
+            double dailySigma = Math.max(1e-9, Math.sqrt(correlation * sum * sum + (1 - correlation) * sumSquares));
+            for (int h = 0; h < HORIZONS; h++) {
+                double range = RANGE_SIGMAS * dailySigma * Math.sqrt(HORIZON_DAYS[h]);
+                rangeStart[h] = -range;
+                binWidth[h] = 2 * range / BINS;
+            }
+        }
+
+        synchronized void merge(Worker worker, long paths) {
+            for (int h = 0; h < HORIZONS; h++) {
+                long[] count = counts[h];
+                double[] sum = sums[h];
+                long[] workerCount = worker.counts[h];
+                double[] workerSum = worker.sums[h];
+                for (int b = 0; b < BINS; b++) {
+                    count[b] += workerCount[b];
+                    sum[b] += workerSum[b];
+                }
+                double[] tail = tailSums[h];
+                double[] workerTail = worker.tailSums[h];
+                for (int i = 0; i < tail.length; i++) {
+                    tail[i] += workerTail[i];
+                }
+            }
+            completedPaths += paths;
+            long now = System.nanoTime();
+            if (listener != null && now - lastProgressNanos >= PROGRESS_INTERVAL_NANOS && completedPaths < totalPaths) {
+                lastProgressNanos = now;
+                listener.onProgress(report());
+            }
+        }
+
+        synchronized void finish() {
+            RiskReport report = report();
+            if (result.complete(report) && listener != null) {
+                listener.onProgress(report);
+            }
+        }
+
+        RiskReport report() {
+            double total = 0.0;
+            for (double value : values) {
+                total += value;
+            }
+            return new RiskReport(symbols.clone(), total, completedPaths, totalPaths,
+                rangeStart.clone(), binWidth.clone(), deepCopy(counts), deepCopy(sums), deepCopy(tailSums));
+        }
+
+        private static long[][] deepCopy(long[][] arrays) {
+            long[][] copy = new long[arrays.length][];
+            for (int i = 0; i < arrays.length; i++) {
+                copy[i] = arrays[i].clone();
+            }
+            return copy;
+        }
+
+        private static double[][] deepCopy(double[][] arrays) {
+            double[][] copy = new double[arrays.length][];
+            for (int i = 0; i < arrays.length; i++) {
+                copy[i] = arrays[i].clone();
+            }
+            return copy;
+        }
+    }
+
+    // Simulates a share of the paths; all buffers are allocated once up front
+    private static final class Worker {
+        final Run run;
+        final SplitMix64 random;
+        final long paths;
+        final long[][] counts = new long[HORIZONS][BINS];
+        final double[][] sums = new double[HORIZONS][BINS];
+        final double[][] tailSums;
+        final double[] noise;
+        final double[][] positionLoss;
+
+        Worker(Run run, SplitMix64 random, long paths) {
+            this.run = run;
+            this.random = random;
+            this.paths = paths;
+            int n = run.values.length;
+            this.tailSums = new double[HORIZONS][TAIL_BUCKETS * n];
+            this.noise = new double[2 * n];
+            this.positionLoss = new double[HORIZONS][n];
+        }
+
+        void simulate() {
+            long done = 0;
+            while (done < paths && !run.result.isDone()) {
+                long batch = Math.min(BATCH_PATHS, paths - done);
+                for (long p = 0; p < batch; p++) {
+                    simulatePath();
+                }
+                done += batch;
+                run.merge(this, batch);
+                clear();
+            }
+        }
+
+        private void simulatePath() {
+            int n = run.values.length;
+            double[] values = run.values;
+            double[] sigmas = run.sigmas;
+            double a = run.marketLoading;
+            double b = run.idiosyncraticLoading;
+
+            double market1 = random.nextGaussian();
+            double market9 = random.nextGaussian();
+            PriceModel.fillGaussian(noise, 2 * n, random);
+
+            double[] loss1 = positionLoss[0];
+            double[] loss10 = positionLoss[1];
+            double total1 = 0.0;
+            double total10 = 0.0;
+            for (int i = 0; i < n; i++) {
+                double s = sigmas[i];
+                double r1 = s * (a * market1 + b * noise[2 * i]);
+                // Days two to ten: the sum of nine daily shocks has sigma 3 * s
+                double r10 = r1 + 3.0 * s * (a * market9 + b * noise[2 * i + 1]);
+                double l1 = -values[i] * Math.expm1(r1 - 0.5 * s * s);
+                double l10 = -values[i] * Math.expm1(r10 - 5.0 * s * s);
+                loss1[i] = l1;
+                loss10[i] = l10;
+                total1 += l1;
+                total10 += l10;
+            }
+            record(0, total1, loss1);
+            record(1, total10, loss10);
+        }
+
+        private void record(int horizon, double loss, double[] positionLoss) {
+            int bin = (int) ((loss - run.rangeStart[horizon]) / run.binWidth[horizon]);
+            bin = Math.max(0, Math.min(BINS - 1, bin));
+            counts[horizon][bin]++;
+            sums[horizon][bin] += loss;
+            if (bin >= TAIL_START) {
+                int n = positionLoss.length;
+                int offset = ((bin - TAIL_START) >> TAIL_SHIFT) * n;
+                double[] tail = tailSums[horizon];
+                for (int i = 0; i < n; i++) {
+                    tail[offset + i] += positionLoss[i];
+                }
+            }
+        }
+
+        private void clear() {
+            for (int h = 0; h < HORIZONS; h++) {
+                Arrays.fill(counts[h], 0L);
+                Arrays.fill(sums[h], 0.0);
+                Arrays.fill(tailSums[h], 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+// Point-in-time result of a RiskEngine run: the merged loss histograms for
+// each horizon plus the per-position tail sums, from which VaR, expected
+// shortfall and risk contributions are read at any confidence level.
+// Losses are positive numbers in dollars. Reports are immutable.
+public final class RiskReport {
+    private final String[] symbols;
+    private final double portfolioValue;
+    private final long completedPaths;
+    private final long totalPaths;
+    private final double[] rangeStart;
+    private final double[] binWidth;
+    private final long[][] counts;
+    private final double[][] sums;
+    private final double[][] tailSums;
+
+    RiskReport(String[] symbols, double portfolioValue, long completedPaths, long totalPaths,
+               double[] rangeStart, double[] binWidth, long[][] counts, double[][] sums, double[][] tailSums) {
+        this.symbols = symbols;
+        this.portfolioValue = portfolioValue;
+        this.completedPaths = completedPaths;
+        this.totalPaths = totalPaths;
+        this.rangeStart = rangeStart;
+        this.binWidth = binWidth;
+        this.counts = counts;
+        this.sums = sums;
+        this.tailSums = tailSums;
+    }
+
+    public double getPortfolioValue() {
+        return portfolioValue;
+    }
+
+    public long getCompletedPaths() {
+        return completedPaths;
+    }
+
+    public long getTotalPaths() {
+        return totalPaths;
+    }
+
+    public boolean isComplete() {
+        return completedPaths >= totalPaths;
+    }
+
+    public int getPositionCount() {
+        return symbols.length;
+    }
+
+    public String getSymbol(int position) {
+        return symbols[position];
+    }
+
+    // Loss not exceeded with the given confidence (e.g. 0.99) over 1 or 10 days
+    public double getValueAtRisk(int horizonDays, double confidence) {
+        int h = horizon(horizonDays);
+        if (completedPaths == 0) {
+            return 0.0;
+        }
+        double tailPaths = (1 - confidence) * completedPaths;
+        long above = 0;
+        for (int bin = RiskEngine.BINS - 1; bin >= 0; bin--) {
+            long count = counts[h][bin];
+            if (above + count >= tailPaths) {
+                // Interpolate linearly within the bin
+                double fraction = count == 0 ? 0.0 : (tailPaths - above) / count;
+                return rangeStart[h] + (bin + 1 - fraction) * binWidth[h];
+            }
+            above += count;
+        }
+        return rangeStart[h];
+    }
+
+    // Average loss in the worst (1 - confidence) of paths
+    public double getExpectedShortfall(int horizonDays, double confidence) {
+        int h = horizon(horizonDays);
+        if (completedPaths == 0) {
+            return 0.0;
+        }
+        int first = tailBin(h, confidence);
+        long count = 0;
+        double sum = 0.0;
+        for (int bin = first; bin < RiskEngine.BINS; bin++) {
+            count += counts[h][bin];
+            sum += sums[h][bin];
+        }
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    // Each position's share of the expected shortfall (Euler allocation):
+    // its average loss over the tail paths, scaled so the shares add up to ES.
+    // The tail is resolved to the bucket containing the VaR.
+    public double[] getRiskContributions(int horizonDays, double confidence) {
+        int h = horizon(horizonDays);
+        int n = symbols.length;
+        double[] contributions = new double[n];
+        if (completedPaths == 0 || n == 0) {
+            return contributions;
+        }
+        int firstBucket = Math.max(0, (tailBin(h, confidence) - RiskEngine.TAIL_START) >> RiskEngine.TAIL_SHIFT);
+        int firstBin = RiskEngine.TAIL_START + (firstBucket << RiskEngine.TAIL_SHIFT);
+        long count = 0;
+        for (int bin = firstBin; bin < RiskEngine.BINS; bin++) {
+            count += counts[h][bin];
+        }
+        if (count == 0) {
+            return contributions;
+        }
+        double total = 0.0;
+        for (int bucket = firstBucket; bucket < RiskEngine.TAIL_BUCKETS; bucket++) {
+            for (int i = 0; i < n; i++) {
+                contributions[i] += tailSums[h][bucket * n + i];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            contributions[i] /= count;
+            total += contributions[i];
+        }
+        double shortfall = getExpectedShortfall(horizonDays, confidence);
+        if (total != 0.0) {
+            for (int i = 0; i < n; i++) {
+                contributions[i] *= shortfall / total;
+            }
+        }
+        return contributions;
+    }
+
+    // First histogram bin of the worst (1 - confidence) of paths
+    private int tailBin(int h, double confidence) {
+        double tailPaths = (1 - confidence) * completedPaths;
+        long above = 0;
+        for (int bin = RiskEngine.BINS - 1; bin > 0; bin--) {
+            above += counts[h][bin];
+            if (above >= tailPaths) {
+                return bin;
+            }
+        }
+        return 0;
+    }
+
+    private static int horizon(int horizonDays) {
+        for (int h = 0; h < RiskEngine.HORIZONS; h++) {
+            if (RiskEngine.HORIZON_DAYS[h] == horizonDays) {
+                return h;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported horizon: " + horizonDays + " days (expected 1 or 10)");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Paths: %,d/%,d  1-day VaR(99%%): $%.2f  ES(99%%): $%.2f  10-day VaR(99%%): $%.2f  ES(99%%): $%.2f",
+            completedPaths, totalPaths, getValueAtRisk(1, 0.99), getExpectedShortfall(1, 0.99),
+            getValueAtRisk(10, 0.99), getExpectedShortfall(10, 0.99));
+    }
+}
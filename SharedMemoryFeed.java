@@ -0,0 +1,169 @@
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Publishes every tick into a memory-mapped ring buffer file, so processes
+// outside this JVM can follow the market by mapping the same file (see
+// FeedReader). There is one writer, the market's tick thread, and any number
+// of readers, which never write to the file: a reader that falls more than a
+// ring behind just finds its records overwritten and skips ahead, reporting
+// the gap, and the market never waits for anyone.
+//
+// Each record is written seqlock-style: its sequence field is first set to
+// -sequence, then the payload is written, then the sequence is stored with
+// release semantics. A reader accepts a record only if it sees the sequence it
+// expects both before and after reading the payload.
+//
+// File layout, little-endian:
+//   header (HEADER_SIZE bytes):
+//     0  int magic "FEED", 4 int version, 8 int record size, 12 int capacity
+//        (records, a power of two), 16 int symbol capacity, 24 long session
+//        (random, changes whenever the file is recreated)
+//     64 long cursor: sequence of the last published record (own cache line)
+//     128 int symbols named so far, 132 int closed flag
+//   symbol names: symbol capacity x 32 bytes (u8 length, up to 31 bytes UTF-8)
+//   records: capacity x 32 bytes, record n (from 1) in slot (n - 1) % capacity
+//     0 long sequence, 8 long a, 16 long b, 24 int symbol id, 28 int c
+//     price: symbol id >= 0, a = price in cents, b = session volume, c = 0
+//     tick:  symbol id = -1, a = epoch, b = tick time (nanos), c = number of
+//            price records that follow
+//
+//   java -Dstocksim.feed=market.feed -cp bin Main   publishes the simulator's ticks
+public class SharedMemoryFeed implements StockMarket.MarketObserver, Closeable {
+    static final int MAGIC = 0x44454546; // "FEED"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4096;
+    static final int RECORD_SIZE = 32;
+    static final int SYMBOL_SIZE = 32;
+    static final int TICK = -1;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 12;
+    static final int SYMBOL_CAPACITY_OFFSET = 16;
+    static final int SESSION_OFFSET = 24;
+    static final int CURSOR_OFFSET = 64;
+    static final int SYMBOL_COUNT_OFFSET = 128;
+    static final int CLOSED_OFFSET = 132;
+
+    // Atomic access to the mapped file; offsets must be aligned to the access size
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final LatencyHistogram PUBLISH = Metrics.histogram("feed.publish.nanos");
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int symbolCapacity;
+    private final int recordsOffset;
+    private long sequence;
+    private int symbolsNamed;
+
+    // Replaces any existing file. The old file is unlinked rather than truncated,
+    // so readers still mapping it are never cut off mid-read; they reopen the
+    // path to follow the new session.
+    public SharedMemoryFeed(Path file, int capacity, int symbolCapacity) throws IOException {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        long size = recordsOffset(symbolCapacity) + (long) capacity * RECORD_SIZE;
+        if (symbolCapacity < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Feed too large to map: " + size + " bytes");
+        }
+        this.file = file;
+        this.capacity = capacity;
+        this.symbolCapacity = symbolCapacity;
+        this.recordsOffset = recordsOffset(symbolCapacity);
+        Files.deleteIfExists(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(SYMBOL_CAPACITY_OFFSET, symbolCapacity);
+        buffer.putLong(SESSION_OFFSET, new SplitMix64(System.nanoTime() ^ ProcessHandle.current().pid()).nextLong());
+        // Readers check the magic last, so they never see a half-written header
+        INTS.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+    }
+
+    public SharedMemoryFeed(Path file, int symbolCapacity) throws IOException {
+        this(file, DEFAULT_CAPACITY, symbolCapacity);
+    }
+
+    // Symbol names come first and the records start on a fresh page
+    static int recordsOffset(int symbolCapacity) {
+        long end = HEADER_SIZE + (long) symbolCapacity * SYMBOL_SIZE;
+        return (int) Math.min(Integer.MAX_VALUE, (end + 4095) & ~4095L);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Sequence of the last record published
+    public long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void onMarketUpdate(MarketSnapshot snapshot) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0L;
+        nameSymbols(snapshot);
+        int changed = snapshot.getChangedCount();
+        write(TICK, snapshot.getEpoch(), snapshot.getTimeNanos(), changed);
+        for (int i = 0; i < changed; i++) {
+            int id = snapshot.getChangedId(i);
+            write(id, snapshot.getPriceCents(id), snapshot.getVolume(id), 0);
+        }
+        LONGS.setRelease(buffer, CURSOR_OFFSET, sequence);
+        if (Metrics.ENABLED) {
+            PUBLISH.recordSince(start);
+        }
+    }
+
+    // Names of symbols beyond symbolCapacity are not published; their records still are
+    private void nameSymbols(MarketSnapshot snapshot) {
+        int count = Math.min(snapshot.size(), symbolCapacity);
+        if (count <= symbolsNamed) {
+            return;
+        }
+        for (int id = symbolsNamed; id < count; id++) {
+            byte[] name = snapshot.getSymbol(id).getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(name.length, SYMBOL_SIZE - 1);
+            int offset = HEADER_SIZE + id * SYMBOL_SIZE;
+            buffer.put(offset, (byte) length);
+            buffer.put(offset + 1, name, 0, length);
+        }
+        symbolsNamed = count;
+        INTS.setRelease(buffer, SYMBOL_COUNT_OFFSET, count);
+    }
+
+    private void write(int symbolId, long a, long b, int c) {
+        long next = ++sequence;
+        int offset = recordsOffset + (int) ((next - 1) & (capacity - 1)) * RECORD_SIZE;
+        LONGS.setOpaque(buffer, offset, -next);
+        VarHandle.storeStoreFence();
+        buffer.putLong(offset + 8, a);
+        buffer.putLong(offset + 16, b);
+        buffer.putInt(offset + 24, symbolId);
+        buffer.putInt(offset + 28, c);
+        LONGS.setRelease(buffer, offset, next);
+    }
+
+    // Tells readers no more records will come; the file is left for them to finish
+    @Override
+    public void close() {
+        INTS.setRelease(buffer, CLOSED_OFFSET, 1);
+    }
+}
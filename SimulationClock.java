@@ -0,0 +1,200 @@
+import java.util.concurrent.locks.LockSupport;
+
+// Drives the market on its own thread instead of the Swing EDT.
+// Deadlines are absolute (start + n * period), so sleep jitter never
+// accumulates into drift. A rate of 0 runs ticks back to back, which is what
+// backtests want. A tick that throws is counted and logged, and the clock
+// carries on with the next one, as the Swing Timer it replaced did.
+public class SimulationClock {
+    public static final double MAX_TICK_RATE = 10_000.0;
+    public static final double AS_FAST_AS_POSSIBLE = 0.0;
+
+    // Sleeping is coarse on most platforms, so the last stretch before a deadline is spun
+    private static final long SPIN_THRESHOLD_NANOS = 100_000L;
+    // If the clock falls this many periods behind it resynchronises instead of bursting
+    private static final int MAX_CATCH_UP_TICKS = 10;
+
+    private final Runnable tickAction;
+    private volatile double ticksPerSecond;
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    // Metrics, written by the clock thread only
+    private volatile long tickCount;
+    private volatile long skippedTicks;
+    private volatile long failedTicks;
+    private volatile long lastLagNanos;
+    private volatile long maxLagNanos;
+    private volatile long totalLagNanos;
+    private volatile long lastTickDurationNanos;
+
+    public SimulationClock(Runnable tickAction, double ticksPerSecond) {
+        this.tickAction = tickAction;
+        setTickRate(ticksPerSecond);
+    }
+
+    // Ticks per second, up to MAX_TICK_RATE; AS_FAST_AS_POSSIBLE disables pacing
+    public void setTickRate(double ticksPerSecond) {
+        if (ticksPerSecond < 0 || ticksPerSecond > MAX_TICK_RATE || Double.isNaN(ticksPerSecond)) {
+            throw new IllegalArgumentException("Tick rate must be between 0 and " + MAX_TICK_RATE + ": " + ticksPerSecond);
+        }
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    public double getTickRate() {
+        return ticksPerSecond;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "market-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        try {
+            runTicks();
+        } finally {
+            // Anything that escapes the loop (an Error) ends this thread; start() can then begin a new one
+            if (thread == Thread.currentThread()) {
+                running = false;
+            }
+        }
+    }
+
+    private void runTicks() {
+        double rate = ticksPerSecond;
+        long period = periodNanos(rate);
+        long start = System.nanoTime();
+        long tickIndex = 0;
+
+        while (running) {
+            // A rate change restarts the schedule from now
+            if (rate != ticksPerSecond) {
+                rate = ticksPerSecond;
+                period = periodNanos(rate);
+                start = System.nanoTime();
+                tickIndex = 0;
+            }
+
+            long now;
+            if (period > 0) {
+                long deadline = start + tickIndex * period;
+                waitUntil(deadline);
+                if (!running) {
+                    break;
+                }
+                now = System.nanoTime();
+                long lag = now - deadline;
+                if (lag > MAX_CATCH_UP_TICKS * period) {
+                    long missed = lag / period;
+                    skippedTicks += missed;
+                    tickIndex += missed;
+                    lag -= missed * period;
+                }
+                recordLag(lag);
+                tickIndex++;
+            } else {
+                now = System.nanoTime();
+                recordLag(0);
+            }
+
+            try {
+                tickAction.run();
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+            lastTickDurationNanos = System.nanoTime() - now;
+            tickCount++;
+        }
+    }
+
+    // The first failure is logged with its stack trace, later ones as one line
+    private void failed(RuntimeException e) {
+        long failures = ++failedTicks;
+        if (failures == 1) {
+            System.err.println("Tick " + tickCount + " failed; the clock keeps running");
+            e.printStackTrace();
+        } else {
+            System.err.println("Tick " + tickCount + " failed (" + failures + " so far): " + e);
+        }
+    }
+
+    private void waitUntil(long deadline) {
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void recordLag(long lag) {
+        lastLagNanos = lag;
+        totalLagNanos += lag;
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+    }
+
+    private static long periodNanos(double rate) {
+        return rate == AS_FAST_AS_POSSIBLE ? 0L : Math.round(1_000_000_000L / rate);
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    // Ticks dropped because the clock fell too far behind its schedule
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    // Ticks whose action threw; the clock skipped past them
+    public long getFailedTicks() {
+        return failedTicks;
+    }
+
+    // How late the most recent tick started relative to its deadline
+    public long getLastLagNanos() {
+        return lastLagNanos;
+    }
+
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    public double getMeanLagNanos() {
+        long ticks = tickCount;
+        return ticks == 0 ? 0.0 : (double) totalLagNanos / ticks;
+    }
+
+    public long getLastTickDurationNanos() {
+        return lastTickDurationNanos;
+    }
+}
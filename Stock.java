@@ -1,80 +1,81 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 public class Stock {
-    private String symbol;
-    private double price;
-    private double previousClose;
-    private int volume;
-    private double high;
-    private double low;
-    private double changePercent;
+    private static final PriceModel DEFAULT_MODEL = PriceModel.create("random-walk");
+
+    // A Stock is a view over one row of a PriceStore
+    private final PriceStore store;
+    private final int id;
 
     public Stock(String symbol, double price) {
-        this.symbol = symbol;
-        this.price = price;
-        this.previousClose = price;
-        this.volume = 0;
-        this.high = price;
-        this.low = price;
-        this.changePercent = 0.0;
+        this.store = new PriceStore(1);
+        this.id = store.add(symbol, price);
+    }
+
+    Stock(PriceStore store, int id) {
+        this.store = store;
+        this.id = id;
     }
 
     // Getters and setters
     public String getSymbol() {
-        return symbol;
+        return store.getSymbol(id);
+    }
+
+    public int getId() {
+        return id;
     }
 
     public double getPrice() {
-        return price;
+        return store.getPrice(id);
+    }
+
+    public long getPriceCents() {
+        return store.getPriceCents(id);
     }
 
     public void setPrice(double price) {
-        if (price > high) {
-            high = price;
-        }
-        if (price < low) {
-            low = price;
-        }
-        this.changePercent = ((price - previousClose) / previousClose) * 100;
-        this.price = price;
+        store.setPrice(id, price);
     }
 
     public double getPreviousClose() {
-        return previousClose;
+        return store.getPreviousClose(id);
     }
 
     public void setPreviousClose(double previousClose) {
-        this.previousClose = previousClose;
+        store.setPreviousClose(id, previousClose);
     }
 
-    public int getVolume() {
-        return volume;
+    public long getVolume() {
+        return store.getVolume(id);
     }
 
     public void incrementVolume(int shares) {
-        this.volume += shares;
+        store.incrementVolume(id, shares);
     }
 
     public double getHigh() {
-        return high;
+        return store.getHigh(id);
     }
 
     public double getLow() {
-        return low;
+        return store.getLow(id);
     }
 
     public double getChangePercent() {
-        return changePercent;
+        return store.getChangePercent(id);
     }
 
     // Method to simulate price movement
+    // Moves a single stock with the same default process the market ticks with
     public void updatePrice() {
-        // Simulate random price movement between -2% and +2%
-        double movement = (Math.random() * 4 - 2) / 100;
-        double newPrice = price * (1 + movement);
-        setPrice(Math.round(newPrice * 100.0) / 100.0); // Round to 2 decimal places
+        double[] price = {getPrice()};
+        DEFAULT_MODEL.step(price, new double[1], id, 1, ThreadLocalRandom.current());
+        store.setPriceCents(id, PriceModel.toCents(price[0]));
     }
 
     @Override
     public String toString() {
-        return String.format("%s: $%.2f (%+.2f%%)", symbol, price, changePercent);
+        return String.format("%s: %s (%+.2f%%)", getSymbol(), Money.format(getPriceCents()), getChangePercent());
     }
 }
@@ -1,38 +1,114 @@
+import java.time.Instant;
 import java.util.*;
-import javax.swing.Timer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 public class StockMarket {
-    private Map<String, Stock> stocks;
+    private PriceStore store;
     private List<MarketObserver> observers;
-    private Timer updateTimer;
-    private Random random;
-    private static final int UPDATE_INTERVAL = 2000; // 2 seconds
+    private SimulationClock clock;
+    private TickEngine tickEngine;
+    private volatile SymbolUniverse universe;
+    private static final int UPDATE_INTERVAL = 2000; // 2 seconds by default
+    // Latest published snapshot; rebuilt lazily when the universe changes between ticks
+    private volatile MarketSnapshot snapshot;
+    private volatile boolean snapshotStale;
+    private long epoch;
+    // Executions reported by the matching engine, applied at the start of the next tick
+    private final Queue<PendingTrade> pendingTrades = new ConcurrentLinkedQueue<>();
+    // Streaming indicators, updated as prices are set; empty until something registers one
+    private final Indicators indicators = new Indicators();
+    // Rankings and breadth, told about every snapshot and brought up to date when queried
+    private final Leaderboard leaderboard = new Leaderboard();
+    // Set once a read-only query (standings, stocks, trends) has asked for the
+    // published snapshot; from then on every tick is published for it even
+    // when no observer is registered
+    private volatile boolean snapshotQueried;
+    // Set once standings are asked for; from then on every tick is settled
+    // into the leaderboard's rankings at the end of the tick
+    private volatile boolean leaderboardQueried;
+    private static final int SUMMARY_LEADERS = 5;
+
+    // Instrumentation; only touched when Metrics.ENABLED
+    private static final LatencyHistogram TICK_UPDATE = Metrics.histogram("market.tick.update.nanos");
+    private static final LatencyHistogram TICK_NOTIFY = Metrics.histogram("market.tick.notify.nanos");
+    private static final LatencyHistogram OBSERVER_UPDATE = Metrics.histogram("market.observer.update.nanos");
+    private static final LatencyHistogram TICK_ALLOCATION = Metrics.histogram("market.tick.allocated.bytes");
+    private static final LongAdder TICKS = Metrics.counter("market.ticks");
+    private static final LongAdder TRADES = Metrics.counter("market.trades");
+    private long instrumentedTicks;
+
+    private static final class PendingTrade {
+        final int symbolId;
+        final long shares;
+        final long priceCents;
+
+        PendingTrade(int symbolId, long shares, long priceCents) {
+            this.symbolId = symbolId;
+            this.shares = shares;
+            this.priceCents = priceCents;
+        }
+    }
 
     public interface MarketObserver {
-        void onMarketUpdate(Map<String, Stock> stocks);
+        // Every observer receives the same immutable snapshot for a tick
+        void onMarketUpdate(MarketSnapshot snapshot);
     }
 
     public StockMarket() {
-        this.stocks = new HashMap<>();
-        this.observers = new ArrayList<>();
-        this.random = new Random();
-        initializeStocks();
+        this(new Random().nextLong());
+    }
+
+    // Markets built with the same seed produce the same prices tick for tick
+    public StockMarket(long seed) {
+        this(seed, true);
+    }
+
+    // Without the default stocks the market starts empty, e.g. for backtests that
+    // build their universe from a recorded file
+    public StockMarket(long seed, boolean withDefaultStocks) {
+        this.store = new PriceStore();
+        store.setIndicators(indicators);
+        this.observers = new CopyOnWriteArrayList<>();
+        this.tickEngine = new TickEngine(store, seed);
+        this.clock = new SimulationClock(this::tick, 1000.0 / UPDATE_INTERVAL);
+        if (Metrics.ENABLED) {
+            Metrics.gauge("market.symbols", store::size);
+            Metrics.gauge("clock.lag.last.nanos", clock::getLastLagNanos);
+            Metrics.gauge("clock.lag.max.nanos", clock::getMaxLagNanos);
+            Metrics.gauge("clock.ticks.skipped", clock::getSkippedTicks);
+            Metrics.gauge("clock.ticks.failed", clock::getFailedTicks);
+        }
+        if (withDefaultStocks) {
+            initializeStocks();
+        }
     }
 
     private void initializeStocks() {
         // Initialize with some popular stocks
-        addStock("AAPL", 150.50);
-        addStock("GOOGL", 2750.25);
-        addStock("MSFT", 285.75);
-        addStock("AMZN", 3300.00);
-        addStock("TSLA", 850.25);
-        addStock("META", 330.50);
-        addStock("NFLX", 450.75);
-        addStock("NVDA", 420.25);
+        loadUniverse(SymbolUniverse.defaults());
+    }
+
+    // Adds every instrument of a universe at its opening price. Loaded into an
+    // empty market, market symbol ids are the universe's ids.
+    public synchronized void loadUniverse(SymbolUniverse universe) {
+        store.ensureCapacity(store.size() + universe.size());
+        for (int id = 0; id < universe.size(); id++) {
+            store.addCents(universe.getSymbol(id), universe.getPriceCents(id));
+        }
+        this.universe = universe;
+        snapshotStale = true;
     }
 
-    public void addStock(String symbol, double initialPrice) {
-        stocks.put(symbol, new Stock(symbol, initialPrice));
+    // Reference data (sector, exchange, lot size) of the loaded universe, or null
+    public SymbolUniverse getUniverse() {
+        return universe;
+    }
+
+    public synchronized void addStock(String symbol, double initialPrice) {
+        store.add(symbol, initialPrice);
+        snapshotStale = true;
     }
 
     public void addObserver(MarketObserver observer) {
@@ -44,102 +120,433 @@ public class StockMarket {
     }
 
     private void notifyObservers() {
+        if (observers.isEmpty()) {
+            if (snapshotQueried) {
+                publishSnapshot(true);
+            }
+            if (leaderboardQueried) {
+                leaderboard.settle();
+            }
+            return;
+        }
+        MarketSnapshot current = publishSnapshot(true);
+        if (Metrics.ENABLED) {
+            notifyInstrumented(current);
+        } else {
+            for (MarketObserver observer : observers) {
+                observer.onMarketUpdate(current);
+            }
+        }
+        // After the observers, so a wide re-rank does not delay their update
+        if (leaderboardQueried) {
+            leaderboard.settle();
+        }
+    }
+
+    private void notifyInstrumented(MarketSnapshot current) {
         for (MarketObserver observer : observers) {
-            observer.onMarketUpdate(new HashMap<>(stocks));
+            MetricsEvents.ObserverEvent event = new MetricsEvents.ObserverEvent();
+            event.begin();
+            long start = System.nanoTime();
+            observer.onMarketUpdate(current);
+            OBSERVER_UPDATE.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.observer = observer.getClass().getName();
+                event.epoch = current.getEpoch();
+                event.commit();
+            }
         }
     }
 
-    // Changed from private to public
+    // Copies the columns changed since the last snapshot; the copy is shared by
+    // every reader of this epoch. Only snapshots handed to observers report
+    // their changes, so one taken between ticks does not hide them.
+    private synchronized MarketSnapshot publishSnapshot(boolean report) {
+        MarketSnapshot current = new MarketSnapshot(++epoch, store.freeze(report));
+        leaderboard.onSnapshot(current);
+        snapshot = current;
+        snapshotStale = false;
+        return current;
+    }
+
+    // The latest snapshot already published, without publishing one for changes
+    // made since; null before the first. For threads that must not touch the
+    // live columns, which only the tick thread may read while it writes them.
+    public MarketSnapshot getPublishedSnapshot() {
+        return snapshot;
+    }
+
+    public MarketSnapshot getSnapshot() {
+        MarketSnapshot current = snapshot;
+        if (current == null || snapshotStale) {
+            current = publishSnapshot(false);
+        }
+        return current;
+    }
+
+    // Ticks run on the clock's own thread, never on the Swing EDT
     public void startMarketSimulation() {
-        updateTimer = new Timer(UPDATE_INTERVAL, e -> {
-            updateStockPrices();
-            notifyObservers();
-        });
-        updateTimer.start();
+        clock.start();
+    }
+
+    // Ticks per second (up to SimulationClock.MAX_TICK_RATE), or
+    // SimulationClock.AS_FAST_AS_POSSIBLE for backtests
+    public void setTickRate(double ticksPerSecond) {
+        clock.setTickRate(ticksPerSecond);
+    }
+
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    // Runs a single tick and notifies observers once every symbol has moved
+    public synchronized void tick() {
+        if (Metrics.ENABLED) {
+            instrumentedTick();
+            return;
+        }
+        updateStockPrices();
+        notifyObservers();
+    }
+
+    private void instrumentedTick() {
+        boolean sampleAllocation = instrumentedTicks++ % Metrics.ALLOCATION_SAMPLE_INTERVAL == 0;
+        long allocatedBefore = sampleAllocation ? Metrics.currentThreadAllocatedBytes() : -1L;
+        MetricsEvents.TickEvent event = new MetricsEvents.TickEvent();
+        event.begin();
+        long start = System.nanoTime();
+        updateStockPrices();
+        long updated = System.nanoTime();
+        event.end();
+        TICK_UPDATE.record(updated - start);
+        if (allocatedBefore >= 0) {
+            TICK_ALLOCATION.record(Metrics.currentThreadAllocatedBytes() - allocatedBefore);
+        }
+        notifyObservers();
+        TICK_NOTIFY.recordSince(updated);
+        TICKS.increment();
+        if (event.shouldCommit()) {
+            event.symbols = store.size();
+            event.commit();
+        }
+    }
+
+    // Records an execution; volume and last price are updated on the tick thread,
+    // which keeps the price columns single-writer. Safe to call from any thread.
+    public void recordTrade(int symbolId, long shares, long priceCents) {
+        pendingTrades.offer(new PendingTrade(symbolId, shares, priceCents));
+    }
+
+    private void applyPendingTrades() {
+        PendingTrade trade;
+        while ((trade = pendingTrades.poll()) != null) {
+            // Price first, so the volume is recorded at the trade's price (see Indicators VWAP)
+            store.setPriceCents(trade.symbolId, trade.priceCents);
+            store.incrementVolume(trade.symbolId, trade.shares);
+            if (Metrics.ENABLED) {
+                TRADES.increment();
+            }
+        }
+    }
+
+    // Applies one recorded tick instead of a generated one: the first count
+    // entries of the arrays are symbol ids, prices and traded volume, all stamped
+    // with timeNanos. Observers are notified exactly as for a simulated tick.
+    public synchronized void publishRecordedTick(long timeNanos, int count, int[] symbolIds,
+                                                 double[] prices, long[] volumes) {
+        store.setTime(timeNanos);
+        indicators.applyRequests();
+        applyPendingTrades();
+        for (int i = 0; i < count; i++) {
+            int id = symbolIds[i];
+            store.setPrice(id, prices[i]);
+            if (volumes[i] != 0) {
+                store.incrementVolume(id, volumes[i]);
+            }
+        }
+        snapshotStale = true;
+        notifyObservers();
     }
 
     private void updateStockPrices() {
-        for (Stock stock : stocks.values()) {
-            updateStockPrice(stock);
+        store.setTime(wallClockNanos());
+        indicators.applyRequests();
+        applyPendingTrades();
+        tickEngine.tick();
+        snapshotStale = true;
+    }
+
+    // Keeps the last tickCapacity ticks and barCapacity bars per interval for
+    // every symbol; memory is fixed at MarketHistory.bytesPerSymbol() per symbol
+    public synchronized MarketHistory enableHistory(int tickCapacity, int barCapacity) {
+        MarketHistory history = new MarketHistory(tickCapacity, barCapacity, store.size());
+        store.setHistory(history);
+        return history;
+    }
+
+    // Copies of recent history, taken under the tick lock so they never see a half-applied tick
+    public synchronized int copyTicks(String symbol, int n, long[] times, double[] prices) {
+        int id = store.idOf(symbol);
+        MarketHistory history = store.getHistory();
+        return id >= 0 && history != null ? history.copyTicks(id, n, times, prices) : 0;
+    }
+
+    public synchronized int copyBars(String symbol, MarketHistory.BarInterval interval, int n, long[] start,
+                                     double[] open, double[] high, double[] low, double[] close, long[] volume) {
+        int id = store.idOf(symbol);
+        MarketHistory history = store.getHistory();
+        return id >= 0 && history != null
+            ? history.copyBars(id, interval, n, start, open, high, low, close, volume) : 0;
+    }
+
+    private static long wallClockNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    // Rolls every symbol into a new session (previous close, high/low and volume reset)
+    public synchronized void startNewSession() {
+        store.startNewSession();
+        snapshotStale = true;
+    }
+
+    // Number of threads used to generate each tick (1 = serial). Under the
+    // market lock, so the tick engine's pool is never replaced mid-tick.
+    public synchronized void setTickParallelism(int threads) {
+        tickEngine.setParallelism(threads);
+    }
+
+    // Everything needed to continue this market exactly where it is: the live
+    // columns plus the generator and price model state. Under the market lock
+    // the columns are only frozen (the latest snapshot's when nothing changed
+    // since, otherwise a copy of the blocks written since it, without
+    // publishing a snapshot); they are flattened for writing after the lock is
+    // released, so ticks wait for microseconds, not for the whole universe.
+    Checkpoint.MarketState captureState() {
+        PriceStore columns;
+        long capturedEpoch;
+        long timeNanos;
+        long[] randomState;
+        String modelName;
+        double[] modelState;
+        synchronized (this) {
+            MarketSnapshot published = snapshot;
+            boolean changed = published == null || snapshotStale;
+            columns = changed ? store.freeze(false) : published.getColumns();
+            // The last epoch handed out; restore() continues numbering from it,
+            // so both markets give their next snapshot the same epoch
+            capturedEpoch = epoch;
+            timeNanos = store.getTime();
+            randomState = tickEngine.getRandomState();
+            PriceModel model = tickEngine.getPriceModel();
+            model.ensureCapacity(columns.size());
+            modelName = model.getName();
+            modelState = model.saveState(columns.size());
         }
+        return new Checkpoint.MarketState(capturedEpoch, timeNanos, columns, randomState, modelName, modelState);
     }
 
-    private void updateStockPrice(Stock stock) {
-        // Simulate more realistic price movements
-        double volatility = 0.02; // 2% base volatility
-        double movement = random.nextGaussian() * volatility;
-        
-        // Add some market sentiment bias (-0.5% to +0.5%)
-        double marketSentiment = (random.nextDouble() - 0.5) * 0.01;
-        
-        // Calculate new price with both random movement and market sentiment
-        double currentPrice = stock.getPrice();
-        double newPrice = currentPrice * (1 + movement + marketSentiment);
-        
-        // Ensure price doesn't go below 0.01
-        newPrice = Math.max(0.01, Math.round(newPrice * 100.0) / 100.0);
-        
-        stock.setPrice(newPrice);
+    // Replaces the universe, prices, clock and random streams with a checkpoint's
+    // and publishes the result as a new snapshot. A checkpoint taken with a
+    // different price model switches to that model with its default parameters.
+    synchronized void restore(Checkpoint.MarketState state) {
+        store.restore(state.symbols, state.price, state.previousClose, state.high, state.low,
+            state.volume, state.count);
+        store.setTime(state.timeNanos);
+        pendingTrades.clear();
+        epoch = state.epoch;
+        tickEngine.setRandomState(state.randomState);
+        PriceModel model = tickEngine.getPriceModel();
+        if (!model.getName().equals(state.modelName)) {
+            model = PriceModel.create(state.modelName);
+            tickEngine.setPriceModel(model);
+        }
+        model.ensureCapacity(state.count);
+        model.restoreState(state.modelState);
+        snapshotStale = true;
+        notifyObservers();
     }
 
+    // Switches the price process; takes effect from the next tick
+    public synchronized void setPriceModel(PriceModel model) {
+        tickEngine.setPriceModel(model);
+    }
+
+    public PriceModel getPriceModel() {
+        return tickEngine.getPriceModel();
+    }
+
+    // The clock is stopped outside the lock, as its last tick may be waiting for it
     public void stopMarketSimulation() {
-        if (updateTimer != null) {
-            updateTimer.stop();
+        clock.stop();
+        synchronized (this) {
+            tickEngine.shutdown();
+        }
+    }
+
+    public Indicators getIndicators() {
+        return indicators;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    // The n top and bottom symbols of each leaderboard ranking, as of the latest
+    // published snapshot
+    public Leaderboard.Standings getStandings(int n) {
+        leaderboardQueried = true;
+        publishedOrFirst();
+        return leaderboard.getStandings(n);
+    }
+
+    // For read-only queries from any thread: the latest published snapshot,
+    // publishing one only before the market's first, so a query never
+    // republishes the columns from the caller's thread
+    private MarketSnapshot publishedOrFirst() {
+        snapshotQueried = true;
+        MarketSnapshot current = snapshot;
+        return current != null ? current : getSnapshot();
+    }
+
+    // Registers an indicator on a symbol (or returns the handle it already has
+    // there) between ticks; see Indicators for reading it
+    public synchronized int addIndicator(String symbol, Indicators.Spec spec) {
+        int id = store.idOf(symbol);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown symbol: " + symbol);
         }
+        return indicators.add(id, spec);
     }
 
     public Stock getStock(String symbol) {
-        return stocks.get(symbol);
+        int id = store.idOf(symbol);
+        return id >= 0 ? store.view(id) : null;
+    }
+
+    // Symbol id for callers that look the same symbol up repeatedly; -1 if unknown
+    public int idOf(String symbol) {
+        return store.idOf(symbol);
+    }
+
+    public Stock getStock(int id) {
+        return store.view(id);
+    }
+
+    public double getStockPrice(int id) {
+        return store.getPrice(id);
     }
 
+    // Read-only view of the latest published snapshot
     public Map<String, Stock> getAllStocks() {
-        return new HashMap<>(stocks);
+        return publishedOrFirst().asMap();
     }
 
     public double getStockPrice(String symbol) {
-        Stock stock = stocks.get(symbol);
-        return stock != null ? stock.getPrice() : 0.0;
+        int id = store.idOf(symbol);
+        return id >= 0 ? store.getPrice(id) : 0.0;
     }
 
-    // Method to get market summary
+    public PriceStore getPriceStore() {
+        return store;
+    }
+
+    // Top gainers, losers and most active symbols plus breadth, from the
+    // leaderboard rather than a pass over every stock
     public String getMarketSummary() {
+        Leaderboard.Standings standings = getStandings(SUMMARY_LEADERS);
+        MarketSnapshot current = standings.getSnapshot();
         StringBuilder summary = new StringBuilder();
         summary.append("Market Summary:\n");
         summary.append("---------------\n");
-        
-        // Calculate market statistics
-        double totalValue = 0;
-        int gainers = 0;
-        int losers = 0;
-        
-        for (Stock stock : stocks.values()) {
-            totalValue += stock.getPrice();
-            if (stock.getChangePercent() > 0) {
-                gainers++;
-            } else if (stock.getChangePercent() < 0) {
-                losers++;
+        summary.append("Top gainers:\n");
+        for (int id : standings.getTop(Leaderboard.Metric.CHANGE_PERCENT)) {
+            if (current.getChangePercent(id) > 0) {
+                appendSummaryLine(summary, current, id);
+            }
+        }
+        summary.append("Top losers:\n");
+        for (int id : standings.getBottom(Leaderboard.Metric.CHANGE_PERCENT)) {
+            if (current.getChangePercent(id) < 0) {
+                appendSummaryLine(summary, current, id);
+            }
+        }
+        summary.append("Most active:\n");
+        for (int id : standings.getTop(Leaderboard.Metric.VOLUME)) {
+            if (current.getVolume(id) > 0) {
+                appendSummaryLine(summary, current, id);
             }
-            
-            summary.append(String.format("%s: $%.2f (%+.2f%%)\n",
-                stock.getSymbol(),
-                stock.getPrice(),
-                stock.getChangePercent()));
         }
-        
         summary.append("---------------\n");
-        summary.append(String.format("Gainers: %d, Losers: %d\n", gainers, losers));
-        summary.append(String.format("Total Market Value: $%.2f\n", totalValue));
-        
+        summary.append(String.format("Gainers: %d, Losers: %d, Unchanged: %d\n",
+            standings.getAdvancing(), standings.getDeclining(), standings.getUnchanged()));
+        summary.append(String.format("Total Market Value: %s\n", Money.format(standings.getTotalValueCents())));
+
         return summary.toString();
     }
 
-    // Method to get market trends
+    private static void appendSummaryLine(StringBuilder summary, MarketSnapshot current, int id) {
+        summary.append(String.format("  %s: %s (%+.2f%%, volume %,d)\n",
+            current.getSymbol(id),
+            Money.format(current.getPriceCents(id)),
+            current.getChangePercent(id),
+            current.getVolume(id)));
+    }
+
+    // Change percent by symbol as of the latest published snapshot: a view of
+    // it, so nothing is copied until a value is read
     public Map<String, Double> getMarketTrends() {
-        Map<String, Double> trends = new HashMap<>();
-        for (Stock stock : stocks.values()) {
-            trends.put(stock.getSymbol(), stock.getChangePercent());
-        }
-        return trends;
+        MarketSnapshot current = publishedOrFirst();
+        return new AbstractMap<String, Double>() {
+            @Override
+            public int size() {
+                return current.size();
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String && current.idOf((String) key) >= 0;
+            }
+
+            @Override
+            public Double get(Object key) {
+                int id = key instanceof String ? current.idOf((String) key) : -1;
+                return id >= 0 ? current.getChangePercent(id) : null;
+            }
+
+            @Override
+            public Set<Map.Entry<String, Double>> entrySet() {
+                return new AbstractSet<Map.Entry<String, Double>>() {
+                    @Override
+                    public int size() {
+                        return current.size();
+                    }
+
+                    @Override
+                    public Iterator<Map.Entry<String, Double>> iterator() {
+                        return new Iterator<Map.Entry<String, Double>>() {
+                            private int next;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < current.size();
+                            }
+
+                            @Override
+                            public Map.Entry<String, Double> next() {
+                                if (next >= current.size()) {
+                                    throw new NoSuchElementException();
+                                }
+                                int id = next++;
+                                return new AbstractMap.SimpleImmutableEntry<>(current.getSymbol(id),
+                                    current.getChangePercent(id));
+                            }
+                        };
+                    }
+                };
+            }
+        };
     }
 }
 
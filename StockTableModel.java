@@ -0,0 +1,149 @@
+import java.util.*;
+import javax.swing.table.AbstractTableModel;
+
+// Market table backed directly by the latest MarketSnapshot. Row i is always
+// symbol id i, so the symbol-to-row index never changes, and an update only
+// fires events for the cells that actually moved. The indicator columns are
+// requested from the market's Indicators the first time a row is painted, so
+// a large universe only pays for the rows someone has looked at.
+public class StockTableModel extends AbstractTableModel {
+    public static final int SYMBOL = 0;
+    public static final int PRICE = 1;
+    public static final int CHANGE = 2;
+    public static final int VOLUME = 3;
+    public static final int SMA = 4;
+    public static final int RSI = 5;
+    public static final int ACTION = 6;
+
+    private static final String[] COLUMNS = {"Symbol", "Price", "Change %", "Volume", "SMA 20", "RSI 14", "Action"};
+    private static final Indicators.Spec SMA_SPEC = Indicators.Spec.sma(20);
+    private static final Indicators.Spec RSI_SPEC = Indicators.Spec.rsi(14);
+    // Per-row handle states: not requested yet, requested but not added yet, or handle + 1
+    private static final int UNKNOWN = 0;
+    private static final int REQUESTED = -1;
+
+    private final String actionLabel;
+    private MarketSnapshot snapshot;
+    private int[] smaHandles = new int[0];
+    private int[] rsiHandles = new int[0];
+    // Indicators generation the handles were found under; a restore replaces them
+    private int handleGeneration;
+
+    public StockTableModel(String actionLabel) {
+        this.actionLabel = actionLabel;
+    }
+
+    // Applies a new snapshot; changed holds the ids that moved since the last update
+    public void update(MarketSnapshot next, BitSet changed) {
+        MarketSnapshot previous = snapshot;
+        int oldRows = previous != null ? previous.size() : 0;
+        snapshot = next;
+
+        for (int id = changed.nextSetBit(0); id >= 0 && id < oldRows; id = changed.nextSetBit(id + 1)) {
+            if (previous.getPriceCents(id) != next.getPriceCents(id)) {
+                fireTableCellUpdated(id, PRICE);
+            }
+            if (previous.getChangePercent(id) != next.getChangePercent(id)) {
+                fireTableCellUpdated(id, CHANGE);
+            }
+            if (previous.getVolume(id) != next.getVolume(id)) {
+                fireTableCellUpdated(id, VOLUME);
+            }
+            // Indicators move with every price update of a row that has them
+            if (smaHandles[id] > 0) {
+                fireTableCellUpdated(id, SMA);
+            }
+            if (rsiHandles[id] > 0) {
+                fireTableCellUpdated(id, RSI);
+            }
+        }
+        if (next.size() > smaHandles.length) {
+            smaHandles = Arrays.copyOf(smaHandles, next.size());
+            rsiHandles = Arrays.copyOf(rsiHandles, next.size());
+        }
+        if (next.size() > oldRows) {
+            fireTableRowsInserted(oldRows, next.size() - 1);
+        }
+    }
+
+    // Current value of an indicator column, requesting it the first time the row is shown
+    private double indicator(int row, Indicators.Spec spec, int[] handles) {
+        Indicators indicators = snapshot.getIndicators();
+        if (indicators == null) {
+            return Double.NaN;
+        }
+        int generation = indicators.getGeneration();
+        if (generation != handleGeneration) {
+            Arrays.fill(smaHandles, UNKNOWN);
+            Arrays.fill(rsiHandles, UNKNOWN);
+            handleGeneration = generation;
+        }
+        int state = handles[row];
+        if (state > 0) {
+            return indicators.value(state - 1);
+        }
+        int handle = indicators.find(row, spec);
+        if (handle >= 0) {
+            handles[row] = handle + 1;
+            return indicators.value(handle);
+        }
+        if (state == UNKNOWN) {
+            indicators.request(row, spec);
+            handles[row] = REQUESTED;
+        }
+        return Double.NaN;
+    }
+
+    public String getSymbolAt(int row) {
+        return snapshot.getSymbol(row);
+    }
+
+    public int getRowOf(String symbol) {
+        return snapshot != null ? snapshot.idOf(symbol) : -1;
+    }
+
+    @Override
+    public int getRowCount() {
+        return snapshot != null ? snapshot.size() : 0;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == ACTION; // Only allow editing of Action column
+    }
+
+    // Cells are formatted on demand, so only rows being painted pay for String.format
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case SYMBOL:
+                return snapshot.getSymbol(row);
+            case PRICE:
+                return Money.format(snapshot.getPriceCents(row));
+            case CHANGE:
+                return String.format("%.2f%%", snapshot.getChangePercent(row));
+            case VOLUME:
+                return snapshot.getVolume(row);
+            case SMA: {
+                double sma = indicator(row, SMA_SPEC, smaHandles);
+                return Double.isNaN(sma) ? "" : Money.format(Money.ofDollars(sma));
+            }
+            case RSI: {
+                double rsi = indicator(row, RSI_SPEC, rsiHandles);
+                return Double.isNaN(rsi) ? "" : String.format("%.1f", rsi);
+            }
+            default:
+                return actionLabel;
+        }
+    }
+}
@@ -2,27 +2,159 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.table.*;
 import javax.swing.border.*;
 
 public class StockTradingGUI implements StockMarket.MarketObserver {
     private JFrame frame;
     private Portfolio portfolio;
+    private final MatchingEngine matchingEngine;
     private Map<String, Stock> marketStocks;
+    // Latest update from the market thread and the union of the ids it changed
+    // since the last frame, picked up once per display frame
+    private final Object pendingLock = new Object();
+    private MarketSnapshot pendingSnapshot;
+    private BitSet pendingChanges = new BitSet();
+    private BitSet frameChanges = new BitSet();
+    private javax.swing.Timer frameTimer;
+    private static final int FRAME_INTERVAL = 1000 / 30; // ~30 frames per second
+    // When the oldest update not yet shown arrived; only tracked when Metrics.ENABLED
+    private long pendingSinceNanos;
+    private static final LatencyHistogram FRAME_LAG = Metrics.histogram("gui.frame.lag.nanos");
+    private static final LatencyHistogram TABLE_REFRESH = Metrics.histogram("gui.table.refresh.nanos");
     private JLabel balanceLabel;
-    private double cashBalance = 10000.00; // Starting balance
     private JPanel mainPanel;
-    private DefaultTableModel stockTableModel;
-    private DefaultTableModel portfolioTableModel;
+    private StockTableModel stockTableModel;
+    // Reference data for filtering and lot sizes; null when the market has none
+    private final SymbolUniverse universe;
+    private TableRowSorter<StockTableModel> stockSorter;
+    private JTextField filterField;
+    private JComboBox<String> sectorBox;
+    // Price alerts set from the market table; null when the market has no trigger engine
+    private final TriggerEngine triggerEngine;
+    private PortfolioTableModel portfolioTableModel;
+    // Monte Carlo risk of the current holdings, recomputed on demand
+    private static final long RISK_PATHS = 1_000_000L;
+    private final RiskEngine riskEngine = new RiskEngine();
+    private CompletableFuture<RiskReport> riskRun;
+    private MarketSnapshot lastSnapshot;
+    private JLabel riskLabel;
+    private JButton riskButton;
+    // Every tick of the charted symbols is recorded; a small market has all of them recorded from the start
+    private static final int CHART_ALL_SYMBOLS_UP_TO = 64;
+    private final PriceSeries.Recorder priceRecorder = new PriceSeries.Recorder(CHART_ALL_SYMBOLS_UP_TO);
+    private PriceChart priceChart;
+    // Market leaders and breadth; null when the market has no leaderboard
+    private final Leaderboard leaderboard;
+    private static final int LEADERS = 10;
+    private static final int LEADERS_INTERVAL = 500; // ms
+    private LeaderboardTableModel leaderboardTableModel;
+    private JLabel breadthLabel;
+    private javax.swing.Timer leaderboardTimer;
+    private CompletableFuture<Leaderboard.Standings> standingsQuery;
+    private long standingsEpoch = -1;
     private Color primaryColor = new Color(240, 248, 255); // Alice Blue
     private Color secondaryColor = new Color(70, 130, 180); // Steel Blue
     private Color accentColor = new Color(95, 158, 160); // Cadet Blue
 
-    public StockTradingGUI() {
-        portfolio = new Portfolio();
+    public StockTradingGUI(MatchingEngine matchingEngine, Portfolio portfolio) {
+        this(matchingEngine, portfolio, null);
+    }
+
+    public StockTradingGUI(MatchingEngine matchingEngine, Portfolio portfolio, SymbolUniverse universe) {
+        this(matchingEngine, portfolio, universe, null);
+    }
+
+    public StockTradingGUI(MatchingEngine matchingEngine, Portfolio portfolio, SymbolUniverse universe,
+                           TriggerEngine triggerEngine) {
+        this(matchingEngine, portfolio, universe, triggerEngine, null);
+    }
+
+    public StockTradingGUI(MatchingEngine matchingEngine, Portfolio portfolio, SymbolUniverse universe,
+                           TriggerEngine triggerEngine, Leaderboard leaderboard) {
+        this.matchingEngine = matchingEngine;
+        this.portfolio = portfolio;
+        this.universe = universe;
+        this.triggerEngine = triggerEngine;
+        this.leaderboard = leaderboard;
         marketStocks = new HashMap<>();
         initializeFrame();
         initializeComponents();
+        updateHoldings();
+        startFrameTimer();
+        startLeaderboardTimer();
+    }
+
+    // The market can tick far faster than Swing can paint, so updates are
+    // coalesced and the tables refreshed at most once per frame
+    private void startFrameTimer() {
+        frameTimer = new javax.swing.Timer(FRAME_INTERVAL, e -> {
+            MarketSnapshot snapshot;
+            long pendingSince;
+            synchronized (pendingLock) {
+                snapshot = pendingSnapshot;
+                pendingSince = pendingSinceNanos;
+                pendingSnapshot = null;
+                BitSet swap = pendingChanges;
+                pendingChanges = frameChanges;
+                frameChanges = swap;
+            }
+            if (snapshot != null) {
+                MetricsEvents.TableRefreshEvent event = null;
+                long start = 0L;
+                if (Metrics.ENABLED) {
+                    event = new MetricsEvents.TableRefreshEvent();
+                    event.begin();
+                    start = System.nanoTime();
+                    FRAME_LAG.record(start - pendingSince);
+                }
+                marketStocks = snapshot.asMap();
+                lastSnapshot = snapshot;
+                updateStockTable(snapshot, frameChanges);
+                updatePortfolioTable(snapshot, frameChanges);
+                if (Metrics.ENABLED) {
+                    TABLE_REFRESH.recordSince(start);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.changed = frameChanges.cardinality();
+                        event.lagNanos = start - pendingSince;
+                        event.commit();
+                    }
+                }
+                frameChanges.clear();
+            }
+        });
+        frameTimer.start();
+    }
+
+    // Catching the leaderboard up can take a while in a large, fast market, so
+    // it is queried off the EDT, one query at a time, and only after new prices
+    private void startLeaderboardTimer() {
+        if (leaderboard == null) {
+            return;
+        }
+        leaderboardTimer = new javax.swing.Timer(LEADERS_INTERVAL, e -> {
+            if (lastSnapshot == null || lastSnapshot.getEpoch() == standingsEpoch
+                    || (standingsQuery != null && !standingsQuery.isDone())) {
+                return;
+            }
+            standingsEpoch = lastSnapshot.getEpoch();
+            standingsQuery = CompletableFuture.supplyAsync(
+                () -> leaderboard.getStandings(LEADERS));
+            standingsQuery.thenAccept(standings -> SwingUtilities.invokeLater(() -> showStandings(standings)));
+        });
+        leaderboardTimer.start();
+    }
+
+    private void showStandings(Leaderboard.Standings standings) {
+        leaderboardTableModel.update(standings);
+        int advancing = standings.getAdvancing();
+        int declining = standings.getDeclining();
+        breadthLabel.setText(String.format(
+            "Advancing: %,d  Declining: %,d  Unchanged: %,d  (A/D %s)  |  Total value: %s", advancing, declining, standings.getUnchanged(),
+            declining > 0 ? String.format("%.2f", (double) advancing / declining) : "-",
+            Money.format(standings.getTotalValueCents())));
     }
 
     private void initializeFrame() {
@@ -64,6 +196,32 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         gbc.weightx = 0.4;
         mainPanel.add(portfolioPanel, gbc);
 
+        // Chart Panel, next to the leaderboard when there is one
+        JPanel chartPanel = createChartPanel();
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        gbc.gridwidth = leaderboard != null ? 1 : 2;
+        gbc.weightx = 0.6;
+        gbc.weighty = 0.5;
+        mainPanel.add(chartPanel, gbc);
+
+        if (leaderboard != null) {
+            JPanel leaderboardPanel = createLeaderboardPanel();
+            gbc.gridx = 1;
+            gbc.weightx = 0.4;
+            mainPanel.add(leaderboardPanel, gbc);
+        }
+
+        // Risk Panel
+        JPanel riskPanel = createRiskPanel();
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        gbc.gridwidth = 2;
+        gbc.weightx = 0.0;
+        gbc.weighty = 0.0;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        mainPanel.add(riskPanel, gbc);
+
         frame.add(mainPanel);
         frame.setVisible(true);
     }
@@ -74,7 +232,7 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         headerPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         // Left side - Balance
-        balanceLabel = new JLabel("Balance: $" + String.format("%.2f", cashBalance));
+        balanceLabel = new JLabel("Balance: " + Money.format(portfolio.getCashCents()));
         balanceLabel.setFont(new Font("Arial", Font.BOLD, 16));
         balanceLabel.setForeground(Color.WHITE);
         headerPanel.add(balanceLabel, BorderLayout.WEST);
@@ -101,17 +259,11 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         panel.setBackground(primaryColor);
 
         // Create table model
-        String[] columns = {"Symbol", "Price", "Change %", "Volume", "Action"};
-        stockTableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column == 4; // Only allow editing of Action column
-            }
-        };
+        stockTableModel = new StockTableModel("BUY");
 
         JTable stockTable = new JTable(stockTableModel);
-        stockTable.getColumnModel().getColumn(4).setCellRenderer(new ButtonRenderer());
-        stockTable.getColumnModel().getColumn(4).setCellEditor(
+        stockTable.getColumnModel().getColumn(StockTableModel.ACTION).setCellRenderer(new ButtonRenderer());
+        stockTable.getColumnModel().getColumn(StockTableModel.ACTION).setCellEditor(
             new ButtonEditor(new JCheckBox(), this, "BUY")
         );
 
@@ -121,12 +273,139 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         stockTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 12));
         stockTable.setSelectionBackground(new Color(135, 206, 250)); // Light Sky Blue
 
+        // Filtering is by a precomputed set of rows, so it does not depend on the
+        // prices that change every frame
+        stockSorter = new TableRowSorter<>(stockTableModel);
+        stockTable.setRowSorter(stockSorter);
+        stockTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showChart(stockTable);
+            }
+        });
+
         JScrollPane scrollPane = new JScrollPane(stockTable);
+        panel.add(createFilterPanel(stockTable), BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
 
         return panel;
     }
 
+    private JPanel createFilterPanel(JTable stockTable) {
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.setBackground(primaryColor);
+        filterPanel.add(new JLabel("Symbol:"));
+        filterField = new JTextField(10);
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                applyFilter();
+            }
+        });
+        filterPanel.add(filterField);
+        if (universe != null) {
+            sectorBox = new JComboBox<>();
+            sectorBox.addItem("All sectors");
+            for (String sector : universe.getSectors()) {
+                sectorBox.addItem(sector);
+            }
+            sectorBox.addActionListener(e -> applyFilter());
+            filterPanel.add(new JLabel("Sector:"));
+            filterPanel.add(sectorBox);
+        }
+        if (triggerEngine != null) {
+            JButton alertButton = new JButton("Price Alert...");
+            alertButton.setBackground(accentColor);
+            alertButton.setForeground(Color.WHITE);
+            alertButton.addActionListener(e -> showAlertDialog(stockTable));
+            filterPanel.add(alertButton);
+        }
+        return filterPanel;
+    }
+
+    // Sets an alert on the selected stock: ">160" or "<140.50" for a price,
+    // "5%" for a move either way from the previous close
+    private void showAlertDialog(JTable stockTable) {
+        int row = stockTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(frame, "Select a stock to set an alert on.");
+            return;
+        }
+        String symbol = stockTableModel.getSymbolAt(stockTable.convertRowIndexToModel(row));
+        Stock stock = marketStocks.get(symbol);
+        String input = JOptionPane.showInputDialog(frame, String.format(
+            "Alert when %s (now %s) reaches a price (e.g. >160 or <140) or moves by a percentage (e.g. 5%%):",
+            symbol, stock != null ? Money.format(stock.getPriceCents()) : "?"));
+        if (input == null || input.trim().isEmpty()) {
+            return;
+        }
+        input = input.trim();
+        TriggerEngine.TriggerListener listener = trigger -> SwingUtilities.invokeLater(() ->
+            JOptionPane.showMessageDialog(frame, "Price alert: " + trigger));
+        try {
+            if (input.endsWith("%")) {
+                triggerEngine.addMoveAlert(symbol, Double.parseDouble(input.substring(0, input.length() - 1)), listener);
+            } else if (input.startsWith(">") || input.startsWith("<")) {
+                TriggerEngine.Direction direction = input.startsWith(">")
+                    ? TriggerEngine.Direction.AT_OR_ABOVE : TriggerEngine.Direction.AT_OR_BELOW;
+                triggerEngine.addAlert(symbol, direction, Money.ofDollars(Double.parseDouble(input.substring(1))),
+                    listener);
+            } else {
+                JOptionPane.showMessageDialog(frame, "Enter a price like >160 or <140, or a move like 5%.");
+            }
+        } catch (IllegalArgumentException e) {
+            // Also a malformed number, or a threshold out of range
+            JOptionPane.showMessageDialog(frame, "Invalid alert: " + e.getMessage());
+        }
+    }
+
+    // Shows only the symbols starting with the typed prefix (and in the chosen
+    // sector), looked up in the universe's indexes rather than row by row
+    private void applyFilter() {
+        String prefix = filterField.getText().trim().toUpperCase(Locale.ROOT);
+        int sectorId = sectorBox != null ? sectorBox.getSelectedIndex() - 1 : -1;
+        if (prefix.isEmpty() && sectorId < 0) {
+            stockSorter.setRowFilter(null);
+            return;
+        }
+        BitSet visible = new BitSet(stockTableModel.getRowCount());
+        if (universe != null) {
+            for (int id : universe.search(prefix, sectorId)) {
+                int row = stockTableModel.getRowOf(universe.getSymbol(id));
+                if (row >= 0) {
+                    visible.set(row);
+                }
+            }
+        } else {
+            for (int row = 0; row < stockTableModel.getRowCount(); row++) {
+                if (stockTableModel.getSymbolAt(row).startsWith(prefix)) {
+                    visible.set(row);
+                }
+            }
+        }
+        stockSorter.setRowFilter(new RowFilter<StockTableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends StockTableModel, ? extends Integer> entry) {
+                return visible.get(entry.getIdentifier());
+            }
+        });
+    }
+
+    // Orders must be a whole number of lots; symbols without reference data trade in single shares
+    private int lotSizeOf(String symbol) {
+        int id = universe != null ? universe.idOf(symbol) : -1;
+        return id >= 0 ? universe.getLotSize(id) : 1;
+    }
+
     private JPanel createPortfolioPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBorder(BorderFactory.createTitledBorder(
@@ -140,13 +419,7 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         panel.setBackground(primaryColor);
 
         // Create table model
-        String[] columns = {"Symbol", "Shares", "Avg Price", "Current Value", "Action"};
-        portfolioTableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column == 4; // Only allow editing of Action column
-            }
-        };
+        portfolioTableModel = new PortfolioTableModel("SELL");
 
         JTable portfolioTable = new JTable(portfolioTableModel);
         portfolioTable.getColumnModel().getColumn(4).setCellRenderer(new ButtonRenderer());
@@ -166,64 +439,177 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         return panel;
     }
 
-    @Override
-    public void onMarketUpdate(Map<String, Stock> stocks) {
-        this.marketStocks = stocks;
-        updateStockTable();
-        updatePortfolioTable();
+    private JPanel createChartPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createLineBorder(secondaryColor),
+            "Price Chart",
+            TitledBorder.LEFT,
+            TitledBorder.TOP,
+            new Font("Arial", Font.BOLD, 14),
+            secondaryColor
+        ));
+        panel.setBackground(primaryColor);
+
+        priceChart = new PriceChart();
+        priceChart.setToolTipText("Scroll to zoom in on the latest prices, double-click to show them all");
+        panel.add(priceChart, BorderLayout.CENTER);
+
+        return panel;
     }
 
-    private void updateStockTable() {
-        SwingUtilities.invokeLater(() -> {
-            stockTableModel.setRowCount(0);
-            for (Stock stock : marketStocks.values()) {
-                Object[] row = {
-                    stock.getSymbol(),
-                    String.format("$%.2f", stock.getPrice()),
-                    String.format("%.2f%%", stock.getChangePercent()),
-                    stock.getVolume(),
-                    "BUY"
-                };
-                stockTableModel.addRow(row);
+    // Charts the selected stock, recording its prices from now on if they were not already
+    private void showChart(JTable stockTable) {
+        int row = stockTable.getSelectedRow();
+        if (row < 0 || lastSnapshot == null) {
+            return;
+        }
+        String symbol = stockTableModel.getSymbolAt(stockTable.convertRowIndexToModel(row));
+        int id = lastSnapshot.idOf(symbol);
+        if (id < 0) {
+            return;
+        }
+        PriceSeries series = priceRecorder.track(id);
+        if (series != priceChart.getSeries()) {
+            priceChart.setSeries(series, symbol);
+        }
+    }
+
+    private JPanel createLeaderboardPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createLineBorder(secondaryColor),
+            "Market Leaders",
+            TitledBorder.LEFT,
+            TitledBorder.TOP,
+            new Font("Arial", Font.BOLD, 14),
+            secondaryColor
+        ));
+        panel.setBackground(primaryColor);
+
+        leaderboardTableModel = new LeaderboardTableModel(LEADERS);
+        JTable leaderboardTable = new JTable(leaderboardTableModel);
+        leaderboardTable.setFont(new Font("Arial", Font.PLAIN, 12));
+        leaderboardTable.getTableHeader().setFont(new Font("Arial", Font.BOLD, 12));
+        leaderboardTable.getColumnModel().getColumn(LeaderboardTableModel.RANK).setMaxWidth(30);
+        leaderboardTable.setRowSelectionAllowed(false);
+
+        breadthLabel = new JLabel("Advancing: -  Declining: -  Unchanged: -");
+        breadthLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        panel.add(breadthLabel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(leaderboardTable), BorderLayout.CENTER);
+
+        return panel;
+    }
+
+    private JPanel createRiskPanel() {
+        JPanel panel = new JPanel(new BorderLayout(10, 0));
+        panel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createLineBorder(secondaryColor),
+            "Risk (Monte Carlo)",
+            TitledBorder.LEFT,
+            TitledBorder.TOP,
+            new Font("Arial", Font.BOLD, 14),
+            secondaryColor
+        ));
+        panel.setBackground(primaryColor);
+
+        riskLabel = new JLabel("Run an analysis to estimate value at risk and expected shortfall");
+        riskLabel.setFont(new Font("Arial", Font.PLAIN, 12));
+        panel.add(riskLabel, BorderLayout.CENTER);
+
+        riskButton = new JButton("Analyze Risk");
+        riskButton.setBackground(accentColor);
+        riskButton.setForeground(Color.WHITE);
+        riskButton.addActionListener(e -> toggleRiskRun());
+        panel.add(riskButton, BorderLayout.EAST);
+
+        return panel;
+    }
+
+    // Starts a run over the current holdings, or cancels the one in progress
+    private void toggleRiskRun() {
+        if (riskRun != null && !riskRun.isDone()) {
+            riskRun.cancel(false);
+            return;
+        }
+        if (lastSnapshot == null || portfolio.getHoldings().isEmpty()) {
+            riskLabel.setText("No positions to analyze");
+            return;
+        }
+        riskButton.setText("Cancel");
+        // Progress arrives on pool threads; only the latest report is painted
+        riskRun = riskEngine.run(portfolio.getHoldings(), lastSnapshot, RISK_PATHS, System.nanoTime(),
+            report -> SwingUtilities.invokeLater(() -> showRisk(report)));
+        riskRun.whenComplete((report, error) -> SwingUtilities.invokeLater(() -> {
+            riskButton.setText("Analyze Risk");
+            if (error != null && !(error instanceof java.util.concurrent.CancellationException)) {
+                riskLabel.setText("Risk analysis failed: " + error.getMessage());
             }
-        });
+        }));
     }
 
-    private void updatePortfolioTable() {
-        SwingUtilities.invokeLater(() -> {
-            portfolioTableModel.setRowCount(0);
-            Map<String, Integer> holdings = portfolio.getHoldings();
-            double totalValue = 0;
+    private void showRisk(RiskReport report) {
+        double[] contributions = report.getRiskContributions(1, 0.99);
+        int largest = 0;
+        for (int i = 1; i < contributions.length; i++) {
+            if (contributions[i] > contributions[largest]) {
+                largest = i;
+            }
+        }
+        String top = contributions.length == 0 ? "" : String.format("  |  Largest 1-day ES share: %s $%.2f",
+            report.getSymbol(largest), contributions[largest]);
+        riskLabel.setText(String.format(
+            "1-day VaR 95%%: $%.2f  99%%: $%.2f  ES 99%%: $%.2f  |  10-day VaR 99%%: $%.2f  ES 99%%: $%.2f%s  (%,d/%,d paths)",
+            report.getValueAtRisk(1, 0.95), report.getValueAtRisk(1, 0.99), report.getExpectedShortfall(1, 0.99),
+            report.getValueAtRisk(10, 0.99), report.getExpectedShortfall(10, 0.99), top,
+            report.getCompletedPaths(), report.getTotalPaths()));
+    }
 
-            for (Map.Entry<String, Integer> entry : holdings.entrySet()) {
-                String symbol = entry.getKey();
-                int shares = entry.getValue();
-                Stock stock = marketStocks.get(symbol);
-                
-                if (stock != null) {
-                    double currentValue = shares * stock.getPrice();
-                    totalValue += currentValue;
-                    
-                    Object[] row = {
-                        symbol,
-                        shares,
-                        String.format("$%.2f", stock.getPrice()),
-                        String.format("$%.2f", currentValue),
-                        "SELL"
-                    };
-                    portfolioTableModel.addRow(row);
-                }
+    @Override
+    public void onMarketUpdate(MarketSnapshot snapshot) {
+        // Called on the market thread; the frame timer applies it on the EDT
+        priceRecorder.onMarketUpdate(snapshot);
+        synchronized (pendingLock) {
+            if (Metrics.ENABLED && pendingSnapshot == null) {
+                pendingSinceNanos = System.nanoTime();
             }
+            pendingSnapshot = snapshot;
+            for (int i = 0; i < snapshot.getChangedCount(); i++) {
+                pendingChanges.set(snapshot.getChangedId(i));
+            }
+        }
+    }
 
-            // Update portfolio value label
-            Component[] components = ((JPanel)mainPanel.getComponent(0)).getComponents();
-            for (Component c : components) {
-                if (c instanceof JLabel && ((JLabel)c).getText().startsWith("Portfolio Value")) {
-                    ((JLabel)c).setText(String.format("Portfolio Value: $%.2f", totalValue));
-                    break;
-                }
+    private void updateStockTable(MarketSnapshot snapshot, BitSet changed) {
+        stockTableModel.update(snapshot, changed);
+    }
+
+    private void updatePortfolioTable(MarketSnapshot snapshot, BitSet changed) {
+        portfolio.markToMarket(snapshot, changed);
+        portfolioTableModel.updatePrices(snapshot, changed);
+        updatePortfolioValue();
+    }
+
+    // Called after a trade, when the set of positions may have changed
+    private void updateHoldings() {
+        portfolioTableModel.setHoldings(portfolio.getHoldings());
+        updatePortfolioValue();
+    }
+
+    private void updatePortfolioValue() {
+        long totalValue = portfolio.getMarketValueCents();
+
+        // Update portfolio value label
+        Component[] components = ((JPanel)mainPanel.getComponent(0)).getComponents();
+        for (Component c : components) {
+            if (c instanceof JLabel && ((JLabel)c).getText().startsWith("Portfolio Value")) {
+                ((JLabel)c).setText(String.format("Portfolio Value: %s (P/L: %s, %+.2f%%)",
+                    Money.format(totalValue), Money.formatSigned(portfolio.getProfitLossCents()),
+                    portfolio.getProfitLossPercentage()));
+                break;
             }
-        });
+        }
     }
 
     // Button renderer for the tables
@@ -245,6 +631,9 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         protected JButton button;
         private String label;
         private boolean isPushed;
+        // Model row being edited; captured here because ticks no longer rebuild
+        // the table and the selection may point somewhere else
+        private int editingRow = -1;
         private final StockTradingGUI gui;
         private final String actionType;
 
@@ -262,6 +651,7 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
                 boolean isSelected, int row, int column) {
             label = (value == null) ? "" : value.toString();
             button.setText(label);
+            editingRow = table.convertRowIndexToModel(row);
             isPushed = true;
             return button;
         }
@@ -281,11 +671,9 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         }
 
         private void handleBuyAction() {
-            // Get selected row from the table
-            JTable table = (JTable) button.getParent();
-            int row = table.getSelectedRow();
-            if (row != -1) {
-                String symbol = (String) stockTableModel.getValueAt(row, 0);
+            int row = editingRow;
+            if (row != -1 && row < stockTableModel.getRowCount()) {
+                String symbol = stockTableModel.getSymbolAt(row);
                 Stock stock = marketStocks.get(symbol);
                 if (stock != null) {
                     showTradeDialog(stock, true);
@@ -294,11 +682,9 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         }
 
         private void handleSellAction() {
-            // Get selected row from the table
-            JTable table = (JTable) button.getParent();
-            int row = table.getSelectedRow();
-            if (row != -1) {
-                String symbol = (String) portfolioTableModel.getValueAt(row, 0);
+            int row = editingRow;
+            if (row != -1 && row < portfolioTableModel.getRowCount()) {
+                String symbol = portfolioTableModel.getSymbolAt(row);
                 Stock stock = marketStocks.get(symbol);
                 if (stock != null) {
                     showTradeDialog(stock, false);
@@ -308,10 +694,12 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
 
         private void showTradeDialog(Stock stock, boolean isBuy) {
             String action = isBuy ? "Buy" : "Sell";
+            int lotSize = lotSizeOf(stock.getSymbol());
             String shares = JOptionPane.showInputDialog(
                 frame,
-                String.format("Enter number of shares to %s for %s at $%.2f:", 
-                    action.toLowerCase(), stock.getSymbol(), stock.getPrice())
+                String.format("Enter number of shares to %s for %s at %s%s:",
+                    action.toLowerCase(), stock.getSymbol(), Money.format(stock.getPriceCents()),
+                    lotSize > 1 ? " (lots of " + lotSize + ")" : "")
             );
 
             try {
@@ -321,26 +709,28 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
                         "Please enter a positive number of shares.");
                     return;
                 }
+                if (quantity % lotSize != 0) {
+                    JOptionPane.showMessageDialog(frame,
+                        String.format("%s trades in lots of %d shares.", stock.getSymbol(), lotSize));
+                    return;
+                }
 
-                double total = quantity * stock.getPrice();
+                long total = Money.times(stock.getPriceCents(), quantity);
                 if (isBuy) {
-                    if (total > cashBalance) {
+                    if (total > portfolio.getCashCents()) {
                         JOptionPane.showMessageDialog(frame, 
                             "Insufficient funds for this purchase.");
                         return;
                     }
-                    portfolio.buyStock(stock.getSymbol(), quantity, stock.getPrice());
-                    updateBalance(-total);
+                    matchingEngine.submitMarket(stock.getSymbol(), Order.Side.BUY, quantity, fillListener);
                 } else {
                     if (quantity > portfolio.getShares(stock.getSymbol())) {
                         JOptionPane.showMessageDialog(frame, 
                             "You don't have enough shares to sell.");
                         return;
                     }
-                    portfolio.sellStock(stock.getSymbol(), quantity, stock.getPrice());
-                    updateBalance(total);
+                    matchingEngine.submitMarket(stock.getSymbol(), Order.Side.SELL, quantity, fillListener);
                 }
-                updatePortfolioTable();
             } catch (NumberFormatException e) {
                 JOptionPane.showMessageDialog(frame, 
                     "Please enter a valid number of shares.");
@@ -348,8 +738,36 @@ public class StockTradingGUI implements StockMarket.MarketObserver {
         }
     }
 
-    public void updateBalance(double amount) {
-        cashBalance += amount;
-        balanceLabel.setText("Balance: $" + String.format("%.2f", cashBalance));
+    // Fills arrive on a matching thread and are settled into the portfolio on the EDT
+    private final MatchingEngine.OrderListener fillListener = (order, shares, priceCents) ->
+        SwingUtilities.invokeLater(() -> settleFill(order, shares, priceCents));
+
+    private void settleFill(Order order, long shares, long priceCents) {
+        // Portfolio positions are int-sized; orders entered here always are
+        if (shares > Integer.MAX_VALUE) {
+            JOptionPane.showMessageDialog(frame, String.format(
+                "A fill of %,d shares of %s is too large for the portfolio.", shares, order.getSymbol()));
+            return;
+        }
+        // The portfolio may have changed since the order was checked, e.g. by
+        // another fill; the executed trade is then reported, not settled
+        if (order.getSide() == Order.Side.BUY) {
+            if (!portfolio.buy(order.getSymbol(), (int) shares, priceCents)) {
+                JOptionPane.showMessageDialog(frame, String.format(
+                    "Bought %,d shares of %s at %s, but the balance no longer covers them; the fill was not settled.",
+                    shares, order.getSymbol(), Money.format(priceCents)));
+            }
+        } else if (!portfolio.sell(order.getSymbol(), (int) shares, priceCents)) {
+            JOptionPane.showMessageDialog(frame, String.format(
+                "Sold %,d shares of %s at %s, but the portfolio no longer holds them; the fill was not settled.",
+                shares, order.getSymbol(), Money.format(priceCents)));
+        }
+        updateBalance();
+        updateHoldings();
+    }
+
+    // Cash is owned by the portfolio; the label just mirrors it
+    public void updateBalance() {
+        balanceLabel.setText("Balance: " + Money.format(portfolio.getCashCents()));
     }
 }
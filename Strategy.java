@@ -0,0 +1,179 @@
+import java.util.Arrays;
+
+// A trading strategy driven by market snapshots. Strategies trade straight
+// against the Portfolio at snapshot prices, so a backtest is fully determined
+// by its input file and seed.
+public interface Strategy {
+    String getName();
+
+    void onTick(MarketSnapshot snapshot, Portfolio portfolio);
+
+    static Strategy create(String name, long seed) {
+        switch (name) {
+            case "hold":
+                return new BuyAndHold();
+            case "momentum":
+                return new Momentum(1.0, 10);
+            case "macd":
+                return new MacdCrossover(12, 26, 9, 10);
+            case "random":
+                return new RandomTrader(seed, 10);
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + name + " (expected hold, momentum, macd or random)");
+        }
+    }
+
+    // Spends the starting cash evenly across every symbol on the first tick
+    class BuyAndHold implements Strategy {
+        private boolean invested;
+
+        @Override
+        public String getName() {
+            return "hold";
+        }
+
+        @Override
+        public void onTick(MarketSnapshot snapshot, Portfolio portfolio) {
+            if (invested || snapshot.size() == 0) {
+                return;
+            }
+            long budget = portfolio.getCashCents() / snapshot.size();
+            for (int id = 0; id < snapshot.size(); id++) {
+                long price = snapshot.getPriceCents(id);
+                int shares = (int) (budget / price);
+                if (shares > 0) {
+                    portfolio.buy(snapshot.getSymbol(id), shares, price);
+                }
+            }
+            invested = true;
+        }
+    }
+
+    // Buys a lot when a symbol is up more than threshold percent on the session
+    // and exits when it falls more than threshold percent below its previous close
+    class Momentum implements Strategy {
+        private final double thresholdPercent;
+        private final int lotSize;
+
+        public Momentum(double thresholdPercent, int lotSize) {
+            this.thresholdPercent = thresholdPercent;
+            this.lotSize = lotSize;
+        }
+
+        @Override
+        public String getName() {
+            return "momentum";
+        }
+
+        @Override
+        public void onTick(MarketSnapshot snapshot, Portfolio portfolio) {
+            for (int i = 0; i < snapshot.getChangedCount(); i++) {
+                int id = snapshot.getChangedId(i);
+                String symbol = snapshot.getSymbol(id);
+                long price = snapshot.getPriceCents(id);
+                double change = snapshot.getChangePercent(id);
+                int held = portfolio.getShares(symbol);
+                if (change > thresholdPercent && held == 0 && Money.times(price, lotSize) <= portfolio.getCashCents()) {
+                    portfolio.buy(symbol, lotSize, price);
+                } else if (change < -thresholdPercent && held > 0) {
+                    portfolio.sell(symbol, held, price);
+                }
+            }
+        }
+    }
+
+    // Buys a lot when a symbol's MACD line crosses above its signal line and
+    // sells the position when it crosses back below. The MACD comes from the
+    // market's streaming indicators, registered for each symbol the first time
+    // it is seen (strategies run on the tick thread, so they may add them).
+    class MacdCrossover implements Strategy {
+        private final Indicators.Spec spec;
+        private final int lotSize;
+        private int[] handles = new int[0];
+        private int handleGeneration;
+        private byte[] lastSign = new byte[0]; // Sign of the histogram on the previous tick, 0 if unknown
+
+        public MacdCrossover(int fast, int slow, int signal, int lotSize) {
+            this.spec = Indicators.Spec.macd(fast, slow, signal);
+            this.lotSize = lotSize;
+        }
+
+        @Override
+        public String getName() {
+            return "macd";
+        }
+
+        @Override
+        public void onTick(MarketSnapshot snapshot, Portfolio portfolio) {
+            Indicators indicators = snapshot.getIndicators();
+            // A checkpoint restore drops every registration; register them again
+            if (indicators.getGeneration() != handleGeneration) {
+                handleGeneration = indicators.getGeneration();
+                handles = new int[0];
+                lastSign = new byte[0];
+            }
+            if (handles.length < snapshot.size()) {
+                int known = handles.length;
+                handles = Arrays.copyOf(handles, snapshot.size());
+                lastSign = Arrays.copyOf(lastSign, snapshot.size());
+                for (int id = known; id < handles.length; id++) {
+                    handles[id] = indicators.add(id, spec);
+                }
+            }
+            for (int i = 0; i < snapshot.getChangedCount(); i++) {
+                int id = snapshot.getChangedId(i);
+                double histogram = indicators.value(handles[id], Indicators.MACD_HISTOGRAM);
+                if (Double.isNaN(histogram) || histogram == 0.0) {
+                    continue;
+                }
+                byte sign = histogram > 0 ? (byte) 1 : (byte) -1;
+                byte previous = lastSign[id];
+                lastSign[id] = sign;
+                if (previous == 0 || previous == sign) {
+                    continue;
+                }
+                String symbol = snapshot.getSymbol(id);
+                long price = snapshot.getPriceCents(id);
+                int held = portfolio.getShares(symbol);
+                if (sign > 0 && held == 0 && Money.times(price, lotSize) <= portfolio.getCashCents()) {
+                    portfolio.buy(symbol, lotSize, price);
+                } else if (sign < 0 && held > 0) {
+                    portfolio.sell(symbol, held, price);
+                }
+            }
+        }
+    }
+
+    // Makes one seeded random trade per tick among the symbols that moved
+    class RandomTrader implements Strategy {
+        private final SplitMix64 random;
+        private final int lotSize;
+
+        public RandomTrader(long seed, int lotSize) {
+            this.random = new SplitMix64(seed);
+            this.lotSize = lotSize;
+        }
+
+        @Override
+        public String getName() {
+            return "random";
+        }
+
+        @Override
+        public void onTick(MarketSnapshot snapshot, Portfolio portfolio) {
+            if (snapshot.getChangedCount() == 0) {
+                return;
+            }
+            int id = snapshot.getChangedId(random.nextInt(snapshot.getChangedCount()));
+            String symbol = snapshot.getSymbol(id);
+            long price = snapshot.getPriceCents(id);
+            if (random.nextBoolean()) {
+                if (Money.times(price, lotSize) <= portfolio.getCashCents()) {
+                    portfolio.buy(symbol, lotSize, price);
+                }
+            } else if (portfolio.getShares(symbol) >= lotSize) {
+                portfolio.sell(symbol, lotSize, price);
+            }
+        }
+    }
+}
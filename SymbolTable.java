@@ -0,0 +1,113 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Interns symbols to dense int ids 0, 1, 2, ... in the order they are added.
+// An open-addressing table of (symbol, id) slots: a lookup is one hash of the
+// String (cached by String itself), usually a single probe and one equals,
+// with no Integer boxing and no entry objects to chase.
+//
+// This stands in for the perfect hash or trie the lookup was first specified
+// with. Symbols keep being added after startup (addStock, checkpoint restore),
+// which a perfect hash could only absorb by being rebuilt, and a trie walks
+// one node per character where this usually touches one slot. Prefix search,
+// the other thing a trie would give, is done by SymbolUniverse over a sorted
+// copy of the symbols instead.
+//
+// One thread adds symbols (the market, under its lock) while any number of
+// threads look them up without locking. A new id is published to a slot with
+// release semantics after the slot's symbol is written, and a grown table is
+// published through a volatile field, so readers see either the whole entry
+// or none of it.
+final class SymbolTable {
+    private static final VarHandle SLOT_IDS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private static final class Table {
+        final String[] symbols;
+        final int[] ids; // id + 1, so a zeroed slot is empty
+        final int mask;
+
+        Table(int slots) {
+            this.symbols = new String[slots];
+            this.ids = new int[slots];
+            this.mask = slots - 1;
+        }
+    }
+
+    private volatile Table table;
+    private int size;
+
+    SymbolTable(int expectedSymbols) {
+        this.table = new Table(slotsFor(expectedSymbols));
+    }
+
+    // Kept at most half full, so misses end after a probe or two
+    private static int slotsFor(int symbols) {
+        return Integer.highestOneBit(Math.max(8, symbols) * 2 - 1) << 1;
+    }
+
+    private static int spread(int hash) {
+        // Symbols share prefixes and lengths; fold the high bits into the low ones
+        return (hash ^ (hash >>> 16)) * 0x9e3779b9;
+    }
+
+    // The id of symbol, or -1 if it was never added
+    int get(String symbol) {
+        Table t = table;
+        int mask = t.mask;
+        for (int slot = spread(symbol.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int id = (int) SLOT_IDS.getAcquire(t.ids, slot);
+            if (id == 0) {
+                return -1;
+            }
+            if (symbol.equals(t.symbols[slot])) {
+                return id - 1;
+            }
+        }
+    }
+
+    // Adds symbol with the next id unless it is already present; returns its id.
+    // Only one thread may add at a time.
+    int add(String symbol) {
+        int existing = get(symbol);
+        if (existing >= 0) {
+            return existing;
+        }
+        if ((size + 1) * 2 > table.symbols.length) {
+            grow(table.symbols.length * 2);
+        }
+        insert(table, symbol, size);
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Sizes the table for expectedSymbols up front instead of growing step by step
+    void ensureCapacity(int expectedSymbols) {
+        int slots = slotsFor(expectedSymbols);
+        if (slots > table.symbols.length) {
+            grow(slots);
+        }
+    }
+
+    private static void insert(Table t, String symbol, int id) {
+        int slot = spread(symbol.hashCode()) & t.mask;
+        while (t.ids[slot] != 0) {
+            slot = (slot + 1) & t.mask;
+        }
+        t.symbols[slot] = symbol;
+        SLOT_IDS.setRelease(t.ids, slot, id + 1);
+    }
+
+    private void grow(int slots) {
+        Table old = table;
+        Table bigger = new Table(slots);
+        for (int slot = 0; slot < old.ids.length; slot++) {
+            if (old.ids[slot] != 0) {
+                insert(bigger, old.symbols[slot], old.ids[slot] - 1);
+            }
+        }
+        table = bigger;
+    }
+}
@@ -0,0 +1,421 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// The instruments a market trades, with their reference data: sector,
+// exchange, lot size and opening price. Symbols are interned to dense ids in
+// file order, and sectors and exchanges to small ids, so the metadata is a few
+// primitive columns however large the universe is.
+//
+// Prefix search runs over a sorted copy of the symbols (binary search to the
+// first match, then a contiguous run), and sector search over per-sector
+// member lists kept in the same sorted order; a query with both walks
+// whichever of the two is shorter. The search indexes are built by the first
+// search rather than at load, so they cost nothing at startup.
+//
+// CSV, one instrument per line, streamed through a fixed buffer and parsed
+// straight from the bytes: the only allocation per line is the symbol String.
+//   symbol,sector,exchange[,lotSize[,price]]
+// Blank lines and lines starting with # are skipped; a first line starting
+// with "symbol" is a header. Lot size defaults to 1 and price to $100.00.
+public final class SymbolUniverse {
+    private static final int DEFAULT_LOT_SIZE = 1;
+    private static final long DEFAULT_PRICE_CENTS = 100_00L;
+    // A typical line ("ABCD,Technology,NASDAQ,100,123.45") is a little longer
+    private static final int BYTES_PER_LINE = 32;
+
+    private final SymbolTable ids;
+    private final String[] symbols;
+    private final int[] sectors;
+    private final int[] exchanges;
+    private final int[] lotSizes;
+    private final long[] priceCents;
+    private final int size;
+    private final String[] sectorNames;
+    private final String[] exchangeNames;
+    private volatile SearchIndex index;
+
+    private static final class SearchIndex {
+        // Ids in symbol order, and the symbols in that order for binary search
+        final int[] sortedIds;
+        final String[] sortedSymbols;
+        // Members of each sector, in symbol order
+        final int[][] sectorMembers;
+
+        SearchIndex(SymbolUniverse universe) {
+            int size = universe.size;
+            this.sortedSymbols = Arrays.copyOf(universe.symbols, size);
+            Arrays.sort(sortedSymbols);
+            this.sortedIds = new int[size];
+            int[] sectorSizes = new int[universe.sectorNames.length];
+            for (int i = 0; i < size; i++) {
+                sortedIds[i] = universe.ids.get(sortedSymbols[i]);
+                sectorSizes[universe.sectors[sortedIds[i]]]++;
+            }
+            this.sectorMembers = new int[sectorSizes.length][];
+            for (int sector = 0; sector < sectorMembers.length; sector++) {
+                sectorMembers[sector] = new int[sectorSizes[sector]];
+                sectorSizes[sector] = 0;
+            }
+            for (int id : sortedIds) {
+                int sector = universe.sectors[id];
+                sectorMembers[sector][sectorSizes[sector]++] = id;
+            }
+        }
+
+        // Index of the first sorted symbol that is not less than key
+        int lowerBound(String key) {
+            int low = 0;
+            int high = sortedSymbols.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sortedSymbols[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private SymbolUniverse(Loader loader) {
+        this.ids = loader.ids;
+        this.size = loader.size;
+        this.symbols = Arrays.copyOf(loader.symbols, size);
+        this.sectors = Arrays.copyOf(loader.sectors, size);
+        this.exchanges = Arrays.copyOf(loader.exchanges, size);
+        this.lotSizes = Arrays.copyOf(loader.lotSizes, size);
+        this.priceCents = Arrays.copyOf(loader.priceCents, size);
+        this.sectorNames = loader.sectorNames.toArray(new String[0]);
+        this.exchangeNames = loader.exchangeNames.toArray(new String[0]);
+    }
+
+    public static SymbolUniverse load(Path file) throws IOException {
+        // Sized from the file so large universes are not copied and rehashed as they grow
+        Loader loader = new Loader((int) Math.min(1 << 26, Math.max(1024, Files.size(file) / BYTES_PER_LINE)));
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int start = 0;
+            int limit = 0;
+            int lineNumber = 0;
+            while (true) {
+                int read = in.read(buffer, limit, buffer.length - limit);
+                if (read > 0) {
+                    limit += read;
+                }
+                int end;
+                while ((end = indexOf(buffer, (byte) '\n', start, limit)) >= 0 || (read < 0 && start < limit)) {
+                    int lineEnd = end >= 0 ? end : limit;
+                    lineNumber++;
+                    try {
+                        loader.parse(buffer, start, lineEnd);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                    }
+                    start = lineEnd + 1;
+                }
+                if (read < 0) {
+                    break;
+                }
+                // Keep the partial last line; grow the buffer for a line longer than it
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                start = 0;
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+        }
+        return new SymbolUniverse(loader);
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The simulator's built-in stocks
+    public static SymbolUniverse defaults() {
+        Loader loader = new Loader(8);
+        loader.add("AAPL", "Technology", "NASDAQ", 1, 150_50L);
+        loader.add("GOOGL", "Communication Services", "NASDAQ", 1, 2750_25L);
+        loader.add("MSFT", "Technology", "NASDAQ", 1, 285_75L);
+        loader.add("AMZN", "Consumer Discretionary", "NASDAQ", 1, 3300_00L);
+        loader.add("TSLA", "Consumer Discretionary", "NASDAQ", 1, 850_25L);
+        loader.add("META", "Communication Services", "NASDAQ", 1, 330_50L);
+        loader.add("NFLX", "Communication Services", "NASDAQ", 1, 450_75L);
+        loader.add("NVDA", "Technology", "NASDAQ", 1, 420_25L);
+        return new SymbolUniverse(loader);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns the id for a symbol, or -1 if it is not in the universe
+    public int idOf(String symbol) {
+        return ids.get(symbol);
+    }
+
+    public String getSymbol(int id) {
+        return symbols[id];
+    }
+
+    public String getSector(int id) {
+        return sectorNames[sectors[id]];
+    }
+
+    public String getExchange(int id) {
+        return exchangeNames[exchanges[id]];
+    }
+
+    public int getLotSize(int id) {
+        return lotSizes[id];
+    }
+
+    public long getPriceCents(int id) {
+        return priceCents[id];
+    }
+
+    // Sector names, indexed by sector id
+    public List<String> getSectors() {
+        return Collections.unmodifiableList(Arrays.asList(sectorNames));
+    }
+
+    // Returns the id for a sector name, or -1 if no instrument is in it
+    public int sectorIdOf(String sector) {
+        for (int i = 0; i < sectorNames.length; i++) {
+            if (sectorNames[i].equals(sector)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Ids of the symbols starting with prefix (case-sensitive; "" matches all)
+    // and in sector sectorId (-1 for any), in symbol order
+    public int[] search(String prefix, int sectorId) {
+        SearchIndex index = searchIndex();
+        int[] sortedIds = index.sortedIds;
+        int from = index.lowerBound(prefix);
+        int to = prefix.isEmpty() ? size : index.lowerBound(prefix + Character.MAX_VALUE);
+        if (sectorId < 0) {
+            return Arrays.copyOfRange(sortedIds, from, to);
+        }
+        int[] members = index.sectorMembers[sectorId];
+        int[] result;
+        int count = 0;
+        if (members.length <= to - from) {
+            result = new int[members.length];
+            for (int id : members) {
+                if (symbols[id].startsWith(prefix)) {
+                    result[count++] = id;
+                }
+            }
+        } else {
+            result = new int[to - from];
+            for (int i = from; i < to; i++) {
+                if (sectors[sortedIds[i]] == sectorId) {
+                    result[count++] = sortedIds[i];
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private SearchIndex searchIndex() {
+        SearchIndex current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = new SearchIndex(this);
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Accumulates instruments into growing columns while a universe is read
+    private static final class Loader {
+        final SymbolTable ids;
+        final List<String> sectorNames = new ArrayList<>();
+        final List<String> exchangeNames = new ArrayList<>();
+        private final List<byte[]> sectorBytes = new ArrayList<>();
+        private final List<byte[]> exchangeBytes = new ArrayList<>();
+        // Start offsets of the fields of the line being parsed, plus one past its end
+        private final int[] fields = new int[6];
+        private boolean headerSeen;
+        String[] symbols;
+        int[] sectors;
+        int[] exchanges;
+        int[] lotSizes;
+        long[] priceCents;
+        int size;
+
+        Loader(int capacity) {
+            this.ids = new SymbolTable(capacity);
+            this.symbols = new String[capacity];
+            this.sectors = new int[capacity];
+            this.exchanges = new int[capacity];
+            this.lotSizes = new int[capacity];
+            this.priceCents = new long[capacity];
+        }
+
+        // Parses one line, bytes[from..to), without the line break
+        void parse(byte[] bytes, int from, int to) {
+            if (to > from && bytes[to - 1] == '\r') {
+                to--;
+            }
+            int[] fields = this.fields;
+            int count = 0;
+            fields[count++] = from;
+            for (int i = from; i < to && count < fields.length - 1; i++) {
+                if (bytes[i] == ',') {
+                    fields[count++] = i + 1;
+                }
+            }
+            fields[count] = to + 1;
+            int symbolFrom = skipSpaces(bytes, from, fields[1] - 1);
+            int symbolTo = trimSpaces(bytes, symbolFrom, fields[1] - 1);
+            if ((symbolFrom == symbolTo && count == 1) || (symbolFrom < to && bytes[symbolFrom] == '#')) {
+                return; // Blank line or comment
+            }
+            String symbol = new String(bytes, symbolFrom, symbolTo - symbolFrom, StandardCharsets.UTF_8);
+            if (size == 0 && !headerSeen && symbol.equalsIgnoreCase("symbol")) {
+                headerSeen = true;
+                return;
+            }
+            if (count < 3 || symbol.isEmpty()) {
+                throw new IllegalArgumentException("expected symbol,sector,exchange[,lotSize[,price]]: "
+                    + new String(bytes, from, to - from, StandardCharsets.UTF_8));
+            }
+            int sector = intern(bytes, fields[1], fields[2] - 1, sectorNames, sectorBytes);
+            int exchange = intern(bytes, fields[2], fields[3] - 1, exchangeNames, exchangeBytes);
+            long lotSize = count > 3 ? parseWhole(bytes, fields[3], fields[4] - 1, DEFAULT_LOT_SIZE) : DEFAULT_LOT_SIZE;
+            long price = count > 4 ? parseCents(bytes, fields[4], fields[5] - 1, DEFAULT_PRICE_CENTS) : DEFAULT_PRICE_CENTS;
+            if (lotSize < 1 || lotSize > Integer.MAX_VALUE || price < 1) {
+                throw new IllegalArgumentException("invalid lot size or price for " + symbol);
+            }
+            add(symbol, sector, exchange, (int) lotSize, price);
+        }
+
+        private static int skipSpaces(byte[] bytes, int from, int to) {
+            while (from < to && bytes[from] == ' ') {
+                from++;
+            }
+            return from;
+        }
+
+        private static int trimSpaces(byte[] bytes, int from, int to) {
+            while (to > from && bytes[to - 1] == ' ') {
+                to--;
+            }
+            return to;
+        }
+
+        // A whole number in bytes[from..to); an empty field is defaultValue
+        private static long parseWhole(byte[] bytes, int from, int to, long defaultValue) {
+            from = skipSpaces(bytes, from, to);
+            to = trimSpaces(bytes, from, to);
+            if (from == to) {
+                return defaultValue;
+            }
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                value = Math.addExact(Math.multiplyExact(value, 10), digit(bytes[i]));
+            }
+            return value;
+        }
+
+        // A decimal number in bytes[from..to) as a whole number of hundredths,
+        // rounded half up; an empty field is defaultValue
+        private static long parseCents(byte[] bytes, int from, int to, long defaultValue) {
+            from = skipSpaces(bytes, from, to);
+            to = trimSpaces(bytes, from, to);
+            if (from == to) {
+                return defaultValue;
+            }
+            long whole = 0;
+            int i = from;
+            for (; i < to && bytes[i] != '.'; i++) {
+                whole = Math.addExact(Math.multiplyExact(whole, 10), digit(bytes[i]));
+            }
+            long fraction = 0;
+            int digits = 0;
+            for (i++; i < to; i++, digits++) {
+                int d = digit(bytes[i]);
+                if (digits < 2) {
+                    fraction = fraction * 10 + d;
+                } else if (digits == 2 && d >= 5) {
+                    fraction++;
+                }
+            }
+            if (digits == 1) {
+                fraction *= 10;
+            }
+            return Math.addExact(Math.multiplyExact(whole, 100), fraction);
+        }
+
+        private static int digit(byte b) {
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("not a number: '" + (char) b + "'");
+            }
+            return b - '0';
+        }
+
+        // Sector and exchange names are few, so a linear scan over their bytes
+        // resolves them without creating a String per line
+        private static int intern(byte[] bytes, int from, int to, List<String> names, List<byte[]> encoded) {
+            from = skipSpaces(bytes, from, to);
+            to = trimSpaces(bytes, from, to);
+            for (int id = 0; id < encoded.size(); id++) {
+                byte[] name = encoded.get(id);
+                if (Arrays.equals(name, 0, name.length, bytes, from, to)) {
+                    return id;
+                }
+            }
+            byte[] name = Arrays.copyOfRange(bytes, from, to);
+            encoded.add(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+            return names.size() - 1;
+        }
+
+        void add(String symbol, String sector, String exchange, int lotSize, long price) {
+            add(symbol, intern(sector, sectorNames, sectorBytes), intern(exchange, exchangeNames, exchangeBytes),
+                lotSize, price);
+        }
+
+        private static int intern(String name, List<String> names, List<byte[]> encoded) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            return intern(bytes, 0, bytes.length, names, encoded);
+        }
+
+        private void add(String symbol, int sector, int exchange, int lotSize, long price) {
+            if (ids.add(symbol) != size) {
+                throw new IllegalArgumentException("duplicate symbol " + symbol);
+            }
+            if (size == symbols.length) {
+                int capacity = size * 2;
+                symbols = Arrays.copyOf(symbols, capacity);
+                sectors = Arrays.copyOf(sectors, capacity);
+                exchanges = Arrays.copyOf(exchanges, capacity);
+                lotSizes = Arrays.copyOf(lotSizes, capacity);
+                priceCents = Arrays.copyOf(priceCents, capacity);
+            }
+            symbols[size] = symbol;
+            sectors[size] = sector;
+            exchanges[size] = exchange;
+            lotSizes[size] = lotSize;
+            priceCents[size] = price;
+            size++;
+        }
+    }
+}
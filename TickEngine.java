@@ -0,0 +1,159 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Generates one tick of prices for every symbol in a PriceStore.
+// The universe is cut into fixed-size chunks and every chunk draws from its
+// own SplitMix64 stream, so a given seed produces the same prices whether the
+// tick runs serially or across a ForkJoinPool. The price process itself is a
+// pluggable PriceModel that advances a whole chunk per call.
+//
+// Not thread-safe: tick, setParallelism and shutdown must not overlap (the
+// market calls all three under its lock).
+public class TickEngine {
+    public static final int CHUNK_SIZE = 4096;
+
+    private final PriceStore store;
+    private SplitMix64 rootRandom;
+    private SplitMix64[] chunkRandoms;
+    // Per-chunk scratch buffers handed to the model
+    private double[][] chunkPrices;
+    private double[][] chunkNoise;
+    private PriceModel model;
+    private int chunkCount;
+    private ForkJoinPool pool;
+    private int parallelism;
+
+    public TickEngine(PriceStore store, long seed) {
+        this(store, seed, PriceModel.create("random-walk"));
+    }
+
+    public TickEngine(PriceStore store, long seed, PriceModel model) {
+        this.store = store;
+        this.rootRandom = new SplitMix64(seed);
+        this.chunkRandoms = new SplitMix64[0];
+        this.chunkPrices = new double[0][];
+        this.chunkNoise = new double[0][];
+        this.model = model;
+        this.chunkCount = 0;
+        this.parallelism = 1;
+    }
+
+    // 1 runs the tick on the calling thread; anything higher uses a ForkJoinPool
+    public void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + threads);
+        }
+        if (threads == parallelism) {
+            return;
+        }
+        shutdown();
+        parallelism = threads;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setPriceModel(PriceModel model) {
+        this.model = model;
+    }
+
+    public PriceModel getPriceModel() {
+        return model;
+    }
+
+    // Root and per-chunk generator state as (seed, gamma) pairs, root first
+    long[] getRandomState() {
+        long[] state = new long[(chunkCount + 1) * 2];
+        state[0] = rootRandom.getSeed();
+        state[1] = rootRandom.getGamma();
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            state[2 + chunk * 2] = chunkRandoms[chunk].getSeed();
+            state[3 + chunk * 2] = chunkRandoms[chunk].getGamma();
+        }
+        return state;
+    }
+
+    // Puts the generators back exactly as getRandomState found them
+    void setRandomState(long[] state) {
+        int chunks = state.length / 2 - 1;
+        rootRandom = new SplitMix64(state[0], state[1]);
+        chunkRandoms = new SplitMix64[chunks];
+        chunkPrices = new double[chunks][];
+        chunkNoise = new double[chunks][];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            chunkRandoms[chunk] = new SplitMix64(state[2 + chunk * 2], state[3 + chunk * 2]);
+            chunkPrices[chunk] = new double[CHUNK_SIZE];
+            chunkNoise[chunk] = new double[CHUNK_SIZE];
+        }
+        chunkCount = chunks;
+    }
+
+    public void tick() {
+        int count = store.size();
+        ensureChunks(count);
+        model.ensureCapacity(count);
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (parallelism == 1 || chunks < 2) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                updateChunk(chunk, count);
+            }
+            return;
+        }
+        // Created on first use, and again after shutdown when the market restarts.
+        // Read once, so the whole tick submits to the same pool.
+        ForkJoinPool pool = this.pool;
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            this.pool = pool;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int c = chunk;
+            tasks.add(pool.submit(() -> updateChunk(c, count)));
+        }
+        // Joining every chunk before returning means observers only ever see a finished tick
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    // New chunks split their stream off the root in order, so the stream layout
+    // depends only on the seed and the number of symbols
+    private void ensureChunks(int count) {
+        int needed = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (needed <= chunkCount) {
+            return;
+        }
+        if (needed > chunkRandoms.length) {
+            int capacity = Math.max(needed, chunkRandoms.length * 2);
+            chunkRandoms = Arrays.copyOf(chunkRandoms, capacity);
+            chunkPrices = Arrays.copyOf(chunkPrices, capacity);
+            chunkNoise = Arrays.copyOf(chunkNoise, capacity);
+        }
+        while (chunkCount < needed) {
+            chunkPrices[chunkCount] = new double[CHUNK_SIZE];
+            chunkNoise[chunkCount] = new double[CHUNK_SIZE];
+            chunkRandoms[chunkCount++] = rootRandom.split();
+        }
+    }
+
+    private void updateChunk(int chunk, int count) {
+        int from = chunk * CHUNK_SIZE;
+        int length = Math.min(CHUNK_SIZE, count - from);
+        double[] prices = chunkPrices[chunk];
+        store.copyPrices(from, length, prices);
+        model.step(prices, chunkNoise[chunk], from, length, chunkRandoms[chunk]);
+        for (int i = 0; i < length; i++) {
+            store.setPriceCents(from + i, PriceModel.toCents(prices[i]));
+        }
+    }
+
+    // Releases the worker threads; the parallelism setting is kept for the next tick
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
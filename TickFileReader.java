@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Streams recorded ticks out of a CSV or binary file through memory-mapped
+// windows. Numbers and symbols are parsed straight from the mapped bytes; the
+// only allocation is one String per distinct symbol.
+//
+// CSV:    timestampNanos,symbol,price[,volume]   (a non-numeric first line is a header)
+// Binary: int magic "TICK", int version, int symbolCount,
+//         symbolCount x (short length, UTF-8 bytes), then 32-byte records of
+//         long timestampNanos, int symbolIndex, int padding, long priceCents, long volume
+public class TickFileReader {
+    public static final int BINARY_MAGIC = 0x5449434b; // "TICK"
+    public static final int BINARY_VERSION = 1;
+    public static final int BINARY_RECORD_SIZE = 32;
+
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    public interface TickVisitor {
+        // A symbol seen for the first time; ids are dense and assigned in file order
+        void onSymbol(int symbolId, String symbol);
+
+        void onTick(long timeNanos, int symbolId, double price, long volume);
+    }
+
+    private final Path path;
+
+    // Byte-keyed symbol table so known symbols are resolved without creating Strings
+    private byte[][] symbolBytes = new byte[64][];
+    private int[] table = new int[128];
+    private int symbolCount;
+
+    public TickFileReader(Path path) {
+        this.path = path;
+    }
+
+    public void read(TickVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (isBinary(channel)) {
+                readBinary(channel, visitor);
+            } else {
+                readCsv(channel, visitor);
+            }
+        }
+    }
+
+    private static boolean isBinary(FileChannel channel) throws IOException {
+        if (channel.size() < 4) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(magic, 0);
+        return magic.getInt(0) == BINARY_MAGIC;
+    }
+
+    private void readBinary(FileChannel channel, TickVisitor visitor) throws IOException {
+        long size = channel.size();
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(4) != BINARY_VERSION) {
+            throw new IOException("Unsupported tick file version " + header.getInt(4) + ": " + path);
+        }
+        int symbols = header.getInt(8);
+        int offset = 12;
+        for (int i = 0; i < symbols; i++) {
+            int length = header.getShort(offset) & 0xffff;
+            byte[] bytes = new byte[length];
+            header.get(offset + 2, bytes);
+            visitor.onSymbol(i, new String(bytes, StandardCharsets.UTF_8));
+            offset += 2 + length;
+        }
+
+        long recordsStart = offset;
+        long records = (size - recordsStart) / BINARY_RECORD_SIZE;
+        long perWindow = WINDOW_SIZE / BINARY_RECORD_SIZE;
+        for (long first = 0; first < records; first += perWindow) {
+            long count = Math.min(perWindow, records - first);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                recordsStart + first * BINARY_RECORD_SIZE, count * BINARY_RECORD_SIZE);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            for (int at = 0, end = (int) count * BINARY_RECORD_SIZE; at < end; at += BINARY_RECORD_SIZE) {
+                visitor.onTick(window.getLong(at), window.getInt(at + 8),
+                    Money.toDollars(window.getLong(at + 16)), window.getLong(at + 24));
+            }
+        }
+    }
+
+    private void readCsv(FileChannel channel, TickVisitor visitor) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        boolean firstLine = true;
+        while (position < size) {
+            long length = Math.min(WINDOW_SIZE, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            boolean last = position + length == size;
+            int limit = (int) length;
+            int at = 0;
+            while (at < limit) {
+                int lineEnd = indexOf(window, (byte) '\n', at, limit);
+                if (lineEnd < 0) {
+                    if (!last) {
+                        break; // the line continues in the next window
+                    }
+                    lineEnd = limit;
+                }
+                if (firstLine) {
+                    firstLine = false;
+                    byte b = window.get(at);
+                    if (b < '0' || b > '9') {
+                        at = lineEnd + 1;
+                        continue; // header
+                    }
+                }
+                parseLine(window, at, lineEnd, visitor);
+                at = lineEnd + 1;
+            }
+            if (at == 0 && !last) {
+                throw new IOException("CSV line longer than " + WINDOW_SIZE + " bytes in " + path);
+            }
+            position += Math.min(at, limit);
+        }
+    }
+
+    private void parseLine(ByteBuffer buf, int start, int end, TickVisitor visitor) throws IOException {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        if (end <= start) {
+            return;
+        }
+        int comma1 = indexOf(buf, (byte) ',', start, end);
+        int comma2 = comma1 < 0 ? -1 : indexOf(buf, (byte) ',', comma1 + 1, end);
+        if (comma2 < 0) {
+            throw new IOException("Malformed tick line at byte " + start + " in " + path);
+        }
+        int comma3 = indexOf(buf, (byte) ',', comma2 + 1, end);
+
+        long time = parseLong(buf, start, comma1);
+        int symbolId = symbolId(buf, comma1 + 1, comma2, visitor);
+        double price = parseDecimal(buf, comma2 + 1, comma3 < 0 ? end : comma3);
+        long volume = comma3 < 0 ? 0L : parseLong(buf, comma3 + 1, end);
+        visitor.onTick(time, symbolId, price, volume);
+    }
+
+    private static int indexOf(ByteBuffer buf, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long parseLong(ByteBuffer buf, int from, int to) {
+        long value = 0;
+        boolean negative = from < to && buf.get(from) == '-';
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = value * 10 + (buf.get(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    // Exact for up to 18 significant digits: mantissa / 10^fractionDigits is one
+    // correctly rounded division, so the same text always yields the same double
+    private static double parseDecimal(ByteBuffer buf, int from, int to) {
+        long mantissa = 0;
+        int fractionDigits = -1;
+        boolean negative = from < to && buf.get(from) == '-';
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '.') {
+                fractionDigits = 0;
+            } else {
+                mantissa = mantissa * 10 + (b - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            }
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private int symbolId(ByteBuffer buf, int from, int to, TickVisitor visitor) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buf.get(i);
+        }
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (matches(symbolBytes[id], buf, from, to)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        int id = symbolCount++;
+        if (id == symbolBytes.length) {
+            symbolBytes = Arrays.copyOf(symbolBytes, id * 2);
+        }
+        symbolBytes[id] = bytes;
+        table[slot] = id + 1;
+        if (symbolCount * 2 > table.length) {
+            rebuildTable(table.length * 2);
+        }
+        visitor.onSymbol(id, new String(bytes, StandardCharsets.UTF_8));
+        return id;
+    }
+
+    private static boolean matches(byte[] bytes, ByteBuffer buf, int from, int to) {
+        if (bytes.length != to - from) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != buf.get(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rebuildTable(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < symbolCount; id++) {
+            int slot = mix(Arrays.hashCode(symbolBytes[id])) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    // Writes ticks in the binary format; used to convert CSV files for faster replays
+    public static void writeBinary(Path target, List<String> symbols, TickSource source) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), 1 << 16)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(BINARY_MAGIC).putInt(BINARY_VERSION).putInt(symbols.size());
+            for (String symbol : symbols) {
+                byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+                if (buf.remaining() < 2 + bytes.length) {
+                    out.write(buf.array(), 0, buf.position());
+                    buf.clear();
+                }
+                buf.putShort((short) bytes.length).put(bytes);
+            }
+            ByteBuffer records = buf;
+            source.forEach((timeNanos, symbolId, price, volume) -> {
+                if (records.remaining() < BINARY_RECORD_SIZE) {
+                    out.write(records.array(), 0, records.position());
+                    records.clear();
+                }
+                records.putLong(timeNanos).putInt(symbolId).putInt(0)
+                    .putLong(Money.ofDollars(price)).putLong(volume);
+            });
+            out.write(records.array(), 0, records.position());
+        }
+    }
+
+    public interface TickSink {
+        void accept(long timeNanos, int symbolId, double price, long volume) throws IOException;
+    }
+
+    public interface TickSource {
+        void forEach(TickSink sink) throws IOException;
+    }
+}
@@ -0,0 +1,199 @@
+// An autonomous trader run by AgentSimulation. Each agent owns one Account in
+// the simulation's AccountEngine, looks at every market snapshot it gets to see
+// and may submit one order per snapshot through the MatchingEngine. Agents are
+// only ever run by one thread at a time, so their state needs no locking.
+public abstract class TraderAgent {
+    final int id;
+    final Account account;
+    final SplitMix64 random;
+    private AgentSimulation simulation;
+
+    // Statistics, written only by the thread running the agent
+    long turns;
+    long orders;
+    long lastEpoch;
+
+    protected TraderAgent(int id, Account account, SplitMix64 random) {
+        this.id = id;
+        this.account = account;
+        this.random = random;
+    }
+
+    public abstract String getKind();
+
+    // Returns the order submitted for this snapshot, or null if the agent sat it out
+    protected abstract Order act(MarketSnapshot snapshot);
+
+    static TraderAgent create(String kind, int id, Account account, SplitMix64 random) {
+        switch (kind) {
+            case "random":
+                return new RandomTrader(id, account, random);
+            case "momentum":
+                return new MomentumTrader(id, account, random);
+            case "meanrev":
+                return new MeanReversionTrader(id, account, random);
+            case "maker":
+                return new MarketMaker(id, account, random);
+            default:
+                throw new IllegalArgumentException("Unknown agent kind: " + kind + " (expected random, momentum, meanrev or maker)");
+        }
+    }
+
+    void attach(AgentSimulation simulation) {
+        this.simulation = simulation;
+    }
+
+    protected final Order buy(String symbol, long shares) {
+        return simulation.submitMarket(this, symbol, Order.Side.BUY, shares);
+    }
+
+    protected final Order sell(String symbol, long shares) {
+        return simulation.submitMarket(this, symbol, Order.Side.SELL, shares);
+    }
+
+    protected final Order quote(String symbol, Order.Side side, double limitPrice, long shares) {
+        return simulation.submitLimit(this, symbol, side, limitPrice, shares);
+    }
+
+    protected final Order cancel(Order resting) {
+        return simulation.submitCancel(this, resting.getSymbol(), resting.getId());
+    }
+
+    protected final boolean canAfford(long shares, long priceCents) {
+        return account.getCashCents() >= Money.times(priceCents, shares);
+    }
+
+    // Trades a random symbol on about one snapshot in ten
+    static class RandomTrader extends TraderAgent {
+        private static final int LOT_SIZE = 10;
+
+        RandomTrader(int id, Account account, SplitMix64 random) {
+            super(id, account, random);
+        }
+
+        @Override
+        public String getKind() {
+            return "random";
+        }
+
+        @Override
+        protected Order act(MarketSnapshot snapshot) {
+            if (random.nextInt(10) != 0) {
+                return null;
+            }
+            int symbolId = random.nextInt(snapshot.size());
+            String symbol = snapshot.getSymbol(symbolId);
+            if (random.nextBoolean()) {
+                return canAfford(LOT_SIZE, snapshot.getPriceCents(symbolId)) ? buy(symbol, LOT_SIZE) : null;
+            }
+            return account.getShares(symbolId) >= LOT_SIZE ? sell(symbol, LOT_SIZE) : null;
+        }
+    }
+
+    // Watches one symbol; buys once it is up more than its threshold on the
+    // session and exits when it falls the same distance below the previous close
+    static class MomentumTrader extends TraderAgent {
+        private static final int LOT_SIZE = 10;
+        private final double thresholdPercent;
+
+        MomentumTrader(int id, Account account, SplitMix64 random) {
+            super(id, account, random);
+            this.thresholdPercent = 0.5 + random.nextDouble() * 1.5;
+        }
+
+        @Override
+        public String getKind() {
+            return "momentum";
+        }
+
+        @Override
+        protected Order act(MarketSnapshot snapshot) {
+            int symbolId = id % snapshot.size();
+            double change = snapshot.getChangePercent(symbolId);
+            long held = account.getShares(symbolId);
+            if (change > thresholdPercent && held == 0 && canAfford(LOT_SIZE, snapshot.getPriceCents(symbolId))) {
+                return buy(snapshot.getSymbol(symbolId), LOT_SIZE);
+            }
+            if (change < -thresholdPercent && held > 0) {
+                return sell(snapshot.getSymbol(symbolId), held);
+            }
+            return null;
+        }
+    }
+
+    // Watches one symbol against an exponential moving average of its price;
+    // buys dips below the band and sells rallies above it
+    static class MeanReversionTrader extends TraderAgent {
+        private static final int LOT_SIZE = 10;
+        private static final double SMOOTHING = 0.05;
+        private final double band;
+        private double average;
+
+        MeanReversionTrader(int id, Account account, SplitMix64 random) {
+            super(id, account, random);
+            this.band = 0.002 + random.nextDouble() * 0.008;
+        }
+
+        @Override
+        public String getKind() {
+            return "meanrev";
+        }
+
+        @Override
+        protected Order act(MarketSnapshot snapshot) {
+            int symbolId = id % snapshot.size();
+            double price = snapshot.getPrice(symbolId);
+            if (average == 0.0) {
+                average = price;
+                return null;
+            }
+            average += SMOOTHING * (price - average);
+            if (price < average * (1.0 - band) && canAfford(LOT_SIZE, snapshot.getPriceCents(symbolId))) {
+                return buy(snapshot.getSymbol(symbolId), LOT_SIZE);
+            }
+            if (price > average * (1.0 + band) && account.getShares(symbolId) >= LOT_SIZE) {
+                return sell(snapshot.getSymbol(symbolId), LOT_SIZE);
+            }
+            return null;
+        }
+    }
+
+    // Keeps one resting quote in its symbol: a bid while it is flat and an
+    // offer while it holds inventory. A quote left from the previous snapshot
+    // is cancelled first, so quoting and cancelling alternate.
+    static class MarketMaker extends TraderAgent {
+        private static final int LOT_SIZE = 100;
+        private final double halfSpread;
+        private Order resting;
+
+        MarketMaker(int id, Account account, SplitMix64 random) {
+            super(id, account, random);
+            this.halfSpread = 0.0005 + random.nextDouble() * 0.002;
+        }
+
+        @Override
+        public String getKind() {
+            return "maker";
+        }
+
+        @Override
+        protected Order act(MarketSnapshot snapshot) {
+            if (resting != null) {
+                // A quote that has filled meanwhile makes this a no-op cancel
+                Order stale = resting;
+                resting = null;
+                return cancel(stale);
+            }
+            int symbolId = id % snapshot.size();
+            String symbol = snapshot.getSymbol(symbolId);
+            double price = snapshot.getPrice(symbolId);
+            long inventory = account.getShares(symbolId);
+            if (inventory > 0) {
+                resting = quote(symbol, Order.Side.SELL, price * (1.0 + halfSpread), inventory);
+            } else if (canAfford(LOT_SIZE, snapshot.getPriceCents(symbolId))) {
+                resting = quote(symbol, Order.Side.BUY, price * (1.0 - halfSpread), LOT_SIZE);
+            }
+            return resting;
+        }
+    }
+}
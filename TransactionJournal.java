@@ -0,0 +1,213 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+
+// Append-only, fixed-width transaction log written through a memory-mapped file.
+//
+// Layout: a 64-byte header followed by 32-byte records
+//   header: int magic, int version, int recordSize, int reserved, long recordCount
+//   record: int symbolId, byte side, 3 bytes padding, long epochNanos,
+//           long quantity, long priceCents
+// Symbol ids index into a sidecar "<journal>.symbols" file with one symbol per line.
+// A new symbol's line is forced to disk before the first record that uses it
+// is written, so a record that survives a crash never names an unknown id.
+public class TransactionJournal implements Closeable {
+    public static final byte SIDE_BUY = 1;
+    public static final byte SIDE_SELL = 2;
+
+    public enum SyncPolicy {
+        EVERY_RECORD, // force after every append
+        GROUP,        // force once every groupSize appends (group commit)
+        OS            // leave write-back to the OS; force only on flush/close
+    }
+
+    public interface RecordVisitor {
+        void onRecord(int symbolId, byte side, long epochNanos, long quantity, long priceCents);
+    }
+
+    private static final int MAGIC = 0x544a4e4c; // "TJNL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final long INITIAL_CAPACITY = 64 * 1024;
+    // A single mapping is limited to 2 GB
+    private static final long MAX_RECORDS = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private final Path path;
+    private final Path symbolsPath;
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final int groupSize;
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    private final FileChannel symbolChannel;
+    private MappedByteBuffer buffer;
+    private long capacity;
+    private long recordCount;
+    private int unsynced;
+
+    public TransactionJournal(Path path, SyncPolicy syncPolicy, int groupSize) throws IOException {
+        if (groupSize < 1) {
+            throw new IllegalArgumentException("Group size must be at least 1: " + groupSize);
+        }
+        this.path = path;
+        this.symbolsPath = path.resolveSibling(path.getFileName() + ".symbols");
+        this.syncPolicy = syncPolicy;
+        this.groupSize = groupSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        boolean fresh = channel.size() < HEADER_SIZE;
+        long mappedRecords = fresh ? 0 : (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        this.capacity = Math.min(MAX_RECORDS, Math.max(INITIAL_CAPACITY, mappedRecords));
+        map(capacity);
+        if (fresh) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putLong(COUNT_OFFSET, 0L);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(8) != RECORD_SIZE) {
+            channel.close();
+            throw new IOException("Not a transaction journal: " + path);
+        } else if (buffer.getInt(4) != VERSION) {
+            int version = buffer.getInt(4);
+            channel.close();
+            throw new IOException("Unsupported transaction journal version " + version + ": " + path);
+        }
+        this.recordCount = buffer.getLong(COUNT_OFFSET);
+
+        this.symbolChannel = FileChannel.open(symbolsPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            readSymbols();
+        } catch (IOException e) {
+            symbolChannel.close();
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Loads the sidecar and drops a last line cut short by a crash; no record
+    // can refer to it, because records are only written once their symbol is on disk
+    private void readSymbols() throws IOException {
+        byte[] bytes = Files.readAllBytes(symbolsPath);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end < bytes.length) {
+            symbolChannel.truncate(end);
+            symbolChannel.force(true);
+        }
+        for (String symbol : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            if (!symbol.isEmpty()) {
+                symbolIds.put(symbol, symbols.size());
+                symbols.add(symbol);
+            }
+        }
+        symbolChannel.position(end);
+    }
+
+    public TransactionJournal(Path path) throws IOException {
+        this(path, SyncPolicy.GROUP, 64);
+    }
+
+    private void map(long records) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + records * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public synchronized void append(String symbol, byte side, long quantity, long priceCents, long epochNanos)
+            throws IOException {
+        if (recordCount == capacity) {
+            if (capacity == MAX_RECORDS) {
+                throw new IOException("Transaction journal is full: " + path);
+            }
+            buffer.force();
+            capacity = Math.min(capacity * 2, MAX_RECORDS);
+            map(capacity);
+        }
+        int offset = (int) (HEADER_SIZE + recordCount * RECORD_SIZE);
+        buffer.putInt(offset, symbolId(symbol));
+        buffer.put(offset + 4, side);
+        buffer.putLong(offset + 8, epochNanos);
+        buffer.putLong(offset + 16, quantity);
+        buffer.putLong(offset + 24, priceCents);
+        // The count is published after the record, so a torn append is never replayed
+        buffer.putLong(COUNT_OFFSET, ++recordCount);
+
+        unsynced++;
+        if (syncPolicy == SyncPolicy.EVERY_RECORD
+                || (syncPolicy == SyncPolicy.GROUP && unsynced >= groupSize)) {
+            flush();
+        }
+    }
+
+    public void append(String symbol, byte side, long quantity, long priceCents) throws IOException {
+        append(symbol, side, quantity, priceCents, nowNanos());
+    }
+
+    private int symbolId(String symbol) throws IOException {
+        Integer id = symbolIds.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        ByteBuffer line = ByteBuffer.wrap((symbol + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            symbolChannel.write(line);
+        }
+        symbolChannel.force(true);
+        symbolIds.put(symbol, symbols.size());
+        symbols.add(symbol);
+        return symbols.size() - 1;
+    }
+
+    public synchronized void flush() {
+        buffer.force();
+        unsynced = 0;
+    }
+
+    // Streams every committed record straight out of the mapping, without allocating
+    public synchronized void replay(RecordVisitor visitor) {
+        replay(0, recordCount, visitor);
+    }
+
+    public synchronized void replay(long from, long to, RecordVisitor visitor) {
+        MappedByteBuffer buf = buffer;
+        long end = Math.min(to, recordCount);
+        for (long i = Math.max(0, from); i < end; i++) {
+            int offset = (int) (HEADER_SIZE + i * RECORD_SIZE);
+            visitor.onRecord(buf.getInt(offset), buf.get(offset + 4), buf.getLong(offset + 8),
+                buf.getLong(offset + 16), buf.getLong(offset + 24));
+        }
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized String getSymbol(int symbolId) {
+        return symbols.get(symbolId);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public static long nowNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        symbolChannel.close();
+        channel.close();
+    }
+}
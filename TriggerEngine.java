@@ -0,0 +1,629 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Price alerts, stop-loss and take-profit orders, checked against every
+// market snapshot. Each symbol keeps its rules' thresholds as two sorted
+// arrays of primitive keys (threshold << SLOT_BITS | rule slot): rules that
+// fire when the price rises to their threshold, which fire from the low end
+// of their array, and rules that fire when it falls, which fire from the high
+// end. Checking a symbol that moved is a binary search per array plus the
+// rules that actually fired, O(log n + k), however many rules are registered.
+// The nearest threshold on each side is also kept in flat per-symbol arrays,
+// so a symbol whose move fires nothing costs two reads and no pointer chasing.
+//
+// Rules can be added and cancelled from any thread. Requests are queued and
+// applied by the thread that delivers market updates, which is the only one
+// to touch the rule table and the per-symbol arrays, so evaluation takes no
+// locks. Rules added between ticks are sorted and merged into their symbol's
+// arrays in one pass, so bulk registration costs O(n log n), not O(n) each.
+//
+// Rules fire once: when the last price of a tick is at or beyond the
+// threshold (a rule whose threshold is already crossed fires on the symbol's
+// next move). Fired triggers are handed to a separate delivery thread in one
+// batch per tick, so listeners and stop orders never delay the market.
+public class TriggerEngine implements StockMarket.MarketObserver {
+    private static final int SLOT_BITS = 26;
+    public static final int MAX_RULES = 1 << SLOT_BITS;
+    private static final long SLOT_MASK = MAX_RULES - 1;
+    public static final long MAX_THRESHOLD_CENTS = (1L << (63 - SLOT_BITS)) - 1;
+
+    // Rule slot states
+    private static final byte FREE = 0;
+    private static final byte ACTIVE = 1;
+    private static final byte CANCELLED = 2; // Still has a key in a symbol's array
+
+    private static final LatencyHistogram EVALUATE = Metrics.histogram("triggers.evaluate.nanos");
+    private static final LatencyHistogram DELIVERY_LAG = Metrics.histogram("triggers.delivery.lag.nanos");
+
+    public enum Kind { ALERT, STOP_LOSS, TAKE_PROFIT }
+
+    public enum Direction { AT_OR_ABOVE, AT_OR_BELOW }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // Called on the delivery thread, in the order the triggers fired
+    public interface TriggerListener {
+        void onTrigger(Trigger trigger);
+    }
+
+    public static final class Trigger {
+        private final int ruleId;
+        private final String symbol;
+        private final Kind kind;
+        private final Direction direction;
+        private final long thresholdCents;
+        private final long priceCents;
+        private final long shares;
+        private final long epoch;
+        private final long detectedNanos;
+        private final Object listener;
+
+        Trigger(int ruleId, String symbol, Kind kind, Direction direction, long thresholdCents, long priceCents,
+                long shares, long epoch, long detectedNanos, Object listener) {
+            this.ruleId = ruleId;
+            this.symbol = symbol;
+            this.kind = kind;
+            this.direction = direction;
+            this.thresholdCents = thresholdCents;
+            this.priceCents = priceCents;
+            this.shares = shares;
+            this.epoch = epoch;
+            this.detectedNanos = detectedNanos;
+            this.listener = listener;
+        }
+
+        public int getRuleId() { return ruleId; }
+        public String getSymbol() { return symbol; }
+        public Kind getKind() { return kind; }
+        public Direction getDirection() { return direction; }
+        public long getThresholdCents() { return thresholdCents; }
+        public long getPriceCents() { return priceCents; }
+        public long getShares() { return shares; }
+        // Epoch of the snapshot that fired the rule
+        public long getEpoch() { return epoch; }
+        // System.nanoTime() when the rule was found to have fired
+        public long getDetectedNanos() { return detectedNanos; }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s at %s (%s %s, rule %d)", symbol, kind, Money.format(priceCents),
+                direction == Direction.AT_OR_ABOVE ? "at or above" : "at or below", Money.format(thresholdCents), ruleId);
+        }
+    }
+
+    // An add or cancel request waiting for the next market update
+    private static final class Request {
+        final int ruleId;
+        final int symbolId;
+        final long thresholdCents;
+        final Kind kind;
+        final Direction direction;
+        final long shares;
+        final Object listener;
+        final int partnerId; // Rule cancelled when this one fires (one-cancels-other), or 0
+        final boolean cancel;
+
+        Request(int ruleId, int symbolId, long thresholdCents, Kind kind, Direction direction, long shares,
+                Object listener, int partnerId, boolean cancel) {
+            this.ruleId = ruleId;
+            this.symbolId = symbolId;
+            this.thresholdCents = thresholdCents;
+            this.kind = kind;
+            this.direction = direction;
+            this.shares = shares;
+            this.listener = listener;
+            this.partnerId = partnerId;
+            this.cancel = cancel;
+        }
+    }
+
+    // One direction of one symbol: sorted keys[start..end), plus keys added
+    // since the last merge
+    private static final class Side {
+        long[] keys = new long[4];
+        int start;
+        int end;
+        long[] pending = new long[4];
+        int pendingCount;
+        int cancelled; // Keys in keys[start..end) whose rule was cancelled
+
+        void add(long key) {
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = key;
+        }
+
+        int size() {
+            return end - start;
+        }
+    }
+
+    private static final class Book {
+        final Side above = new Side(); // Fires as the price rises
+        final Side below = new Side(); // Fires as the price falls
+        boolean dirty; // Listed in dirtyBooks: has keys to merge or compact
+    }
+
+    private final StockMarket market;
+    private final MatchingEngine matchingEngine;
+    private final ExecutorService delivery;
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextRuleId = new AtomicInteger(1);
+    private final LongAdder firedCount = new LongAdder();
+    private volatile int activeCount;
+    // The last snapshot this engine evaluated, for reads from registering threads
+    private volatile MarketSnapshot lastSnapshot;
+
+    // Rule table indexed by slot; only touched by the thread delivering market updates
+    private int[] ruleIds = new int[16];
+    private int[] ruleSymbols = new int[16];
+    private byte[] ruleStates = new byte[16];
+    private byte[] ruleKinds = new byte[16];
+    private byte[] ruleDirections = new byte[16];
+    private long[] ruleShares = new long[16];
+    private int[] rulePartners = new int[16]; // Partner's slot + 1, or 0
+    private Object[] ruleListeners = new Object[16];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private final IntLongMap slotsById = new IntLongMap(); // Rule id -> slot + 1, while active
+    private Book[] books = new Book[0];
+    // Per symbol: the lowest threshold that fires on a rise and the highest that
+    // fires on a fall (counting cancelled keys still in the arrays)
+    private long[] lowestAbove = new long[0];
+    private long[] highestBelow = new long[0];
+    private int[] dirtyBooks = new int[16];
+    private int dirtyCount;
+    private int active;
+    private List<Trigger> batch = new ArrayList<>();
+
+    // matchingEngine may be null if only alerts are used
+    public TriggerEngine(StockMarket market, MatchingEngine matchingEngine) {
+        this.market = market;
+        this.matchingEngine = matchingEngine;
+        this.delivery = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "triggers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (Metrics.ENABLED) {
+            Metrics.gauge("triggers.active", () -> activeCount);
+            Metrics.gauge("triggers.fired", firedCount::sum);
+        }
+    }
+
+    // Fires once when symbol's price is at or beyond thresholdCents in the given direction
+    public int addAlert(String symbol, Direction direction, long thresholdCents, TriggerListener listener) {
+        return add(symbolId(symbol), thresholdCents, Kind.ALERT, direction, 0L, listener, 0);
+    }
+
+    // Fires once when symbol moves percent above or below its previous close.
+    // The two thresholds are fixed from the previous close at registration;
+    // cancelling the returned id cancels both. The previous close comes from the
+    // last snapshot the engine evaluated, so registering never publishes one
+    // from the caller's thread.
+    public int addMoveAlert(String symbol, double percent, TriggerListener listener) {
+        int symbolId = symbolId(symbol);
+        long previousClose = referenceSnapshot(symbolId).getPreviousCloseCents(symbolId);
+        long offset = Math.round(previousClose * Math.abs(percent) / 100.0);
+        int upper = nextRuleId.getAndIncrement();
+        int lower = nextRuleId.getAndIncrement();
+        enqueue(upper, symbolId, previousClose + offset, Kind.ALERT, Direction.AT_OR_ABOVE, 0L, listener, lower);
+        enqueue(lower, symbolId, Math.max(1L, previousClose - offset), Kind.ALERT, Direction.AT_OR_BELOW, 0L,
+            listener, upper);
+        return upper;
+    }
+
+    // Sells shares at market once the price falls to stopCents; fills go to fills
+    public int addStopLoss(String symbol, long stopCents, long shares, MatchingEngine.OrderListener fills) {
+        requireMatchingEngine();
+        return add(symbolId(symbol), stopCents, Kind.STOP_LOSS, Direction.AT_OR_BELOW, shares, fills, 0);
+    }
+
+    // Sells shares at market once the price rises to targetCents
+    public int addTakeProfit(String symbol, long targetCents, long shares, MatchingEngine.OrderListener fills) {
+        requireMatchingEngine();
+        return add(symbolId(symbol), targetCents, Kind.TAKE_PROFIT, Direction.AT_OR_ABOVE, shares, fills, 0);
+    }
+
+    // A stop-loss and a take-profit where the first to fire cancels the other.
+    // Returns the stop's id; cancelling it cancels both.
+    public int addBracket(String symbol, long stopCents, long targetCents, long shares,
+                          MatchingEngine.OrderListener fills) {
+        requireMatchingEngine();
+        int symbolId = symbolId(symbol);
+        int stop = nextRuleId.getAndIncrement();
+        int target = nextRuleId.getAndIncrement();
+        enqueue(stop, symbolId, stopCents, Kind.STOP_LOSS, Direction.AT_OR_BELOW, shares, fills, target);
+        enqueue(target, symbolId, targetCents, Kind.TAKE_PROFIT, Direction.AT_OR_ABOVE, shares, fills, stop);
+        return stop;
+    }
+
+    // Cancels a rule (and its one-cancels-other partner) if it has not fired yet
+    public void cancel(int ruleId) {
+        requests.offer(new Request(ruleId, -1, 0L, null, null, 0L, null, 0, true));
+    }
+
+    private int add(int symbolId, long thresholdCents, Kind kind, Direction direction, long shares,
+                    Object listener, int partnerId) {
+        int ruleId = nextRuleId.getAndIncrement();
+        enqueue(ruleId, symbolId, thresholdCents, kind, direction, shares, listener, partnerId);
+        return ruleId;
+    }
+
+    private void enqueue(int ruleId, int symbolId, long thresholdCents, Kind kind, Direction direction, long shares,
+                         Object listener, int partnerId) {
+        if (thresholdCents < 1 || thresholdCents > MAX_THRESHOLD_CENTS) {
+            throw new IllegalArgumentException("Threshold out of range: " + thresholdCents + " cents");
+        }
+        if (kind != Kind.ALERT && shares <= 0) {
+            throw new IllegalArgumentException("Order size must be positive: " + shares);
+        }
+        requests.offer(new Request(ruleId, symbolId, thresholdCents, kind, direction, shares, listener, partnerId, false));
+    }
+
+    private int symbolId(String symbol) {
+        int id = market.idOf(symbol);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown symbol: " + symbol);
+        }
+        return id;
+    }
+
+    // Falls back to the market's published snapshot before the engine has seen
+    // one with this symbol, and only publishes if the market has none either
+    private MarketSnapshot referenceSnapshot(int symbolId) {
+        MarketSnapshot current = lastSnapshot;
+        if (current == null || symbolId >= current.size()) {
+            current = market.getPublishedSnapshot();
+            if (current == null || symbolId >= current.size()) {
+                current = market.getSnapshot();
+            }
+        }
+        return current;
+    }
+
+    private void requireMatchingEngine() {
+        if (matchingEngine == null) {
+            throw new IllegalStateException("Stop and take-profit orders need a MatchingEngine");
+        }
+    }
+
+    // Rules that have neither fired nor been cancelled, as of the last update
+    public int getActiveRules() {
+        return activeCount;
+    }
+
+    public long getFiredCount() {
+        return firedCount.sum();
+    }
+
+    public void shutdown() {
+        delivery.shutdown();
+    }
+
+    @Override
+    public void onMarketUpdate(MarketSnapshot snapshot) {
+        long start = System.nanoTime();
+        lastSnapshot = snapshot;
+        applyRequests();
+        mergeDirtyBooks();
+        int symbols = books.length;
+        for (int i = 0; i < snapshot.getChangedCount(); i++) {
+            int id = snapshot.getChangedId(i);
+            if (id >= symbols) {
+                break;
+            }
+            long price = snapshot.getPriceCents(id);
+            if (price >= lowestAbove[id]) {
+                fireRising(id, books[id].above, price, snapshot, start);
+            }
+            if (price <= highestBelow[id]) {
+                fireFalling(id, books[id].below, price, snapshot, start);
+            }
+        }
+        activeCount = active;
+        if (!batch.isEmpty()) {
+            List<Trigger> fired = batch;
+            batch = new ArrayList<>();
+            firedCount.add(fired.size());
+            delivery.execute(() -> deliver(fired));
+        }
+        if (Metrics.ENABLED) {
+            EVALUATE.recordSince(start);
+        }
+    }
+
+    private void applyRequests() {
+        Request request;
+        while ((request = requests.poll()) != null) {
+            if (request.cancel) {
+                cancelRule(request.ruleId);
+            } else {
+                addRule(request);
+            }
+        }
+    }
+
+    private void addRule(Request request) {
+        int slot = allocateSlot();
+        ruleIds[slot] = request.ruleId;
+        ruleSymbols[slot] = request.symbolId;
+        ruleStates[slot] = ACTIVE;
+        ruleKinds[slot] = (byte) request.kind.ordinal();
+        ruleDirections[slot] = (byte) request.direction.ordinal();
+        ruleShares[slot] = request.shares;
+        ruleListeners[slot] = request.listener;
+        rulePartners[slot] = 0;
+        slotsById.put(request.ruleId, slot + 1L);
+        active++;
+        if (request.partnerId != 0) {
+            // The partner is linked by whichever of the two is added second
+            long partner = slotsById.get(request.partnerId);
+            if (partner != 0) {
+                rulePartners[slot] = (int) partner;
+                rulePartners[(int) partner - 1] = slot + 1;
+            }
+        }
+        if (request.symbolId >= books.length) {
+            int oldLength = books.length;
+            int length = Math.max(request.symbolId + 1, oldLength * 2);
+            books = Arrays.copyOf(books, length);
+            lowestAbove = Arrays.copyOf(lowestAbove, length);
+            highestBelow = Arrays.copyOf(highestBelow, length);
+            Arrays.fill(lowestAbove, oldLength, length, Long.MAX_VALUE);
+            Arrays.fill(highestBelow, oldLength, length, Long.MIN_VALUE);
+        }
+        Book book = books[request.symbolId];
+        if (book == null) {
+            book = new Book();
+            books[request.symbolId] = book;
+        }
+        Side side = request.direction == Direction.AT_OR_ABOVE ? book.above : book.below;
+        side.add(request.thresholdCents << SLOT_BITS | slot);
+        markDirty(request.symbolId, book);
+    }
+
+    private void markDirty(int symbolId, Book book) {
+        if (!book.dirty) {
+            book.dirty = true;
+            if (dirtyCount == dirtyBooks.length) {
+                dirtyBooks = Arrays.copyOf(dirtyBooks, dirtyCount * 2);
+            }
+            dirtyBooks[dirtyCount++] = symbolId;
+        }
+    }
+
+    // Merges the rules added since the last update into their symbols' arrays
+    private void mergeDirtyBooks() {
+        for (int i = 0; i < dirtyCount; i++) {
+            int id = dirtyBooks[i];
+            Book book = books[id];
+            book.dirty = false;
+            merge(book.above);
+            merge(book.below);
+            updateBounds(id, book);
+        }
+        dirtyCount = 0;
+    }
+
+    private void updateBounds(int id, Book book) {
+        Side above = book.above;
+        Side below = book.below;
+        lowestAbove[id] = above.start < above.end ? above.keys[above.start] >>> SLOT_BITS : Long.MAX_VALUE;
+        highestBelow[id] = below.start < below.end ? below.keys[below.end - 1] >>> SLOT_BITS : Long.MIN_VALUE;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == MAX_RULES) {
+            throw new IllegalStateException("More than " + MAX_RULES + " trigger rules");
+        }
+        if (slotCount == ruleIds.length) {
+            int capacity = Math.min(MAX_RULES, slotCount * 2);
+            ruleIds = Arrays.copyOf(ruleIds, capacity);
+            ruleSymbols = Arrays.copyOf(ruleSymbols, capacity);
+            ruleStates = Arrays.copyOf(ruleStates, capacity);
+            ruleKinds = Arrays.copyOf(ruleKinds, capacity);
+            ruleDirections = Arrays.copyOf(ruleDirections, capacity);
+            ruleShares = Arrays.copyOf(ruleShares, capacity);
+            rulePartners = Arrays.copyOf(rulePartners, capacity);
+            ruleListeners = Arrays.copyOf(ruleListeners, capacity);
+        }
+        return slotCount++;
+    }
+
+    // A slot is only reused once its key has left its symbol's array
+    private void freeSlot(int slot) {
+        ruleStates[slot] = FREE;
+        ruleListeners[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void cancelRule(int ruleId) {
+        long entry = slotsById.remove(ruleId);
+        if (entry == 0) {
+            return; // Already fired or cancelled
+        }
+        int slot = (int) entry - 1;
+        markCancelled(slot);
+        int partner = rulePartners[slot] - 1;
+        if (partner >= 0 && ruleStates[partner] == ACTIVE) {
+            slotsById.remove(ruleIds[partner]);
+            markCancelled(partner);
+        }
+    }
+
+    // The key stays in its array until it is reached by a scan or compacted away
+    private void markCancelled(int slot) {
+        ruleStates[slot] = CANCELLED;
+        active--;
+        int symbolId = ruleSymbols[slot];
+        Book book = books[symbolId];
+        Side side = ruleDirections[slot] == Direction.AT_OR_ABOVE.ordinal() ? book.above : book.below;
+        side.cancelled++;
+        if (needsCompaction(side)) {
+            markDirty(symbolId, book);
+        }
+    }
+
+    private static boolean needsCompaction(Side side) {
+        return side.cancelled > 32 && side.cancelled * 4 > side.size();
+    }
+
+    // Rising prices fire the lowest thresholds first: keys[start..) below price + 1
+    private void fireRising(int id, Side side, long price, MarketSnapshot snapshot, long now) {
+        long limit = (price + 1) << SLOT_BITS;
+        int last = search(side.keys, side.start, side.end, limit);
+        for (int i = side.start; i < last; i++) {
+            fire(side, side.keys[i], price, snapshot, now);
+        }
+        side.start = last;
+        if (side.start == side.end) {
+            side.start = 0;
+            side.end = 0;
+            lowestAbove[id] = Long.MAX_VALUE;
+        } else {
+            lowestAbove[id] = side.keys[side.start] >>> SLOT_BITS;
+        }
+    }
+
+    // Falling prices fire the highest thresholds first: keys[..end) at or above price
+    private void fireFalling(int id, Side side, long price, MarketSnapshot snapshot, long now) {
+        int first = search(side.keys, side.start, side.end, price << SLOT_BITS);
+        for (int i = side.end - 1; i >= first; i--) {
+            fire(side, side.keys[i], price, snapshot, now);
+        }
+        side.end = first;
+        if (side.start == side.end) {
+            side.start = 0;
+            side.end = 0;
+            highestBelow[id] = Long.MIN_VALUE;
+        } else {
+            highestBelow[id] = side.keys[side.end - 1] >>> SLOT_BITS;
+        }
+    }
+
+    // Runs on the delivery thread. Stops and take-profits become market sell
+    // orders; a listener that throws does not stop the rest of the batch.
+    private void deliver(List<Trigger> fired) {
+        for (Trigger trigger : fired) {
+            if (Metrics.ENABLED) {
+                DELIVERY_LAG.recordSince(trigger.detectedNanos);
+            }
+            try {
+                if (trigger.kind == Kind.ALERT) {
+                    ((TriggerListener) trigger.listener).onTrigger(trigger);
+                } else {
+                    matchingEngine.submitMarket(trigger.symbol, Order.Side.SELL, trigger.shares,
+                        (MatchingEngine.OrderListener) trigger.listener);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Trigger " + trigger + " failed: " + e);
+            }
+        }
+    }
+
+    // Folds keys added since the last tick into the sorted array, dropping
+    // cancelled keys on the way when they make up a large part of it
+    private void merge(Side side) {
+        boolean compact = needsCompaction(side);
+        if (side.pendingCount == 0 && !compact) {
+            return;
+        }
+        long[] pending = side.pending;
+        int pendingCount = side.pendingCount;
+        Arrays.sort(pending, 0, pendingCount);
+        long[] keys = side.keys;
+        int needed = side.size() + pendingCount;
+        long[] merged = needed <= keys.length && side.start >= pendingCount && !compact
+            ? null : new long[Math.max(4, Integer.highestOneBit(Math.max(1, needed) * 2 - 1))];
+        if (merged == null) {
+            // Room in front of the live range: merge backwards from the end in place
+            mergeDown(keys, side.start, side.end, pending, pendingCount);
+            side.start -= pendingCount;
+        } else {
+            int out = 0;
+            int i = side.start;
+            int j = 0;
+            while (i < side.end || j < pendingCount) {
+                long key = j == pendingCount || (i < side.end && keys[i] < pending[j]) ? keys[i++] : pending[j++];
+                int slot = (int) (key & SLOT_MASK);
+                if (compact && ruleStates[slot] == CANCELLED) {
+                    freeSlot(slot);
+                } else {
+                    merged[out++] = key;
+                }
+            }
+            side.keys = merged;
+            side.start = 0;
+            side.end = out;
+            if (compact) {
+                side.cancelled = 0;
+            }
+        }
+        side.pendingCount = 0;
+        if (pending.length > 64 && pendingCount < pending.length / 4) {
+            side.pending = new long[pending.length / 2];
+        }
+    }
+
+    // Merges keys[start..end) and pending[0..count) into keys[start - count..end)
+    private static void mergeDown(long[] keys, int start, int end, long[] pending, int count) {
+        int out = start - count;
+        int i = start;
+        int j = 0;
+        while (j < count) {
+            if (i < end && keys[i] < pending[j]) {
+                keys[out++] = keys[i++];
+            } else {
+                keys[out++] = pending[j++];
+            }
+        }
+    }
+
+    // Index of the first key in keys[from..to) that is not less than key
+    private static int search(long[] keys, int from, int to, long key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void fire(Side side, long key, long price, MarketSnapshot snapshot, long now) {
+        int slot = (int) (key & SLOT_MASK);
+        if (ruleStates[slot] == ACTIVE) {
+            slotsById.remove(ruleIds[slot]);
+            active--;
+            Kind kind = KINDS[ruleKinds[slot]];
+            Direction direction = DIRECTIONS[ruleDirections[slot]];
+            int symbolId = ruleSymbols[slot];
+            batch.add(new Trigger(ruleIds[slot], snapshot.getSymbol(symbolId), kind, direction, key >>> SLOT_BITS, price,
+                ruleShares[slot], snapshot.getEpoch(), now, ruleListeners[slot]));
+            int partner = rulePartners[slot] - 1;
+            if (partner >= 0 && ruleStates[partner] == ACTIVE) {
+                slotsById.remove(ruleIds[partner]);
+                markCancelled(partner);
+            }
+        } else {
+            side.cancelled--;
+        }
+        freeSlot(slot);
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Minimal JMH-style measurement harness used by the benchmarks in this
+// directory. Each benchmark body runs a batch of operations and returns a
+// value that is folded into a volatile sink so the JIT cannot drop the work.
+// Warmup runs for WARMUP_ITERATIONS x ITERATION_NANOS, then the number of
+// operations per iteration is calibrated and measurement iterations are
+// timed. Allocation is profiled per operation from the measuring thread's
+// allocated-bytes counter (like JMH's gc.alloc.rate.norm).
+//
+// Results are written to and compared against CSV baselines:
+//   benchmark,param,ns_per_op,error_ns,bytes_per_op
+final class Bench {
+    // Overridable with -Dbench.warmup, -Dbench.iterations and -Dbench.time (ms per iteration)
+    static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmup", 20);
+    static final int MEASURE_ITERATIONS = Math.max(2, Integer.getInteger("bench.iterations", 10));
+    static final long ITERATION_NANOS = Integer.getInteger("bench.time", 100) * 1_000_000L;
+    // ~3.3 standard errors: a 99.9% confidence interval for normally distributed iterations
+    private static final double Z_999 = 3.291;
+
+    static volatile long sink;
+
+    interface Body {
+        // Untimed setup before each iteration (e.g. to reset state that grows)
+        default void setupIteration() {
+        }
+
+        // Called once between warmup and the first measured iteration, so side
+        // measurements (latency histograms, delivery counts) can start afresh
+        default void startMeasurement() {
+        }
+
+        // Performs ops operations and returns something derived from their results
+        long run(int ops);
+    }
+
+    static final class Result {
+        final String benchmark;
+        final String param;
+        final double nsPerOp;
+        final double errorNs;
+        final double bytesPerOp;
+
+        Result(String benchmark, String param, double nsPerOp, double errorNs, double bytesPerOp) {
+            this.benchmark = benchmark;
+            this.param = param;
+            this.nsPerOp = nsPerOp;
+            this.errorNs = errorNs;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        String key() {
+            return benchmark + "," + param;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%.1f", benchmark, param, nsPerOp, errorNs, bytesPerOp);
+        }
+
+        static Result fromCsv(String line) {
+            String[] f = line.split(",");
+            return new Result(f[0], f[1], Double.parseDouble(f[2]), Double.parseDouble(f[3]), Double.parseDouble(f[4]));
+        }
+    }
+
+    private Bench() {
+    }
+
+    static Result measure(String benchmark, String param, Body body) {
+        // Warmup iterations are time-based so cold, slow code still gets enough
+        // calls to be compiled; the batch size is calibrated again afterwards
+        int ops = calibrate(body);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            body.setupIteration();
+            long end = System.nanoTime() + ITERATION_NANOS;
+            while (System.nanoTime() < end) {
+                sink += body.run(ops);
+            }
+        }
+        ops = calibrate(body);
+        body.startMeasurement();
+        double[] nsPerOp = new double[MEASURE_ITERATIONS];
+        double bytes = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            body.setupIteration();
+            long allocated = Metrics.currentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            sink += body.run(ops);
+            long elapsed = System.nanoTime() - start;
+            bytes += Metrics.currentThreadAllocatedBytes() - allocated;
+            nsPerOp[i] = (double) elapsed / ops;
+        }
+        double mean = 0;
+        for (double v : nsPerOp) {
+            mean += v;
+        }
+        mean /= MEASURE_ITERATIONS;
+        double variance = 0;
+        for (double v : nsPerOp) {
+            variance += (v - mean) * (v - mean);
+        }
+        double error = Z_999 * Math.sqrt(variance / (MEASURE_ITERATIONS - 1) / MEASURE_ITERATIONS);
+        return new Result(benchmark, param, mean, error, bytes / ((double) ops * MEASURE_ITERATIONS));
+    }
+
+    // Doubles the batch until one run takes a tenth of an iteration, then scales it up
+    private static int calibrate(Body body) {
+        int ops = 1;
+        while (true) {
+            body.setupIteration();
+            long start = System.nanoTime();
+            sink += body.run(ops);
+            long elapsed = System.nanoTime() - start;
+            if (elapsed >= ITERATION_NANOS / 10 || ops >= Integer.MAX_VALUE / 2) {
+                return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (double) ops * ITERATION_NANOS / Math.max(1, elapsed)));
+            }
+            ops *= 2;
+        }
+    }
+
+    static void save(Path file, List<Result> results) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,param,ns_per_op,error_ns,bytes_per_op");
+        for (Result result : results) {
+            lines.add(result.toCsv());
+        }
+        Files.write(file, lines);
+    }
+
+    static Map<String, Result> load(Path file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            if (!line.isEmpty() && !line.startsWith("benchmark,")) {
+                Result result = Result.fromCsv(line);
+                results.put(result.key(), result);
+            }
+        }
+        return results;
+    }
+
+    static void printHeader(boolean withBaseline) {
+        System.out.printf("%-28s %10s %14s %12s %12s%s%n", "benchmark", "param", "ns/op", "error", "B/op",
+            withBaseline ? String.format("%12s %10s", "base ns/op", "change") : "");
+    }
+
+    // A change is only flagged when the two error intervals do not overlap
+    static void print(Result result, Result baseline) {
+        String comparison = "";
+        if (baseline != null) {
+            double change = (result.nsPerOp - baseline.nsPerOp) / baseline.nsPerOp * 100;
+            boolean significant = Math.abs(result.nsPerOp - baseline.nsPerOp) > result.errorNs + baseline.errorNs;
+            comparison = String.format("%12.2f %+9.1f%%%s", baseline.nsPerOp, change,
+                significant ? (change > 0 ? " SLOWER" : " FASTER") : "");
+        }
+        System.out.printf("%-28s %10s %14.2f %12.2f %12.1f%s%n", result.benchmark, result.param,
+            result.nsPerOp, result.errorNs, result.bytesPerOp, comparison);
+    }
+}
@@ -0,0 +1,133 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+// Frame cost of PriceChart on a long series: recording the points, preparing
+// a frame of the whole series from scratch, drawing it, and the steady state
+// where a few ticks arrive between frames and only the changed columns are
+// prepared and drawn. For comparison, the same frame prepared by visiting
+// every point, and drawn as one polyline through every point, which is what a
+// chart that redraws everything on each tick does.
+//
+// Drawing goes to a BufferedImage so the benchmark runs headless; on screen
+// the chart draws into a VolatileImage, which is usually faster.
+//
+//   javac -d bin *.java bench/*.java
+//   java -Xmx1g -cp bin ChartBenchmark [points] [width] [height] [ticks/frame]
+public class ChartBenchmark {
+    private static final long SEED = 42L;
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 1920;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        int ticksPerFrame = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        String param = points / 1_000_000 + "Mx" + width;
+
+        PriceSeries series = new PriceSeries();
+        SplitMix64 random = new SplitMix64(SEED);
+        long[] price = {10_000L};
+        long start = System.nanoTime();
+        for (int i = 0; i < points; i++) {
+            price[0] = Math.max(1L, price[0] + random.nextInt(21) - 10);
+            series.append(price[0]);
+        }
+        long recorded = System.nanoTime() - start;
+        System.out.printf("%,d points recorded in %.0f ms (%.1f ns per point)%n%n",
+            points, recorded / 1e6, (double) recorded / points);
+
+        int step = PriceChart.fitStep(points, width);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        List<Bench.Result> results = new ArrayList<>();
+        results.add(Bench.measure("prepare.full", param, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += PriceChart.prepare(series, points, step, false, width, height, null).columns;
+            }
+            return sum;
+        }));
+        results.add(Bench.measure("prepare.naive", param, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += naivePrepare(series, points, step, width);
+            }
+            return sum;
+        }));
+        PriceChart.Frame full = PriceChart.prepare(series, points, step, false, width, height, null);
+        results.add(Bench.measure("render.full", param, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += PriceChart.render(graphics, full, null);
+            }
+            return sum;
+        }));
+
+        // Following the newest prices at one tick per column, with ticks
+        // arriving between frames; the series keeps growing while measured
+        PriceChart.Frame[] last = {PriceChart.prepare(series, series.size(), 1, true, width, height, null)};
+        PriceChart.render(graphics, last[0], null);
+        results.add(Bench.measure("frame.follow", param + "+" + ticksPerFrame, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                for (int t = 0; t < ticksPerFrame; t++) {
+                    price[0] = Math.max(1L, price[0] + random.nextInt(21) - 10);
+                    series.append(price[0]);
+                }
+                PriceChart.Frame frame = PriceChart.prepare(series, series.size(), 1, true, width, height, last[0]);
+                sum += PriceChart.render(graphics, frame, last[0]);
+                last[0] = frame;
+            }
+            return sum;
+        }));
+        Bench.printHeader(false);
+        for (Bench.Result result : results) {
+            Bench.print(result, null);
+        }
+
+        // Far too slow for the harness: timed directly
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long begin = System.nanoTime();
+            naiveRender(graphics, series, points, width, height);
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+        System.out.printf("%nrender.naive (polyline through all %,d points): %.0f ms per frame%n", points, best / 1e6);
+        graphics.dispose();
+    }
+
+    // Low and high of each column by visiting every point
+    private static long naivePrepare(PriceSeries series, int size, int step, int width) {
+        float[] min = new float[width];
+        float[] max = new float[width];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < size; i++) {
+            int column = i / step;
+            float v = series.get(i);
+            min[column] = Math.min(min[column], v);
+            max[column] = Math.max(max[column], v);
+        }
+        return (long) (min[0] + max[0]);
+    }
+
+    private static void naiveRender(Graphics2D g, PriceSeries series, int size, int width, int height) {
+        float[] range = new float[2];
+        series.range(0, size, range);
+        double scaleY = (height - 1) / (range[1] - range[0]);
+        double scaleX = (double) width / size;
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        int previousX = 0;
+        int previousY = (int) ((range[1] - series.get(0)) * scaleY);
+        for (int i = 1; i < size; i++) {
+            int x = (int) (i * scaleX);
+            int y = (int) ((range[1] - series.get(i)) * scaleY);
+            g.drawLine(previousX, previousY, x, y);
+            previousX = x;
+            previousY = y;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.*;
+import java.nio.file.*;
+
+// Times the parts of a full checkpoint of a large simulator with the Bench
+// harness: capture, write, a cold read and the restore into a fresh market and
+// account engine (one op each). Afterwards it checks that the restored market
+// continues with exactly the same prices.
+//
+//   javac -d bin *.java bench/*.java
+//   java -Xms2g -Xmx4g -cp bin CheckpointBenchmark [symbols] [accounts] [positions per account]
+public class CheckpointBenchmark {
+    private static final long SEED = 42L;
+
+    public static void main(String[] args) throws Exception {
+        int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int positions = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String param = symbols + "x" + accounts;
+
+        StockMarket market = createMarket(symbols);
+        market.setPriceModel(PriceModel.create("garch"));
+        for (int i = 0; i < 3; i++) {
+            market.tick();
+        }
+        AccountEngine engine = new AccountEngine(market, accounts, 1_000_000.0, 1);
+        SplitMix64 random = new SplitMix64(SEED);
+        for (int id = 0; id < accounts; id++) {
+            for (int p = 0; p < positions; p++) {
+                engine.getAccount(id).buy(random.nextInt(symbols), 1 + random.nextInt(100), 100);
+            }
+        }
+        StockMarket restoredMarket = createMarket(0);
+        AccountEngine restoredEngine = new AccountEngine(restoredMarket, accounts, 0.0, 1);
+        Path file = Files.createTempFile("checkpoint", ".bin");
+        System.out.printf("%,d symbols, %,d accounts x %d positions%n", symbols, accounts, positions);
+
+        try {
+            Checkpoint checkpoint = Checkpoint.capture(market, null, Runnable::run, engine);
+            checkpoint.write(file);
+            Checkpoint loaded = Checkpoint.read(file);
+            Bench.printHeader(false);
+            Bench.print(Bench.measure("capture", param, ops -> {
+                long hash = 0;
+                for (int i = 0; i < ops; i++) {
+                    hash += System.identityHashCode(Checkpoint.capture(market, null, Runnable::run, engine));
+                }
+                return hash;
+            }), null);
+            Bench.print(Bench.measure("write", param, ops -> {
+                try {
+                    for (int i = 0; i < ops; i++) {
+                        checkpoint.write(file);
+                    }
+                    return Files.size(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }), null);
+            Bench.print(Bench.measure("read", param, ops -> {
+                long hash = 0;
+                try {
+                    for (int i = 0; i < ops; i++) {
+                        hash += System.identityHashCode(Checkpoint.read(file));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return hash;
+            }), null);
+            Bench.print(Bench.measure("restore", param, ops -> {
+                for (int i = 0; i < ops; i++) {
+                    loaded.restore(restoredMarket);
+                    loaded.restore(restoredEngine);
+                }
+                return restoredEngine.totalCashCents();
+            }), null);
+            System.out.printf("checkpoint size: %.1f MB%n", Files.size(file) / 1e6);
+            verify(market, restoredMarket, engine, restoredEngine);
+        } finally {
+            Files.deleteIfExists(file);
+            restoredEngine.shutdown();
+            engine.shutdown();
+        }
+    }
+
+    private static StockMarket createMarket(int symbols) {
+        StockMarket market = new StockMarket(SEED, false);
+        PriceStore store = market.getPriceStore();
+        for (int i = 0; i < symbols; i++) {
+            store.add(String.format("S%07d", i), 10.0 + i % 500);
+        }
+        return market;
+    }
+
+    // Ticks both markets once; the restored copy must produce exactly the same prices
+    private static void verify(StockMarket original, StockMarket restored, AccountEngine engine,
+                               AccountEngine restoredEngine) {
+        if (engine.totalCashCents() != restoredEngine.totalCashCents()) {
+            throw new AssertionError("Account cash differs after restore");
+        }
+        original.tick();
+        restored.tick();
+        MarketSnapshot expected = original.getSnapshot();
+        MarketSnapshot actual = restored.getSnapshot();
+        if (expected.size() != actual.size() || expected.getEpoch() != actual.getEpoch()) {
+            throw new AssertionError("Restored market has a different universe or epoch");
+        }
+        for (int id = 0; id < expected.size(); id++) {
+            if (expected.getPriceCents(id) != actual.getPriceCents(id)) {
+                throw new AssertionError("Restored market diverged at symbol " + expected.getSymbol(id));
+            }
+        }
+    }
+}
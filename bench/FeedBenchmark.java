@@ -0,0 +1,185 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Connects many WebSocket viewers to a MarketDataServer fed by a market and
+// measures, with the Bench harness, what one market tick costs with that
+// audience attached (one op is a tick published to the server; the viewers'
+// sockets are drained between ticks on the same thread). Over the measured
+// iterations it also reports frames and bytes delivered. A share of the
+// viewers are slow (they only read every 100ms, so the server sees full socket
+// buffers); conflation should keep their backlog bounded while fast viewers
+// keep receiving every frame.
+//
+//   javac -d bin *.java bench/*.java
+//   java -cp bin FeedBenchmark [clients] [symbols] [slow fraction]
+public class FeedBenchmark {
+    private static final long SLOW_READ_NANOS = 100_000_000L;
+    // Viewer sockets are drained once per this many ticks
+    private static final int TICKS_PER_READ = 16;
+
+    private static final class Viewer {
+        final SocketChannel channel;
+        final boolean slow;
+        ByteBuffer in;
+        boolean upgraded;
+        long frames;
+        long bytes;
+
+        Viewer(SocketChannel channel, boolean slow) {
+            this.channel = channel;
+            this.slow = slow;
+            this.in = ByteBuffer.allocate(64 * 1024);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int symbols = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        double slowFraction = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+
+        StockMarket market = new StockMarket(42L, false);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock(String.format("S%05d", i), 50.0 + i % 200);
+        }
+        MarketDataServer server = new MarketDataServer(0, Paths.get("."));
+        market.addObserver(server);
+        server.onMarketUpdate(market.getSnapshot());
+        server.start();
+
+        Selector selector = Selector.open();
+        List<Viewer> viewers = new ArrayList<>();
+        byte[] handshake = ("GET /feed HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+            + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < clients; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+            channel.write(ByteBuffer.wrap(handshake));
+            channel.configureBlocking(false);
+            Viewer viewer = new Viewer(channel, i < clients * slowFraction);
+            channel.register(selector, viewer.slow ? 0 : SelectionKey.OP_READ, viewer);
+            viewers.add(viewer);
+        }
+        System.out.printf("%d viewers (%d slow), %d symbols%n", clients, (int) (clients * slowFraction), symbols);
+
+        long[] measureStart = new long[1];
+        long[] nextSlowRead = {System.nanoTime()};
+        Bench.Result result;
+        try {
+            result = Bench.measure("feed.tick", clients + "x" + symbols, new Bench.Body() {
+                @Override
+                public void startMeasurement() {
+                    for (Viewer viewer : viewers) {
+                        viewer.frames = 0;
+                        viewer.bytes = 0;
+                    }
+                    measureStart[0] = System.nanoTime();
+                }
+
+                @Override
+                public long run(int ops) {
+                    try {
+                        for (int i = 0; i < ops; i++) {
+                            market.tick();
+                            if (i % TICKS_PER_READ == 0) {
+                                drain(selector, viewers, nextSlowRead);
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return market.getSnapshot().getEpoch();
+                }
+            });
+        } finally {
+            server.stop();
+        }
+        double elapsed = (System.nanoTime() - measureStart[0]) / 1e9;
+
+        Bench.printHeader(false);
+        Bench.print(result, null);
+        report("fast", viewers, false, elapsed);
+        report("slow", viewers, true, elapsed);
+    }
+
+    // Reads whatever the fast viewers have waiting, and the slow ones every SLOW_READ_NANOS
+    private static void drain(Selector selector, List<Viewer> viewers, long[] nextSlowRead) throws IOException {
+        selector.selectNow();
+        for (SelectionKey key : selector.selectedKeys()) {
+            read((Viewer) key.attachment());
+        }
+        selector.selectedKeys().clear();
+        if (System.nanoTime() >= nextSlowRead[0]) {
+            nextSlowRead[0] = System.nanoTime() + SLOW_READ_NANOS;
+            for (Viewer viewer : viewers) {
+                if (viewer.slow && viewer.channel.isOpen()) {
+                    read(viewer);
+                }
+            }
+        }
+    }
+
+    // Counts complete WebSocket messages; payloads are skipped
+    private static void read(Viewer viewer) throws IOException {
+        if (viewer.channel.read(viewer.in) < 0) {
+            viewer.channel.close();
+            return;
+        }
+        ByteBuffer in = viewer.in;
+        in.flip();
+        if (in.limit() == in.capacity()) {
+            // A message larger than the read window: grow it
+            viewer.in = ByteBuffer.allocate(in.capacity() * 2).put(in);
+            viewer.in.flip();
+            in = viewer.in;
+        }
+        if (!viewer.upgraded) {
+            String head = new String(in.array(), 0, in.limit(), StandardCharsets.ISO_8859_1);
+            int end = head.indexOf("\r\n\r\n");
+            if (end < 0) {
+                in.position(in.limit()).limit(in.capacity());
+                return;
+            }
+            viewer.upgraded = true;
+            in.position(end + 4);
+        }
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int code = in.get(start + 1) & 0x7f;
+            int header = code < 126 ? 2 : code == 126 ? 4 : 10;
+            if (in.remaining() < header) {
+                break;
+            }
+            long length = code < 126 ? code : code == 126 ? in.getShort(start + 2) & 0xffff : in.getLong(start + 2);
+            if (in.remaining() < header + length) {
+                break;
+            }
+            in.position(start + header + (int) length);
+            viewer.frames++;
+            viewer.bytes += header + length;
+        }
+        in.compact();
+    }
+
+    private static void report(String label, List<Viewer> viewers, boolean slow, double elapsed) {
+        long frames = 0;
+        long bytes = 0;
+        int count = 0;
+        for (Viewer viewer : viewers) {
+            if (viewer.slow == slow) {
+                frames += viewer.frames;
+                bytes += viewer.bytes;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        System.out.printf("%s viewers: %,d  frames/sec per viewer: %.1f  KB/sec per viewer: %.1f  total MB/sec: %.1f%n",
+            label, count, frames / elapsed / count, bytes / elapsed / count / 1024, bytes / elapsed / 1024 / 1024);
+    }
+}
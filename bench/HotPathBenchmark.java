@@ -0,0 +1,245 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Benchmarks the Stock, StockMarket and Portfolio hot paths with the Bench
+// harness. Every benchmark/param pair runs in its own forked JVM so JIT
+// profiles from one case cannot distort another.
+//
+//   ./build.sh bench [--filter text] [--baseline file] [--save file] [--no-fork]
+//   java -cp bin HotPathBenchmark [same options]
+//
+// --save writes the results as a CSV baseline; --baseline compares against one.
+public class HotPathBenchmark {
+    private static final long SEED = 42L;
+
+    // benchmark name -> params to run it with
+    private static final Map<String, String[]> CASES = new LinkedHashMap<>();
+
+    static {
+        CASES.put("stock.setPrice", new String[]{"-"});
+        CASES.put("market.tick", new String[]{"10", "1000", "100000", "1000000"});
+        CASES.put("market.tick+notify", new String[]{"10", "1000", "100000", "1000000"});
+        CASES.put("market.recordedTick+notify", new String[]{"1000", "100000", "1000000"});
+        CASES.put("portfolio.buySell", new String[]{"10", "1000", "100000"});
+        CASES.put("portfolio.calculateTotalValue", new String[]{"10", "1000", "100000"});
+        CASES.put("market.summary", new String[]{"10", "1000", "100000"});
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--case")) {
+            // Child JVM: run one case and report it on stdout
+            System.out.println("RESULT " + runCase(args[1], args[2]).toCsv());
+            return;
+        }
+
+        String filter = "";
+        Path baselineFile = null;
+        Path saveFile = null;
+        boolean fork = true;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter":
+                    filter = args[++i];
+                    break;
+                case "--baseline":
+                    baselineFile = Paths.get(args[++i]);
+                    break;
+                case "--save":
+                    saveFile = Paths.get(args[++i]);
+                    break;
+                case "--no-fork":
+                    fork = false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        Map<String, Bench.Result> baseline = baselineFile != null && Files.exists(baselineFile)
+            ? Bench.load(baselineFile) : Collections.emptyMap();
+
+        List<Bench.Result> results = new ArrayList<>();
+        Bench.printHeader(!baseline.isEmpty());
+        for (Map.Entry<String, String[]> entry : CASES.entrySet()) {
+            for (String param : entry.getValue()) {
+                String benchmark = entry.getKey();
+                if (!(benchmark + " " + param).contains(filter)) {
+                    continue;
+                }
+                Bench.Result result = fork ? runForked(benchmark, param) : runCase(benchmark, param);
+                results.add(result);
+                Bench.print(result, baseline.get(result.key()));
+            }
+        }
+        if (saveFile != null) {
+            Bench.save(saveFile, results);
+            System.out.println("Saved " + results.size() + " results to " + saveFile);
+        }
+    }
+
+    private static Bench.Result runForked(String benchmark, String param) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-Xmx4g"));
+        for (String property : new String[]{"bench.warmup", "bench.iterations", "bench.time"}) {
+            if (System.getProperty(property) != null) {
+                command.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+            HotPathBenchmark.class.getName(), "--case", benchmark, param));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+        String result = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = line.substring("RESULT ".length());
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Forked run of " + benchmark + " " + param + " failed");
+        }
+        return Bench.Result.fromCsv(result);
+    }
+
+    private static Bench.Result runCase(String benchmark, String param) {
+        switch (benchmark) {
+            case "stock.setPrice":
+                return Bench.measure(benchmark, param, stockSetPrice());
+            case "market.tick":
+                return Bench.measure(benchmark, param, marketTick(Integer.parseInt(param), false));
+            case "market.tick+notify":
+                return Bench.measure(benchmark, param, marketTick(Integer.parseInt(param), true));
+            case "market.recordedTick+notify":
+                return Bench.measure(benchmark, param, recordedTick(Integer.parseInt(param)));
+            case "portfolio.buySell":
+                return Bench.measure(benchmark, param, portfolioBuySell(Integer.parseInt(param)));
+            case "portfolio.calculateTotalValue":
+                return Bench.measure(benchmark, param, portfolioValue(Integer.parseInt(param)));
+            case "market.summary":
+                return Bench.measure(benchmark, param, marketSummary(Integer.parseInt(param)));
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    private static Bench.Body stockSetPrice() {
+        Stock stock = new Stock("AAPL", 150.0);
+        return ops -> {
+            for (int i = 0; i < ops; i++) {
+                stock.setPrice(150.0 + (i & 15) * 0.01);
+            }
+            return Double.doubleToRawLongBits(stock.getPrice());
+        };
+    }
+
+    private static StockMarket market(int symbols) {
+        StockMarket market = new StockMarket(SEED, false);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock(String.format("S%07d", i), 50.0 + i % 200);
+        }
+        return market;
+    }
+
+    // One op is one tick: updateStockPrices alone, or followed by notifyObservers
+    // publishing a snapshot to a single observer
+    private static Bench.Body marketTick(int symbols, boolean notify) {
+        StockMarket market = market(symbols);
+        long[] seen = new long[1];
+        if (notify) {
+            market.addObserver(snapshot -> seen[0] += snapshot.getChangedCount());
+        }
+        return ops -> {
+            for (int i = 0; i < ops; i++) {
+                market.tick();
+            }
+            return seen[0] + Double.doubleToRawLongBits(market.getStockPrice("S0000000"));
+        };
+    }
+
+    // One op is a recorded tick that moves RECORDED_TICK_SYMBOLS symbols and
+    // publishes a snapshot to a single observer, as in a replay where a tick
+    // touches a few symbols of a large universe
+    private static final int RECORDED_TICK_SYMBOLS = 16;
+
+    private static Bench.Body recordedTick(int symbols) {
+        StockMarket market = market(symbols);
+        long[] seen = new long[1];
+        market.addObserver(snapshot -> seen[0] += snapshot.getChangedCount());
+        int[] ids = new int[RECORDED_TICK_SYMBOLS];
+        double[] prices = new double[RECORDED_TICK_SYMBOLS];
+        long[] volumes = new long[RECORDED_TICK_SYMBOLS];
+        SplitMix64 random = new SplitMix64(SEED);
+        return ops -> {
+            for (int i = 0; i < ops; i++) {
+                for (int j = 0; j < RECORDED_TICK_SYMBOLS; j++) {
+                    ids[j] = random.nextInt(symbols);
+                    prices[j] = 50.0 + random.nextInt(10_000) * 0.01;
+                }
+                market.publishRecordedTick(i, RECORDED_TICK_SYMBOLS, ids, prices, volumes);
+            }
+            return seen[0];
+        };
+    }
+
+    // One op is a buy and a sell of one share in one of the held symbols.
+    // The portfolio is rebuilt before each iteration so its history stays bounded.
+    private static Bench.Body portfolioBuySell(int holdings) {
+        String[] symbols = new String[holdings];
+        for (int i = 0; i < holdings; i++) {
+            symbols[i] = String.format("S%07d", i);
+        }
+        return new Bench.Body() {
+            private Portfolio portfolio;
+
+            @Override
+            public void setupIteration() {
+                portfolio = new Portfolio(1e12);
+                for (String symbol : symbols) {
+                    portfolio.buyStock(symbol, 100, 50.0);
+                }
+            }
+
+            @Override
+            public long run(int ops) {
+                for (int i = 0; i < ops; i++) {
+                    String symbol = symbols[i % holdings];
+                    portfolio.buyStock(symbol, 1, 51.0);
+                    portfolio.sellStock(symbol, 1, 52.0);
+                }
+                return Double.doubleToRawLongBits(portfolio.getCashBalance());
+            }
+        };
+    }
+
+    private static Bench.Body portfolioValue(int holdings) {
+        StockMarket market = market(holdings);
+        Portfolio portfolio = new Portfolio(1e12);
+        for (int i = 0; i < holdings; i++) {
+            portfolio.buyStock(String.format("S%07d", i), 100, 50.0);
+        }
+        Map<String, Stock> stocks = market.getAllStocks();
+        return ops -> {
+            double total = 0;
+            for (int i = 0; i < ops; i++) {
+                total += portfolio.calculateTotalValue(stocks);
+            }
+            return Double.doubleToRawLongBits(total);
+        };
+    }
+
+    private static Bench.Body marketSummary(int symbols) {
+        StockMarket market = market(symbols);
+        market.tick();
+        return ops -> {
+            long length = 0;
+            for (int i = 0; i < ops; i++) {
+                length += market.getMarketSummary().length();
+            }
+            return length;
+        };
+    }
+}
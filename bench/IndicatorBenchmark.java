@@ -0,0 +1,111 @@
+import java.util.*;
+
+// Cost of streaming indicators: memory and registration time for a set of ten
+// indicators on every symbol, the cost of one price update with and without
+// them (bytes/op shows the update path does not allocate), and whole ticks of
+// the market's TickEngine with and without them.
+//
+//   javac -d bin *.java bench/*.java
+//   java -Xmx2g -cp bin IndicatorBenchmark [symbols]
+public class IndicatorBenchmark {
+    private static final long SEED = 42L;
+    private static final long TICK_NANOS = 2_000_000_000L;
+    private static final Indicators.Spec[] SPECS = {
+        Indicators.Spec.sma(20), Indicators.Spec.sma(50), Indicators.Spec.ema(12), Indicators.Spec.ema(26),
+        Indicators.Spec.ema(50), Indicators.Spec.rsi(14), Indicators.Spec.macd(12, 26, 9),
+        Indicators.Spec.bollinger(20, 2.0), Indicators.Spec.vwap(), Indicators.Spec.volatility(20)
+    };
+
+    public static void main(String[] args) {
+        int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        String param = symbols + "x" + SPECS.length;
+
+        PriceStore plain = createStore(symbols);
+        PriceStore withIndicators = createStore(symbols);
+        Indicators indicators = new Indicators();
+        withIndicators.setIndicators(indicators);
+        long start = System.nanoTime();
+        for (int id = 0; id < symbols; id++) {
+            for (Indicators.Spec spec : SPECS) {
+                indicators.add(id, spec);
+            }
+        }
+        long registered = System.nanoTime() - start;
+        long perSymbol = 0;
+        for (Indicators.Spec spec : SPECS) {
+            perSymbol += Indicators.bytesPerRegistration(spec);
+        }
+        System.out.printf("%,d symbols x %d indicators: registered in %.1f ms, %,d bytes per symbol, "
+                + "%.1f MB allocated (%.1f MB without spare capacity)%n",
+            symbols, SPECS.length, registered / 1e6, perSymbol, indicators.memoryBytes() / 1e6,
+            perSymbol * symbols / 1e6);
+
+        // Updates in a scattered order, as prices and trades arrive across the universe
+        int[] order = new int[1 << 20];
+        long[] prices = new long[order.length];
+        SplitMix64 random = new SplitMix64(SEED);
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(symbols);
+            prices[i] = 9_000 + random.nextInt(2_000);
+        }
+        int mask = order.length - 1;
+        List<Bench.Result> results = new ArrayList<>();
+        results.add(Bench.measure("setPriceCents.plain", param, ops -> {
+            for (int i = 0; i < ops; i++) {
+                plain.setPriceCents(order[i & mask], prices[i & mask]);
+            }
+            return plain.getPriceCents(0);
+        }));
+        results.add(Bench.measure("setPriceCents.indicators", param, ops -> {
+            for (int i = 0; i < ops; i++) {
+                withIndicators.setPriceCents(order[i & mask], prices[i & mask]);
+            }
+            return withIndicators.getPriceCents(0);
+        }));
+        results.add(Bench.measure("incrementVolume.indicators", param, ops -> {
+            for (int i = 0; i < ops; i++) {
+                withIndicators.incrementVolume(order[i & mask], 100);
+            }
+            return withIndicators.getVolume(0);
+        }));
+        Bench.printHeader(false);
+        for (Bench.Result result : results) {
+            Bench.print(result, null);
+        }
+
+        System.out.printf("%n%-12s %14s %14s%n", "ticks", "ms/tick", "ns/symbol");
+        tick("plain", plain, symbols);
+        tick("indicators", withIndicators, symbols);
+    }
+
+    private static PriceStore createStore(int symbols) {
+        PriceStore store = new PriceStore(symbols);
+        for (int i = 0; i < symbols; i++) {
+            store.add(String.format("S%06d", i), 100.0);
+        }
+        return store;
+    }
+
+    private static void tick(String name, PriceStore store, int symbols) {
+        TickEngine engine = new TickEngine(store, SEED);
+        try {
+            runFor(engine, TICK_NANOS / 2);
+            long start = System.nanoTime();
+            long ticks = runFor(engine, TICK_NANOS);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-12s %14.2f %14.2f%n", name, elapsed / 1e6 / ticks, (double) elapsed / ticks / symbols);
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private static long runFor(TickEngine engine, long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long ticks = 0;
+        while (System.nanoTime() < deadline) {
+            engine.tick();
+            ticks++;
+        }
+        return ticks;
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.*;
+import java.nio.file.*;
+
+// Measures TransactionJournal appends under each sync policy and the replay
+// of a Portfolio rebuilt from the journal, with the Bench harness. An append
+// op is one record; a replay op rebuilds the portfolio from a journal of the
+// given number of records.
+//
+//   java -cp bin JournalBenchmark [records]
+public class JournalBenchmark {
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] symbols = new String[500];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = "SYM" + i;
+        }
+
+        Path dir = Files.createTempDirectory("journal-bench");
+        try {
+            Bench.printHeader(false);
+            for (TransactionJournal.SyncPolicy policy : TransactionJournal.SyncPolicy.values()) {
+                Bench.print(append(dir.resolve(policy.name().toLowerCase() + ".journal"), policy, symbols), null);
+            }
+
+            Path file = dir.resolve("replay.journal");
+            try (TransactionJournal journal = new TransactionJournal(file, TransactionJournal.SyncPolicy.OS, 256)) {
+                for (int i = 0; i < records; i++) {
+                    write(journal, symbols, i);
+                }
+            }
+            Bench.print(Bench.measure("replay", String.valueOf(records), ops -> {
+                long cents = 0;
+                for (int i = 0; i < ops; i++) {
+                    try (TransactionJournal journal = new TransactionJournal(file)) {
+                        cents += new Portfolio(1_000_000.0, journal).getCashCents();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return cents;
+            }), null);
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // Every iteration starts from an empty journal so the file does not grow
+    // across the run; opening and the final sync on close are not timed
+    private static Bench.Result append(Path file, TransactionJournal.SyncPolicy policy, String[] symbols) {
+        TransactionJournal[] journal = new TransactionJournal[1];
+        int[] next = new int[1];
+        try {
+            return Bench.measure("append", policy.name(), new Bench.Body() {
+                @Override
+                public void setupIteration() {
+                    try {
+                        if (journal[0] != null) {
+                            journal[0].close();
+                        }
+                        Files.deleteIfExists(file);
+                        journal[0] = new TransactionJournal(file, policy, 256);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public long run(int ops) {
+                    try {
+                        for (int i = 0; i < ops; i++) {
+                            write(journal[0], symbols, next[0]++);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return journal[0].getRecordCount();
+                }
+            });
+        } finally {
+            try {
+                journal[0].close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Alternates buys and sells so the positions stay non-negative
+    private static void write(TransactionJournal journal, String[] symbols, int i) throws IOException {
+        byte side = (i & 1) == 0 ? TransactionJournal.SIDE_BUY : TransactionJournal.SIDE_SELL;
+        journal.append(symbols[(i >> 1) % symbols.length], side, 10, 10_000 + (i % 100), i);
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.*;
+
+// Cost of keeping the leaderboard current: noting a tick's changes (paid on
+// every tick), re-ranking the symbols that changed since the last query (a
+// rebuild at the end of a tick that changed many of them, otherwise paid by
+// the query), and reading the top and bottom N once up to date. For
+// comparison, the same top and bottom N of every ranking found by scanning
+// the whole market, which is what a query costs without the rankings.
+//
+//   javac -d bin *.java bench/*.java
+//   java -Xmx2g -cp bin LeaderboardBenchmark [symbols] [n]
+public class LeaderboardBenchmark {
+    private static final long SEED = 42L;
+
+    public static void main(String[] args) {
+        int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String param = symbols / 1000 + "k";
+
+        StockMarket market = new StockMarket(SEED, false);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock(String.format("S%06d", i), 20.0 + i % 480);
+        }
+        market.tick();
+        market.getStandings(n);
+        Leaderboard leaderboard = market.getLeaderboard();
+        SplitMix64 random = new SplitMix64(SEED);
+
+        List<Bench.Result> results = new ArrayList<>();
+        MarketSnapshot full = market.getSnapshot();
+        results.add(Bench.measure("onSnapshot.all", param, ops -> {
+            for (int i = 0; i < ops; i++) {
+                leaderboard.onSnapshot(full);
+            }
+            return full.getChangedCount();
+        }));
+        market.getStandings(n);
+        results.add(Bench.measure("standings.current", param + "/" + n, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += leaderboard.getStandings(n).getAdvancing();
+            }
+            return sum;
+        }));
+        results.add(Bench.measure("scan", param + "/" + n, ops -> {
+            long sum = 0;
+            MarketSnapshot current = market.getSnapshot();
+            for (int i = 0; i < ops; i++) {
+                sum += scan(current, n);
+            }
+            return sum;
+        }));
+        Bench.printHeader(false);
+        for (Bench.Result result : results) {
+            Bench.print(result, null);
+        }
+
+        // A tick that moved some of the symbols, then a query. Publishing is
+        // timed separately from the query, as it includes any rebuild
+        System.out.printf("%n%-28s %14s %14s %16s%n", "query after a tick", "us/publish", "us/query",
+            "ns/changed");
+        for (int changed : new int[] {100, symbols / 10, symbols}) {
+            int[] ids = new int[changed];
+            double[] prices = new double[changed];
+            long[] volumes = new long[changed];
+            int queries = Math.max(20, Math.min(2_000, 20_000_000 / symbols));
+            long published = 0;
+            long elapsed = 0;
+            for (int q = -queries / 4; q < queries; q++) {
+                MarketSnapshot current = market.getSnapshot();
+                int first = random.nextInt(symbols);
+                for (int i = 0; i < changed; i++) {
+                    int id = (first + i) % symbols;
+                    ids[i] = id;
+                    prices[i] = Math.max(1L, current.getPriceCents(id) + random.nextInt(21) - 10) / 100.0;
+                }
+                long publish = System.nanoTime();
+                market.publishRecordedTick(q, changed, ids, prices, volumes);
+                long start = System.nanoTime();
+                Bench.sink += leaderboard.getStandings(n).getDeclining();
+                if (q >= 0) {
+                    published += start - publish;
+                    elapsed += System.nanoTime() - start;
+                }
+            }
+            System.out.printf("%-28s %14.1f %14.1f %16.1f%n", String.format("%,d of %,d changed", changed, symbols),
+                published / 1e3 / queries, elapsed / 1e3 / queries, (double) elapsed / queries / changed);
+        }
+    }
+
+    // Top and bottom n of each ranking with bounded heaps over every symbol, plus breadth
+    private static long scan(MarketSnapshot snapshot, int n) {
+        long sum = 0;
+        for (Leaderboard.Metric metric : Leaderboard.Metric.values()) {
+            PriorityQueue<double[]> top = new PriorityQueue<>(n + 1, Comparator.comparingDouble(e -> e[0]));
+            PriorityQueue<double[]> bottom = new PriorityQueue<>(n + 1, Comparator.comparingDouble(e -> -e[0]));
+            for (int id = 0; id < snapshot.size(); id++) {
+                double value = metric == Leaderboard.Metric.VOLUME ? snapshot.getVolume(id)
+                    : metric == Leaderboard.Metric.MOVE ? Math.abs(snapshot.getChangePercent(id))
+                    : snapshot.getChangePercent(id);
+                if (top.size() < n || value > top.peek()[0]) {
+                    top.add(new double[] {value, id});
+                    if (top.size() > n) {
+                        top.poll();
+                    }
+                }
+                if (bottom.size() < n || value < bottom.peek()[0]) {
+                    bottom.add(new double[] {value, id});
+                    if (bottom.size() > n) {
+                        bottom.poll();
+                    }
+                }
+            }
+            sum += (long) top.peek()[1] + (long) bottom.peek()[1];
+        }
+        for (int id = 0; id < snapshot.size(); id++) {
+            if (snapshot.getChangePercent(id) > 0) {
+                sum++;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures MatchingEngine throughput with several trader threads submitting
+// concurrently, using the Bench harness (one op is one order; each batch is
+// split across the traders and ends when the engine has processed all of it),
+// and reports submit-to-match latency percentiles over the measured
+// iterations. Unpaced runs measure peak throughput, but latency then mostly
+// reflects queueing; pass a per-trader rate to measure latency below saturation.
+//
+//   java -cp bin MatchingBenchmark [symbols] [traders] [matchingThreads] [ordersPerSecPerTrader]
+public class MatchingBenchmark {
+    public static void main(String[] args) throws Exception {
+        int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int traders = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int matchingThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        long ratePerTrader = args.length > 3 ? Long.parseLong(args[3]) : 0L;
+        long intervalNanos = ratePerTrader > 0 ? 1_000_000_000L / ratePerTrader : 0L;
+
+        StockMarket market = new StockMarket(42L);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock("SYM" + i, 100.0);
+        }
+        String[] names = new String[symbols];
+        for (int i = 0; i < symbols; i++) {
+            names[i] = "SYM" + i;
+        }
+
+        MatchingEngine engine = new MatchingEngine(market, matchingThreads);
+        engine.setHouseLiquidity(false);
+        engine.start();
+
+        LatencyHistogram[] latency = {new LatencyHistogram("submit.to.match")};
+        LongAdder processed = new LongAdder();
+        LongAdder fills = new LongAdder();
+        MatchingEngine.OrderListener listener = new MatchingEngine.OrderListener() {
+            @Override
+            public void onFill(Order order, long shares, long priceCents) {
+                fills.increment();
+            }
+
+            @Override
+            public void onProcessed(Order order) {
+                if (order.getType() != Order.Type.CANCEL && order.getSubmitNanos() != 0) {
+                    latency[0].recordSince(order.getSubmitNanos());
+                }
+                processed.increment();
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(traders);
+        SplitMix64[] randoms = new SplitMix64[traders];
+        for (int t = 0; t < traders; t++) {
+            randoms[t] = new SplitMix64(1000L + t);
+        }
+        String param = symbols + "/" + traders + "x" + matchingThreads;
+        Bench.Result result;
+        try {
+            result = Bench.measure("matching.order", param, new Bench.Body() {
+                @Override
+                public void startMeasurement() {
+                    latency[0] = new LatencyHistogram("submit.to.match");
+                }
+
+                @Override
+                public long run(int ops) {
+                    long target = processed.sum() + ops;
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (int t = 0; t < traders; t++) {
+                        SplitMix64 random = randoms[t];
+                        int orders = ops / traders + (t < ops % traders ? 1 : 0);
+                        futures.add(pool.submit(() -> submit(engine, listener, random, names, orders, intervalNanos)));
+                    }
+                    try {
+                        for (Future<?> future : futures) {
+                            future.get();
+                        }
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    while (processed.sum() < target) {
+                        Thread.onSpinWait();
+                    }
+                    return fills.sum();
+                }
+            });
+        } finally {
+            pool.shutdown();
+            engine.stop();
+        }
+
+        LatencyHistogram.Snapshot s = latency[0].snapshot();
+        System.out.printf("symbols=%d traders=%d matchingThreads=%d fills=%d%n",
+            symbols, traders, matchingThreads, fills.sum());
+        Bench.printHeader(false);
+        Bench.print(result, null);
+        System.out.printf("latency us: p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f (n=%,d)%n",
+            s.getPercentile(50) / 1e3, s.getPercentile(90) / 1e3, s.getPercentile(99) / 1e3,
+            s.getPercentile(99.9) / 1e3, s.getMax() / 1e3, s.getCount());
+    }
+
+    private static void submit(MatchingEngine engine, MatchingEngine.OrderListener listener, SplitMix64 random,
+                               String[] names, int orders, long intervalNanos) {
+        long next = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            if (intervalNanos > 0) {
+                next += intervalNanos;
+                while (System.nanoTime() < next) {
+                    Thread.onSpinWait();
+                }
+            }
+            String symbol = names[random.nextInt(names.length)];
+            Order.Side side = random.nextBoolean() ? Order.Side.BUY : Order.Side.SELL;
+            long quantity = 1 + random.nextInt(100);
+            if (random.nextInt(10) == 0) {
+                engine.submitMarket(symbol, side, quantity, listener);
+            } else {
+                // Prices straddle 100.00 so roughly half of the limits cross
+                double price = 100.0 + (random.nextInt(21) - 10) / 100.0;
+                engine.submitLimit(symbol, side, price, quantity, listener);
+            }
+        }
+    }
+}
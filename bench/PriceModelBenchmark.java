@@ -0,0 +1,63 @@
+import java.util.*;
+
+// Measures every PriceModel with the Bench harness, both for the model's
+// batched step alone (one chunk-sized array, no store) and for a full
+// TickEngine tick including rounding and the writes back into the PriceStore.
+// One op steps or ticks the whole universe once, so ns/symbol is ns/op
+// divided by the symbol count.
+//
+//   javac -d bin *.java bench/*.java
+//   java -cp bin PriceModelBenchmark [symbols] [models...]
+public class PriceModelBenchmark {
+    private static final long SEED = 42L;
+
+    public static void main(String[] args) {
+        int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<String> models = args.length > 1
+            ? Arrays.asList(args).subList(1, args.length)
+            : Arrays.asList("random-walk", "gbm", "jump", "garch", "correlated");
+
+        System.out.printf("%d symbols, single thread%n", symbols);
+        Bench.printHeader(false);
+        for (String name : models) {
+            Bench.print(measureStep(name, PriceModel.create(name), symbols), null);
+            Bench.print(measureTick(name, PriceModel.create(name), symbols), null);
+        }
+    }
+
+    // Steps every chunk of the universe per op, resetting prices so they stay in range
+    private static Bench.Result measureStep(String name, PriceModel model, int symbols) {
+        model.ensureCapacity(symbols);
+        double[] prices = new double[TickEngine.CHUNK_SIZE];
+        double[] noise = new double[TickEngine.CHUNK_SIZE];
+        SplitMix64 random = new SplitMix64(SEED);
+        return Bench.measure("step." + name, String.valueOf(symbols), ops -> {
+            for (int i = 0; i < ops; i++) {
+                for (int from = 0; from < symbols; from += TickEngine.CHUNK_SIZE) {
+                    int count = Math.min(TickEngine.CHUNK_SIZE, symbols - from);
+                    Arrays.fill(prices, 0, count, 100.0);
+                    model.step(prices, noise, from, count, random);
+                }
+            }
+            return Double.doubleToLongBits(prices[0]);
+        });
+    }
+
+    private static Bench.Result measureTick(String name, PriceModel model, int symbols) {
+        PriceStore store = new PriceStore(symbols);
+        for (int i = 0; i < symbols; i++) {
+            store.add("SYM" + i, 100.0);
+        }
+        TickEngine engine = new TickEngine(store, SEED, model);
+        try {
+            return Bench.measure("tick." + name, String.valueOf(symbols), ops -> {
+                for (int i = 0; i < ops; i++) {
+                    engine.tick();
+                }
+                return store.getPriceCents(0);
+            });
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
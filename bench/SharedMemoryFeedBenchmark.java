@@ -0,0 +1,210 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.locks.LockSupport;
+
+// Latency and throughput of the shared-memory feed between two processes.
+// This JVM runs a market and publishes ticks into a SharedMemoryFeed; a
+// second JVM, started from the same class path, follows the file with a
+// busy-polling FeedReader and reports how long each tick took to arrive (from
+// the start of publishing it until its last price record was read), how many
+// records it read per second, and how many it missed by falling behind.
+//
+// It runs twice: paced at a fixed tick rate, then with ticks published as fast
+// as the market can produce them. Latency is measured with System.nanoTime in
+// both processes, which on Linux reads the same monotonic clock. With fewer
+// cores than the two busy processes need, the numbers are dominated by the
+// scheduler handing the CPU back and forth, not by the feed.
+//
+//   javac -d bin *.java bench/*.java
+//   java -cp bin SharedMemoryFeedBenchmark [symbols] [changed/tick] [ticks/sec] [seconds]
+public class SharedMemoryFeedBenchmark {
+    private static final long SEED = 42L;
+    private static final double WARMUP_SECONDS = 1.0;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--consume")) {
+            consume(Paths.get(args[1]));
+            return;
+        }
+        int symbols = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int changed = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 5.0;
+
+        publishCost(symbols, changed);
+        run(symbols, changed, rate, seconds);
+        run(symbols, changed, 0, seconds);
+    }
+
+    // Cost of writing one tick into the feed, in this process, with nobody reading
+    private static void publishCost(int symbols, int changed) throws IOException {
+        StockMarket market = createMarket(symbols);
+        Path file = Files.createTempFile("market", ".feed");
+        try {
+            SharedMemoryFeed feed = new SharedMemoryFeed(file, symbols);
+            // The first snapshot counts every symbol as changed
+            SplitMix64 random = new SplitMix64(SEED);
+            market.getSnapshot();
+            publish(market, random, changed, System.nanoTime());
+            MarketSnapshot snapshot = market.getSnapshot();
+            int records = snapshot.getChangedCount() + 1;
+            Bench.Result result = Bench.measure("SharedMemoryFeed.onMarketUpdate", symbols + "/" + (records - 1), ops -> {
+                for (int i = 0; i < ops; i++) {
+                    feed.onMarketUpdate(snapshot);
+                }
+                return feed.getSequence();
+            });
+            Bench.printHeader(false);
+            Bench.print(result, null);
+            System.out.printf("  %.1f ns per record%n%n", result.nsPerOp / records);
+            feed.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(int symbols, int changed, int rate, double seconds) throws Exception {
+        StockMarket market = createMarket(symbols);
+        Path file = Files.createTempFile("market", ".feed");
+        SharedMemoryFeed feed = new SharedMemoryFeed(file, symbols);
+        market.addObserver(feed);
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process consumer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            SharedMemoryFeedBenchmark.class.getName(), "--consume", file.toString())
+            .redirectErrorStream(true).start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(consumer.getInputStream()));
+        // The consumer says when it is following the feed
+        String line = output.readLine();
+        if (!"ready".equals(line)) {
+            throw new IOException("Consumer failed to start: " + line);
+        }
+
+        SplitMix64 random = new SplitMix64(SEED);
+        long interval = rate > 0 ? 1_000_000_000L / rate : 0L;
+        long start = System.nanoTime();
+        long end = start + (long) ((WARMUP_SECONDS + seconds) * 1e9);
+        long next = start;
+        long ticks = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            if (interval > 0) {
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+                next += interval;
+            }
+            publish(market, random, changed, now);
+            ticks++;
+        }
+        feed.close();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%s: %,d symbols, %,d changed per tick, %,.0f ticks/s published (%,.0f records/s)%n",
+            rate > 0 ? "paced" : "flat out", symbols, changed, ticks / elapsed, ticks * (changed + 1) / elapsed);
+        while ((line = output.readLine()) != null) {
+            System.out.println(line);
+        }
+        consumer.waitFor();
+        Files.deleteIfExists(file);
+        System.out.println();
+    }
+
+    private static StockMarket createMarket(int symbols) {
+        StockMarket market = new StockMarket(SEED, false);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock(String.format("S%05d", i), 20.0 + i % 480);
+        }
+        return market;
+    }
+
+    private static int[] ids = new int[0];
+    private static double[] prices = new double[0];
+    private static long[] volumes = new long[0];
+
+    private static void publish(StockMarket market, SplitMix64 random, int changed, long timeNanos) {
+        if (ids.length < changed) {
+            ids = new int[changed];
+            prices = new double[changed];
+            volumes = new long[changed];
+        }
+        MarketSnapshot snapshot = market.getSnapshot();
+        int symbols = snapshot.size();
+        int first = random.nextInt(symbols);
+        for (int i = 0; i < changed; i++) {
+            int id = (first + i) % symbols;
+            ids[i] = id;
+            prices[i] = Math.max(1L, snapshot.getPriceCents(id) + random.nextInt(11) - 5) / 100.0;
+            volumes[i] = 100;
+        }
+        market.publishRecordedTick(timeNanos, Math.min(changed, symbols), ids, prices, volumes);
+    }
+
+    // The consumer process: follows the feed until the producer closes it
+    private static void consume(Path file) throws IOException {
+        FeedReader reader = FeedReader.open(file);
+        LatencyHistogram latency = new LatencyHistogram("tick.latency");
+        long[] counts = new long[2]; // records, gaps
+        long[] tick = new long[2]; // time of the tick being read, price records still to come
+        long[] measureFrom = {System.nanoTime() + (long) (WARMUP_SECONDS * 1e9)};
+        FeedReader.Handler handler = new FeedReader.Handler() {
+            @Override
+            public void onTick(long epoch, long timeNanos, int priceCount) {
+                counts[0]++;
+                tick[0] = timeNanos;
+                tick[1] = priceCount;
+                if (priceCount == 0) {
+                    delivered();
+                }
+            }
+
+            @Override
+            public void onPrice(int symbolId, long priceCents, long volume) {
+                counts[0]++;
+                if (--tick[1] == 0) {
+                    delivered();
+                }
+            }
+
+            @Override
+            public void onGap(long sequence, long count) {
+                counts[1]++;
+                tick[1] = -1; // The rest of this tick is lost; wait for the next one
+            }
+
+            private void delivered() {
+                if (tick[0] >= measureFrom[0]) {
+                    latency.record(System.nanoTime() - tick[0]);
+                }
+            }
+        };
+        System.out.println("ready");
+        System.out.flush();
+
+        long start = System.nanoTime();
+        while (true) {
+            if (reader.poll(handler, 1024) == 0) {
+                if (reader.isClosed() && reader.poll(handler, Integer.MAX_VALUE) == 0) {
+                    break;
+                }
+                Thread.onSpinWait();
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        LatencyHistogram.Snapshot s = latency.snapshot();
+        System.out.printf("  consumer: %,.0f records/s read, %,d missed in %,d gaps, %,d symbols named%n",
+            counts[0] / elapsed, reader.getMissed(), counts[1], countSymbols(reader));
+        System.out.printf("  %-20s n=%,9d  mean %8.1f us  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %8.1f us%n",
+            latency.getName(), s.getCount(), s.getMean() / 1e3, s.getPercentile(50) / 1e3,
+            s.getPercentile(99) / 1e3, s.getPercentile(99.9) / 1e3, s.getMax() / 1e3);
+    }
+
+    private static int countSymbols(FeedReader reader) {
+        int count = 0;
+        while (reader.getSymbol(count) != null) {
+            count++;
+        }
+        return count;
+    }
+}
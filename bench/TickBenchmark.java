@@ -0,0 +1,51 @@
+import java.util.*;
+
+// Measures the cost of one TickEngine tick across universe sizes and thread
+// counts with the Bench harness; ns/op is per tick, so ns/symbol is ns/op
+// divided by the symbol count in the param.
+//
+//   javac -d bin *.java bench/*.java
+//   java -cp bin TickBenchmark [symbols...]
+public class TickBenchmark {
+    private static final long SEED = 42L;
+
+    public static void main(String[] args) {
+        int[] symbolCounts = {1_000, 10_000, 50_000, 100_000, 500_000};
+        if (args.length > 0) {
+            symbolCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                symbolCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Bench.printHeader(false);
+        for (int symbols : symbolCounts) {
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                Bench.print(run(symbols, threads), null);
+            }
+            if (Integer.bitCount(cores) != 1) {
+                Bench.print(run(symbols, cores), null);
+            }
+        }
+    }
+
+    private static Bench.Result run(int symbols, int threads) {
+        PriceStore store = new PriceStore(symbols);
+        for (int i = 0; i < symbols; i++) {
+            store.add("SYM" + i, 100.0);
+        }
+        TickEngine engine = new TickEngine(store, SEED);
+        engine.setParallelism(threads);
+        try {
+            return Bench.measure("engine.tick", symbols + "x" + threads + "t", ops -> {
+                for (int i = 0; i < ops; i++) {
+                    engine.tick();
+                }
+                return store.getPriceCents(0);
+            });
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Trigger latency with a large rule book: registers rules spread around the
+// current prices, then ticks the market under the Bench harness (one op is a
+// market tick plus the engine's check of the new snapshot, waiting until every
+// fired trigger has been delivered). Alongside ns/op it reports, over the
+// measured iterations, how long the check alone took per tick and, per
+// trigger, how long it took from the start of that check, and from the start
+// of the tick, until the listener ran on the delivery thread. Every fired rule
+// is replaced by a new one around the new price so the book stays at the same
+// size.
+//
+// For comparison, the same number of rules is also checked by a linear scan,
+// which is what a tick costs without the per-symbol sorted thresholds.
+//
+//   javac -d bin *.java bench/*.java
+//   java -Xmx2g -cp bin TriggerBenchmark [rules] [symbols]
+public class TriggerBenchmark {
+    private static final long SEED = 42L;
+    // Thresholds are placed up to this many basis points from the price, and
+    // prices move about VOLATILITY per tick, so a few hundred rules fire a tick
+    private static final int SPREAD_BPS = 500;
+    private static final double VOLATILITY = 0.001;
+
+    // Side measurements, replaced when the measured iterations start
+    private static final class Latencies {
+        final LatencyHistogram evaluate = new LatencyHistogram("evaluate");
+        final LatencyHistogram detectToDelivery = new LatencyHistogram("detect.to.delivery");
+        final LatencyHistogram tickToDelivery = new LatencyHistogram("tick.to.delivery");
+        final long firedBefore;
+
+        Latencies(long firedBefore) {
+            this.firedBefore = firedBefore;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rules = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int symbols = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        String param = rules + "/" + symbols;
+
+        StockMarket market = new StockMarket(SEED, false);
+        for (int i = 0; i < symbols; i++) {
+            market.addStock(String.format("S%05d", i), 20.0 + i % 480);
+        }
+        market.setPriceModel(new PriceModel.GeometricBrownianMotion(0.0, VOLATILITY));
+        String[] names = new String[symbols];
+        for (int i = 0; i < symbols; i++) {
+            names[i] = market.getSnapshot().getSymbol(i);
+        }
+
+        TriggerEngine engine = new TriggerEngine(market, null);
+        Latencies[] latencies = {new Latencies(0)};
+        AtomicLong tickStart = new AtomicLong();
+        AtomicLong delivered = new AtomicLong();
+        TriggerEngine.TriggerListener listener = trigger -> {
+            long now = System.nanoTime();
+            Latencies current = latencies[0];
+            current.detectToDelivery.record(now - trigger.getDetectedNanos());
+            current.tickToDelivery.record(now - tickStart.get());
+            delivered.incrementAndGet();
+        };
+
+        SplitMix64 random = new SplitMix64(SEED);
+        MarketSnapshot initial = market.getSnapshot();
+        long start = System.nanoTime();
+        for (int i = 0; i < rules; i++) {
+            addRule(engine, random, names, initial, random.nextInt(symbols), listener);
+        }
+        long queued = System.nanoTime();
+        engine.onMarketUpdate(initial);
+        long applied = System.nanoTime();
+        System.out.printf("%,d rules on %,d symbols: queued in %.1f ms, indexed in %.1f ms (%d active)%n",
+            rules, symbols, (queued - start) / 1e6, (applied - queued) / 1e6, engine.getActiveRules());
+
+        Bench.Result ticks = Bench.measure("tick+evaluate", param, new Bench.Body() {
+            @Override
+            public void startMeasurement() {
+                latencies[0] = new Latencies(engine.getFiredCount());
+            }
+
+            @Override
+            public long run(int ops) {
+                for (int i = 0; i < ops; i++) {
+                    market.tick();
+                    MarketSnapshot snapshot = market.getSnapshot();
+                    long tickBegin = System.nanoTime();
+                    tickStart.set(tickBegin);
+                    long before = engine.getFiredCount();
+                    engine.onMarketUpdate(snapshot);
+                    latencies[0].evaluate.recordSince(tickBegin);
+                    // Keep the book at its size, around the new prices
+                    for (long f = before; f < engine.getFiredCount(); f++) {
+                        addRule(engine, random, names, snapshot, random.nextInt(symbols), listener);
+                    }
+                    // One tick in flight at a time, as with a real tick rate
+                    waitFor(delivered, engine.getFiredCount());
+                }
+                return engine.getFiredCount();
+            }
+        });
+        Latencies measured = latencies[0];
+        long fired = engine.getFiredCount() - measured.firedBefore;
+        long measuredTicks = measured.evaluate.snapshot().getCount();
+        Bench.Result scan = linearScan(rules, symbols, param, market, random);
+        engine.shutdown();
+
+        System.out.printf("%,d measured ticks: %,d triggers fired (%.0f per tick)%n",
+            measuredTicks, fired, fired / (double) Math.max(1, measuredTicks));
+        Bench.printHeader(false);
+        Bench.print(ticks, null);
+        Bench.print(scan, null);
+        print(measured.evaluate);
+        print(measured.detectToDelivery);
+        print(measured.tickToDelivery);
+    }
+
+    private static void addRule(TriggerEngine engine, SplitMix64 random, String[] names, MarketSnapshot snapshot,
+                                int symbol, TriggerEngine.TriggerListener listener) {
+        long price = snapshot.getPriceCents(symbol);
+        long offset = Math.max(1L, price * (1 + random.nextInt(SPREAD_BPS)) / 10_000);
+        if (random.nextInt(2) == 0) {
+            engine.addAlert(names[symbol], TriggerEngine.Direction.AT_OR_ABOVE, price + offset, listener);
+        } else {
+            engine.addAlert(names[symbol], TriggerEngine.Direction.AT_OR_BELOW, Math.max(1L, price - offset), listener);
+        }
+    }
+
+    private static void waitFor(AtomicLong delivered, long count) {
+        while (delivered.get() < count) {
+            try {
+                Thread.sleep(0, 100_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void print(LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        System.out.printf("  %-20s n=%,9d  mean %8.1f us  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %8.1f us%n",
+            histogram.getName(), s.getCount(), s.getMean() / 1e3, s.getPercentile(50) / 1e3,
+            s.getPercentile(99) / 1e3, s.getPercentile(99.9) / 1e3, s.getMax() / 1e3);
+    }
+
+    // Checks every rule against its symbol's price: one pass over parallel
+    // arrays, the cheapest form such a scan can take. One op is one pass; the
+    // market ticks between iterations so the prices move
+    private static Bench.Result linearScan(int rules, int symbols, String param, StockMarket market,
+                                           SplitMix64 random) {
+        int[] symbol = new int[rules];
+        long[] threshold = new long[rules];
+        boolean[] above = new boolean[rules];
+        MarketSnapshot initial = market.getSnapshot();
+        for (int i = 0; i < rules; i++) {
+            symbol[i] = random.nextInt(symbols);
+            long price = initial.getPriceCents(symbol[i]);
+            long offset = Math.max(1L, price * (1 + random.nextInt(SPREAD_BPS)) / 10_000);
+            above[i] = random.nextInt(2) == 0;
+            threshold[i] = above[i] ? price + offset : Math.max(1L, price - offset);
+        }
+        MarketSnapshot[] snapshot = {initial};
+        return Bench.measure("linear.scan", param, new Bench.Body() {
+            @Override
+            public void setupIteration() {
+                market.tick();
+                snapshot[0] = market.getSnapshot();
+            }
+
+            @Override
+            public long run(int ops) {
+                long fired = 0;
+                for (int op = 0; op < ops; op++) {
+                    for (int i = 0; i < rules; i++) {
+                        long price = snapshot[0].getPriceCents(symbol[i]);
+                        if (above[i] ? price >= threshold[i] : price <= threshold[i]) {
+                            fired++;
+                        }
+                    }
+                }
+                return fired;
+            }
+        });
+    }
+}
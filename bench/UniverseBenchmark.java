@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Startup time of loading a generated universe file into a market, and the
+// per-call cost of symbol lookup and prefix/sector search once it is loaded.
+// Lookups are compared with the String-keyed maps PriceStore used before
+// SymbolTable; the keys are distinct String instances from the ones stored,
+// as they would be when symbols arrive from a file, order or socket.
+//
+//   javac -d bin *.java bench/*.java
+//   java -Xmx2g -cp bin UniverseBenchmark [symbols...]
+public class UniverseBenchmark {
+    private static final String[] SECTORS = {
+        "Technology", "Financials", "Health Care", "Energy", "Industrials", "Materials",
+        "Utilities", "Real Estate", "Consumer Staples", "Consumer Discretionary", "Communication Services"
+    };
+    private static final String[] EXCHANGES = {"NYSE", "NASDAQ", "LSE", "TSE"};
+    private static final int LOAD_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        List<Bench.Result> results = new ArrayList<>();
+        for (int size : sizes) {
+            Path file = Files.createTempFile("universe", ".csv");
+            try {
+                write(file, size);
+                SymbolUniverse universe = null;
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < LOAD_ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    universe = SymbolUniverse.load(file);
+                    StockMarket market = new StockMarket(42L, false);
+                    market.loadUniverse(universe);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%,d symbols (%.1f MB): load + index + add to market %.1f ms (best of %d)%n",
+                    size, Files.size(file) / 1e6, best / 1e6, LOAD_ROUNDS);
+                measure(results, universe, Integer.toString(size));
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+        Bench.printHeader(false);
+        for (Bench.Result result : results) {
+            Bench.print(result, null);
+        }
+    }
+
+    private static void write(Path file, int size) throws IOException {
+        SplitMix64 random = new SplitMix64(7L);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("symbol,sector,exchange,lotSize,price\n");
+            for (int i = 0; i < size; i++) {
+                out.write(symbol(i));
+                out.write(',');
+                out.write(SECTORS[random.nextInt(SECTORS.length)]);
+                out.write(',');
+                out.write(EXCHANGES[random.nextInt(EXCHANGES.length)]);
+                out.write(random.nextInt(4) == 0 ? ",100," : ",1,");
+                out.write(String.format(Locale.ROOT, "%.2f%n", 1.0 + random.nextInt(50_000) / 100.0));
+            }
+        }
+    }
+
+    // Ticker-like symbols of 3 to 5 letters, with a suffix once those run out
+    private static String symbol(int i) {
+        StringBuilder symbol = new StringBuilder();
+        int n = i;
+        do {
+            symbol.append((char) ('A' + n % 26));
+            n /= 26;
+        } while (n > 0 || symbol.length() < 3);
+        return symbol.reverse().toString();
+    }
+
+    private static void measure(List<Bench.Result> results, SymbolUniverse universe, String param) {
+        int size = universe.size();
+        StockMarket market = new StockMarket(42L, false);
+        market.loadUniverse(universe);
+        Map<String, Integer> hashMap = new HashMap<>(size * 2);
+        Map<String, Integer> concurrentMap = new ConcurrentHashMap<>(size * 2);
+        String[] keys = new String[size];
+        for (int id = 0; id < size; id++) {
+            hashMap.put(universe.getSymbol(id), id);
+            concurrentMap.put(universe.getSymbol(id), id);
+            keys[id] = new String(universe.getSymbol(id));
+            keys[id].hashCode();
+        }
+        // Lookups in a scattered order so they are not served from one cache line after another
+        int[] order = new int[size];
+        SplitMix64 random = new SplitMix64(11L);
+        for (int i = 0; i < size; i++) {
+            order[i] = random.nextInt(size);
+        }
+
+        results.add(Bench.measure("lookup.SymbolTable", param, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += market.idOf(keys[order[i % size]]);
+            }
+            return sum;
+        }));
+        results.add(Bench.measure("lookup.HashMap", param, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += hashMap.get(keys[order[i % size]]);
+            }
+            return sum;
+        }));
+        results.add(Bench.measure("lookup.ConcurrentHashMap", param, ops -> {
+            long sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += concurrentMap.get(keys[order[i % size]]);
+            }
+            return sum;
+        }));
+        results.add(Bench.measure("market.getStockPrice(String)", param, ops -> {
+            double sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += market.getStockPrice(keys[order[i % size]]);
+            }
+            return Double.doubleToRawLongBits(sum);
+        }));
+        results.add(Bench.measure("market.getStockPrice(int)", param, ops -> {
+            double sum = 0;
+            for (int i = 0; i < ops; i++) {
+                sum += market.getStockPrice(order[i % size]);
+            }
+            return Double.doubleToRawLongBits(sum);
+        }));
+
+        String[] prefixes = new String[26 * 26];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = "" + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+        }
+        results.add(Bench.measure("search.prefix2", param, ops -> {
+            long found = 0;
+            for (int i = 0; i < ops; i++) {
+                found += universe.search(prefixes[i % prefixes.length], -1).length;
+            }
+            return found;
+        }));
+        results.add(Bench.measure("search.prefix2+sector", param, ops -> {
+            long found = 0;
+            for (int i = 0; i < ops; i++) {
+                found += universe.search(prefixes[i % prefixes.length], i % SECTORS.length).length;
+            }
+            return found;
+        }));
+        String[] longPrefixes = new String[size];
+        for (int i = 0; i < size; i++) {
+            longPrefixes[i] = keys[order[i]].substring(0, Math.min(4, keys[order[i]].length()));
+        }
+        results.add(Bench.measure("search.prefix4", param, ops -> {
+            long found = 0;
+            for (int i = 0; i < ops; i++) {
+                found += universe.search(longPrefixes[i % size], -1).length;
+            }
+            return found;
+        }));
+    }
+}
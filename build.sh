@@ -1,10 +1,41 @@
 #!/bin/bash
+#
+#   ./build.sh              compile and run the simulator
+#   ./build.sh bench [...]  compile with the benchmarks and run HotPathBenchmark;
+#                           results are saved under bench/results/ and compared
+#                           with bench/baseline.csv when it exists
+#   ./build.sh baseline     run the benchmarks and save them as bench/baseline.csv
+#   ./build.sh test         compile and run the checks under test/
+
+set -e
+cd "$(dirname "$0")"
 
 # Create bin directory if it doesn't exist
 mkdir -p bin
 
-# Compile all Java files
-javac -d bin src/*.java
+case "$1" in
+    bench)
+        shift
+        javac -d bin *.java bench/*.java
+        mkdir -p bench/results
+        java -cp bin HotPathBenchmark --baseline bench/baseline.csv \
+            --save "bench/results/$(date +%Y%m%d-%H%M%S).csv" "$@"
+        ;;
+    baseline)
+        javac -d bin *.java bench/*.java
+        java -cp bin HotPathBenchmark --save bench/baseline.csv
+        ;;
+    test)
+        javac -d bin *.java test/*.java
+        for test in test/*.java; do
+            java -ea -cp bin "$(basename "$test" .java)"
+        done
+        ;;
+    *)
+        # Compile all Java files
+        javac -d bin *.java
 
-# Run the application
-java -cp bin Main
+        # Run the application
+        java -cp bin Main
+        ;;
+esac
@@ -1,19 +1,62 @@
+// Prices come from the Java StockMarket over the MarketDataServer WebSocket
+// feed, so the browser shows exactly what the engine simulates. The portfolio
+// is still a local paper-trading account priced from that feed.
+
+const MESSAGE_SYMBOLS = 1;
+const MESSAGE_PRICES = 2;
+
+class MarketFeed {
+    constructor(onSymbols, onPrices) {
+        this.onSymbols = onSymbols;
+        this.onPrices = onPrices;
+        this.connect();
+    }
+
+    connect() {
+        const protocol = location.protocol === 'https:' ? 'wss:' : 'ws:';
+        this.socket = new WebSocket(`${protocol}//${location.host}/feed`);
+        this.socket.binaryType = 'arraybuffer';
+        this.socket.onmessage = (event) => this.handle(new DataView(event.data));
+        // Reconnect after a pause if the server goes away
+        this.socket.onclose = () => setTimeout(() => this.connect(), 2000);
+    }
+
+    handle(view) {
+        const type = view.getUint8(0);
+        if (type === MESSAGE_SYMBOLS) {
+            const decoder = new TextDecoder();
+            const count = view.getUint32(1, true);
+            const symbols = [];
+            let offset = 5;
+            for (let i = 0; i < count; i++) {
+                const id = view.getUint32(offset, true);
+                const length = view.getUint8(offset + 4);
+                const bytes = new Uint8Array(view.buffer, view.byteOffset + offset + 5, length);
+                symbols[id] = decoder.decode(bytes);
+                offset += 5 + length;
+            }
+            this.onSymbols(symbols);
+        } else if (type === MESSAGE_PRICES) {
+            const count = view.getUint32(5, true);
+            let offset = 9;
+            for (let i = 0; i < count; i++) {
+                this.onPrices(
+                    view.getUint32(offset, true),
+                    view.getInt32(offset + 4, true) / 100,
+                    view.getInt32(offset + 8, true) / 100);
+                offset += 12;
+            }
+        }
+    }
+}
+
 class Stock {
-    constructor(symbol, price) {
+    constructor(id, symbol) {
+        this.id = id;
         this.symbol = symbol;
-        this.price = price;
-        this.previousClose = price;
+        this.price = 0;
         this.changePercent = 0;
-    }
-
-    updatePrice() {
-        const volatility = 0.02; // 2% base volatility
-        const movement = (Math.random() * 2 - 1) * volatility;
-        const marketSentiment = (Math.random() - 0.5) * 0.01;
-        
-        const newPrice = this.price * (1 + movement + marketSentiment);
-        this.price = Math.max(0.01, Math.round(newPrice * 100) / 100);
-        this.changePercent = ((this.price - this.previousClose) / this.previousClose) * 100;
+        this.row = null;
     }
 }
 
@@ -45,39 +88,12 @@ class Portfolio {
     }
 }
 
-class StockMarket {
-    constructor() {
-        this.stocks = new Map();
-        this.initializeStocks();
-    }
-
-    initializeStocks() {
-        const initialStocks = [
-            ['AAPL', 150.50],
-            ['GOOGL', 2750.25],
-            ['MSFT', 285.75],
-            ['AMZN', 3300.00],
-            ['TSLA', 850.25],
-            ['META', 330.50],
-            ['NFLX', 450.75],
-            ['NVDA', 420.25]
-        ];
-
-        for (const [symbol, price] of initialStocks) {
-            this.stocks.set(symbol, new Stock(symbol, price));
-        }
-    }
-
-    updatePrices() {
-        for (const stock of this.stocks.values()) {
-            stock.updatePrice();
-        }
-    }
-}
-
 class TradingSimulator {
     constructor() {
-        this.market = new StockMarket();
+        this.stocks = [];             // indexed by market symbol id
+        this.stocksBySymbol = new Map();
+        this.changed = new Set();     // ids updated since the last paint
+        this.framePending = false;
         this.portfolio = new Portfolio();
         this.cash = 10000.00;
         
@@ -86,35 +102,74 @@ class TradingSimulator {
         this.balanceElement = document.querySelector('#balance');
         this.portfolioValueElement = document.querySelector('#portfolio-value');
 
-        this.startSimulation();
+        this.feed = new MarketFeed(
+            (symbols) => this.setSymbols(symbols),
+            (id, price, changePercent) => this.setPrice(id, price, changePercent));
+    }
+
+    setSymbols(symbols) {
+        symbols.forEach((symbol, id) => {
+            if (!this.stocks[id]) {
+                const stock = new Stock(id, symbol);
+                this.stocks[id] = stock;
+                this.stocksBySymbol.set(symbol, stock);
+                stock.row = this.createMarketRow(stock);
+                this.marketTableBody.appendChild(stock.row);
+            }
+        });
+    }
+
+    setPrice(id, price, changePercent) {
+        const stock = this.stocks[id];
+        if (!stock) return;
+        stock.price = price;
+        stock.changePercent = changePercent;
+        this.changed.add(id);
+        this.scheduleFrame();
+    }
+
+    // Frames from the server may arrive faster than the page paints; repaint once per animation frame
+    scheduleFrame() {
+        if (this.framePending) return;
+        this.framePending = true;
+        requestAnimationFrame(() => {
+            this.framePending = false;
+            this.updateUI();
+        });
+    }
+
+    createMarketRow(stock) {
+        const row = document.createElement('tr');
+        row.innerHTML = `
+            <td>${stock.symbol}</td>
+            <td class="price"></td>
+            <td class="change"></td>
+            <td>
+                <button class="btn" onclick="simulator.showBuyDialog('${stock.symbol}')">
+                    Buy
+                </button>
+            </td>
+        `;
+        return row;
     }
 
     updateUI() {
-        // Update market table
-        this.marketTableBody.innerHTML = '';
-        for (const stock of this.market.stocks.values()) {
-            const row = document.createElement('tr');
-            row.innerHTML = `
-                <td>${stock.symbol}</td>
-                <td>$${stock.price.toFixed(2)}</td>
-                <td class="${stock.changePercent >= 0 ? 'positive' : 'negative'}">
-                    ${stock.changePercent.toFixed(2)}%
-                </td>
-                <td>
-                    <button class="btn" onclick="simulator.showBuyDialog('${stock.symbol}')">
-                        Buy
-                    </button>
-                </td>
-            `;
-            this.marketTableBody.appendChild(row);
+        // Update only the market rows whose prices changed
+        for (const id of this.changed) {
+            const stock = this.stocks[id];
+            const change = stock.row.querySelector('.change');
+            stock.row.querySelector('.price').textContent = `$${stock.price.toFixed(2)}`;
+            change.textContent = `${stock.changePercent.toFixed(2)}%`;
+            change.className = `change ${stock.changePercent >= 0 ? 'positive' : 'negative'}`;
         }
+        this.changed.clear();
 
         // Update portfolio table
         this.portfolioTableBody.innerHTML = '';
         let portfolioValue = 0;
 
         for (const [symbol, shares] of this.portfolio.holdings) {
-            const stock = this.market.stocks.get(symbol);
+            const stock = this.stocksBySymbol.get(symbol);
             if (stock) {
                 const value = shares * stock.price;
                 portfolioValue += value;
@@ -139,15 +194,8 @@ class TradingSimulator {
         this.portfolioValueElement.textContent = `Portfolio Value: $${portfolioValue.toFixed(2)}`;
     }
 
-    startSimulation() {
-        setInterval(() => {
-            this.market.updatePrices();
-            this.updateUI();
-        }, 2000);
-    }
-
     showBuyDialog(symbol) {
-        const stock = this.market.stocks.get(symbol);
+        const stock = this.stocksBySymbol.get(symbol);
         if (!stock) return;
 
         const shares = prompt(`Enter number of shares to buy ${symbol} at $${stock.price.toFixed(2)}:`);
@@ -171,7 +219,7 @@ class TradingSimulator {
     }
 
     showSellDialog(symbol) {
-        const stock = this.market.stocks.get(symbol);
+        const stock = this.stocksBySymbol.get(symbol);
         if (!stock) return;
 
         const currentShares = this.portfolio.getShares(symbol);
@@ -1,12 +0,0 @@
-import http.server
-import socketserver
-
-PORT = 8000
-
-Handler = http.server.SimpleHTTPRequestHandler
-
-print(f"Starting server at http://localhost:{PORT}")
-print("Press Ctrl+C to stop the server")
-
-with socketserver.TCPServer(("", PORT), Handler) as httpd:
-    httpd.serve_forever()
@@ -0,0 +1,69 @@
+// Checks that Account.buy and Account.sell reject trades whose value would
+// overflow a long or whose price is not positive, leaving the account as it was.
+//
+//   ./build.sh test
+public class AccountTest {
+    private static final int SYMBOL = 7;
+
+    public static void main(String[] args) {
+        overflowingBuyIsRejected();
+        overflowingSellThrowsWithoutChanges();
+        nonPositivePricesAreRejected();
+        nonPositiveSharesAreRejected();
+        System.out.println("AccountTest passed");
+    }
+
+    private static void overflowingBuyIsRejected() {
+        Account account = new Account(0, Money.ofDollars(1_000.00));
+        // 2^62 shares at 4 cents wraps to 0 with plain multiplication
+        check(!account.buy(SYMBOL, 1L << 62, 4), "a buy whose cost wraps must be rejected");
+        check(!account.buy(SYMBOL, Long.MAX_VALUE, 2), "a buy whose cost overflows must be rejected");
+        check(account.getCashCents() == 100_000, "a rejected buy must not change cash");
+        check(account.getShares(SYMBOL) == 0, "a rejected buy must not add shares");
+
+        check(account.buy(SYMBOL, 10, 10_000), "an affordable buy must succeed");
+        check(account.getCashCents() == 0, "cash after spending all of it");
+        check(!account.buy(SYMBOL, 1, 1), "a buy with no cash left must be rejected");
+    }
+
+    private static void overflowingSellThrowsWithoutChanges() {
+        Account account = new Account(0, 0);
+        account.restore(0, new int[] {SYMBOL}, new long[] {1L << 62}, 0, 1);
+        try {
+            account.sell(SYMBOL, 1L << 62, 4);
+            throw new AssertionError("a sell whose proceeds overflow must throw");
+        } catch (ArithmeticException expected) {
+            // The position and cash are checked below
+        }
+        check(account.getShares(SYMBOL) == 1L << 62, "a failed sell must not remove shares");
+        check(account.getCashCents() == 0, "a failed sell must not change cash");
+    }
+
+    private static void nonPositivePricesAreRejected() {
+        Account account = new Account(0, Money.ofDollars(1_000.00));
+        check(!account.buy(SYMBOL, 10, Money.ofDollars(0.0)), "a free buy must be rejected");
+        check(!account.buy(SYMBOL, 10, Money.ofDollars(-5.00)), "a negative-price buy must be rejected");
+        check(account.getShares(SYMBOL) == 0 && account.getCashCents() == 100_000,
+            "rejected buys must not change the account");
+
+        check(account.buy(SYMBOL, 10, 1_000), "buy at a positive price");
+        check(!account.sell(SYMBOL, 10, 0), "a sale for nothing must be rejected");
+        check(!account.sell(SYMBOL, 10, -1_000), "a negative-price sale must be rejected");
+        check(account.getShares(SYMBOL) == 10 && account.getCashCents() == 90_000,
+            "rejected sells must not change the account");
+    }
+
+    private static void nonPositiveSharesAreRejected() {
+        Account account = new Account(0, Money.ofDollars(1_000.00));
+        check(!account.buy(SYMBOL, 0, 100), "a buy of no shares must be rejected");
+        check(!account.buy(SYMBOL, -10, 100), "a buy of negative shares must be rejected");
+        check(!account.sell(SYMBOL, -10, 100), "a sale of negative shares must be rejected");
+        check(account.getCashCents() == 100_000, "rejected trades must not change cash");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
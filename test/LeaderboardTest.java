@@ -0,0 +1,97 @@
+import java.util.*;
+
+// Checks the leaderboard against a full sort of the published snapshot after
+// ticks that move every symbol (re-ranked by a rebuild at the end of the
+// tick), after small recorded ticks (re-ranked in place by the query), with
+// repeated queries in between and a symbol added part way.
+//
+//   ./build.sh test
+public class LeaderboardTest {
+    private static final int SYMBOLS = 2_000;
+
+    public static void main(String[] args) {
+        StockMarket market = new StockMarket(9L, false);
+        for (int i = 0; i < SYMBOLS; i++) {
+            market.addStock(String.format("S%04d", i), 10 + i % 90);
+        }
+        Random random = new Random(4);
+        int[] ids = new int[20];
+        double[] prices = new double[20];
+        long[] volumes = new long[20];
+        for (int t = 0; t < 300; t++) {
+            if (t == 150) {
+                market.addStock("LATE", 55.0);
+            }
+            if (t % 7 == 0) {
+                market.tick();
+            } else {
+                MarketSnapshot current = market.getPublishedSnapshot();
+                int count = 1 + random.nextInt(ids.length);
+                for (int i = 0; i < count; i++) {
+                    ids[i] = random.nextInt(SYMBOLS);
+                    prices[i] = Math.max(1, current.getPriceCents(ids[i]) + random.nextInt(41) - 20) / 100.0;
+                    volumes[i] = random.nextInt(3) * 100;
+                }
+                market.publishRecordedTick(t, count, ids, prices, volumes);
+            }
+            for (int query = 0; query < 2; query++) {
+                int n = query == 0 ? 1 + random.nextInt(30) : SYMBOLS * 2;
+                check(market, market.getStandings(n), n, t % 10 == 0 && query == 1, random);
+            }
+        }
+        System.out.println("LeaderboardTest passed");
+    }
+
+    private static void check(StockMarket market, Leaderboard.Standings standings, int n, boolean ranks,
+                              Random random) {
+        MarketSnapshot snapshot = standings.getSnapshot();
+        if (snapshot.getEpoch() != market.getPublishedSnapshot().getEpoch()) {
+            throw new AssertionError("standings are not of the latest snapshot");
+        }
+        int size = snapshot.size();
+        int advancing = 0;
+        int declining = 0;
+        for (int id = 0; id < size; id++) {
+            double change = snapshot.getChangePercent(id);
+            if (change > 0) {
+                advancing++;
+            } else if (change < 0) {
+                declining++;
+            }
+        }
+        if (advancing != standings.getAdvancing() || declining != standings.getDeclining()) {
+            throw new AssertionError("breadth " + standings.getAdvancing() + "/" + standings.getDeclining()
+                + ", expected " + advancing + "/" + declining);
+        }
+        for (Leaderboard.Metric metric : Leaderboard.Metric.values()) {
+            Integer[] order = new Integer[size];
+            for (int id = 0; id < size; id++) {
+                order[id] = id;
+            }
+            Arrays.sort(order, (a, b) -> {
+                int c = Double.compare(standings.getValue(metric, a), standings.getValue(metric, b));
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            int[] top = standings.getTop(metric);
+            int[] bottom = standings.getBottom(metric);
+            int length = Math.min(n, size);
+            if (top.length != length || bottom.length != length) {
+                throw new AssertionError(metric + ": " + top.length + " ids, expected " + length);
+            }
+            for (int i = 0; i < length; i++) {
+                if (bottom[i] != order[i] || top[i] != order[size - 1 - i]) {
+                    throw new AssertionError(metric + ": wrong id at position " + i);
+                }
+            }
+            if (ranks) {
+                for (int i = 0; i < 5; i++) {
+                    int position = random.nextInt(size);
+                    int rank = market.getLeaderboard().rankOf(metric, order[size - 1 - position]);
+                    if (rank != position) {
+                        throw new AssertionError(metric + ": rank " + rank + ", expected " + position);
+                    }
+                }
+            }
+        }
+    }
+}